@@ -17,19 +17,74 @@ CREATE TABLE IF NOT EXISTS "clanMember" (
     "id" SERIAL PRIMARY KEY,
     "verificationTime" TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     "nickname" TEXT NOT NULL,
-    "permission" TEXT NOT NULL DEFAULT 'MEMBER',
-    "locale" TEXT NOT NULL,
+    "permission" SMALLINT NOT NULL DEFAULT 1,
+    "locale" SMALLINT NOT NULL,
     "clanId" INT NOT NULL,
     "discordUserId" BIGINT NOT NULL
 );
 
+CREATE INDEX IF NOT EXISTS "clan_discordGuildId" ON "clan" ("discordGuildId");
+
+CREATE INDEX IF NOT EXISTS "clanMember_discordUserId_clanId" ON "clanMember" ("discordUserId", "clanId");
+
+CREATE UNIQUE INDEX IF NOT EXISTS "clanMember_clanId_discordUserId" ON "clanMember" ("clanId", "discordUserId");
+
+CREATE INDEX IF NOT EXISTS "clanMember_clanId_id" ON "clanMember" ("clanId", "id");
+
+CREATE INDEX IF NOT EXISTS "clanMember_clanId_verificationTime" ON "clanMember" ("clanId", "verificationTime", "id");
+
+CREATE INDEX IF NOT EXISTS "clanMember_clanId_nickname" ON "clanMember" ("clanId", "nickname", "id");
+
+CREATE INDEX IF NOT EXISTS "clanMember_clanId_permission" ON "clanMember" ("clanId", "permission", "id");
+
 CREATE TABLE IF NOT EXISTS "reverificationFeature" (
     "clanId" INT PRIMARY KEY,
     "numberOfDays" SMALLINT NOT NULL DEFAULT 90
 );
 
 CREATE TABLE IF NOT EXISTS "blockedUsers" (
-    "clanId" INT UNIQUE,
-    "discordUserId" BIGINT UNIQUE,
+    "clanId" INT NOT NULL,
+    "discordUserId" BIGINT NOT NULL,
     PRIMARY KEY ("clanId", "discordUserId")
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS "clanStats" (
+    "clanId" INT PRIMARY KEY,
+    "memberCount" INT NOT NULL DEFAULT 0,
+    "ownerCount" INT NOT NULL DEFAULT 0,
+    "coOwnerCount" INT NOT NULL DEFAULT 0,
+    "leaderShipCount" INT NOT NULL DEFAULT 0,
+    "regularCount" INT NOT NULL DEFAULT 0,
+    "blockedCount" INT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS "changeLog" (
+    "id" BIGSERIAL PRIMARY KEY,
+    "instanceId" TEXT NOT NULL,
+    "entityType" TEXT NOT NULL,
+    "entityId" BIGINT NOT NULL,
+    "createdAt" TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS "changeLog_createdAt" ON "changeLog" ("createdAt");
+
+CREATE TABLE IF NOT EXISTS "lease" (
+    "name" TEXT PRIMARY KEY,
+    "holder" TEXT NOT NULL,
+    "expiresAt" TIMESTAMP NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "auditLog" (
+    "id" BIGSERIAL PRIMARY KEY,
+    "createdAt" TIMESTAMP NOT NULL,
+    "action" TEXT NOT NULL,
+    "clanId" INT NOT NULL,
+    "clanMemberId" INT NOT NULL DEFAULT 0,
+    "discordUserId" BIGINT NOT NULL DEFAULT 0,
+    "oldPermission" SMALLINT,
+    "newPermission" SMALLINT
+);
+
+CREATE INDEX IF NOT EXISTS "auditLog_clanId_id" ON "auditLog" ("clanId", "id");
+
+CREATE INDEX IF NOT EXISTS "auditLog_discordUserId_id" ON "auditLog" ("discordUserId", "id");
\ No newline at end of file
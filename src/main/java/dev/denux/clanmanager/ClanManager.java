@@ -1,8 +1,22 @@
 package dev.denux.clanmanager;
 
 import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.audit.AuditLog;
+import dev.denux.clanmanager.core.events.ClanEventManager;
 import dev.denux.clanmanager.core.exceptions.ClanManagerException;
 import dev.denux.clanmanager.core.features.reverifications.ReverificationStateManager;
+import dev.denux.clanmanager.core.retention.RetentionJob;
+import dev.denux.clanmanager.core.retention.RetentionPolicy;
+import dev.denux.clanmanager.core.search.ClanSearchIndex;
+import dev.denux.clanmanager.core.search.ClanSearchResult;
+import dev.denux.clanmanager.core.search.SearchIndexedClanStore;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanMergeData;
+import dev.denux.clanmanager.core.store.ClanStats;
+import dev.denux.clanmanager.core.store.VerificationData;
+import dev.denux.clanmanager.internal.CmPermission;
+import dev.denux.clanmanager.internal.VerificationResult;
 import dev.denux.clanmanager.internal.entities.Clan;
 import dev.denux.clanmanager.internal.entities.ClanMember;
 import dev.denux.clanmanager.utils.CMChecks;
@@ -11,17 +25,16 @@ import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.interactions.DiscordLocale;
 import net.dv8tion.jda.internal.utils.JDALogger;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ClanManager {
     private static final Logger log = JDALogger.getLog(ClanManager.class);
@@ -33,132 +46,277 @@ public class ClanManager {
         config.setClanManager(this);
     }
 
+    /**
+     * Gets a clan if it exists. This costs a single lookup, repeated misses are answered from a short-lived negative cache.
+     * @param id The id of the clan.
+     * @return the clan or null if it does not exist.
+     * @see #getClanHandle(int)
+     */
     public @Nullable Clan getClan(int id) {
-        try {
-            new CMChecks(config).checkClan(id);
-        } catch (IllegalArgumentException e) {
-            log.debug(e.getMessage());
+        if (config.getClanStore().getClan(id) == null) {
+            log.debug("Clan with the id {} does not exist", id);
             return null;
         }
         return new Clan(config, id);
     }
 
+    /**
+     * Gets a clan without checking if it exists. Use this if the id was just read from the store.
+     * Methods of a clan that does not exist throw a {@link ClanManagerException}.
+     * @param id The id of the clan.
+     * @return the clan.
+     */
+    public @Nonnull Clan getClanHandle(int id) {
+        return new Clan(config, id);
+    }
+
     public @Nullable Clan getClanByVerificationCode(@Nonnull String code) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"id\" FROM \"clan\" WHERE \"verificationCode\" = ?");
-            pstm.setString(1, code);
-            ResultSet rs = pstm.executeQuery();
-            if(!rs.next()) {
-                return null;
-            }
-            return getClan(rs.getInt("id"));
-        } catch (SQLException exception) {
-            log.error("Error while getting clan by verification code", exception);
-            return null;
-        }
+        ClanData data = config.getClanStore().getClanByVerificationCode(code);
+        if (data == null) return null;
+        return new Clan(config, data.getId());
+    }
+
+    /**
+     * Gets the largest clans of a guild from their stats, without loading any members.
+     * @param guild The guild.
+     * @param limit The maximum amount of clans.
+     * @return the stats of the clans, largest first.
+     */
+    public @Nonnull List<ClanStats> getClanLeaderboard(@Nonnull Guild guild, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("The limit must be at least 1.");
+        return config.getClanStore().getClanStatsByGuild(guild.getIdLong(), limit);
     }
 
     public @Nonnull List<Clan> getAllClansFromAGuild(@Nonnull Guild guild) {
         List<Clan> clans = new ArrayList<>();
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"id\" FROM \"clan\" WHERE \"discordGuildId\" = ?");
-            pstm.setLong(1, guild.getIdLong());
-            ResultSet resultSet = pstm.executeQuery();
-            while (resultSet.next()) {
-                clans.add(getClan(resultSet.getInt(1)));
-            }
-        } catch (SQLException exception) {
-            log.error("Error while getting all clans from a guild", exception);
+        for (ClanData data : config.getClanStore().getClansByGuild(guild.getIdLong())) {
+            clans.add(new Clan(config, data.getId()));
         }
         return clans;
     }
 
+    /**
+     * Searches the clans of a guild by name and tag, e.g. for slash command autocomplete.
+     * Prefixes rank above substrings and small typos are tolerated.
+     * With {@link dev.denux.clanmanager.ClanManagerBuilder#enableClanSearch()} this doesn't touch the database,
+     * otherwise the clans of the guild are loaded with a single query.
+     * @param guild The guild.
+     * @param query The text the user typed.
+     * @param limit The maximum amount of results.
+     * @return the best matches, best first.
+     */
+    public @Nonnull List<ClanSearchResult> searchClans(@Nonnull Guild guild, @Nonnull String query, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("The limit must be at least 1.");
+        SearchIndexedClanStore store = config.getClanSearchStore();
+        if (store != null) return store.search(guild.getIdLong(), query, limit);
+        return ClanSearchIndex.of(config.getClanStore().getClansByGuild(guild.getIdLong())).search(query, limit);
+    }
+
+    /**
+     * Gets a clan member if it exists. This costs a single lookup, repeated misses are answered from a short-lived negative cache.
+     * @param id The id of the clan member.
+     * @return the clan member or null if it does not exist.
+     * @see #getClanMemberHandle(int)
+     */
     public @Nullable ClanMember getClanMember(int id) {
-        try {
-            new CMChecks(config).checkClanMember(id);
-        } catch (IllegalArgumentException e) {
-            log.debug(e.getMessage());
+        if (config.getClanStore().getClanMember(id) == null) {
+            log.debug("Clan member with the id {} does not exist", id);
             return null;
         }
         return new ClanMember(config, id);
     }
 
+    /**
+     * Gets a clan member without checking if it exists. Use this if the id was just read from the store.
+     * Methods of a clan member that does not exist throw a {@link ClanManagerException}.
+     * @param id The id of the clan member.
+     * @return the clan member.
+     */
+    public @Nonnull ClanMember getClanMemberHandle(int id) {
+        return new ClanMember(config, id);
+    }
+
     public @Nonnull List<ClanMember> getAllClanMembersByDiscordMember(@Nonnull Member member) {
-        List<ClanMember> clanMembers = new ArrayList<>();
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    "SELECT DISTINCT \"clanMember\".\"id\" FROM \"clanMember\", \"clan\" WHERE \"clanMember\".\"discordUserId\" = ? AND \"clan\".\"discordGuildId\" = ?", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            pstm.setLong(1, member.getIdLong());
-            pstm.setLong(2, member.getGuild().getIdLong());
-            ResultSet rs = pstm.executeQuery();
-            while (rs.next()) {
-                clanMembers.add(config.getClanManager().getClanMember(rs.getInt(1)));
-            }
-        } catch (SQLException exception) {
-            log.error("Error while getting all clan members by discord member", exception);
+        return getAllClanMembersByDiscordUser(member.getIdLong(), member.getGuild().getIdLong());
+    }
+
+    /**
+     * Gets all memberships of a discord user in the clans of a guild.
+     * @param discordUserId The id of the discord user.
+     * @param discordGuildId The id of the guild.
+     * @return the clan members of the user.
+     */
+    public @Nonnull List<ClanMember> getAllClanMembersByDiscordUser(long discordUserId, long discordGuildId) {
+        int[] ids = getClanMemberIdsByDiscordUser(discordUserId, discordGuildId);
+        List<ClanMember> clanMembers = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            clanMembers.add(new ClanMember(config, id));
         }
         return clanMembers;
     }
 
-    public int createClan(@Nonnull String name, @Nonnull String tag, @Nonnull String verificationCode, @Nonnull Guild guild, @Nonnull Member owner, @Nonnull TextChannel channel, @Nonnull Role leadershipRole, @Nonnull Role memberRole) {
-        new CMChecks(config).checkClanBeforeCreation(name, tag, verificationCode, guild, owner, channel, leadershipRole, memberRole);
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    "INSERT INTO \"clan\" (\"name\", \"tag\", \"verificationCode\", \"discordGuildId\", \"ownerId\", \"ownerUserId\", \"discordChannelId\",\"leaderShipRoleId\", \"memberRoleId\") VALUES (?, ?, ?, ?, ?, ?, ?, ?)", PreparedStatement.RETURN_GENERATED_KEYS);
-            pstm.setString(1, name);
-            pstm.setString(2, tag);
-            pstm.setString(3, verificationCode);
-            pstm.setLong(4, guild.getIdLong());
-            pstm.setLong(5, owner.getIdLong());
-            pstm.setLong(6, channel.getIdLong());
-            pstm.setLong(7, leadershipRole.getIdLong());
-            pstm.setLong(8, memberRole.getIdLong());
-            pstm.executeUpdate();
-            ResultSet rs = pstm.getGeneratedKeys();
-            if(!rs.next()) {
-                return -1;
+    /**
+     * Gets the ids of all memberships of a discord user in the clans of a guild.
+     * With {@link dev.denux.clanmanager.ClanManagerBuilder#enableMembershipIndex(int)} a hit doesn't allocate anything,
+     * the returned array must not be modified.
+     * @param discordUserId The id of the discord user.
+     * @param discordGuildId The id of the guild.
+     * @return the clan member ids of the user.
+     */
+    public @Nonnull int[] getClanMemberIdsByDiscordUser(long discordUserId, long discordGuildId) {
+        return config.getClanStore().getClanMemberIdsByUser(discordUserId, discordGuildId);
+    }
+
+    /**
+     * Joins a discord member to the clan of a verification code, with the locale of the guild.
+     * @param code The verification code of the clan.
+     * @param member The discord member to verify.
+     * @param nickname The nickname of the new clan member.
+     * @return the outcome of the verification.
+     * @see #verifyMember(String, Member, String, DiscordLocale)
+     */
+    public @Nonnull VerificationResult verifyMember(@Nonnull String code, @Nonnull Member member, @Nonnull String nickname) {
+        return verifyMember(code, member, nickname, member.getGuild().getLocale());
+    }
+
+    /**
+     * Joins a discord member to the clan of a verification code.
+     * Resolving the code, the blocklist and duplicate checks and the insert happen in a single transaction,
+     * the member role is added asynchronously afterwards.
+     * @param code The verification code of the clan.
+     * @param member The discord member to verify.
+     * @param nickname The nickname of the new clan member.
+     * @param locale The locale of the new clan member.
+     * @return the outcome of the verification.
+     */
+    public @Nonnull VerificationResult verifyMember(@Nonnull String code, @Nonnull Member member, @Nonnull String nickname, @Nonnull DiscordLocale locale) {
+        VerificationData data = config.getClanStore().verifyClanMember(code, member.getGuild().getIdLong(), new ClanMemberData(0,
+                new Timestamp(System.currentTimeMillis()), nickname, CmPermission.MEMBER, locale, 0, member.getIdLong()));
+        Clan clan = data.getClan() == null ? null : new Clan(config, data.getClan().getId());
+        ClanMember clanMember = data.getClanMember() == null ? null : new ClanMember(config, data.getClanMember().getId());
+        CompletableFuture<Void> roleUpdate = CompletableFuture.completedFuture(null);
+        if (data.getStatus() == VerificationResult.Status.VERIFIED) {
+            Role role = member.getGuild().getRoleById(data.getClan().getMemberRoleId());
+            if (role != null) {
+                roleUpdate = member.getGuild().addRoleToMember(member, role).submit();
+            } else {
+                log.warn("The member role of the clan {} does not exist anymore.", data.getClan().getId());
             }
-            int clanId = rs.getInt(1);
-            con.close();
-
-            Clan clan = getClan(clanId);
-            if (clan == null) throw new ClanManagerException("Clan not found directly after creation");
-            int cmId = clan.createClanMember(owner.getEffectiveName(), owner.getGuild().getLocale(), owner, true, true, true);
-            ClanMember clanMember = getClanMember(cmId);
-            if (clanMember == null) throw new ClanManagerException("Clan member not found directly after creation");
-            new CMUtils().updateMemberRoles(clanMember, true);
-            new CMUtils().updateLeadershipRole(clanMember, true);
-
-            return clanId;
-        } catch (SQLException exception) {
-            log.error("Error while creating clan", exception);
         }
-        return -1;
+        return new VerificationResult(data.getStatus(), clan, clanMember, roleUpdate);
+    }
+
+    /**
+     * Creates a clan and its owner in one transaction, so a failure never leaves a clan without an owner.
+     * The member and leadership roles are added to the owner afterwards.
+     * @return the id of the new clan.
+     * @throws IllegalArgumentException If one of the checks before the creation fails.
+     * @throws ClanManagerException If the clan could not be stored. Earlier versions returned -1 instead.
+     */
+    public int createClan(@Nonnull String name, @Nonnull String tag, @Nonnull String verificationCode, @Nonnull Guild guild, @Nonnull Member owner, @Nonnull TextChannel channel, @Nonnull Role leadershipRole, @Nonnull Role memberRole) {
+        new CMChecks(config).checkClanBeforeCreation(name, tag, verificationCode, guild, owner, channel, leadershipRole, memberRole);
+        ClanData clan = config.getClanStore().insertClanWithOwner(new ClanData(0, verificationCode, name, tag, 0, owner.getIdLong(),
+                guild.getIdLong(), leadershipRole.getIdLong(), memberRole.getIdLong(), channel.getIdLong()),
+                new ClanMemberData(0, new Timestamp(System.currentTimeMillis()), owner.getEffectiveName(), CmPermission.OWNER,
+                        guild.getLocale(), 0, owner.getIdLong()));
+
+        ClanMember clanMember = new ClanMember(config, clan.getOwnerId());
+        CMUtils utils = new CMUtils();
+        utils.updateMemberRoles(clanMember, owner, true);
+        utils.updateLeadershipRoles(clanMember, owner, true);
+        return clan.getId();
     }
 
     public void deleteClan(@Nonnull Clan clan) {
-        int clanId = clan.getId();
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"clan\" WHERE \"id\" = ?");
-            pstm.setInt(1, clanId);
-            pstm.executeUpdate();
-
-            pstm = con.prepareStatement("DELETE FROM \"clanMember\" WHERE \"clanId\" = ?");
-            pstm.setInt(1, clanId);
-            pstm.executeUpdate();
-
-            pstm = con.prepareStatement("DELETE FROM \"reverificationFeature\" WHERE \"clanId\" = ?");
-            pstm.setInt(1, clanId);
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Error while deleting clan", exception);
+        config.getClanStore().deleteClan(clan.getId());
+    }
+
+    /**
+     * Merges a clan into another clan of the same guild and deletes it. The members keep their verification times
+     * and the blocklist moves along, all in one transaction. Members that are already in the target clan or blocked there
+     * are removed instead and the owner of the source clan becomes a co-owner.
+     * Only the roles that differ between the two clans are changed.
+     * @param source The clan to merge and delete.
+     * @param target The clan to merge into.
+     * @return the moved and removed clan members.
+     * @throws IllegalArgumentException If the clans are the same or belong to different guilds.
+     */
+    public @Nonnull ClanMergeData mergeClans(@Nonnull Clan source, @Nonnull Clan target) {
+        if (source.getId() == target.getId()) throw new IllegalArgumentException("A clan can't be merged into itself.");
+        if (source.getDiscordGuildId() != target.getDiscordGuildId()) throw new IllegalArgumentException("Only clans of the same guild can be merged.");
+        ClanMergeData result = config.getClanStore().mergeClans(source.getId(), target.getId());
+
+        ReverificationStateManager reverification = config.getReverificationManager();
+        if (reverification != null) {
+            int[] dropped = new int[result.getDropped().size()];
+            for (int i = 0; i < dropped.length; i++) {
+                dropped[i] = result.getDropped().get(i).getId();
+            }
+            reverification.cancelSchedules(dropped);
+            reverification.reschedule(target.getId(), result.getMoved());
+        }
+
+        Guild guild = config.getGuildById(result.getTarget().getDiscordGuildId());
+        if (guild == null) return result;
+        ClanData from = result.getSource();
+        ClanData to = result.getTarget();
+        boolean sameMemberRole = from.getMemberRoleId() == to.getMemberRoleId();
+        boolean sameLeaderShipRole = from.getLeaderShipRoleId() == to.getLeaderShipRoleId();
+        Role oldMemberRole = guild.getRoleById(from.getMemberRoleId());
+        Role newMemberRole = guild.getRoleById(to.getMemberRoleId());
+        Role oldLeaderShipRole = guild.getRoleById(from.getLeaderShipRoleId());
+        Role newLeaderShipRole = guild.getRoleById(to.getLeaderShipRoleId());
+        CMUtils utils = new CMUtils();
+        for (ClanMemberData member : result.getMoved()) {
+            if (!sameMemberRole) {
+                utils.updateRole(guild, member.getDiscordUserId(), oldMemberRole, false);
+                utils.updateRole(guild, member.getDiscordUserId(), newMemberRole, true);
+            }
+            if (!sameLeaderShipRole && member.getPermission().isAtLeast(CmPermission.LEADERSHIP)) {
+                utils.updateRole(guild, member.getDiscordUserId(), oldLeaderShipRole, false);
+                utils.updateRole(guild, member.getDiscordUserId(), newLeaderShipRole, true);
+            }
         }
+        // the removed members keep the roles of their membership in the target clan
+        for (ClanMemberData member : result.getDropped()) {
+            if (!sameMemberRole) utils.updateRole(guild, member.getDiscordUserId(), oldMemberRole, false);
+            if (!sameLeaderShipRole && member.getPermission().isAtLeast(CmPermission.LEADERSHIP)) {
+                utils.updateRole(guild, member.getDiscordUserId(), oldLeaderShipRole, false);
+            }
+        }
+        return result;
     }
 
     public @Nonnull ReverificationStateManager getReverificationStateManager() {
         return config.getReverificationManager();
     }
 
+    /**
+     * Gets the {@link ClanEventManager} listeners can be added to or removed from after the build.
+     * @return the event manager.
+     */
+    public @Nonnull ClanEventManager getEventManager() {
+        return config.getEventManager();
+    }
+
+    /**
+     * Gets the audit log with the history of clans and users.
+     * @return the audit log or null if it was not enabled.
+     * @see dev.denux.clanmanager.ClanManagerBuilder#enableAuditLog(int, java.time.Duration, int, AuditLog.OverflowPolicy)
+     */
+    public @Nullable AuditLog getAuditLog() {
+        return config.getAuditLog();
+    }
+
+    /**
+     * Gets the retention job, to run it right away or to read the report of its last run.
+     * @return the retention job or null if it was not enabled.
+     * @see dev.denux.clanmanager.ClanManagerBuilder#enableRetention(java.time.Duration, int, java.time.Duration, RetentionPolicy...)
+     */
+    public @Nullable RetentionJob getRetentionJob() {
+        return config.getRetentionJob();
+    }
+
     public @Nonnull ClanManagerConfig getConfig() {
         return config;
     }
@@ -4,9 +4,25 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import dev.denux.clanmanager.core.ClanManagerConfig;
 import dev.denux.clanmanager.core.SystemSetup;
+import dev.denux.clanmanager.core.audit.AuditLog;
+import dev.denux.clanmanager.core.events.ClanEventListener;
 import dev.denux.clanmanager.core.features.reverifications.BasicReverificationJob;
+import dev.denux.clanmanager.core.retention.RetentionPolicy;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.InMemoryClanStore;
+import dev.denux.clanmanager.core.store.JdbcClanStore;
+import dev.denux.clanmanager.core.store.ShardedClanStore;
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.sharding.ShardManager;
+
 import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.LongToIntFunction;
 
 /**
  * Build system to initialize a {@link ClanManager} instance.
@@ -20,6 +36,11 @@ public class ClanManagerBuilder {
         this.config.setJda(jda);
     }
 
+    private ClanManagerBuilder(@Nonnull ShardManager shardManager) {
+        this.config = new ClanManagerConfig();
+        this.config.setShardManager(shardManager);
+    }
+
     /**
      * Sets the {@link JDA} instance the manager will use.
      *
@@ -29,6 +50,16 @@ public class ClanManagerBuilder {
         return new ClanManagerBuilder(jda);
     }
 
+    /**
+     * Sets the {@link ShardManager} the manager will use. Guilds are resolved through the shard that owns them
+     * and the listeners are registered on every shard.
+     *
+     * @param shardManager The ShardManager to use.
+     */
+    public static ClanManagerBuilder setShardManager(@Nonnull ShardManager shardManager) {
+        return new ClanManagerBuilder(shardManager);
+    }
+
     /**
      * Sets the {@link HikariDataSource} instance the manager will use to connect to the database.
      *
@@ -39,9 +70,70 @@ public class ClanManagerBuilder {
     @Nonnull
     public ClanManagerBuilder setDataSource(@Nonnull HikariDataSource dataSource) {
         config.setDataSource(dataSource);
+        config.setCloseDataSourceOnShutdown(false);
+        return this;
+    }
+
+    /**
+     * Sets a read replica of the database. Getters, listings, blocklist checks and lookups by code are sent to it,
+     * everything else stays on the primary {@link HikariDataSource}.
+     * For the replica lag window after a write all reads go to the primary, so changes are seen right away.
+     *
+     * @param readDataSource The HikariDataSource of the replica.
+     * @param replicaLagWindow How long the replica may lag behind the primary.
+     * @see ClanManagerBuilder#setDataSource(HikariDataSource)
+     */
+    @Nonnull
+    public ClanManagerBuilder setReadDataSource(@Nonnull HikariDataSource readDataSource, @Nonnull Duration replicaLagWindow) {
+        if (replicaLagWindow.isNegative()) throw new IllegalArgumentException("The replica lag window can't be negative.");
+        config.setReadDataSource(readDataSource);
+        config.setReplicaLagWindow(replicaLagWindow);
+        return this;
+    }
+
+    /**
+     * Sets a read replica of the database with a replica lag window of two seconds.
+     *
+     * @param readDataSource The HikariDataSource of the replica.
+     * @see ClanManagerBuilder#setReadDataSource(HikariDataSource, Duration)
+     */
+    @Nonnull
+    public ClanManagerBuilder setReadDataSource(@Nonnull HikariDataSource readDataSource) {
+        config.setReadDataSource(readDataSource);
+        return this;
+    }
+
+    /**
+     * Partitions the clans by their guild over several databases. Each database gets the full schema,
+     * a clan is stored in the database of its guild together with its members.
+     * The ids contain the index of their database, so the order of the list must never change.
+     * Can't be combined with {@link #setDataSource(HikariDataSource)}, the change log or snapshots.
+     *
+     * @param dataSources The HikariDataSource instances of the shards, at most {@value ShardedClanStore#MAX_SHARDS}.
+     * @param shardFunction Maps a guild id to the index of its DataSource.
+     * @see ShardedClanStore
+     */
+    @Nonnull
+    public ClanManagerBuilder setShards(@Nonnull List<HikariDataSource> dataSources, @Nonnull LongToIntFunction shardFunction) {
+        if (dataSources.isEmpty() || dataSources.size() > ShardedClanStore.MAX_SHARDS) {
+            throw new IllegalArgumentException(String.format("Between 1 and %d shards are supported.", ShardedClanStore.MAX_SHARDS));
+        }
+        config.setShardDataSources(List.copyOf(dataSources));
+        config.setShardFunction(shardFunction);
         return this;
     }
 
+    /**
+     * Partitions the clans by their guild over several databases, spreading the guilds by their id.
+     *
+     * @param dataSources The HikariDataSource instances of the shards.
+     * @see ClanManagerBuilder#setShards(List, LongToIntFunction)
+     */
+    @Nonnull
+    public ClanManagerBuilder setShards(@Nonnull List<HikariDataSource> dataSources) {
+        return setShards(dataSources, ShardedClanStore.byGuildId(dataSources.size()));
+    }
+
     /**
      * Creates a default {@link HikariConfig} instance.
      *
@@ -54,7 +146,8 @@ public class ClanManagerBuilder {
         hikariConfig.setJdbcUrl(jdbcUrl);
         HikariDataSource dataSource = new HikariDataSource(hikariConfig);
         config.setDataSource(dataSource);
-        Runtime.getRuntime().addShutdownHook(new Thread(dataSource::close));
+        // closed at the end of the shutdown hook, after the audit log and the cleanup are done with it
+        config.setCloseDataSourceOnShutdown(true);
         return this;
     }
 
@@ -110,6 +203,234 @@ public class ClanManagerBuilder {
         return this;
     }
 
+    /**
+     * Sets the {@link ClanStore} the manager will use to persist its data.
+     * If no store is set, a {@link JdbcClanStore} on top of the configured DataSource is used.
+     * @param clanStore The ClanStore instance to use.
+     * @see ClanManagerBuilder#enableInMemoryStore()
+     */
+    @Nonnull
+    public ClanManagerBuilder setClanStore(@Nonnull ClanStore clanStore) {
+        config.setClanStore(clanStore);
+        return this;
+    }
+
+    /**
+     * Keeps all data in memory instead of a database.
+     * Nothing survives a restart, so this is only meant for tests and ephemeral deployments.
+     * No DataSource is needed when this is enabled.
+     * @see ClanManagerBuilder#setClanStore(ClanStore)
+     */
+    @Nonnull
+    public ClanManagerBuilder enableInMemoryStore() {
+        config.setClanStore(new InMemoryClanStore());
+        return this;
+    }
+
+    /**
+     * Keeps the clans of every guild the bot is in in memory.
+     * The index is warmed when a guild becomes ready, dropped when the bot leaves the guild
+     * and updated by every write, so guild scoped lookups don't hit the database anymore.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableGuildClanIndex() {
+        config.setUseGuildClanIndex(true);
+        return this;
+    }
+
+    /**
+     * Remembers the clan memberships of discord users per guild in memory,
+     * so {@link ClanManager#getClanMemberIdsByDiscordUser(long, long)} doesn't allocate or query on a hit.
+     * @param maxEntries The maximum amount of (guild, user) entries before the index is reset.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableMembershipIndex(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("The index must be able to hold at least one entry.");
+        config.setMembershipIndexSize(maxEntries);
+        return this;
+    }
+
+    /**
+     * Sets how long it is remembered that a clan or clan member id does not exist. Defaults to 5 seconds.
+     * @param ttl The time to live of a miss. {@link Duration#ZERO} disables the negative cache.
+     */
+    @Nonnull
+    public ClanManagerBuilder setNegativeCacheTtl(@Nonnull Duration ttl) {
+        if (ttl.isNegative()) throw new IllegalArgumentException("The time to live cannot be negative.");
+        config.setNegativeCacheTtl(ttl);
+        return this;
+    }
+
+    /**
+     * Sets if the guild, role and channel ids of the clans are cached. Disabled by default.
+     * The entries don't expire, they are dropped by the setters of the clan and when the role or channel is deleted.
+     * If several bots share one database, the change of another bot is only seen with {@link #enableChangeLog(Duration)}.
+     * @param enabled True to cache the ids.
+     */
+    @Nonnull
+    public ClanManagerBuilder setDiscordIdCacheEnabled(boolean enabled) {
+        config.setUseDiscordIdCache(enabled);
+        return this;
+    }
+
+    /**
+     * Lets only one of the instances sharing the database run the reverifications. The instances compete for a lease in the database,
+     * the holder renews it every third of the lease time and another instance takes over at most a lease time after the holder died.
+     * The holder learns about new clan members of the other instances through the change log, so {@link #enableChangeLog(Duration)} is required.
+     * @param leaseTime How long the lease stays valid without being renewed.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableReverificationLease(@Nonnull Duration leaseTime) {
+        if (leaseTime.toMillis() < 3) throw new IllegalArgumentException("The lease time is too short.");
+        config.setReverificationLeaseTime(leaseTime);
+        return this;
+    }
+
+    /**
+     * Recounts the clan stats in the interval and corrects counters that drifted. The counters are kept up to date
+     * with every change, so this only catches rows that were changed outside of the manager.
+     * @param interval How often the stats are verified.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableClanStatsVerification(@Nonnull Duration interval) {
+        if (interval.isZero() || interval.isNegative()) throw new IllegalArgumentException("The interval has to be positive.");
+        config.setClanStatsVerificationInterval(interval);
+        return this;
+    }
+
+    /**
+     * Deletes the rows of departed guilds, departed users and deleted clans in the interval. The tables are walked with keyset pagination
+     * and deleted in chunks with a pause after every chunk, so the job never holds locks for long.
+     * Every run reports how many rows it reclaimed, see {@link ClanManager#getRetentionJob()}.
+     * @param interval How often the policies are applied.
+     * @param chunkSize The maximum amount of rows scanned and deleted at once.
+     * @param pause How long to wait after every chunk.
+     * @param policies The kinds of rows to delete.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableRetention(@Nonnull Duration interval, int chunkSize, @Nonnull Duration pause, @Nonnull RetentionPolicy... policies) {
+        if (interval.isZero() || interval.isNegative()) throw new IllegalArgumentException("The interval has to be positive.");
+        if (chunkSize < 1) throw new IllegalArgumentException("The chunk size must be at least 1.");
+        if (pause.isNegative()) throw new IllegalArgumentException("The pause can't be negative.");
+        if (policies.length == 0) throw new IllegalArgumentException("At least one retention policy is required.");
+        config.setRetentionPolicies(EnumSet.copyOf(Arrays.asList(policies)));
+        config.setRetentionInterval(interval);
+        config.setRetentionChunkSize(chunkSize);
+        config.setRetentionPause(pause);
+        return this;
+    }
+
+    /**
+     * Deletes the memberships of users that leave a guild and of guilds the bot is removed from. The events are collected
+     * for the window and deleted together, so bursts of leaves cost one statement per guild. Clan owners are kept.
+     * Requires the {@code GUILD_MEMBERS} intent, otherwise JDA doesn't send the member leaves.
+     * @param window How long the events are collected before they are deleted.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableMemberCleanup(@Nonnull Duration window) {
+        if (window.isNegative()) throw new IllegalArgumentException("The window can't be negative.");
+        config.setMemberCleanupWindow(window);
+        return this;
+    }
+
+    /**
+     * Keeps a binary snapshot of the clan tables on disk, written in the interval and on shutdown.
+     * At startup the snapshot is reconciled with the change log and used instead of querying the clans of every guild
+     * and every clan member with reverification, so {@link #enableChangeLog(Duration)} is required.
+     * @param file The snapshot file.
+     * @param interval How often the snapshot is written.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableSnapshot(@Nonnull Path file, @Nonnull Duration interval) {
+        config.setSnapshotFile(file);
+        config.setSnapshotInterval(interval);
+        return this;
+    }
+
+    /**
+     * Keeps an in memory search index over the names and tags of the clans of every guild that was searched,
+     * so {@link ClanManager#searchClans(net.dv8tion.jda.api.entities.Guild, String, int)} answers autocomplete requests without a query.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableClanSearch() {
+        config.setUseClanSearch(true);
+        return this;
+    }
+
+    /**
+     * Records every write in a change log table and polls it for the writes of other instances.
+     * Use this when several bots share one database and caches like {@link #enableGuildClanIndex()} are enabled.
+     * @param pollInterval How often the change log is polled. This is the maximum staleness of the caches.
+     * @see ClanManagerBuilder#enableChangeLog(Duration, Duration)
+     */
+    @Nonnull
+    public ClanManagerBuilder enableChangeLog(@Nonnull Duration pollInterval) {
+        config.setChangeLogPollInterval(pollInterval);
+        return this;
+    }
+
+    /**
+     * Records every write in a change log table and polls it for the writes of other instances.
+     * @param pollInterval How often the change log is polled. This is the maximum staleness of the caches.
+     * @param retention How long entries are kept in the change log.
+     */
+    @Nonnull
+    public ClanManagerBuilder enableChangeLog(@Nonnull Duration pollInterval, @Nonnull Duration retention) {
+        if (retention.compareTo(pollInterval) <= 0) throw new IllegalArgumentException("The retention must be longer than the poll interval.");
+        config.setChangeLogPollInterval(pollInterval);
+        config.setChangeLogRetention(retention);
+        return this;
+    }
+
+    /**
+     * Registers listeners for clan, member, blocklist and reverification changes.
+     * Events are dispatched on a separate thread in batches.
+     * @param listeners The listeners to add.
+     * @see ClanManagerBuilder#setEventBatching(Duration, int)
+     */
+    @Nonnull
+    public ClanManagerBuilder addEventListeners(@Nonnull ClanEventListener... listeners) {
+        config.getEventListeners().addAll(Arrays.asList(listeners));
+        return this;
+    }
+
+    /**
+     * Records joins, leaves, permission changes and blocklist changes in the {@code auditLog} table.
+     * The entries come from the events, are buffered in memory and written in batches by a background thread,
+     * so the writes only wait for the audit log while the buffer is full and the policy blocks.
+     * Entries that are still buffered are not returned by the history queries yet.
+     * @param capacity The amount of entries the buffer holds.
+     * @param flushInterval How long an entry waits at most before it is written.
+     * @param flushSize The amount of entries written in one batch.
+     * @param overflowPolicy Whether a full buffer blocks the event dispatcher or drops entries.
+     * @see ClanManager#getAuditLog()
+     */
+    @Nonnull
+    public ClanManagerBuilder enableAuditLog(int capacity, @Nonnull Duration flushInterval, int flushSize, @Nonnull AuditLog.OverflowPolicy overflowPolicy) {
+        if (capacity < 1) throw new IllegalArgumentException("The capacity must be at least 1.");
+        if (flushSize < 1 || flushSize > capacity) throw new IllegalArgumentException("The flush size must be between 1 and the capacity.");
+        if (flushInterval.isZero() || flushInterval.isNegative()) throw new IllegalArgumentException("The flush interval has to be positive.");
+        config.setAuditLogCapacity(capacity);
+        config.setAuditLogFlushInterval(flushInterval);
+        config.setAuditLogFlushSize(flushSize);
+        config.setAuditLogOverflowPolicy(overflowPolicy);
+        return this;
+    }
+
+    /**
+     * Configures how events are collected into batches.
+     * Defaults to a window of 100 milliseconds and at most 100 events per batch.
+     * @param window How long to wait for more events after the first event of a batch.
+     * @param maxBatchSize The maximum amount of events per batch.
+     */
+    @Nonnull
+    public ClanManagerBuilder setEventBatching(@Nonnull Duration window, int maxBatchSize) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("The batch size must be at least 1.");
+        config.setEventBatchWindow(window);
+        config.setEventMaxBatchSize(maxBatchSize);
+        return this;
+    }
+
     /**
      * Returns a {@link ClanManager} instance that has been validated.
      * @return the built, usable {@link ClanManager}
@@ -120,16 +441,44 @@ public class ClanManagerBuilder {
             new SystemSetup(config).setupH2Database(hikariConfig);
         }
 
-        if (config.getJda() == null) throw new IllegalStateException("JDA instance is null");
-        if (config.getDataSource() == null) throw new IllegalStateException("DataSource instance is null");
-        if (config.getDataSource().getJdbcUrl().isEmpty() || config.getDataSource().getJdbcUrl().isBlank()) {
-            throw new IllegalArgumentException("You need to set a JDBC URL before building the ClanManager!");
+        if (config.getJda() == null && config.getShardManager() == null) throw new IllegalStateException("JDA instance is null");
+        if (config.getChangeLogPollInterval() != null && config.getDataSource() == null) {
+            throw new IllegalStateException("The change log needs a DataSource.");
+        }
+        if (config.getReverificationLeaseTime() != null && config.getChangeLogPollInterval() == null) {
+            throw new IllegalStateException("The reverification lease needs the change log.");
+        }
+        if (config.getSnapshotFile() != null && config.getChangeLogPollInterval() == null) {
+            throw new IllegalStateException("Snapshots need the change log.");
+        }
+        if (config.getAuditLogCapacity() > 0 && config.getDataSource() == null) {
+            throw new IllegalStateException("The audit log needs a DataSource.");
+        }
+        if (config.getShardDataSources() != null) {
+            if (config.getDataSource() != null || config.getReadDataSource() != null || config.getClanStore() != null) {
+                throw new IllegalStateException("Shards can't be combined with another DataSource or store.");
+            }
+            if (config.getChangeLogPollInterval() != null) throw new IllegalStateException("Shards can't be combined with the change log.");
+            List<JdbcClanStore> stores = new ArrayList<>();
+            for (HikariDataSource dataSource : config.getShardDataSources()) {
+                stores.add(new JdbcClanStore(config, dataSource, null));
+            }
+            config.setClanStore(new ShardedClanStore(stores, config.getShardFunction()));
         }
-        if (config.getQueries().isEmpty() || config.getQueries().isBlank() ||config.getQueries() == null) {
-            throw new IllegalArgumentException("You need to set a queries before building the ClanManager!");
+        if (config.getClanStore() == null) {
+            if (config.getDataSource() == null) throw new IllegalStateException("DataSource instance is null");
+            if (config.getDataSource().getJdbcUrl().isEmpty() || config.getDataSource().getJdbcUrl().isBlank()) {
+                throw new IllegalArgumentException("You need to set a JDBC URL before building the ClanManager!");
+            }
+            if (config.getQueries().isEmpty() || config.getQueries().isBlank() ||config.getQueries() == null) {
+                throw new IllegalArgumentException("You need to set a queries before building the ClanManager!");
+            }
+            config.setClanStore(new JdbcClanStore(config));
         }
 
+        // registers itself on the config, which the setup already needs
+        ClanManager clanManager = new ClanManager(config);
         new SystemSetup(config).init();
-        return new ClanManager(config);
+        return clanManager;
     }
 }
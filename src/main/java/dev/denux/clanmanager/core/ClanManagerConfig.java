@@ -2,21 +2,86 @@ package dev.denux.clanmanager.core;
 
 import com.zaxxer.hikari.HikariDataSource;
 import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.audit.AuditLog;
+import dev.denux.clanmanager.core.changelog.ChangeLogPoller;
+import dev.denux.clanmanager.core.events.ClanEventListener;
+import dev.denux.clanmanager.core.events.ClanEventManager;
 import dev.denux.clanmanager.core.features.reverifications.BasicReverificationJob;
 import dev.denux.clanmanager.core.features.reverifications.ReverificationJob;
 import dev.denux.clanmanager.core.features.reverifications.ReverificationStateManager;
+import dev.denux.clanmanager.core.listeners.MemberCleanupListener;
+import dev.denux.clanmanager.core.retention.RetentionJob;
+import dev.denux.clanmanager.core.retention.RetentionPolicy;
+import dev.denux.clanmanager.core.search.SearchIndexedClanStore;
+import dev.denux.clanmanager.core.snapshot.SnapshotManager;
+import dev.denux.clanmanager.core.sql.SqlSession;
+import dev.denux.clanmanager.core.stats.ClanStatsVerifier;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.DiscordIdCachingClanStore;
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.sharding.ShardManager;
 import org.hibernate.SessionFactory;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongToIntFunction;
+
 /**
  * Data class which contains the configuration for a single {@link ClanManager} instance.
  */
 public class ClanManagerConfig {
     private JDA jda;
+    private ShardManager shardManager;
     private boolean shouldLoadSchema = true;
     private boolean useOwnH2Database = false;
+    private boolean closeDataSourceOnShutdown = false;
+    private boolean useGuildClanIndex = false;
+    private int membershipIndexSize = 0;
+    private boolean useClanSearch = false;
+    private Duration negativeCacheTtl = Duration.ofSeconds(5);
+    private boolean useDiscordIdCache = false;
+    private DiscordIdCachingClanStore discordIdCache;
+    private Path snapshotFile;
+    private Duration snapshotInterval;
+    private SnapshotManager snapshotManager;
+    private SearchIndexedClanStore clanSearchStore;
     private HikariDataSource dataSource;
-    private SessionFactory sessionFactory;
+    private HikariDataSource readDataSource;
+    private Duration replicaLagWindow = Duration.ofSeconds(2);
+    private List<HikariDataSource> shardDataSources;
+    private LongToIntFunction shardFunction;
+    private ClanStore clanStore;
+    private Duration changeLogPollInterval;
+    private Duration changeLogRetention = Duration.ofHours(1);
+    private ChangeLogPoller changeLogPoller;
+    private String instanceId;
+    private Duration reverificationLeaseTime;
+    private Duration clanStatsVerificationInterval;
+    private ClanStatsVerifier clanStatsVerifier;
+    private Duration memberCleanupWindow;
+    private MemberCleanupListener memberCleanupListener;
+    private int auditLogCapacity;
+    private Duration auditLogFlushInterval;
+    private int auditLogFlushSize;
+    private AuditLog.OverflowPolicy auditLogOverflowPolicy;
+    private AuditLog auditLog;
+    private Set<RetentionPolicy> retentionPolicies;
+    private Duration retentionInterval;
+    private int retentionChunkSize;
+    private Duration retentionPause;
+    private RetentionJob retentionJob;
+    private final List<ClanEventListener> eventListeners = new ArrayList<>();
+    private Duration eventBatchWindow = Duration.ofMillis(100);
+    private int eventMaxBatchSize = 100;
+    private ClanEventManager eventManager;
+    private volatile SessionFactory sessionFactory;
     private ClanManager clanManager;
     private Class<? extends BasicReverificationJob> reverificationJobImpl = ReverificationJob.class;
     private ReverificationStateManager reverificationManager;
@@ -38,22 +103,77 @@ public class ClanManagerConfig {
                     "    \"id\" SERIAL PRIMARY KEY,\n" +
                     "    \"verificationTime\" TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,\n" +
                     "    \"nickname\" TEXT NOT NULL,\n" +
-                    "    \"permission\" TEXT NOT NULL DEFAULT 'MEMBER',\n" +
-                    "    \"locale\" TEXT NOT NULL,\n" +
+                    "    \"permission\" SMALLINT NOT NULL DEFAULT 1,\n" +
+                    "    \"locale\" SMALLINT NOT NULL,\n" +
                     "    \"clanId\" INT NOT NULL,\n" +
                     "    \"discordUserId\" BIGINT NOT NULL\n" +
                     ");\n" +
                     "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"clan_discordGuildId\" ON \"clan\" (\"discordGuildId\");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"clanMember_discordUserId_clanId\" ON \"clanMember\" (\"discordUserId\", \"clanId\");\n" +
+                    "\n" +
+                    "CREATE UNIQUE INDEX IF NOT EXISTS \"clanMember_clanId_discordUserId\" ON \"clanMember\" (\"clanId\", \"discordUserId\");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"clanMember_clanId_id\" ON \"clanMember\" (\"clanId\", \"id\");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"clanMember_clanId_verificationTime\" ON \"clanMember\" (\"clanId\", \"verificationTime\", \"id\");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"clanMember_clanId_nickname\" ON \"clanMember\" (\"clanId\", \"nickname\", \"id\");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"clanMember_clanId_permission\" ON \"clanMember\" (\"clanId\", \"permission\", \"id\");\n" +
+                    "\n" +
                     "CREATE TABLE IF NOT EXISTS \"reverificationFeature\" (\n" +
                     "    \"clanId\" INT PRIMARY KEY,\n" +
                     "    \"numberOfDays\" SMALLINT NOT NULL DEFAULT 90\n" +
                     ");\n" +
                     "\n" +
                     "CREATE TABLE IF NOT EXISTS \"blockedUsers\" (\n" +
-                    "    \"clanId\" INT UNIQUE,\n" +
-                    "    \"discordUserId\" BIGINT UNIQUE,\n" +
+                    "    \"clanId\" INT NOT NULL,\n" +
+                    "    \"discordUserId\" BIGINT NOT NULL,\n" +
                     "    PRIMARY KEY (\"clanId\", \"discordUserId\")\n" +
-                    ");";
+                    ");\n" +
+                    "\n" +
+                    "CREATE TABLE IF NOT EXISTS \"clanStats\" (\n" +
+                    "    \"clanId\" INT PRIMARY KEY,\n" +
+                    "    \"memberCount\" INT NOT NULL DEFAULT 0,\n" +
+                    "    \"ownerCount\" INT NOT NULL DEFAULT 0,\n" +
+                    "    \"coOwnerCount\" INT NOT NULL DEFAULT 0,\n" +
+                    "    \"leaderShipCount\" INT NOT NULL DEFAULT 0,\n" +
+                    "    \"regularCount\" INT NOT NULL DEFAULT 0,\n" +
+                    "    \"blockedCount\" INT NOT NULL DEFAULT 0\n" +
+                    ");\n" +
+                    "\n" +
+                    "CREATE TABLE IF NOT EXISTS \"changeLog\" (\n" +
+                    "    \"id\" BIGSERIAL PRIMARY KEY,\n" +
+                    "    \"instanceId\" TEXT NOT NULL,\n" +
+                    "    \"entityType\" TEXT NOT NULL,\n" +
+                    "    \"entityId\" BIGINT NOT NULL,\n" +
+                    "    \"createdAt\" TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP\n" +
+                    ");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"changeLog_createdAt\" ON \"changeLog\" (\"createdAt\");\n" +
+                    "\n" +
+                    "CREATE TABLE IF NOT EXISTS \"lease\" (\n" +
+                    "    \"name\" TEXT PRIMARY KEY,\n" +
+                    "    \"holder\" TEXT NOT NULL,\n" +
+                    "    \"expiresAt\" TIMESTAMP NOT NULL\n" +
+                    ");\n" +
+                    "\n" +
+                    "CREATE TABLE IF NOT EXISTS \"auditLog\" (\n" +
+                    "    \"id\" BIGSERIAL PRIMARY KEY,\n" +
+                    "    \"createdAt\" TIMESTAMP NOT NULL,\n" +
+                    "    \"action\" TEXT NOT NULL,\n" +
+                    "    \"clanId\" INT NOT NULL,\n" +
+                    "    \"clanMemberId\" INT NOT NULL DEFAULT 0,\n" +
+                    "    \"discordUserId\" BIGINT NOT NULL DEFAULT 0,\n" +
+                    "    \"oldPermission\" SMALLINT,\n" +
+                    "    \"newPermission\" SMALLINT\n" +
+                    ");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"auditLog_clanId_id\" ON \"auditLog\" (\"clanId\", \"id\");\n" +
+                    "\n" +
+                    "CREATE INDEX IF NOT EXISTS \"auditLog_discordUserId_id\" ON \"auditLog\" (\"discordUserId\", \"id\");";
 
 
     public boolean isUseOwnH2Database() {
@@ -64,6 +184,97 @@ public class ClanManagerConfig {
         this.useOwnH2Database = useOwnH2Database;
     }
 
+    /**
+     * @return True if the DataSource was created by the builder and is closed in the shutdown hook.
+     */
+    public boolean isCloseDataSourceOnShutdown() {
+        return closeDataSourceOnShutdown;
+    }
+
+    public void setCloseDataSourceOnShutdown(boolean closeDataSourceOnShutdown) {
+        this.closeDataSourceOnShutdown = closeDataSourceOnShutdown;
+    }
+
+    public boolean isUseGuildClanIndex() {
+        return useGuildClanIndex;
+    }
+
+    public void setUseGuildClanIndex(boolean useGuildClanIndex) {
+        this.useGuildClanIndex = useGuildClanIndex;
+    }
+
+    public int getMembershipIndexSize() {
+        return membershipIndexSize;
+    }
+
+    public void setMembershipIndexSize(int membershipIndexSize) {
+        this.membershipIndexSize = membershipIndexSize;
+    }
+
+    public boolean isUseClanSearch() {
+        return useClanSearch;
+    }
+
+    public void setUseClanSearch(boolean useClanSearch) {
+        this.useClanSearch = useClanSearch;
+    }
+
+    public SearchIndexedClanStore getClanSearchStore() {
+        return clanSearchStore;
+    }
+
+    public void setClanSearchStore(SearchIndexedClanStore clanSearchStore) {
+        this.clanSearchStore = clanSearchStore;
+    }
+
+    public Duration getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public void setNegativeCacheTtl(Duration negativeCacheTtl) {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    public boolean isUseDiscordIdCache() {
+        return useDiscordIdCache;
+    }
+
+    public void setUseDiscordIdCache(boolean useDiscordIdCache) {
+        this.useDiscordIdCache = useDiscordIdCache;
+    }
+
+    public DiscordIdCachingClanStore getDiscordIdCache() {
+        return discordIdCache;
+    }
+
+    public void setDiscordIdCache(DiscordIdCachingClanStore discordIdCache) {
+        this.discordIdCache = discordIdCache;
+    }
+
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public Duration getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public void setSnapshotInterval(Duration snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public SnapshotManager getSnapshotManager() {
+        return snapshotManager;
+    }
+
+    public void setSnapshotManager(SnapshotManager snapshotManager) {
+        this.snapshotManager = snapshotManager;
+    }
+
     public Class<? extends BasicReverificationJob> getReverificationJobImpl() {
         return reverificationJobImpl;
     }
@@ -112,6 +323,183 @@ public class ClanManagerConfig {
         this.jda = jda;
     }
 
+    /**
+     * @return the id of this instance in the change log or null if the change log is disabled.
+     */
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public Duration getReverificationLeaseTime() {
+        return reverificationLeaseTime;
+    }
+
+    public void setReverificationLeaseTime(Duration reverificationLeaseTime) {
+        this.reverificationLeaseTime = reverificationLeaseTime;
+    }
+
+    public Duration getClanStatsVerificationInterval() {
+        return clanStatsVerificationInterval;
+    }
+
+    public void setClanStatsVerificationInterval(Duration clanStatsVerificationInterval) {
+        this.clanStatsVerificationInterval = clanStatsVerificationInterval;
+    }
+
+    public ClanStatsVerifier getClanStatsVerifier() {
+        return clanStatsVerifier;
+    }
+
+    public void setClanStatsVerifier(ClanStatsVerifier clanStatsVerifier) {
+        this.clanStatsVerifier = clanStatsVerifier;
+    }
+
+    public Duration getMemberCleanupWindow() {
+        return memberCleanupWindow;
+    }
+
+    public void setMemberCleanupWindow(Duration memberCleanupWindow) {
+        this.memberCleanupWindow = memberCleanupWindow;
+    }
+
+    public MemberCleanupListener getMemberCleanupListener() {
+        return memberCleanupListener;
+    }
+
+    public void setMemberCleanupListener(MemberCleanupListener memberCleanupListener) {
+        this.memberCleanupListener = memberCleanupListener;
+    }
+
+    public int getAuditLogCapacity() {
+        return auditLogCapacity;
+    }
+
+    public void setAuditLogCapacity(int auditLogCapacity) {
+        this.auditLogCapacity = auditLogCapacity;
+    }
+
+    public Duration getAuditLogFlushInterval() {
+        return auditLogFlushInterval;
+    }
+
+    public void setAuditLogFlushInterval(Duration auditLogFlushInterval) {
+        this.auditLogFlushInterval = auditLogFlushInterval;
+    }
+
+    public int getAuditLogFlushSize() {
+        return auditLogFlushSize;
+    }
+
+    public void setAuditLogFlushSize(int auditLogFlushSize) {
+        this.auditLogFlushSize = auditLogFlushSize;
+    }
+
+    public AuditLog.OverflowPolicy getAuditLogOverflowPolicy() {
+        return auditLogOverflowPolicy;
+    }
+
+    public void setAuditLogOverflowPolicy(AuditLog.OverflowPolicy auditLogOverflowPolicy) {
+        this.auditLogOverflowPolicy = auditLogOverflowPolicy;
+    }
+
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    public Set<RetentionPolicy> getRetentionPolicies() {
+        return retentionPolicies;
+    }
+
+    public void setRetentionPolicies(Set<RetentionPolicy> retentionPolicies) {
+        this.retentionPolicies = retentionPolicies;
+    }
+
+    public Duration getRetentionInterval() {
+        return retentionInterval;
+    }
+
+    public void setRetentionInterval(Duration retentionInterval) {
+        this.retentionInterval = retentionInterval;
+    }
+
+    public int getRetentionChunkSize() {
+        return retentionChunkSize;
+    }
+
+    public void setRetentionChunkSize(int retentionChunkSize) {
+        this.retentionChunkSize = retentionChunkSize;
+    }
+
+    public Duration getRetentionPause() {
+        return retentionPause;
+    }
+
+    public void setRetentionPause(Duration retentionPause) {
+        this.retentionPause = retentionPause;
+    }
+
+    public RetentionJob getRetentionJob() {
+        return retentionJob;
+    }
+
+    public void setRetentionJob(RetentionJob retentionJob) {
+        this.retentionJob = retentionJob;
+    }
+
+    public ShardManager getShardManager() {
+        return shardManager;
+    }
+
+    public void setShardManager(ShardManager shardManager) {
+        this.shardManager = shardManager;
+    }
+
+    /**
+     * @return every JDA instance the manager works with, one per shard if a {@link ShardManager} is used.
+     */
+    @Nonnull
+    public List<JDA> getJdas() {
+        return shardManager != null ? shardManager.getShards() : List.of(jda);
+    }
+
+    /**
+     * Gets the JDA instance that owns the guild, without looking at the other shards.
+     * @param discordGuildId The id of the guild.
+     * @return the JDA instance or null if the shard of the guild is not running.
+     */
+    @Nullable
+    public JDA getJda(long discordGuildId) {
+        if (shardManager == null) return jda;
+        return shardManager.getShardById((int) ((discordGuildId >>> 22) % shardManager.getShardsTotal()));
+    }
+
+    /**
+     * @param discordGuildId The id of the guild.
+     * @return the guild or null if it is not cached by its shard.
+     */
+    @Nullable
+    public Guild getGuildById(long discordGuildId) {
+        JDA owner = getJda(discordGuildId);
+        return owner == null ? null : owner.getGuildById(discordGuildId);
+    }
+
+    /**
+     * Registers the listeners on the JDA instance or on every shard.
+     * @param listeners The listeners to register.
+     */
+    public void addEventListener(@Nonnull Object... listeners) {
+        if (shardManager != null) shardManager.addEventListener(listeners);
+        else jda.addEventListener(listeners);
+    }
+
     public HikariDataSource getDataSource() {
         return dataSource;
     }
@@ -120,7 +508,108 @@ public class ClanManagerConfig {
         this.dataSource = dataSource;
     }
 
+    public HikariDataSource getReadDataSource() {
+        return readDataSource;
+    }
+
+    public void setReadDataSource(HikariDataSource readDataSource) {
+        this.readDataSource = readDataSource;
+    }
+
+    public List<HikariDataSource> getShardDataSources() {
+        return shardDataSources;
+    }
+
+    public void setShardDataSources(List<HikariDataSource> shardDataSources) {
+        this.shardDataSources = shardDataSources;
+    }
+
+    public LongToIntFunction getShardFunction() {
+        return shardFunction;
+    }
+
+    public void setShardFunction(LongToIntFunction shardFunction) {
+        this.shardFunction = shardFunction;
+    }
+
+    public Duration getReplicaLagWindow() {
+        return replicaLagWindow;
+    }
+
+    public void setReplicaLagWindow(Duration replicaLagWindow) {
+        this.replicaLagWindow = replicaLagWindow;
+    }
+
+    public ClanStore getClanStore() {
+        return clanStore;
+    }
+
+    public void setClanStore(ClanStore clanStore) {
+        this.clanStore = clanStore;
+    }
+
+    public Duration getChangeLogPollInterval() {
+        return changeLogPollInterval;
+    }
+
+    public void setChangeLogPollInterval(Duration changeLogPollInterval) {
+        this.changeLogPollInterval = changeLogPollInterval;
+    }
+
+    public Duration getChangeLogRetention() {
+        return changeLogRetention;
+    }
+
+    public void setChangeLogRetention(Duration changeLogRetention) {
+        this.changeLogRetention = changeLogRetention;
+    }
+
+    public ChangeLogPoller getChangeLogPoller() {
+        return changeLogPoller;
+    }
+
+    public void setChangeLogPoller(ChangeLogPoller changeLogPoller) {
+        this.changeLogPoller = changeLogPoller;
+    }
+
+    public List<ClanEventListener> getEventListeners() {
+        return eventListeners;
+    }
+
+    public Duration getEventBatchWindow() {
+        return eventBatchWindow;
+    }
+
+    public void setEventBatchWindow(Duration eventBatchWindow) {
+        this.eventBatchWindow = eventBatchWindow;
+    }
+
+    public int getEventMaxBatchSize() {
+        return eventMaxBatchSize;
+    }
+
+    public void setEventMaxBatchSize(int eventMaxBatchSize) {
+        this.eventMaxBatchSize = eventMaxBatchSize;
+    }
+
+    public ClanEventManager getEventManager() {
+        return eventManager;
+    }
+
+    public void setEventManager(ClanEventManager eventManager) {
+        this.eventManager = eventManager;
+    }
+
+    /**
+     * Builds the session factory on first use, so startup doesn't pay for it when it is never needed.
+     * @return the session factory or null if there is no DataSource.
+     */
     public SessionFactory getSessionFactory() {
+        if (sessionFactory == null && dataSource != null) {
+            synchronized (this) {
+                if (sessionFactory == null) sessionFactory = SqlSession.buildSessionFactory();
+            }
+        }
         return sessionFactory;
     }
 
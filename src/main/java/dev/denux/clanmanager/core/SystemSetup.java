@@ -2,8 +2,33 @@ package dev.denux.clanmanager.core;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.core.audit.AuditLog;
+import dev.denux.clanmanager.core.changelog.ChangeLogClanStore;
+import dev.denux.clanmanager.core.changelog.ChangeLogPoller;
+import dev.denux.clanmanager.core.events.ClanEventManager;
+import dev.denux.clanmanager.core.events.EventClanStore;
 import dev.denux.clanmanager.core.features.reverifications.ReverificationStateManager;
-import dev.denux.clanmanager.core.sql.SqlSession;
+import dev.denux.clanmanager.core.listeners.DiscordIdCacheListener;
+import dev.denux.clanmanager.core.listeners.GuildClanIndexListener;
+import dev.denux.clanmanager.core.listeners.MemberCleanupListener;
+import dev.denux.clanmanager.core.retention.RetentionJob;
+import dev.denux.clanmanager.core.search.SearchIndexedClanStore;
+import dev.denux.clanmanager.core.snapshot.ClanSnapshot;
+import dev.denux.clanmanager.core.snapshot.SnapshotManager;
+import dev.denux.clanmanager.core.sql.SchemaMigrator;
+import dev.denux.clanmanager.core.stats.ClanStatsVerifier;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.DiscordIdCachingClanStore;
+import dev.denux.clanmanager.core.store.ForwardingClanStore;
+import dev.denux.clanmanager.core.store.GuildIndexedClanStore;
+import dev.denux.clanmanager.core.store.JdbcClanStore;
+import dev.denux.clanmanager.core.store.MembershipIndexedClanStore;
+import dev.denux.clanmanager.core.store.NegativeCachingClanStore;
+import dev.denux.clanmanager.core.store.ShardedClanStore;
+import dev.denux.clanmanager.utils.LongObjectMap;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.internal.utils.JDALogger;
 import org.h2.tools.Server;
 import org.slf4j.Logger;
@@ -11,8 +36,17 @@ import org.slf4j.Logger;
 import javax.annotation.Nonnull;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -20,31 +54,150 @@ import java.util.stream.Collectors;
  */
 public class SystemSetup {
     private final ClanManagerConfig config;
+    private final List<String> timings = new CopyOnWriteArrayList<>();
 
     public SystemSetup(@Nonnull ClanManagerConfig config) {
         this.config = config;
     }
 
     private final static Logger log = JDALogger.getLog(SystemSetup.class);
+    private static final int SETUP_THREADS = 8;
 
     /**
      * Setting up essential things for the manager.
+     * <p>
+     * The store decorators are set up one after another, warming the guild index and scheduling the reverifications
+     * run concurrently afterwards. Hibernate and Quartz are only started once they are needed.
      */
     public void init() {
         log.info("Initializing ClanManager...");
+        long start = System.nanoTime();
+        // the own H2 database runs the same sequence in its shutdown hook, before it is closed
+        if (!config.isUseOwnH2Database()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(config), "ClanManager-Shutdown"));
+        }
+
+        if (config.shouldLoadSchema() && config.getDataSource() != null) {
+            timed("Schema init", () -> initSchema(config.getDataSource()));
+        }
+        if (config.shouldLoadSchema() && config.getShardDataSources() != null) {
+            timed("Shard schema init", () -> config.getShardDataSources().forEach(this::initSchema));
+        }
+
+        ClanSnapshot snapshot = config.getSnapshotFile() != null ? timed("Snapshot setup", this::initSnapshot) : null;
+
+        if (config.getChangeLogPollInterval() != null) {
+            timed("Change log setup", this::initChangeLog);
+        }
+
+        if (config.getAuditLogCapacity() > 0) {
+            timed("Audit log setup", this::initAuditLog);
+        }
+
+        timed("Event setup", this::initEvents);
+
+        GuildIndexedClanStore guildIndex = null;
+        if (config.isUseGuildClanIndex()) {
+            guildIndex = new GuildIndexedClanStore(config.getClanStore());
+            config.setClanStore(guildIndex);
+        }
+
+        if (config.getMembershipIndexSize() > 0) {
+            config.setClanStore(new MembershipIndexedClanStore(config.getClanStore(), config.getMembershipIndexSize()));
+        }
+
+        if (!config.getNegativeCacheTtl().isZero()) {
+            config.setClanStore(new NegativeCachingClanStore(config.getClanStore(), config.getNegativeCacheTtl()));
+        }
 
-        if (config.shouldLoadSchema()) {
-            initSchema();
-            log.info("\t[*] Schema init done.");
+        if (config.isUseDiscordIdCache()) {
+            DiscordIdCachingClanStore store = new DiscordIdCachingClanStore(config.getClanStore());
+            config.setClanStore(store);
+            config.setDiscordIdCache(store);
+            config.addEventListener(new DiscordIdCacheListener(store));
         }
 
-        config.setReverificationManager(new ReverificationStateManager(config));
-        log.info("\t[*] Reverification setup done.");
+        if (config.isUseClanSearch()) {
+            SearchIndexedClanStore store = new SearchIndexedClanStore(config.getClanStore());
+            config.setClanStore(store);
+            config.setClanSearchStore(store);
+        }
+
+        List<CompletableFuture<?>> tasks = new ArrayList<>();
+        List<JDA> jdas = config.getJdas();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jdas.size() + 1, SETUP_THREADS), runnable -> {
+            Thread thread = new Thread(runnable, "ClanManager-Setup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (guildIndex != null) {
+            GuildIndexedClanStore store = guildIndex;
+            config.addEventListener(new GuildClanIndexListener(store));
+            LongObjectMap<List<ClanData>> clansByGuild = snapshot == null ? null : groupByGuild(snapshot);
+            // every shard warms its own guilds
+            for (JDA jda : jdas) {
+                tasks.add(CompletableFuture.runAsync(() -> timed("Guild clan index setup of shard " + jda.getShardInfo().getShardId(),
+                        () -> initGuildClanIndex(store, jda, clansByGuild)), executor));
+            }
+        }
+        tasks.add(CompletableFuture.runAsync(() -> timed("Reverification setup", () ->
+                config.setReverificationManager(new ReverificationStateManager(config, snapshot))), executor));
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) throw (RuntimeException) exception.getCause();
+            throw exception;
+        } finally {
+            executor.shutdown();
+        }
+
+        if (config.getSnapshotManager() != null) config.getSnapshotManager().start();
+        if (config.getClanStatsVerificationInterval() != null) {
+            ClanStatsVerifier verifier = new ClanStatsVerifier(config, config.getClanStatsVerificationInterval());
+            verifier.start();
+            config.setClanStatsVerifier(verifier);
+        }
+        if (config.getRetentionPolicies() != null) {
+            RetentionJob job = new RetentionJob(config, config.getRetentionPolicies(), config.getRetentionInterval(),
+                    config.getRetentionChunkSize(), config.getRetentionPause());
+            job.start();
+            config.setRetentionJob(job);
+        }
+        if (config.getMemberCleanupWindow() != null) {
+            MemberCleanupListener listener = new MemberCleanupListener(config, config.getMemberCleanupWindow());
+            config.addEventListener(listener);
+            config.setMemberCleanupListener(listener);
+        }
 
-        initSessionFactory();
-        log.info("Initialized the hibernate session-factory");
+        log.info("Finished initializing ClanManager in {} ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.debug("Startup phases:\n{}", String.join("\n", timings));
+    }
 
-        log.info("Finished initializing ClanManager.");
+    /**
+     * Runs a phase of the setup and records how long it took.
+     * @param phase The name of the phase.
+     * @param task The phase.
+     */
+    private void timed(@Nonnull String phase, @Nonnull Runnable task) {
+        timed(phase, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a phase of the setup and records how long it took.
+     * @param phase The name of the phase.
+     * @param task The phase.
+     * @return the result of the phase.
+     */
+    private <T> T timed(@Nonnull String phase, @Nonnull Supplier<T> task) {
+        long start = System.nanoTime();
+        T result = task.get();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        timings.add(String.format("\t%-24s %6d ms", phase, millis));
+        log.info("\t[*] {} done.", phase);
+        return result;
     }
 
     /**
@@ -62,31 +215,135 @@ public class SystemSetup {
         config.setDataSource(new HikariDataSource(hConfig));
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            shutdown(config);
             config.getDataSource().close();
             server.stop();
-        }));
+        }, "ClanManager-Shutdown"));
+    }
+
+    /**
+     * Stops every component in one shutdown hook. The JVM runs separate hooks concurrently,
+     * so each step has to finish before the next one starts: the member cleanup and the retention job fire events,
+     * the events end up in the audit log and the snapshot has to see the final state.
+     * Hands the reverification lease over right away instead of letting it expire, the threads of a sharded store stop last.
+     * @param config The config of the manager.
+     */
+    private static void shutdown(@Nonnull ClanManagerConfig config) {
+        if (config.getRetentionJob() != null) config.getRetentionJob().shutdown();
+        if (config.getMemberCleanupListener() != null) config.getMemberCleanupListener().shutdown();
+        if (config.getEventManager() != null) config.getEventManager().shutdown();
+        if (config.getAuditLog() != null) config.getAuditLog().shutdown();
+        if (config.getSnapshotManager() != null) config.getSnapshotManager().shutdown();
+        if (config.getReverificationManager() != null) config.getReverificationManager().shutdown();
+        ClanStore store = config.getClanStore();
+        while (store instanceof ForwardingClanStore) {
+            store = ((ForwardingClanStore) store).getDelegate();
+        }
+        if (store instanceof ShardedClanStore) ((ShardedClanStore) store).shutdown();
+        if (config.isCloseDataSourceOnShutdown()) config.getDataSource().close();
     }
 
     /**
      * Initializes the database schema.
+     * @param dataSource The database to initialize.
      */
-    private void initSchema() {
-        try(Connection con = config.getDataSource().getConnection()) {
+    private void initSchema(@Nonnull HikariDataSource dataSource) {
+        try(Connection con = dataSource.getConnection()) {
+            SchemaMigrator migrator = new SchemaMigrator(con);
+            migrator.migrate();
             List<String> queries = Arrays.stream(config.getQueries().split(";")).filter(s -> !s.isEmpty()).collect(Collectors.toList());
             log.debug("\t\t[*] Executing {} queries.", queries.size());
             for (String query : queries) {
                 log.debug("\t\t[*] Executing query {}/{} \n{}", queries.indexOf(query) + 1, queries.size(), query);
                 con.prepareStatement(query).executeUpdate();
             }
+            migrator.backfillClanStats();
         } catch (SQLException exception) {
             log.error("Could not set up the database.", exception);
         }
     }
 
     /**
-     * Builds and sets the {@link org.hibernate.SessionFactory}
+     * Loads the last snapshot. The final write happens in the shutdown hook.
+     * @return the reconciled snapshot or null if there is none.
+     */
+    private ClanSnapshot initSnapshot() {
+        SnapshotManager manager = new SnapshotManager(config, config.getSnapshotFile(), config.getSnapshotInterval());
+        config.setSnapshotManager(manager);
+        return manager.load();
+    }
+
+    /**
+     * Lets the store append its changes to the change log and starts polling the changes of other instances.
+     * A {@link JdbcClanStore} does so in the transaction of every write, other stores are wrapped with a {@link ChangeLogClanStore}.
+     */
+    private void initChangeLog() {
+        String instanceId = UUID.randomUUID().toString();
+        config.setInstanceId(instanceId);
+        if (config.getClanStore() instanceof JdbcClanStore) {
+            ((JdbcClanStore) config.getClanStore()).enableChangeLog(instanceId);
+        } else {
+            config.setClanStore(new ChangeLogClanStore(config.getClanStore(), config, instanceId));
+        }
+        ChangeLogPoller poller = new ChangeLogPoller(config, instanceId, config.getChangeLogPollInterval(), config.getChangeLogRetention());
+        poller.start();
+        config.setChangeLogPoller(poller);
+    }
+
+    /**
+     * Starts the audit log, the event setup registers it as inline listener.
      */
-    private void initSessionFactory() {
-        config.setSessionFactory(SqlSession.buildSessionFactory());
+    private void initAuditLog() {
+        AuditLog auditLog = new AuditLog(config.getDataSource(), config.getAuditLogCapacity(), config.getAuditLogFlushInterval(),
+                config.getAuditLogFlushSize(), config.getAuditLogOverflowPolicy());
+        auditLog.start();
+        config.setAuditLog(auditLog);
+    }
+
+    /**
+     * Creates the {@link ClanEventManager} and wraps the store with an {@link EventClanStore}.
+     */
+    private void initEvents() {
+        ClanEventManager eventManager = new ClanEventManager(config.getEventBatchWindow(), config.getEventMaxBatchSize());
+        eventManager.addEventListeners(config.getEventListeners());
+        // inline, so a full audit buffer holds back the writes instead of the dispatcher
+        if (config.getAuditLog() != null) eventManager.addInlineEventListener(config.getAuditLog());
+        config.setEventManager(eventManager);
+        config.setClanStore(new EventClanStore(config.getClanStore(), config, eventManager));
+    }
+
+    /**
+     * Warms the {@link GuildIndexedClanStore} for all guilds of the shard that are already loaded.
+     * @param store The guild index.
+     * @param jda The shard.
+     * @param clansByGuild The clans of the snapshot by guild id or null to query every guild.
+     */
+    private void initGuildClanIndex(@Nonnull GuildIndexedClanStore store, @Nonnull JDA jda, LongObjectMap<List<ClanData>> clansByGuild) {
+        for (Guild guild : jda.getGuilds()) {
+            if (clansByGuild == null) {
+                store.indexGuild(guild.getIdLong());
+                continue;
+            }
+            List<ClanData> clans = clansByGuild.get(guild.getIdLong());
+            store.indexGuild(guild.getIdLong(), clans == null ? new ArrayList<>() : clans);
+        }
+    }
+
+    /**
+     * @param snapshot The snapshot.
+     * @return the clans of the snapshot by guild id.
+     */
+    @Nonnull
+    private static LongObjectMap<List<ClanData>> groupByGuild(@Nonnull ClanSnapshot snapshot) {
+        LongObjectMap<List<ClanData>> clansByGuild = new LongObjectMap<>();
+        for (ClanData clan : snapshot.getClans()) {
+            List<ClanData> clans = clansByGuild.get(clan.getDiscordGuildId());
+            if (clans == null) {
+                clans = new ArrayList<>();
+                clansByGuild.put(clan.getDiscordGuildId(), clans);
+            }
+            clans.add(clan);
+        }
+        return clansByGuild;
     }
 }
@@ -0,0 +1,99 @@
+package dev.denux.clanmanager.core.audit;
+
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Timestamp;
+
+/**
+ * Immutable snapshot of a single row of the {@code auditLog} table.
+ */
+public class AuditEntry {
+    private final long id;
+    private final Timestamp createdAt;
+    private final Action action;
+    private final int clanId;
+    private final int clanMemberId;
+    private final long discordUserId;
+    private final CmPermission oldPermission;
+    private final CmPermission newPermission;
+
+    public AuditEntry(long id, @Nonnull Timestamp createdAt, @Nonnull Action action, int clanId, int clanMemberId, long discordUserId,
+                      @Nullable CmPermission oldPermission, @Nullable CmPermission newPermission) {
+        this.id = id;
+        this.createdAt = createdAt;
+        this.action = action;
+        this.clanId = clanId;
+        this.clanMemberId = clanMemberId;
+        this.discordUserId = discordUserId;
+        this.oldPermission = oldPermission;
+        this.newPermission = newPermission;
+    }
+
+    /**
+     * @return The id of the entry or 0 if it was not written yet.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return The time the change happened at.
+     */
+    @Nonnull
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    @Nonnull
+    public Action getAction() {
+        return action;
+    }
+
+    public int getClanId() {
+        return clanId;
+    }
+
+    /**
+     * @return The id of the clan member or 0 for blocklist changes.
+     */
+    public int getClanMemberId() {
+        return clanMemberId;
+    }
+
+    /**
+     * @return The id of the affected user or 0 if the whole blocklist was cleared.
+     */
+    public long getDiscordUserId() {
+        return discordUserId;
+    }
+
+    /**
+     * @return The permission before the change or null if the member joined or it is a blocklist change.
+     */
+    @Nullable
+    public CmPermission getOldPermission() {
+        return oldPermission;
+    }
+
+    /**
+     * @return The permission after the change or null if the member left or it is a blocklist change.
+     */
+    @Nullable
+    public CmPermission getNewPermission() {
+        return newPermission;
+    }
+
+    /**
+     * The kind of change.
+     */
+    public enum Action {
+        JOIN,
+        LEAVE,
+        PERMISSION_UPDATE,
+        BLOCK,
+        UNBLOCK,
+        BLOCKLIST_CLEAR
+    }
+}
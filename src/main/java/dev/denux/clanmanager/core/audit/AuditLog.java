@@ -0,0 +1,306 @@
+package dev.denux.clanmanager.core.audit;
+
+import dev.denux.clanmanager.core.events.BlocklistUpdateEvent;
+import dev.denux.clanmanager.core.events.ClanEvent;
+import dev.denux.clanmanager.core.events.ClanEventListener;
+import dev.denux.clanmanager.core.events.ClanMemberJoinEvent;
+import dev.denux.clanmanager.core.events.ClanMemberLeaveEvent;
+import dev.denux.clanmanager.core.events.ClanMemberPermissionUpdateEvent;
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.internal.CmPermission;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only history of joins, leaves, permission changes and blocklist changes in the {@code auditLog} table.
+ * <p>
+ * The entries are taken from the events, as an inline listener of the {@link dev.denux.clanmanager.core.events.ClanEventManager},
+ * so they are offered on the thread of the write that caused them.
+ * They are kept in a fixed size ring buffer and written by a background thread in JDBC batches,
+ * once the flush size is reached or the flush interval passed. A full buffer either blocks the write
+ * until the writer caught up or drops the entry, see {@link OverflowPolicy}.
+ */
+public class AuditLog implements ClanEventListener {
+    private static final Logger log = JDALogger.getLog(AuditLog.class);
+
+    private final DataSource dataSource;
+    private final long flushIntervalNanos;
+    private final int flushSize;
+    private final OverflowPolicy overflowPolicy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final AuditEntry[] buffer;
+    private int head;
+    private int size;
+    private long dropped;
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * @param dataSource The database with the {@code auditLog} table.
+     * @param capacity The amount of entries the buffer holds.
+     * @param flushInterval How long an entry waits at most before it is written.
+     * @param flushSize The amount of entries written in one batch. A full batch is written right away.
+     * @param overflowPolicy What happens when the buffer is full.
+     */
+    public AuditLog(@Nonnull DataSource dataSource, int capacity, @Nonnull Duration flushInterval, int flushSize, @Nonnull OverflowPolicy overflowPolicy) {
+        if (capacity < 1) throw new IllegalArgumentException("The capacity must be at least 1.");
+        if (flushSize < 1 || flushSize > capacity) throw new IllegalArgumentException("The flush size must be between 1 and the capacity.");
+        this.dataSource = dataSource;
+        this.buffer = new AuditEntry[capacity];
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.flushSize = flushSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public synchronized void start() {
+        if (writer != null) return;
+        running = true;
+        writer = new Thread(this::run, "ClanManager-Audit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes the remaining entries and stops the writer.
+     */
+    public synchronized void shutdown() {
+        if (writer == null) return;
+        running = false;
+        lock.lock();
+        try {
+            flushNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    @Override
+    public void onEvents(@Nonnull List<ClanEvent> events) {
+        for (ClanEvent event : events) {
+            AuditEntry entry = toEntry(event);
+            if (entry != null) offer(entry);
+        }
+    }
+
+    @Nullable
+    private static AuditEntry toEntry(@Nonnull ClanEvent event) {
+        Timestamp createdAt = new Timestamp(event.getTimestamp());
+        if (event instanceof ClanMemberJoinEvent) {
+            ClanMemberData member = ((ClanMemberJoinEvent) event).getClanMember();
+            return new AuditEntry(0, createdAt, AuditEntry.Action.JOIN, member.getClanId(), member.getId(), member.getDiscordUserId(),
+                    null, member.getPermission());
+        }
+        if (event instanceof ClanMemberLeaveEvent) {
+            ClanMemberData member = ((ClanMemberLeaveEvent) event).getClanMember();
+            return new AuditEntry(0, createdAt, AuditEntry.Action.LEAVE, member.getClanId(), member.getId(), member.getDiscordUserId(),
+                    member.getPermission(), null);
+        }
+        if (event instanceof ClanMemberPermissionUpdateEvent) {
+            ClanMemberPermissionUpdateEvent update = (ClanMemberPermissionUpdateEvent) event;
+            return new AuditEntry(0, createdAt, AuditEntry.Action.PERMISSION_UPDATE, update.getClanId(), update.getClanMemberId(),
+                    update.getDiscordUserId(), update.getOldPermission(), update.getNewPermission());
+        }
+        if (event instanceof BlocklistUpdateEvent) {
+            BlocklistUpdateEvent update = (BlocklistUpdateEvent) event;
+            AuditEntry.Action action;
+            switch (update.getAction()) {
+                case BLOCKED:
+                    action = AuditEntry.Action.BLOCK;
+                    break;
+                case UNBLOCKED:
+                    action = AuditEntry.Action.UNBLOCK;
+                    break;
+                default:
+                    action = AuditEntry.Action.BLOCKLIST_CLEAR;
+            }
+            return new AuditEntry(0, createdAt, action, update.getClanId(), 0, update.getDiscordUserId(), null, null);
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry to the buffer.
+     * @param entry The entry to write.
+     * @return False if the buffer was full and the entry was dropped.
+     */
+    public boolean offer(@Nonnull AuditEntry entry) {
+        lock.lock();
+        try {
+            while (size == buffer.length) {
+                if (overflowPolicy == OverflowPolicy.DROP || !running) {
+                    dropped++;
+                    return false;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            buffer[(head + size) % buffer.length] = entry;
+            size++;
+            if (size >= flushSize) flushNeeded.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of entries that were dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<AuditEntry> batch;
+            lock.lock();
+            try {
+                long remaining = flushIntervalNanos;
+                while (running && size < flushSize && remaining > 0) {
+                    try {
+                        remaining = flushNeeded.awaitNanos(remaining);
+                    } catch (InterruptedException exception) {
+                        running = false;
+                    }
+                }
+                if (size == 0) {
+                    if (!running) return;
+                    continue;
+                }
+                batch = new ArrayList<>(Math.min(size, flushSize));
+                while (size > 0 && batch.size() < flushSize) {
+                    batch.add(buffer[head]);
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    size--;
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            write(batch);
+        }
+    }
+
+    /**
+     * Writes a batch in one transaction. A failed batch is logged and dropped, the writes it belongs to already happened.
+     */
+    private void write(@Nonnull List<AuditEntry> batch) {
+        try(Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"auditLog\" (\"createdAt\", \"action\", \"clanId\", \"clanMemberId\", " +
+                    "\"discordUserId\", \"oldPermission\", \"newPermission\") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            for (AuditEntry entry : batch) {
+                pstm.setTimestamp(1, entry.getCreatedAt());
+                pstm.setString(2, entry.getAction().name());
+                pstm.setInt(3, entry.getClanId());
+                pstm.setInt(4, entry.getClanMemberId());
+                pstm.setLong(5, entry.getDiscordUserId());
+                setPermission(pstm, 6, entry.getOldPermission());
+                setPermission(pstm, 7, entry.getNewPermission());
+                pstm.addBatch();
+            }
+            pstm.executeBatch();
+            con.commit();
+        } catch (SQLException exception) {
+            log.error("Failed to write {} audit log entries.", batch.size(), exception);
+        }
+    }
+
+    private static void setPermission(@Nonnull PreparedStatement pstm, int index, @Nullable CmPermission permission) throws SQLException {
+        if (permission == null) pstm.setNull(index, Types.SMALLINT);
+        else pstm.setShort(index, (short) permission.getLevel());
+    }
+
+    /**
+     * Gets the history of a clan, newest first. Entries still in the buffer are not included.
+     * @param clanId The id of the clan.
+     * @param beforeId Only entries with a lower id are returned, 0 to start with the newest.
+     * @param limit The maximum amount of entries.
+     * @return the entries.
+     */
+    @Nonnull
+    public List<AuditEntry> getClanHistory(int clanId, long beforeId, int limit) {
+        return query("\"clanId\" = ?", clanId, beforeId, limit);
+    }
+
+    /**
+     * Gets the history of a user in all clans, newest first. Entries still in the buffer are not included.
+     * @param discordUserId The id of the discord user.
+     * @param beforeId Only entries with a lower id are returned, 0 to start with the newest.
+     * @param limit The maximum amount of entries.
+     * @return the entries.
+     */
+    @Nonnull
+    public List<AuditEntry> getUserHistory(long discordUserId, long beforeId, int limit) {
+        return query("\"discordUserId\" = ?", discordUserId, beforeId, limit);
+    }
+
+    @Nonnull
+    private List<AuditEntry> query(@Nonnull String filter, long value, long beforeId, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("The limit must be at least 1.");
+        List<AuditEntry> entries = new ArrayList<>();
+        try(Connection con = dataSource.getConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"auditLog\" WHERE " + filter + " AND \"id\" < ? ORDER BY \"id\" DESC LIMIT ?");
+            pstm.setLong(1, value);
+            pstm.setLong(2, beforeId > 0 ? beforeId : Long.MAX_VALUE);
+            pstm.setInt(3, limit);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                short oldPermission = rs.getShort("oldPermission");
+                CmPermission oldValue = rs.wasNull() ? null : CmPermission.fromLevel(oldPermission);
+                short newPermission = rs.getShort("newPermission");
+                CmPermission newValue = rs.wasNull() ? null : CmPermission.fromLevel(newPermission);
+                entries.add(new AuditEntry(rs.getLong("id"), rs.getTimestamp("createdAt"), AuditEntry.Action.valueOf(rs.getString("action")),
+                        rs.getInt("clanId"), rs.getInt("clanMemberId"), rs.getLong("discordUserId"), oldValue, newValue));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to read the audit log.", exception);
+            throw new ClanManagerException(exception);
+        }
+        return entries;
+    }
+
+    /**
+     * What happens when an entry is added to a full buffer.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Waits until the writer made room. This holds back the write that caused the entry, so writes can't outrun the audit log.
+         */
+        BLOCK,
+        /**
+         * Drops the entry and counts it, see {@link #getDroppedCount()}.
+         */
+        DROP
+    }
+}
@@ -0,0 +1,213 @@
+package dev.denux.clanmanager.core.changelog;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanDeletionData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanMergeData;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.ForwardingClanStore;
+import dev.denux.clanmanager.core.store.VerificationData;
+import dev.denux.clanmanager.internal.CmPermission;
+import dev.denux.clanmanager.internal.VerificationResult;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClanStore} decorator that appends a row to the {@code changeLog} table for every write,
+ * so other instances sharing the database can invalidate what they keep in memory.
+ * <p>
+ * Only used for stores that can't write the change themselves. The row is appended after the write in its own transaction,
+ * a failure in between leaves the caches of the other instances stale.
+ * A {@link dev.denux.clanmanager.core.store.JdbcClanStore} appends it in the transaction of the write instead.
+ * @see ChangeLogPoller
+ */
+public class ChangeLogClanStore extends ForwardingClanStore {
+    private static final Logger log = JDALogger.getLog(ChangeLogClanStore.class);
+
+    private final ClanManagerConfig config;
+    private final String instanceId;
+
+    public ChangeLogClanStore(@Nonnull ClanStore delegate, @Nonnull ClanManagerConfig config, @Nonnull String instanceId) {
+        super(delegate);
+        this.config = config;
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * Appends a change to the change log.
+     * A failed append is only logged, the write itself already happened.
+     * @param type The kind of entity that changed.
+     * @param entityId The id of the entity.
+     */
+    private void append(@Nonnull ChangeType type, long entityId) {
+        try(Connection con = config.getDataSource().getConnection()) {
+            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"changeLog\" (\"instanceId\", \"entityType\", \"entityId\") VALUES (?, ?, ?)");
+            pstm.setString(1, instanceId);
+            pstm.setString(2, type.name());
+            pstm.setLong(3, entityId);
+            pstm.executeUpdate();
+        } catch (SQLException exception) {
+            log.error("Failed to append {} {} to the change log.", type, entityId, exception);
+        }
+    }
+
+    /**
+     * Appends a change for every clan member in a single batch.
+     * @param clanMembers The changed clan members.
+     */
+    private void appendClanMembers(@Nonnull List<ClanMemberData> clanMembers) {
+        if (clanMembers.isEmpty()) return;
+        try(Connection con = config.getDataSource().getConnection()) {
+            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"changeLog\" (\"instanceId\", \"entityType\", \"entityId\") VALUES (?, ?, ?)");
+            for (ClanMemberData clanMember : clanMembers) {
+                pstm.setString(1, instanceId);
+                pstm.setString(2, ChangeType.CLAN_MEMBER.name());
+                pstm.setLong(3, clanMember.getId());
+                pstm.addBatch();
+            }
+            pstm.executeBatch();
+        } catch (SQLException exception) {
+            log.error("Failed to append {} clan members to the change log.", clanMembers.size(), exception);
+        }
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        int clanId = delegate.insertClan(clan);
+        append(ChangeType.CLAN, clanId);
+        return clanId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        ClanData inserted = delegate.insertClanWithOwner(clan, owner);
+        append(ChangeType.CLAN, inserted.getId());
+        append(ChangeType.CLAN_MEMBER, inserted.getOwnerId());
+        return inserted;
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        delegate.updateClan(clanId, column, value);
+        append(ChangeType.CLAN, clanId);
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        ClanDeletionData deleted = delegate.deleteClan(clanId);
+        append(ChangeType.CLAN, clanId);
+        return deleted;
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        int clanMemberId = delegate.insertClanMember(clanMember);
+        append(ChangeType.CLAN_MEMBER, clanMemberId);
+        return clanMemberId;
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        VerificationData result = delegate.verifyClanMember(verificationCode, discordGuildId, clanMember);
+        if (result.getStatus() == VerificationResult.Status.VERIFIED) append(ChangeType.CLAN_MEMBER, result.getClanMember().getId());
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        ClanMemberData old = delegate.updateClanMember(clanMemberId, column, value);
+        append(ChangeType.CLAN_MEMBER, clanMemberId);
+        return old;
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        delegate.deleteClanMember(clanMemberId);
+        append(ChangeType.CLAN_MEMBER, clanMemberId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        List<ClanMemberData> deleted = delegate.deleteClanMembersByUsers(discordGuildId, discordUserIds);
+        appendClanMembers(deleted);
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        List<ClanMemberData> deleted = delegate.deleteClanMembersByGuild(discordGuildId);
+        appendClanMembers(deleted);
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions) {
+        List<ClanMemberData> changed = delegate.updateClanMemberPermissions(clanId, permissions);
+        appendClanMembers(changed);
+        return changed;
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        ClanMergeData result = delegate.mergeClans(sourceClanId, targetClanId);
+        append(ChangeType.CLAN, sourceClanId);
+        append(ChangeType.CLAN, targetClanId);
+        append(ChangeType.BLOCKLIST, targetClanId);
+        appendClanMembers(result.getMoved());
+        appendClanMembers(result.getDropped());
+        return result;
+    }
+
+    @Override
+    public void addBlockedUser(int clanId, long discordUserId) {
+        delegate.addBlockedUser(clanId, discordUserId);
+        append(ChangeType.BLOCKLIST, clanId);
+    }
+
+    @Override
+    public void removeBlockedUser(int clanId, long discordUserId) {
+        delegate.removeBlockedUser(clanId, discordUserId);
+        append(ChangeType.BLOCKLIST, clanId);
+    }
+
+    @Override
+    public void clearBlocklist(int clanId) {
+        delegate.clearBlocklist(clanId);
+        append(ChangeType.BLOCKLIST, clanId);
+    }
+
+    @Override
+    public void setReverificationDays(int clanId, short numberOfDays) {
+        delegate.setReverificationDays(clanId, numberOfDays);
+        append(ChangeType.REVERIFICATION, clanId);
+    }
+
+    @Override
+    public void enableReverification(int clanId) {
+        delegate.enableReverification(clanId);
+        append(ChangeType.REVERIFICATION, clanId);
+    }
+
+    @Override
+    public void disableReverification(int clanId) {
+        delegate.disableReverification(clanId);
+        append(ChangeType.REVERIFICATION, clanId);
+    }
+}
@@ -0,0 +1,188 @@
+package dev.denux.clanmanager.core.changelog;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.ForwardingClanStore;
+import dev.denux.clanmanager.core.store.StoreInvalidationListener;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the {@code changeLog} table for changes made by other instances
+ * and forwards them to every {@link StoreInvalidationListener} in the store chain.
+ */
+public class ChangeLogPoller {
+    private static final Logger log = JDALogger.getLog(ChangeLogPoller.class);
+    /**
+     * Ids are handed out before the inserting transaction commits, so a row can show up below the highest id we've already seen.
+     * Skipped ids are read again until they show up or this long passed, rolled back inserts never show up.
+     */
+    public static final Duration GAP_TIMEOUT = Duration.ofMinutes(1);
+    private static final int BATCH_SIZE = 500;
+
+    private final ClanManagerConfig config;
+    private final String instanceId;
+    private final Duration interval;
+    private final Duration retention;
+    // first id of a range of skipped ids -> {last id, when it was skipped}
+    private final TreeMap<Long, long[]> gaps = new TreeMap<>();
+    private ScheduledExecutorService executor;
+    private long lastId;
+    private long lastCleanup;
+
+    public ChangeLogPoller(@Nonnull ClanManagerConfig config, @Nonnull String instanceId, @Nonnull Duration interval, @Nonnull Duration retention) {
+        this.config = config;
+        this.instanceId = instanceId;
+        this.interval = interval;
+        this.retention = retention;
+    }
+
+    /**
+     * Starts polling. Changes made before this call are skipped.
+     */
+    public void start() {
+        try(Connection con = config.getDataSource().getConnection()) {
+            ResultSet rs = con.prepareStatement("SELECT COALESCE(MAX(\"id\"), 0) FROM \"changeLog\"").executeQuery();
+            rs.next();
+            lastId = rs.getLong(1);
+        } catch (SQLException exception) {
+            log.error("Failed to read the head of the change log.", exception);
+        }
+        lastCleanup = System.currentTimeMillis();
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ClanManager-ChangeLog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Reads all new changes of other instances and dispatches them.
+     */
+    public synchronized void poll() {
+        try(Connection con = config.getDataSource().getConnection()) {
+            long now = System.currentTimeMillis();
+            gaps.values().removeIf(gap -> now - gap[1] > GAP_TIMEOUT.toMillis());
+            // own changes are read as well, otherwise they would look like gaps
+            PreparedStatement gapStatement = con.prepareStatement(
+                    "SELECT \"id\", \"instanceId\", \"entityType\", \"entityId\" FROM \"changeLog\" WHERE \"id\" BETWEEN ? AND ?");
+            for (Map.Entry<Long, long[]> gap : new ArrayList<>(gaps.entrySet())) {
+                gapStatement.setLong(1, gap.getKey());
+                gapStatement.setLong(2, gap.getValue()[0]);
+                ResultSet rs = gapStatement.executeQuery();
+                while (rs.next()) {
+                    if (fillGap(rs.getLong(1))) read(rs);
+                }
+            }
+            PreparedStatement pstm = con.prepareStatement(
+                    "SELECT \"id\", \"instanceId\", \"entityType\", \"entityId\" FROM \"changeLog\" WHERE \"id\" > ? ORDER BY \"id\" LIMIT ?");
+            int read;
+            do {
+                pstm.setLong(1, lastId);
+                pstm.setInt(2, BATCH_SIZE);
+                ResultSet rs = pstm.executeQuery();
+                read = 0;
+                while (rs.next()) {
+                    read++;
+                    long id = rs.getLong(1);
+                    if (id > lastId + 1) gaps.put(lastId + 1, new long[]{id - 1, now});
+                    lastId = id;
+                    read(rs);
+                }
+            } while (read == BATCH_SIZE);
+            if (System.currentTimeMillis() - lastCleanup > retention.toMillis() / 4) cleanup(con);
+        } catch (SQLException | RuntimeException exception) {
+            log.error("Failed to poll the change log.", exception);
+        }
+    }
+
+    /**
+     * Removes the id from the gap it belongs to.
+     * @param id The id of a change below the highest id we've already seen.
+     * @return True if the id was skipped before, false if it was already read.
+     */
+    private boolean fillGap(long id) {
+        Map.Entry<Long, long[]> gap = gaps.floorEntry(id);
+        if (gap == null || gap.getValue()[0] < id) return false;
+        long first = gap.getKey();
+        long[] range = gap.getValue();
+        gaps.remove(first);
+        if (first < id) gaps.put(first, new long[]{id - 1, range[1]});
+        if (id < range[0]) gaps.put(id + 1, new long[]{range[0], range[1]});
+        return true;
+    }
+
+    /**
+     * Dispatches the change the result set is positioned on, unless it was made by this instance.
+     */
+    private void read(@Nonnull ResultSet rs) throws SQLException {
+        if (instanceId.equals(rs.getString(2))) return;
+        dispatch(ChangeType.valueOf(rs.getString(3)), rs.getLong(4));
+    }
+
+    /**
+     * Deletes changes that are older than the retention.
+     * @param con The connection to use.
+     */
+    private void cleanup(@Nonnull Connection con) throws SQLException {
+        PreparedStatement pstm = con.prepareStatement("DELETE FROM \"changeLog\" WHERE \"createdAt\" < ?");
+        pstm.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retention.toMillis()));
+        int deleted = pstm.executeUpdate();
+        lastCleanup = System.currentTimeMillis();
+        log.debug("Removed {} old change log entries.", deleted);
+    }
+
+    private void dispatch(@Nonnull ChangeType type, long entityId) {
+        for (StoreInvalidationListener listener : getListeners()) {
+            switch (type) {
+                case CLAN:
+                    listener.invalidateClan((int) entityId);
+                    break;
+                case CLAN_MEMBER:
+                    listener.invalidateClanMember((int) entityId);
+                    break;
+                case BLOCKLIST:
+                    listener.invalidateBlocklist((int) entityId);
+                    break;
+                case REVERIFICATION:
+                    listener.invalidateReverification((int) entityId);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return All stores of the configured store chain that keep data in memory and the reverification manager.
+     */
+    @Nonnull
+    private List<StoreInvalidationListener> getListeners() {
+        List<StoreInvalidationListener> listeners = new ArrayList<>();
+        ClanStore store = config.getClanStore();
+        while (store != null) {
+            if (store instanceof StoreInvalidationListener) listeners.add((StoreInvalidationListener) store);
+            store = store instanceof ForwardingClanStore ? ((ForwardingClanStore) store).getDelegate() : null;
+        }
+        if (config.getReverificationManager() != null) listeners.add(config.getReverificationManager());
+        return listeners;
+    }
+}
@@ -0,0 +1,23 @@
+package dev.denux.clanmanager.core.changelog;
+
+/**
+ * The kind of entity a row of the {@code changeLog} table refers to.
+ */
+public enum ChangeType {
+    /**
+     * The entity id is the id of a clan.
+     */
+    CLAN,
+    /**
+     * The entity id is the id of a clan member.
+     */
+    CLAN_MEMBER,
+    /**
+     * The entity id is the id of the clan whose blocklist changed.
+     */
+    BLOCKLIST,
+    /**
+     * The entity id is the id of the clan whose reverification settings changed.
+     */
+    REVERIFICATION
+}
@@ -0,0 +1,40 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired after the blocklist of a clan changed.
+ */
+public class BlocklistUpdateEvent extends ClanEvent {
+    private final Action action;
+    private final long discordUserId;
+
+    public BlocklistUpdateEvent(@Nonnull ClanManager clanManager, int clanId, @Nonnull Action action, long discordUserId) {
+        super(clanManager, clanId);
+        this.action = action;
+        this.discordUserId = discordUserId;
+    }
+
+    @Nonnull
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return The id of the affected user or 0 if the whole blocklist was cleared.
+     */
+    public long getDiscordUserId() {
+        return discordUserId;
+    }
+
+    /**
+     * The kind of change.
+     */
+    public enum Action {
+        BLOCKED,
+        UNBLOCKED,
+        CLEARED
+    }
+}
@@ -0,0 +1,26 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.store.ClanData;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired after a clan was created.
+ */
+public class ClanCreateEvent extends ClanEvent {
+    private final ClanData clan;
+
+    public ClanCreateEvent(@Nonnull ClanManager clanManager, @Nonnull ClanData clan) {
+        super(clanManager, clan.getId());
+        this.clan = clan;
+    }
+
+    /**
+     * @return The clan as it was created.
+     */
+    @Nonnull
+    public ClanData getClan() {
+        return clan;
+    }
+}
@@ -0,0 +1,27 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.store.ClanData;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired after a clan was deleted.
+ * The members of the clan are deleted with it, no {@link ClanMemberLeaveEvent} is fired for them.
+ */
+public class ClanDeleteEvent extends ClanEvent {
+    private final ClanData clan;
+
+    public ClanDeleteEvent(@Nonnull ClanManager clanManager, @Nonnull ClanData clan) {
+        super(clanManager, clan.getId());
+        this.clan = clan;
+    }
+
+    /**
+     * @return The clan as it was right before the deletion.
+     */
+    @Nonnull
+    public ClanData getClan() {
+        return clan;
+    }
+}
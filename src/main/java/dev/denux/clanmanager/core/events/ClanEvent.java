@@ -0,0 +1,41 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.interfaces.ClanManagerContainer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Base class of all events fired by the {@link ClanEventManager}.
+ * Events carry a snapshot of the affected rows, so listeners don't have to query them again.
+ */
+public abstract class ClanEvent implements ClanManagerContainer {
+    private final ClanManager clanManager;
+    private final int clanId;
+    private final long timestamp = System.currentTimeMillis();
+
+    protected ClanEvent(@Nonnull ClanManager clanManager, int clanId) {
+        this.clanManager = clanManager;
+        this.clanId = clanId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanManager getClanManager() {
+        return clanManager;
+    }
+
+    /**
+     * @return The id of the clan the event belongs to.
+     */
+    public int getClanId() {
+        return clanId;
+    }
+
+    /**
+     * @return The time in milliseconds the event was fired at.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
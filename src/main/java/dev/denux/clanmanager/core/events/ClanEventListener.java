@@ -0,0 +1,43 @@
+package dev.denux.clanmanager.core.events;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Listener for the events of a {@link dev.denux.clanmanager.ClanManager}.
+ * All methods are called on the event dispatcher thread, never on the thread that made the change.
+ * @see dev.denux.clanmanager.ClanManagerBuilder#addEventListeners(ClanEventListener...)
+ */
+public interface ClanEventListener {
+
+    /**
+     * Called with every batch of events in the order they were fired.
+     * Override this to handle a whole batch at once, by default every event is passed to its own method.
+     * @param events The events of the batch.
+     */
+    default void onEvents(@Nonnull List<ClanEvent> events) {
+        for (ClanEvent event : events) {
+            if (event instanceof ClanCreateEvent) onClanCreate((ClanCreateEvent) event);
+            else if (event instanceof ClanDeleteEvent) onClanDelete((ClanDeleteEvent) event);
+            else if (event instanceof ClanMemberJoinEvent) onClanMemberJoin((ClanMemberJoinEvent) event);
+            else if (event instanceof ClanMemberLeaveEvent) onClanMemberLeave((ClanMemberLeaveEvent) event);
+            else if (event instanceof ClanMemberPermissionUpdateEvent) onClanMemberPermissionUpdate((ClanMemberPermissionUpdateEvent) event);
+            else if (event instanceof BlocklistUpdateEvent) onBlocklistUpdate((BlocklistUpdateEvent) event);
+            else if (event instanceof ReverificationExpireEvent) onReverificationExpire((ReverificationExpireEvent) event);
+        }
+    }
+
+    default void onClanCreate(@Nonnull ClanCreateEvent event) {}
+
+    default void onClanDelete(@Nonnull ClanDeleteEvent event) {}
+
+    default void onClanMemberJoin(@Nonnull ClanMemberJoinEvent event) {}
+
+    default void onClanMemberLeave(@Nonnull ClanMemberLeaveEvent event) {}
+
+    default void onClanMemberPermissionUpdate(@Nonnull ClanMemberPermissionUpdateEvent event) {}
+
+    default void onBlocklistUpdate(@Nonnull BlocklistUpdateEvent event) {}
+
+    default void onReverificationExpire(@Nonnull ReverificationExpireEvent event) {}
+}
@@ -0,0 +1,185 @@
+package dev.denux.clanmanager.core.events;
+
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects fired {@link ClanEvent}s and hands them to the registered {@link ClanEventListener}s in batches.
+ * Events are dispatched on a single daemon thread, so the order of events is kept.
+ * <p>
+ * Inline listeners get every event on the thread that fired it, before {@link #fire(ClanEvent)} returns,
+ * so a listener that blocks holds back the write that caused the event instead of the dispatcher.
+ */
+public class ClanEventManager {
+    private static final Logger log = JDALogger.getLog(ClanEventManager.class);
+
+    private final List<ClanEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<ClanEventListener> inlineListeners = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<ClanEvent> queue = new LinkedBlockingQueue<>();
+    private final long batchWindowMillis;
+    private final int maxBatchSize;
+    private Thread dispatcher;
+
+    /**
+     * @param batchWindow How long the dispatcher waits for more events after the first event of a batch.
+     * @param maxBatchSize The maximum amount of events of one batch.
+     */
+    public ClanEventManager(@Nonnull Duration batchWindow, int maxBatchSize) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("The batch size must be at least 1.");
+        this.batchWindowMillis = batchWindow.toMillis();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void addEventListeners(@Nonnull Collection<ClanEventListener> listeners) {
+        this.listeners.addAll(listeners);
+        if (!this.listeners.isEmpty()) start();
+    }
+
+    public void addEventListener(@Nonnull ClanEventListener listener) {
+        addEventListeners(List.of(listener));
+    }
+
+    /**
+     * Registers a listener that is called with every single event on the thread that fired it.
+     * It has to be fast, everything it does delays the write that caused the event.
+     * @param listener The listener to add.
+     */
+    public void addInlineEventListener(@Nonnull ClanEventListener listener) {
+        inlineListeners.add(listener);
+    }
+
+    public void removeEventListener(@Nonnull ClanEventListener listener) {
+        listeners.remove(listener);
+        inlineListeners.remove(listener);
+    }
+
+    @Nonnull
+    public List<ClanEventListener> getEventListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * @return True if at least one listener is registered.
+     */
+    public boolean hasListeners() {
+        return !listeners.isEmpty() || !inlineListeners.isEmpty();
+    }
+
+    /**
+     * Hands the event to the inline listeners and queues it for dispatching. Events are dropped if no listener is registered.
+     * @param event The event to fire.
+     */
+    public void fire(@Nonnull ClanEvent event) {
+        if (!inlineListeners.isEmpty()) dispatch(inlineListeners, List.of(event));
+        if (listeners.isEmpty()) return;
+        queue.offer(event);
+    }
+
+    private synchronized void start() {
+        if (dispatcher != null) return;
+        dispatcher = new Thread(this::run, "ClanManager-Events");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher and hands the events that are still queued to the listeners on the calling thread.
+     */
+    public synchronized void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            try {
+                dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dispatcher = null;
+        List<ClanEvent> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += maxBatchSize) {
+            List<ClanEvent> batch = remaining.subList(from, Math.min(remaining.size(), from + maxBatchSize));
+            dispatch(listeners, Collections.unmodifiableList(coalesce(batch)));
+        }
+    }
+
+    private void run() {
+        List<ClanEvent> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.currentTimeMillis() + batchWindowMillis;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        break;
+                    }
+                    ClanEvent event = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (event == null) break;
+                    batch.add(event);
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            if (batch.isEmpty()) continue;
+            List<ClanEvent> events = Collections.unmodifiableList(coalesce(batch));
+            batch = new ArrayList<>();
+            dispatch(listeners, events);
+        }
+    }
+
+    private static void dispatch(@Nonnull List<ClanEventListener> listeners, @Nonnull List<ClanEvent> events) {
+        for (ClanEventListener listener : listeners) {
+            try {
+                listener.onEvents(events);
+            } catch (Throwable throwable) {
+                log.error("One of the ClanEventListeners had an uncaught exception", throwable);
+            }
+        }
+    }
+
+    /**
+     * Merges all permission changes of the same clan member into the first one.
+     * Changes that end up on the permission they started with are dropped.
+     * @param batch The events in the order they were fired.
+     * @return The coalesced events.
+     */
+    @Nonnull
+    private List<ClanEvent> coalesce(@Nonnull List<ClanEvent> batch) {
+        Map<Integer, Integer> permissionEvents = new HashMap<>();
+        List<ClanEvent> result = new ArrayList<>(batch.size());
+        for (ClanEvent event : batch) {
+            if (!(event instanceof ClanMemberPermissionUpdateEvent)) {
+                result.add(event);
+                continue;
+            }
+            ClanMemberPermissionUpdateEvent update = (ClanMemberPermissionUpdateEvent) event;
+            Integer index = permissionEvents.get(update.getClanMemberId());
+            if (index == null) {
+                permissionEvents.put(update.getClanMemberId(), result.size());
+                result.add(update);
+                continue;
+            }
+            ClanMemberPermissionUpdateEvent first = (ClanMemberPermissionUpdateEvent) result.get(index);
+            result.set(index, new ClanMemberPermissionUpdateEvent(first.getClanManager(), first.getClanId(), first.getClanMemberId(),
+                    first.getDiscordUserId(), first.getOldPermission(), update.getNewPermission()));
+        }
+        result.removeIf(event -> event instanceof ClanMemberPermissionUpdateEvent
+                && ((ClanMemberPermissionUpdateEvent) event).getOldPermission() == ((ClanMemberPermissionUpdateEvent) event).getNewPermission());
+        return result;
+    }
+}
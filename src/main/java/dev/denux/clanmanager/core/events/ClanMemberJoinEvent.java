@@ -0,0 +1,26 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired after a clan member was added to a clan.
+ */
+public class ClanMemberJoinEvent extends ClanEvent {
+    private final ClanMemberData clanMember;
+
+    public ClanMemberJoinEvent(@Nonnull ClanManager clanManager, @Nonnull ClanMemberData clanMember) {
+        super(clanManager, clanMember.getClanId());
+        this.clanMember = clanMember;
+    }
+
+    /**
+     * @return The clan member as it was created.
+     */
+    @Nonnull
+    public ClanMemberData getClanMember() {
+        return clanMember;
+    }
+}
@@ -0,0 +1,26 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired after a clan member was removed from a clan.
+ */
+public class ClanMemberLeaveEvent extends ClanEvent {
+    private final ClanMemberData clanMember;
+
+    public ClanMemberLeaveEvent(@Nonnull ClanManager clanManager, @Nonnull ClanMemberData clanMember) {
+        super(clanManager, clanMember.getClanId());
+        this.clanMember = clanMember;
+    }
+
+    /**
+     * @return The clan member as it was right before it was removed.
+     */
+    @Nonnull
+    public ClanMemberData getClanMember() {
+        return clanMember;
+    }
+}
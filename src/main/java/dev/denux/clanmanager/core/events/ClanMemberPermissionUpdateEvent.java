@@ -0,0 +1,44 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired after the permission of a clan member changed.
+ * Several changes of the same member within one batch are merged into a single event.
+ */
+public class ClanMemberPermissionUpdateEvent extends ClanEvent {
+    private final int clanMemberId;
+    private final long discordUserId;
+    private final CmPermission oldPermission;
+    private final CmPermission newPermission;
+
+    public ClanMemberPermissionUpdateEvent(@Nonnull ClanManager clanManager, int clanId, int clanMemberId, long discordUserId,
+                                           @Nonnull CmPermission oldPermission, @Nonnull CmPermission newPermission) {
+        super(clanManager, clanId);
+        this.clanMemberId = clanMemberId;
+        this.discordUserId = discordUserId;
+        this.oldPermission = oldPermission;
+        this.newPermission = newPermission;
+    }
+
+    public int getClanMemberId() {
+        return clanMemberId;
+    }
+
+    public long getDiscordUserId() {
+        return discordUserId;
+    }
+
+    @Nonnull
+    public CmPermission getOldPermission() {
+        return oldPermission;
+    }
+
+    @Nonnull
+    public CmPermission getNewPermission() {
+        return newPermission;
+    }
+}
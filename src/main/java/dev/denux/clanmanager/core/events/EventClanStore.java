@@ -0,0 +1,168 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanDeletionData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanMergeData;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.ForwardingClanStore;
+import dev.denux.clanmanager.core.store.VerificationData;
+import dev.denux.clanmanager.internal.CmPermission;
+import dev.denux.clanmanager.internal.VerificationResult;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClanStore} decorator that fires {@link ClanEvent}s for the writes that go through it.
+ * Rows that are needed for an event are only read when a listener is registered.
+ */
+public class EventClanStore extends ForwardingClanStore {
+    private final ClanManagerConfig config;
+    private final ClanEventManager eventManager;
+
+    public EventClanStore(@Nonnull ClanStore delegate, @Nonnull ClanManagerConfig config, @Nonnull ClanEventManager eventManager) {
+        super(delegate);
+        this.config = config;
+        this.eventManager = eventManager;
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        int clanId = delegate.insertClan(clan);
+        eventManager.fire(new ClanCreateEvent(config.getClanManager(), clan.withId(clanId)));
+        return clanId;
+    }
+
+    /**
+     * Fires the creation of the clan and the join of its owner.
+     */
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        ClanData inserted = delegate.insertClanWithOwner(clan, owner);
+        eventManager.fire(new ClanCreateEvent(config.getClanManager(), inserted));
+        eventManager.fire(new ClanMemberJoinEvent(config.getClanManager(), owner.withColumn("clanId", inserted.getId())
+                .withColumn("permission", CmPermission.OWNER).withId(inserted.getOwnerId())));
+        return inserted;
+    }
+
+    /**
+     * Fires the leave of the members that were deleted with the clan and the deletion of the clan.
+     */
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        ClanDeletionData result = delegate.deleteClan(clanId);
+        if (result.getClan() == null) return result;
+        fireLeaveEvents(result.getMembers());
+        eventManager.fire(new ClanDeleteEvent(config.getClanManager(), result.getClan()));
+        return result;
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        int clanMemberId = delegate.insertClanMember(clanMember);
+        eventManager.fire(new ClanMemberJoinEvent(config.getClanManager(), clanMember.withId(clanMemberId)));
+        return clanMemberId;
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        VerificationData result = delegate.verifyClanMember(verificationCode, discordGuildId, clanMember);
+        if (result.getStatus() == VerificationResult.Status.VERIFIED) {
+            eventManager.fire(new ClanMemberJoinEvent(config.getClanManager(), result.getClanMember()));
+        }
+        return result;
+    }
+
+    /**
+     * The previous permission comes from the row the store locked for the update, so concurrent changes can't mix up the event.
+     */
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        ClanMemberData old = delegate.updateClanMember(clanMemberId, column, value);
+        if (!"permission".equals(column) || old == null || old.getPermission() == value) return old;
+        eventManager.fire(new ClanMemberPermissionUpdateEvent(config.getClanManager(), old.getClanId(), clanMemberId,
+                old.getDiscordUserId(), old.getPermission(), (CmPermission) value));
+        return old;
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        ClanMemberData old = eventManager.hasListeners() ? delegate.getClanMember(clanMemberId) : null;
+        delegate.deleteClanMember(clanMemberId);
+        if (old != null) eventManager.fire(new ClanMemberLeaveEvent(config.getClanManager(), old));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        return fireLeaveEvents(delegate.deleteClanMembersByUsers(discordGuildId, discordUserIds));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        return fireLeaveEvents(delegate.deleteClanMembersByGuild(discordGuildId));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions) {
+        List<ClanMemberData> changed = delegate.updateClanMemberPermissions(clanId, permissions);
+        for (ClanMemberData old : changed) {
+            eventManager.fire(new ClanMemberPermissionUpdateEvent(config.getClanManager(), clanId, old.getId(),
+                    old.getDiscordUserId(), old.getPermission(), permissions.get(old.getId())));
+        }
+        return changed;
+    }
+
+    /**
+     * Fires the leave of the dropped members, the join of the moved members to the target clan and the deletion of the source clan.
+     */
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        ClanMergeData result = delegate.mergeClans(sourceClanId, targetClanId);
+        if (!eventManager.hasListeners()) return result;
+        fireLeaveEvents(result.getDropped());
+        for (ClanMemberData clanMember : result.getMoved()) {
+            eventManager.fire(new ClanMemberJoinEvent(config.getClanManager(), clanMember));
+        }
+        eventManager.fire(new ClanDeleteEvent(config.getClanManager(), result.getSource()));
+        return result;
+    }
+
+    @Nonnull
+    private List<ClanMemberData> fireLeaveEvents(@Nonnull List<ClanMemberData> deleted) {
+        if (!eventManager.hasListeners()) return deleted;
+        for (ClanMemberData clanMember : deleted) {
+            eventManager.fire(new ClanMemberLeaveEvent(config.getClanManager(), clanMember));
+        }
+        return deleted;
+    }
+
+    @Override
+    public void addBlockedUser(int clanId, long discordUserId) {
+        delegate.addBlockedUser(clanId, discordUserId);
+        eventManager.fire(new BlocklistUpdateEvent(config.getClanManager(), clanId, BlocklistUpdateEvent.Action.BLOCKED, discordUserId));
+    }
+
+    @Override
+    public void removeBlockedUser(int clanId, long discordUserId) {
+        delegate.removeBlockedUser(clanId, discordUserId);
+        eventManager.fire(new BlocklistUpdateEvent(config.getClanManager(), clanId, BlocklistUpdateEvent.Action.UNBLOCKED, discordUserId));
+    }
+
+    @Override
+    public void clearBlocklist(int clanId) {
+        delegate.clearBlocklist(clanId);
+        eventManager.fire(new BlocklistUpdateEvent(config.getClanManager(), clanId, BlocklistUpdateEvent.Action.CLEARED, 0));
+    }
+}
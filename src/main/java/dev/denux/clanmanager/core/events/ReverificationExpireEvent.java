@@ -0,0 +1,23 @@
+package dev.denux.clanmanager.core.events;
+
+import dev.denux.clanmanager.ClanManager;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Fired when the reverification period of a clan member expired, right before the reverification job runs.
+ */
+public class ReverificationExpireEvent extends ClanEvent {
+    private final ClanMemberData clanMember;
+
+    public ReverificationExpireEvent(@Nonnull ClanManager clanManager, @Nonnull ClanMemberData clanMember) {
+        super(clanManager, clanMember.getClanId());
+        this.clanMember = clanMember;
+    }
+
+    @Nonnull
+    public ClanMemberData getClanMember() {
+        return clanMember;
+    }
+}
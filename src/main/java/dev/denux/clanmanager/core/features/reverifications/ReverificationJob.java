@@ -1,8 +1,9 @@
 package dev.denux.clanmanager.core.features.reverifications;
 
 import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.events.ReverificationExpireEvent;
+import dev.denux.clanmanager.core.store.ClanMemberData;
 import dev.denux.clanmanager.internal.entities.ClanMember;
-import dev.denux.clanmanager.utils.CMChecks;
 import net.dv8tion.jda.internal.utils.JDALogger;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
@@ -17,14 +18,16 @@ public class ReverificationJob implements Job, BasicReverificationJob {
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
         ClanManagerConfig config = (ClanManagerConfig) context.get("config");
-        ClanMember clanMember = config.getClanManager().getClanMember(Integer.parseInt(context.getJobDetail().getKey().getName()));
-        if (clanMember == null) return;
-        try {
-            new CMChecks(config).isReverificationEnabled(clanMember.getClan());
-        } catch (IllegalArgumentException exception) {
-            log.warn("Reverification for clan member {} is disabled.", clanMember.getId());
+        // the lease may have been lost since the job was scheduled
+        if (!config.getReverificationManager().isLeader()) return;
+        ClanMemberData data = config.getClanStore().getClanMember(Integer.parseInt(context.getJobDetail().getKey().getName()));
+        if (data == null) return;
+        if (!config.getClanStore().isReverificationEnabled(data.getClanId())) {
+            log.warn("Reverification for clan member {} is disabled.", data.getId());
             return;
         }
+        ClanMember clanMember = config.getClanManager().getClanMemberHandle(data.getId());
+        config.getEventManager().fire(new ReverificationExpireEvent(config.getClanManager(), data));
         try {
             config.getReverificationJobImpl().getConstructor().newInstance().executeJob(config, clanMember);
         } catch (ReflectiveOperationException exception) {
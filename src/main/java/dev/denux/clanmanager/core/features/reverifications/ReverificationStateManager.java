@@ -1,6 +1,10 @@
 package dev.denux.clanmanager.core.features.reverifications;
 
 import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.lease.DatabaseLease;
+import dev.denux.clanmanager.core.snapshot.ClanSnapshot;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.StoreInvalidationListener;
 import dev.denux.clanmanager.internal.entities.ClanMember;
 import net.dv8tion.jda.internal.utils.JDALogger;
 import org.quartz.JobDetail;
@@ -12,14 +16,14 @@ import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import javax.annotation.Nullable;
+import java.sql.Timestamp;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
 
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
@@ -27,37 +31,156 @@ import static org.quartz.TriggerBuilder.newTrigger;
 
 /**
  * Handels the reverification process.
+ * <p>
+ * With a reverification lease only the instance that holds the lease schedules and runs reverifications.
+ * It learns about clan members of other instances through the change log.
  */
-public class ReverificationStateManager {
+public class ReverificationStateManager implements StoreInvalidationListener {
     private static final Logger log = JDALogger.getLog(ReverificationFeature.class);
 
-    private Scheduler scheduler;
+    private volatile Scheduler scheduler;
     private final ClanManagerConfig config;
+    private final DatabaseLease lease;
 
     public ReverificationStateManager(@Nonnull ClanManagerConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * Schedules all clan members of clans with reverification enabled.
+     * The Quartz scheduler is only started once the first clan member is scheduled.
+     * @param config The config.
+     * @param snapshot A reconciled snapshot to schedule the reverifications from without querying every clan member, or null.
+     */
+    public ReverificationStateManager(@Nonnull ClanManagerConfig config, @Nullable ClanSnapshot snapshot) {
         this.config = config;
+        if (config.getReverificationLeaseTime() == null) {
+            lease = null;
+            scheduleAll(snapshot);
+            return;
+        }
+        lease = new DatabaseLease(config.getDataSource(), "reverification", config.getInstanceId(), config.getReverificationLeaseTime());
+        if (lease.tryAcquire()) {
+            log.info("Acquired the reverification lease.");
+            scheduleAll(snapshot);
+        }
+        lease.start(() -> {
+            unscheduleAll();
+            scheduleAll(null);
+        }, this::unscheduleAll);
+    }
+
+    /**
+     * @return True if this instance runs the reverifications, which is always the case without a reverification lease.
+     */
+    public boolean isLeader() {
+        return lease == null || lease.isHeld();
+    }
+
+    /**
+     * Schedules all clan members of clans with reverification enabled.
+     * @param snapshot The snapshot to schedule from or null to query the store.
+     */
+    private void scheduleAll(@Nullable ClanSnapshot snapshot) {
+        if (snapshot != null) {
+            for (ClanMemberData clanMember : snapshot.getClanMembers()) {
+                Short days = snapshot.getReverificationDays().get(clanMember.getClanId());
+                if (days != null) schedule(clanMember.getId(), clanMember.getVerificationTime(), days);
+            }
+            return;
+        }
+        for (int clanMemberId : config.getClanStore().getReverificationClanMemberIds()) {
+            scheduleReverification(new ClanMember(config, clanMemberId));
+        }
+    }
+
+    /**
+     * Removes all scheduled reverifications after the lease was lost.
+     */
+    private void unscheduleAll() {
+        if (scheduler == null) return;
         try {
-            scheduler = new StdSchedulerFactory().getScheduler();
-            scheduler.start();
-
-            List<Integer> clanMembers = new ArrayList<>();
-            try(Connection con = config.getDataSource().getConnection()) {
-                PreparedStatement pstm = con.prepareStatement("SELECT DISTINCT \"clanMember\".\"id\" FROM \"clanMember\", \"clan\", \"reverificationFeature\" WHERE \"clan\".\"id\" = \"reverificationFeature\".\"clanId\"");
-                ResultSet rs = pstm.executeQuery();
-                while (rs.next()) {
-                    clanMembers.add(rs.getInt(1));
+            scheduler.clear();
+        } catch (SchedulerException exception) {
+            log.error("Failed to clear the reverification schedule.", exception);
+        }
+    }
+
+    /**
+     * Creates and starts the scheduler on first use.
+     * Every manager gets its own scheduler, so the config in its context is never shared.
+     * @return the scheduler or null if it failed to start.
+     */
+    @Nullable
+    private Scheduler getScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    try {
+                        Properties properties = new Properties();
+                        properties.setProperty("org.quartz.scheduler.instanceName", "ClanManager-" + UUID.randomUUID());
+                        properties.setProperty("org.quartz.threadPool.threadCount", "10");
+                        Scheduler newScheduler = new StdSchedulerFactory(properties).getScheduler();
+                        newScheduler.getContext().put("config", config);
+                        newScheduler.start();
+                        scheduler = newScheduler;
+                    } catch (SchedulerException exception) {
+                        log.error("Failed to start scheduler for reverification feature.", exception);
+                    }
                 }
-            } catch (SQLException exception) {
-                exception.printStackTrace();
-            }
-            if (clanMembers.isEmpty()) return;
-            for (int clanMemberId : clanMembers) {
-                ClanMember clanMember = config.getClanManager().getClanMember(clanMemberId);
-                if (clanMember == null) continue;
-                scheduleReverification(clanMember);
             }
+        }
+        return scheduler;
+    }
+
+    @Override
+    public void invalidateClanMember(int clanMemberId) {
+        if (lease == null || !lease.isHeld()) return;
+        ClanMemberData data = config.getClanStore().getClanMember(clanMemberId);
+        if (data == null) {
+            cancel(clanMemberId);
+            return;
+        }
+        reschedule(data, config.getClanStore().getReverificationDays(data.getClanId()));
+    }
+
+    @Override
+    public void invalidateReverification(int clanId) {
+        if (lease == null || !lease.isHeld()) return;
+        short days = config.getClanStore().getReverificationDays(clanId);
+        for (ClanMemberData data : config.getClanStore().getClanMembers(clanId)) {
+            reschedule(data, days);
+        }
+    }
+
+    /**
+     * Reschedules clan members with the reverification days of their clan, e.g. after they moved to another clan.
+     * @param clanId The id of the clan the members are in now.
+     * @param clanMembers The clan members.
+     */
+    public void reschedule(int clanId, @Nonnull List<ClanMemberData> clanMembers) {
+        if (!isLeader() || clanMembers.isEmpty()) return;
+        short days = config.getClanStore().getReverificationDays(clanId);
+        for (ClanMemberData data : clanMembers) {
+            reschedule(data, days);
+        }
+    }
+
+    private void reschedule(@Nonnull ClanMemberData data, short days) {
+        cancel(data.getId());
+        if (days >= 0) schedule(data.getId(), data.getVerificationTime(), days);
+    }
+
+    /**
+     * Stops renewing the lease, so another instance takes over, and stops the scheduler.
+     */
+    public void shutdown() {
+        if (lease != null) lease.shutdown();
+        if (scheduler == null) return;
+        try {
+            scheduler.shutdown();
         } catch (SchedulerException exception) {
-            log.error("Failed to start scheduler for reverification feature.", exception);
+            log.error("Failed to shut down the reverification scheduler.", exception);
         }
     }
 
@@ -66,6 +189,7 @@ public class ReverificationStateManager {
      * @param clanMember The clan member to schedule.
      */
     public void  scheduleReverification(@Nonnull ClanMember clanMember) {
+        if (!isLeader()) return;
         ReverificationFeature feature;
         try {
             feature = new ReverificationFeature(clanMember.getClan(), config);
@@ -73,17 +197,22 @@ public class ReverificationStateManager {
             log.debug("Failed to create reverification feature for clan member {}.", clanMember.getId());
             return;
         }
+        schedule(clanMember.getId(), clanMember.getVerificationDate(), feature.getNumberOfDays());
+    }
+
+    private void schedule(int clanMemberId, @Nonnull Timestamp verificationTime, int numberOfDays) {
         JobDetail job = newJob(ReverificationJob.class)
-                .withIdentity(String.valueOf(clanMember.getId()))
+                .withIdentity(String.valueOf(clanMemberId))
                 .build();
-        Date date = Date.from(clanMember.getVerificationDate().toInstant().plus(feature.getNumberOfDays(), ChronoUnit.DAYS));
+        Date date = Date.from(verificationTime.toInstant().plus(numberOfDays, ChronoUnit.DAYS));
         Trigger trigger = newTrigger()
-                .withIdentity(String.valueOf(clanMember.getId()))
+                .withIdentity(String.valueOf(clanMemberId))
                 .startAt(date)
                 .withSchedule(simpleSchedule().withMisfireHandlingInstructionFireNow())
                 .build();
+        Scheduler scheduler = getScheduler();
+        if (scheduler == null) return;
         try {
-            scheduler.getContext().put("config", config);
             scheduler.scheduleJob(job, trigger);
         } catch (SchedulerException exception) {
             exception.printStackTrace();
@@ -95,9 +224,34 @@ public class ReverificationStateManager {
      * @param clanMember The clan member to cancel.
      */
     public void cancelSchedule(@Nonnull ClanMember clanMember) {
+        cancel(clanMember.getId());
+    }
+
+    /**
+     * Cancels the reverifications of several clan members at once.
+     * Ids without a scheduled reverification are ignored.
+     * @param clanMemberIds The ids of the clan members.
+     */
+    public void cancelSchedules(@Nonnull int... clanMemberIds) {
+        // nothing was scheduled yet
+        if (scheduler == null || clanMemberIds.length == 0) return;
+        List<JobKey> keys = new ArrayList<>(clanMemberIds.length);
+        for (int clanMemberId : clanMemberIds) {
+            keys.add(JobKey.jobKey(String.valueOf(clanMemberId)));
+        }
+        try {
+            scheduler.deleteJobs(keys);
+        } catch (SchedulerException exception) {
+            log.error("Failed to cancel the reverification of {} clan members.", clanMemberIds.length, exception);
+        }
+    }
+
+    private void cancel(int clanMemberId) {
+        // nothing was scheduled yet
+        if (scheduler == null) return;
         try {
-            if (!scheduler.checkExists(JobKey.jobKey(String.valueOf(clanMember.getId())))) return;
-            scheduler.deleteJob(JobKey.jobKey(String.valueOf(clanMember.getId())));
+            if (!scheduler.checkExists(JobKey.jobKey(String.valueOf(clanMemberId)))) return;
+            scheduler.deleteJob(JobKey.jobKey(String.valueOf(clanMemberId)));
         } catch (SchedulerException exception) {
             exception.printStackTrace();
         }
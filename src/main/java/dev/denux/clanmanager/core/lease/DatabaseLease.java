@@ -0,0 +1,160 @@
+package dev.denux.clanmanager.core.lease;
+
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A named lease in the {@code lease} table that at most one instance holds at a time.
+ * <p>
+ * The holder renews the lease every third of the lease time. If it stops doing so, another instance takes over once the lease expired.
+ * All times are taken from the database, so the clocks of the instances don't need to agree.
+ * Locally the lease counts as lost a renewal interval before it expires, so two instances never act at once.
+ */
+public class DatabaseLease {
+    private static final Logger log = JDALogger.getLog(DatabaseLease.class);
+
+    private final DataSource dataSource;
+    private final String name;
+    private final String holder;
+    private final Duration leaseTime;
+    private volatile long heldUntil = System.nanoTime();
+    private volatile boolean held;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param dataSource The database with the {@code lease} table.
+     * @param name The name of the lease.
+     * @param holder The id of this instance.
+     * @param leaseTime How long the lease is valid without being renewed.
+     */
+    public DatabaseLease(@Nonnull DataSource dataSource, @Nonnull String name, @Nonnull String holder, @Nonnull Duration leaseTime) {
+        this.dataSource = dataSource;
+        this.name = name;
+        this.holder = holder;
+        this.leaseTime = leaseTime;
+    }
+
+    /**
+     * @return True if this instance holds the lease.
+     */
+    public boolean isHeld() {
+        return held && System.nanoTime() - heldUntil < 0;
+    }
+
+    /**
+     * Acquires or renews the lease.
+     * @return True if this instance holds the lease afterwards.
+     */
+    public synchronized boolean tryAcquire() {
+        long start = System.nanoTime();
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            ResultSet rs = con.prepareStatement("SELECT CURRENT_TIMESTAMP").executeQuery();
+            rs.next();
+            Timestamp now = rs.getTimestamp(1);
+            Timestamp expiresAt = new Timestamp(now.getTime() + leaseTime.toMillis());
+            PreparedStatement update = con.prepareStatement(
+                    "UPDATE \"lease\" SET \"holder\" = ?, \"expiresAt\" = ? WHERE \"name\" = ? AND (\"holder\" = ? OR \"expiresAt\" < ?)");
+            update.setString(1, holder);
+            update.setTimestamp(2, expiresAt);
+            update.setString(3, name);
+            update.setString(4, holder);
+            update.setTimestamp(5, now);
+            boolean acquired = update.executeUpdate() == 1;
+            if (!acquired) {
+                PreparedStatement insert = con.prepareStatement(
+                        "INSERT INTO \"lease\" (\"name\", \"holder\", \"expiresAt\") SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM \"lease\" WHERE \"name\" = ?)");
+                insert.setString(1, name);
+                insert.setString(2, holder);
+                insert.setTimestamp(3, expiresAt);
+                insert.setString(4, name);
+                try {
+                    acquired = insert.executeUpdate() == 1;
+                } catch (SQLException exception) {
+                    // another instance inserted the lease at the same time
+                    if (exception.getSQLState() == null || !exception.getSQLState().startsWith("23")) throw exception;
+                    con.rollback();
+                    acquired = false;
+                }
+            }
+            con.commit();
+            heldUntil = start + leaseTime.toNanos() - renewInterval().toNanos();
+            held = acquired;
+        } catch (SQLException exception) {
+            log.error("Failed to renew the lease {}.", name, exception);
+            held = false;
+        }
+        return held;
+    }
+
+    /**
+     * Gives up the lease, so another instance can take over right away.
+     */
+    public synchronized void release() {
+        if (!held) return;
+        held = false;
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"lease\" WHERE \"name\" = ? AND \"holder\" = ?");
+            pstm.setString(1, name);
+            pstm.setString(2, holder);
+            pstm.executeUpdate();
+        } catch (SQLException exception) {
+            log.error("Failed to release the lease {}.", name, exception);
+        }
+    }
+
+    /**
+     * Tries to acquire and renew the lease every third of the lease time.
+     * @param onAcquired Called when this instance became the holder.
+     * @param onLost Called when this instance stopped being the holder.
+     */
+    public void start(@Nonnull Runnable onAcquired, @Nonnull Runnable onLost) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ClanManager-Lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = renewInterval().toMillis();
+        executor.scheduleWithFixedDelay(() -> {
+            boolean wasHeld = held;
+            try {
+                if (tryAcquire()) {
+                    if (!wasHeld) {
+                        log.info("Acquired the lease {}.", name);
+                        onAcquired.run();
+                    }
+                } else if (wasHeld) {
+                    log.info("Lost the lease {}.", name);
+                    onLost.run();
+                }
+            } catch (RuntimeException exception) {
+                log.error("Failed to handle the lease {}.", name, exception);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops renewing and releases the lease.
+     */
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+        release();
+    }
+
+    @Nonnull
+    private Duration renewInterval() {
+        return leaseTime.dividedBy(3);
+    }
+}
@@ -0,0 +1,29 @@
+package dev.denux.clanmanager.core.listeners;
+
+import dev.denux.clanmanager.core.store.DiscordIdCachingClanStore;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Drops the cached discord ids of clans whose roles or channels were deleted.
+ */
+public class DiscordIdCacheListener extends ListenerAdapter {
+    private final DiscordIdCachingClanStore store;
+
+    public DiscordIdCacheListener(@Nonnull DiscordIdCachingClanStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void onRoleDelete(@Nonnull RoleDeleteEvent event) {
+        store.invalidateRole(event.getRole().getIdLong());
+    }
+
+    @Override
+    public void onChannelDelete(@Nonnull ChannelDeleteEvent event) {
+        store.invalidateChannel(event.getChannel().getIdLong());
+    }
+}
@@ -0,0 +1,35 @@
+package dev.denux.clanmanager.core.listeners;
+
+import dev.denux.clanmanager.core.store.GuildIndexedClanStore;
+import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Keeps the {@link GuildIndexedClanStore} in sync with the guilds the bot is actually in.
+ */
+public class GuildClanIndexListener extends ListenerAdapter {
+    private final GuildIndexedClanStore store;
+
+    public GuildClanIndexListener(@Nonnull GuildIndexedClanStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void onGuildReady(@Nonnull GuildReadyEvent event) {
+        store.indexGuild(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildJoin(@Nonnull GuildJoinEvent event) {
+        store.indexGuild(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildLeave(@Nonnull GuildLeaveEvent event) {
+        store.dropGuild(event.getGuild().getIdLong());
+    }
+}
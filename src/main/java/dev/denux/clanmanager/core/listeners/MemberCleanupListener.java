@@ -0,0 +1,155 @@
+package dev.denux.clanmanager.core.listeners;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.utils.LongObjectMap;
+import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the memberships of users that left a guild and of guilds the bot was removed from.
+ * <p>
+ * The events are collected for a short window and deleted together, one statement per guild,
+ * so a raid or a wave of kicks doesn't turn into a delete per member. Owners are kept, their clans would be left without one.
+ */
+public class MemberCleanupListener extends ListenerAdapter {
+    private static final Logger log = JDALogger.getLog(MemberCleanupListener.class);
+
+    private final ClanManagerConfig config;
+    private final Duration window;
+    private final ScheduledExecutorService executor;
+    // guildId -> userIds that left
+    private LongObjectMap<LongObjectMap<Boolean>> leftUsers = new LongObjectMap<>();
+    // guildIds the bot was removed from
+    private LongObjectMap<Boolean> leftGuilds = new LongObjectMap<>();
+    private boolean flushScheduled;
+
+    /**
+     * @param config The config of the manager.
+     * @param window How long events are collected before they are deleted together.
+     */
+    public MemberCleanupListener(@Nonnull ClanManagerConfig config, @Nonnull Duration window) {
+        this.config = config;
+        this.window = window;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ClanManager-Cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void onGuildMemberRemove(@Nonnull GuildMemberRemoveEvent event) {
+        long guildId = event.getGuild().getIdLong();
+        synchronized (this) {
+            if (leftGuilds.containsKey(guildId)) return;
+            LongObjectMap<Boolean> users = leftUsers.get(guildId);
+            if (users == null) {
+                users = new LongObjectMap<>();
+                leftUsers.put(guildId, users);
+            }
+            users.put(event.getUser().getIdLong(), Boolean.TRUE);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void onGuildMemberJoin(@Nonnull GuildMemberJoinEvent event) {
+        // the user came back before the memberships were deleted
+        synchronized (this) {
+            LongObjectMap<Boolean> users = leftUsers.get(event.getGuild().getIdLong());
+            if (users != null) users.remove(event.getUser().getIdLong());
+        }
+    }
+
+    @Override
+    public void onGuildLeave(@Nonnull GuildLeaveEvent event) {
+        long guildId = event.getGuild().getIdLong();
+        synchronized (this) {
+            // the whole guild is deleted anyway
+            leftUsers.remove(guildId);
+            leftGuilds.put(guildId, Boolean.TRUE);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void onGuildJoin(@Nonnull GuildJoinEvent event) {
+        synchronized (this) {
+            leftGuilds.remove(event.getGuild().getIdLong());
+        }
+    }
+
+    /**
+     * Has to be called while synchronized on the listener.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled || executor.isShutdown()) return;
+        flushScheduled = true;
+        executor.schedule(this::flush, window.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deletes the memberships of everything collected so far.
+     * @return The number of deleted memberships.
+     */
+    public int flush() {
+        LongObjectMap<LongObjectMap<Boolean>> users;
+        LongObjectMap<Boolean> guilds;
+        synchronized (this) {
+            users = leftUsers;
+            guilds = leftGuilds;
+            leftUsers = new LongObjectMap<>();
+            leftGuilds = new LongObjectMap<>();
+            flushScheduled = false;
+        }
+        List<ClanMemberData> deleted = new ArrayList<>();
+        for (long guildId : guilds.keys()) {
+            try {
+                deleted.addAll(config.getClanStore().deleteClanMembersByGuild(guildId));
+            } catch (RuntimeException exception) {
+                log.error("Failed to delete the clan members of the left guild {}.", guildId, exception);
+            }
+        }
+        for (long guildId : users.keys()) {
+            LongObjectMap<Boolean> guildUsers = users.get(guildId);
+            if (guildUsers.isEmpty()) continue;
+            try {
+                deleted.addAll(config.getClanStore().deleteClanMembersByUsers(guildId, guildUsers.keys()));
+            } catch (RuntimeException exception) {
+                log.error("Failed to delete the clan members of {} users that left the guild {}.", guildUsers.size(), guildId, exception);
+            }
+        }
+        if (deleted.isEmpty()) return 0;
+        if (config.getReverificationManager() != null) {
+            int[] ids = new int[deleted.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = deleted.get(i).getId();
+            }
+            config.getReverificationManager().cancelSchedules(ids);
+        }
+        log.debug("Deleted {} clan members that left their guild.", deleted.size());
+        return deleted.size();
+    }
+
+    /**
+     * Deletes what was collected so far and stops the background flushes.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        flush();
+    }
+}
@@ -0,0 +1,239 @@
+package dev.denux.clanmanager.core.retention;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanDeletionData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.OrphanedRowsData;
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.utils.LongObjectMap;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the rows of departed guilds, departed users and deleted clans in the background.
+ * <p>
+ * Every policy walks the tables with keyset pagination and deletes at most one chunk per statement,
+ * with a pause after every chunk, so the locks are held briefly and live traffic is never blocked for long.
+ * Deletes go through the {@link ClanStore}, so the caches and event listeners see them like any other delete.
+ */
+public class RetentionJob {
+    private static final Logger log = JDALogger.getLog(RetentionJob.class);
+
+    private final ClanManagerConfig config;
+    private final Set<RetentionPolicy> policies;
+    private final Duration interval;
+    private final int chunkSize;
+    private final Duration pause;
+    // guildIds that were missing in the last run
+    private LongObjectMap<Boolean> missingGuilds = new LongObjectMap<>();
+    private volatile RetentionReport lastReport;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param config The config of the manager.
+     * @param policies The kinds of rows to delete.
+     * @param interval How often the job runs.
+     * @param chunkSize The maximum amount of rows scanned and deleted at once.
+     * @param pause How long to wait after every chunk.
+     */
+    public RetentionJob(@Nonnull ClanManagerConfig config, @Nonnull Set<RetentionPolicy> policies, @Nonnull Duration interval,
+                        int chunkSize, @Nonnull Duration pause) {
+        if (chunkSize < 1) throw new IllegalArgumentException("The chunk size must be at least 1.");
+        this.config = config;
+        this.policies = policies.isEmpty() ? EnumSet.noneOf(RetentionPolicy.class) : EnumSet.copyOf(policies);
+        this.interval = interval;
+        this.chunkSize = chunkSize;
+        this.pause = pause;
+    }
+
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ClanManager-Retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::run, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the job. A running chunk is finished, the rest of the run is skipped.
+     */
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Applies every policy once.
+     * @return The rows reclaimed by the run.
+     */
+    @Nonnull
+    public synchronized RetentionReport run() {
+        long start = System.nanoTime();
+        Map<RetentionPolicy, Integer> reclaimed = new EnumMap<>(RetentionPolicy.class);
+        boolean completed = false;
+        try {
+            if (policies.contains(RetentionPolicy.DEPARTED_GUILDS) || policies.contains(RetentionPolicy.DEPARTED_USERS)) {
+                scanClans(reclaimed);
+            }
+            if (policies.contains(RetentionPolicy.ORPHANED_ROWS)) {
+                reclaimed.put(RetentionPolicy.ORPHANED_ROWS, deleteOrphanedRows());
+            }
+            completed = true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            log.debug("The retention run was stopped.");
+        } catch (RuntimeException exception) {
+            log.error("Failed to apply the retention policies.", exception);
+        }
+        RetentionReport report = new RetentionReport(reclaimed, Duration.ofNanos(System.nanoTime() - start), completed);
+        lastReport = report;
+        if (report.getReclaimedRows() > 0) {
+            log.info("Reclaimed {} rows in {} ms: {}", report.getReclaimedRows(), report.getDuration().toMillis(), reclaimed);
+        } else {
+            log.debug("No rows to reclaim.");
+        }
+        return report;
+    }
+
+    /**
+     * @return The report of the last run or null if the job did not run yet.
+     */
+    @Nullable
+    public RetentionReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Walks all clans and deletes the clans of departed guilds and the members of departed users.
+     */
+    private void scanClans(@Nonnull Map<RetentionPolicy, Integer> reclaimed) throws InterruptedException {
+        LongObjectMap<Boolean> missing = new LongObjectMap<>();
+        int afterId = 0;
+        List<ClanData> clans;
+        do {
+            clans = config.getClanStore().getClans(afterId, chunkSize);
+            for (ClanData clan : clans) {
+                afterId = clan.getId();
+                long guildId = clan.getDiscordGuildId();
+                JDA jda = config.getJda(guildId);
+                // without a connected shard it is unknown whether the bot is still in the guild
+                if (jda == null || jda.getStatus() != JDA.Status.CONNECTED || jda.isUnavailable(guildId)) continue;
+                Guild guild = jda.getGuildById(guildId);
+                if (guild == null) {
+                    if (!policies.contains(RetentionPolicy.DEPARTED_GUILDS)) continue;
+                    missing.put(guildId, Boolean.TRUE);
+                    if (missingGuilds.containsKey(guildId)) reclaimed.merge(RetentionPolicy.DEPARTED_GUILDS, deleteClan(clan), Integer::sum);
+                } else if (policies.contains(RetentionPolicy.DEPARTED_USERS) && guild.isLoaded()) {
+                    reclaimed.merge(RetentionPolicy.DEPARTED_USERS, deleteDepartedMembers(clan, guild), Integer::sum);
+                }
+            }
+            sleep();
+        } while (clans.size() == chunkSize);
+        missingGuilds = missing;
+    }
+
+    /**
+     * Deletes the members of a clan chunk by chunk and then the clan with the rest of its rows.
+     * @return the number of deleted rows.
+     */
+    private int deleteClan(@Nonnull ClanData clan) throws InterruptedException {
+        ClanStore store = config.getClanStore();
+        int rows = 0;
+        int afterId = 0;
+        List<ClanMemberData> members;
+        do {
+            members = store.getClanMembers(clan.getId(), afterId, chunkSize, ClanMemberSort.ID);
+            if (members.isEmpty()) break;
+            afterId = members.get(members.size() - 1).getId();
+            long[] userIds = new long[members.size()];
+            for (int i = 0; i < userIds.length; i++) {
+                userIds[i] = members.get(i).getDiscordUserId();
+            }
+            // the other clans of the guild are deleted as well, so their memberships of the users can go too
+            rows += deleteClanMembers(clan.getDiscordGuildId(), userIds);
+            sleep();
+        } while (members.size() == chunkSize);
+        // only the owner is left
+        ClanDeletionData deleted = store.deleteClan(clan.getId());
+        rows += deleted.getDeletedRows();
+        cancelSchedules(deleted.getMembers());
+        log.debug("Deleted the clan {} of the departed guild {}.", clan.getId(), clan.getDiscordGuildId());
+        return rows;
+    }
+
+    /**
+     * Deletes the members of a clan whose users are not members of the guild anymore.
+     * @return the number of deleted rows.
+     */
+    private int deleteDepartedMembers(@Nonnull ClanData clan, @Nonnull Guild guild) throws InterruptedException {
+        int rows = 0;
+        int afterId = 0;
+        List<ClanMemberData> members;
+        do {
+            members = config.getClanStore().getClanMembers(clan.getId(), afterId, chunkSize, ClanMemberSort.ID);
+            if (members.isEmpty()) break;
+            afterId = members.get(members.size() - 1).getId();
+            List<Long> departed = new ArrayList<>();
+            for (ClanMemberData member : members) {
+                if (guild.getMemberById(member.getDiscordUserId()) == null) departed.add(member.getDiscordUserId());
+            }
+            if (departed.isEmpty()) continue;
+            rows += deleteClanMembers(clan.getDiscordGuildId(), departed.stream().mapToLong(Long::longValue).toArray());
+            sleep();
+        } while (members.size() == chunkSize);
+        return rows;
+    }
+
+    private int deleteClanMembers(long guildId, @Nonnull long... userIds) {
+        List<ClanMemberData> deleted = config.getClanStore().deleteClanMembersByUsers(guildId, userIds);
+        cancelSchedules(deleted);
+        return deleted.size();
+    }
+
+    private void cancelSchedules(@Nonnull List<ClanMemberData> clanMembers) {
+        if (clanMembers.isEmpty() || config.getReverificationManager() == null) return;
+        int[] ids = new int[clanMembers.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = clanMembers.get(i).getId();
+        }
+        config.getReverificationManager().cancelSchedules(ids);
+    }
+
+    /**
+     * Deletes the rows of deleted clans chunk by chunk.
+     * @return the number of deleted rows.
+     */
+    private int deleteOrphanedRows() throws InterruptedException {
+        int rows = 0;
+        int afterClanId = 0;
+        do {
+            OrphanedRowsData result = config.getClanStore().deleteOrphanedRows(afterClanId, chunkSize);
+            rows += result.getDeletedRows();
+            afterClanId = result.getNextClanId();
+            if (afterClanId != -1) sleep();
+        } while (afterClanId != -1);
+        return rows;
+    }
+
+    private void sleep() throws InterruptedException {
+        if (!pause.isZero()) Thread.sleep(pause.toMillis());
+        else if (Thread.interrupted()) throw new InterruptedException();
+    }
+}
@@ -0,0 +1,23 @@
+package dev.denux.clanmanager.core.retention;
+
+/**
+ * The kinds of rows the {@link RetentionJob} deletes.
+ */
+public enum RetentionPolicy {
+    /**
+     * Clans of guilds the bot is not a member of anymore, together with their members, blocklist and settings.
+     * A guild has to be missing in two runs in a row, so a guild that is just not cached yet is never deleted.
+     * Guilds of shards that are not connected and unavailable guilds are skipped.
+     */
+    DEPARTED_GUILDS,
+    /**
+     * Clan members whose user is not a member of the guild anymore, e.g. because the account was deleted
+     * or the user left while the bot was offline. Clan owners are kept.
+     * Only guilds whose members are all cached are checked, see {@link net.dv8tion.jda.api.entities.Guild#isLoaded()}.
+     */
+    DEPARTED_USERS,
+    /**
+     * Clan members, blocked users, reverification settings and counters whose clan does not exist anymore.
+     */
+    ORPHANED_ROWS
+}
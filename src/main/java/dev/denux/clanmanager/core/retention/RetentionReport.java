@@ -0,0 +1,56 @@
+package dev.denux.clanmanager.core.retention;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The rows one run of the {@link RetentionJob} reclaimed.
+ */
+public class RetentionReport {
+    private final Map<RetentionPolicy, Integer> reclaimedRows;
+    private final Duration duration;
+    private final boolean completed;
+
+    public RetentionReport(@Nonnull Map<RetentionPolicy, Integer> reclaimedRows, @Nonnull Duration duration, boolean completed) {
+        this.reclaimedRows = new EnumMap<>(RetentionPolicy.class);
+        this.reclaimedRows.putAll(reclaimedRows);
+        this.duration = duration;
+        this.completed = completed;
+    }
+
+    /**
+     * @param policy The policy.
+     * @return The number of rows the policy deleted over all tables.
+     */
+    public int getReclaimedRows(@Nonnull RetentionPolicy policy) {
+        return reclaimedRows.getOrDefault(policy, 0);
+    }
+
+    /**
+     * @return The number of rows deleted by all policies.
+     */
+    public int getReclaimedRows() {
+        int total = 0;
+        for (int rows : reclaimedRows.values()) {
+            total += rows;
+        }
+        return total;
+    }
+
+    /**
+     * @return How long the run took, including the pauses between the chunks.
+     */
+    @Nonnull
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return False if the run failed or was stopped before every policy was applied.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+}
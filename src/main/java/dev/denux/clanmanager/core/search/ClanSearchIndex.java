@@ -0,0 +1,281 @@
+package dev.denux.clanmanager.core.search;
+
+import dev.denux.clanmanager.core.store.ClanData;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable search index over the names and tags of the clans of one guild.
+ * <p>
+ * Prefixes of the name, the tag and every word of the name are found with a binary search over a sorted key array.
+ * Only if that doesn't fill the requested amount of results, the clans are scanned for substrings and typos.
+ */
+public class ClanSearchIndex {
+    private static final int EXACT = 100;
+    private static final int TAG_PREFIX = 80;
+    private static final int NAME_PREFIX = 70;
+    private static final int WORD_PREFIX = 50;
+    private static final int SUBSTRING = 30;
+    private static final int FUZZY = 20;
+
+    private static final ClanSearchIndex EMPTY = new ClanSearchIndex(new int[0], new String[0], new String[0]);
+
+    private final int[] ids;
+    private final String[] names;
+    private final String[] tags;
+    private final String[] normalizedNames;
+    private final String[] normalizedTags;
+    private final String[][] words;
+    // sorted keys and the clan index and base score of each key
+    private final String[] keys;
+    private final int[] keyClans;
+    private final int[] keyScores;
+
+    private ClanSearchIndex(@Nonnull int[] ids, @Nonnull String[] names, @Nonnull String[] tags) {
+        int size = ids.length;
+        this.ids = ids;
+        this.names = names;
+        this.tags = tags;
+        normalizedNames = new String[size];
+        normalizedTags = new String[size];
+        words = new String[size][];
+        List<Key> keyList = new ArrayList<>(size * 3);
+        for (int i = 0; i < size; i++) {
+            normalizedNames[i] = normalize(names[i]);
+            normalizedTags[i] = normalize(tags[i]);
+            keyList.add(new Key(normalizedNames[i], i, NAME_PREFIX));
+            keyList.add(new Key(normalizedTags[i], i, TAG_PREFIX));
+            words[i] = normalizedNames[i].split("\\s+");
+            for (int w = 1; w < words[i].length; w++) {
+                if (!words[i][w].isEmpty()) keyList.add(new Key(words[i][w], i, WORD_PREFIX));
+            }
+        }
+        keyList.sort((a, b) -> a.key.compareTo(b.key));
+        keys = new String[keyList.size()];
+        keyClans = new int[keyList.size()];
+        keyScores = new int[keyList.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Key key = keyList.get(i);
+            keys[i] = key.key;
+            keyClans[i] = key.clan;
+            keyScores[i] = key.score;
+        }
+    }
+
+    /**
+     * Builds the index of the given clans.
+     * @param clans The clans of one guild.
+     * @return the index.
+     */
+    @Nonnull
+    public static ClanSearchIndex of(@Nonnull List<ClanData> clans) {
+        if (clans.isEmpty()) return EMPTY;
+        int[] ids = new int[clans.size()];
+        String[] names = new String[clans.size()];
+        String[] tags = new String[clans.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ClanData clan = clans.get(i);
+            ids[i] = clan.getId();
+            names[i] = clan.getName();
+            tags[i] = clan.getTag();
+        }
+        return new ClanSearchIndex(ids, names, tags);
+    }
+
+    /**
+     * Returns a copy of this index with the clan added or replaced.
+     * @param clanId The id of the clan.
+     * @param name The name of the clan.
+     * @param tag The tag of the clan.
+     * @return the new index.
+     */
+    @Nonnull
+    public ClanSearchIndex withClan(int clanId, @Nonnull String name, @Nonnull String tag) {
+        int position = indexOf(clanId);
+        int size = position < 0 ? ids.length + 1 : ids.length;
+        int[] newIds = Arrays.copyOf(ids, size);
+        String[] newNames = Arrays.copyOf(names, size);
+        String[] newTags = Arrays.copyOf(tags, size);
+        if (position < 0) position = size - 1;
+        newIds[position] = clanId;
+        newNames[position] = name;
+        newTags[position] = tag;
+        return new ClanSearchIndex(newIds, newNames, newTags);
+    }
+
+    /**
+     * Returns a copy of this index without the clan.
+     * @param clanId The id of the clan.
+     * @return the new index.
+     */
+    @Nonnull
+    public ClanSearchIndex withoutClan(int clanId) {
+        int position = indexOf(clanId);
+        if (position < 0) return this;
+        int size = ids.length - 1;
+        int[] newIds = new int[size];
+        String[] newNames = new String[size];
+        String[] newTags = new String[size];
+        for (int i = 0, j = 0; i < ids.length; i++) {
+            if (i == position) continue;
+            newIds[j] = ids[i];
+            newNames[j] = names[i];
+            newTags[j++] = tags[i];
+        }
+        return new ClanSearchIndex(newIds, newNames, newTags);
+    }
+
+    /**
+     * @param clanId The id of the clan.
+     * @return True if the clan is part of this index.
+     */
+    public boolean contains(int clanId) {
+        return indexOf(clanId) >= 0;
+    }
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The name of the clan or null if it is not part of this index.
+     */
+    @Nullable
+    public String getName(int clanId) {
+        int position = indexOf(clanId);
+        return position < 0 ? null : names[position];
+    }
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The tag of the clan or null if it is not part of this index.
+     */
+    @Nullable
+    public String getTag(int clanId) {
+        int position = indexOf(clanId);
+        return position < 0 ? null : tags[position];
+    }
+
+    @Nonnull
+    int[] clanIds() {
+        return ids;
+    }
+
+    private int indexOf(int clanId) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == clanId) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The amount of indexed clans.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Searches the clans by name and tag. Matching is case-insensitive.
+     * An empty query returns the first clans in alphabetical order, which is what autocomplete shows before typing.
+     * @param query The text the user typed.
+     * @param limit The maximum amount of results.
+     * @return The best matches, best first.
+     */
+    @Nonnull
+    public List<ClanSearchResult> search(@Nonnull String query, int limit) {
+        String normalized = normalize(query);
+        int[] scores = new int[ids.length];
+        int matches = 0;
+        for (int i = lowerBound(normalized); i < keys.length && keys[i].startsWith(normalized); i++) {
+            int clan = keyClans[i];
+            int score = keys[i].length() == normalized.length() && keyScores[i] != WORD_PREFIX ? EXACT : keyScores[i];
+            if (scores[clan] == 0) matches++;
+            if (score > scores[clan]) scores[clan] = score;
+        }
+        if (matches < limit && !normalized.isEmpty()) {
+            int maxDistance = normalized.length() <= 3 ? 0 : normalized.length() <= 6 ? 1 : 2;
+            for (int i = 0; i < ids.length; i++) {
+                if (scores[i] != 0) continue;
+                if (normalizedNames[i].contains(normalized) || normalizedTags[i].contains(normalized)) {
+                    scores[i] = SUBSTRING;
+                } else if (maxDistance > 0) {
+                    int distance = prefixDistance(normalized, normalizedTags[i], maxDistance);
+                    for (String word : words[i]) {
+                        distance = Math.min(distance, prefixDistance(normalized, word, maxDistance));
+                    }
+                    if (distance <= maxDistance) scores[i] = FUZZY - distance;
+                }
+            }
+        }
+        return top(scores, limit);
+    }
+
+    @Nonnull
+    private List<ClanSearchResult> top(@Nonnull int[] scores, int limit) {
+        List<ClanSearchResult> results = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > 0) results.add(new ClanSearchResult(ids[i], names[i], tags[i], scores[i]));
+        }
+        results.sort((a, b) -> a.getScore() != b.getScore()
+                ? Integer.compare(b.getScore(), a.getScore())
+                : a.getName().compareToIgnoreCase(b.getName()));
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    private int lowerBound(@Nonnull String key) {
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) return -index - 1;
+        while (index > 0 && keys[index - 1].equals(key)) index--;
+        return index;
+    }
+
+    /**
+     * Levenshtein distance between the query and the start of the text, so "clna" still matches "clans of ...".
+     * Gives up as soon as the distance exceeds the maximum.
+     */
+    private static int prefixDistance(@Nonnull String query, @Nonnull String text, int maxDistance) {
+        int length = Math.min(text.length(), query.length() + maxDistance);
+        int[] previous = new int[length + 1];
+        int[] current = new int[length + 1];
+        for (int j = 0; j <= length; j++) previous[j] = j;
+        for (int i = 1; i <= query.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= length; j++) {
+                int cost = query.charAt(i - 1) == text.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (current[j] < rowMin) rowMin = current[j];
+            }
+            if (rowMin > maxDistance) return maxDistance + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        // the text may continue after the matched prefix
+        int best = previous[0];
+        for (int j = 1; j <= length; j++) {
+            if (previous[j] < best) best = previous[j];
+        }
+        return best;
+    }
+
+    @Nonnull
+    private static String normalize(@Nonnull String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class Key {
+        private final String key;
+        private final int clan;
+        private final int score;
+
+        private Key(@Nonnull String key, int clan, int score) {
+            this.key = key;
+            this.clan = clan;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package dev.denux.clanmanager.core.search;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A single match of a clan search.
+ */
+public class ClanSearchResult {
+    private final int clanId;
+    private final String name;
+    private final String tag;
+    private final int score;
+
+    public ClanSearchResult(int clanId, @Nonnull String name, @Nonnull String tag, int score) {
+        this.clanId = clanId;
+        this.name = name;
+        this.tag = tag;
+        this.score = score;
+    }
+
+    public int getClanId() {
+        return clanId;
+    }
+
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    @Nonnull
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return How well the clan matched, higher is better. Only meaningful compared to other results of the same search.
+     */
+    public int getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,186 @@
+package dev.denux.clanmanager.core.search;
+
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanDeletionData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanMergeData;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.ForwardingClanStore;
+import dev.denux.clanmanager.core.store.StoreInvalidationListener;
+import dev.denux.clanmanager.utils.LongObjectMap;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link ClanStore} decorator that keeps a {@link ClanSearchIndex} per guild.
+ * The index of a guild is loaded on its first search and replaced whenever a clan of the guild is
+ * created, renamed, retagged or deleted, so searches never touch the database.
+ */
+public class SearchIndexedClanStore extends ForwardingClanStore implements StoreInvalidationListener {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongObjectMap<ClanSearchIndex> indexes = new LongObjectMap<>();
+    // clanId -> guildId of every indexed clan
+    private final LongObjectMap<Long> guildByClan = new LongObjectMap<>();
+
+    public SearchIndexedClanStore(@Nonnull ClanStore delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Searches the clans of a guild by name and tag.
+     * @param discordGuildId The id of the guild.
+     * @param query The text the user typed.
+     * @param limit The maximum amount of results.
+     * @return The best matches, best first.
+     */
+    @Nonnull
+    public List<ClanSearchResult> search(long discordGuildId, @Nonnull String query, int limit) {
+        ClanSearchIndex index;
+        lock.readLock().lock();
+        try {
+            index = indexes.get(discordGuildId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (index == null) index = load(discordGuildId);
+        return index.search(query, limit);
+    }
+
+    /**
+     * Removes the index of the guild, it is loaded again on the next search.
+     * @param discordGuildId The id of the guild.
+     */
+    public void dropGuild(long discordGuildId) {
+        lock.writeLock().lock();
+        try {
+            removeGuild(discordGuildId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    private ClanSearchIndex load(long discordGuildId) {
+        List<ClanData> clans = delegate.getClansByGuild(discordGuildId);
+        ClanSearchIndex index = ClanSearchIndex.of(clans);
+        lock.writeLock().lock();
+        try {
+            removeGuild(discordGuildId);
+            indexes.put(discordGuildId, index);
+            for (ClanData clan : clans) {
+                guildByClan.put(clan.getId(), discordGuildId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    private void removeGuild(long discordGuildId) {
+        ClanSearchIndex index = indexes.remove(discordGuildId);
+        if (index == null) return;
+        for (int clanId : index.clanIds()) {
+            guildByClan.remove(clanId);
+        }
+    }
+
+    /**
+     * Drops the index of the guild of the clan. Clans of other instances may be unknown yet, so every index is dropped then.
+     * @param clanId The id of the clan.
+     */
+    @Override
+    public void invalidateClan(int clanId) {
+        lock.writeLock().lock();
+        try {
+            Long guildId = guildByClan.get(clanId);
+            if (guildId != null) {
+                removeGuild(guildId);
+            } else {
+                indexes.clear();
+                guildByClan.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        int clanId = delegate.insertClan(clan);
+        lock.writeLock().lock();
+        try {
+            ClanSearchIndex index = indexes.get(clan.getDiscordGuildId());
+            if (index != null) {
+                indexes.put(clan.getDiscordGuildId(), index.withClan(clanId, clan.getName(), clan.getTag()));
+                guildByClan.put(clanId, clan.getDiscordGuildId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return clanId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        ClanData inserted = delegate.insertClanWithOwner(clan, owner);
+        lock.writeLock().lock();
+        try {
+            ClanSearchIndex index = indexes.get(inserted.getDiscordGuildId());
+            if (index != null) {
+                indexes.put(inserted.getDiscordGuildId(), index.withClan(inserted.getId(), inserted.getName(), inserted.getTag()));
+                guildByClan.put(inserted.getId(), inserted.getDiscordGuildId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return inserted;
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        delegate.updateClan(clanId, column, value);
+        if (!"name".equals(column) && !"tag".equals(column)) return;
+        lock.writeLock().lock();
+        try {
+            Long guildId = guildByClan.get(clanId);
+            if (guildId == null) return;
+            ClanSearchIndex index = indexes.get(guildId);
+            String name = "name".equals(column) ? (String) value : index.getName(clanId);
+            String tag = "tag".equals(column) ? (String) value : index.getTag(clanId);
+            indexes.put(guildId, index.withClan(clanId, name, tag));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        ClanDeletionData deleted = delegate.deleteClan(clanId);
+        removeClan(clanId);
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        ClanMergeData result = delegate.mergeClans(sourceClanId, targetClanId);
+        removeClan(sourceClanId);
+        return result;
+    }
+
+    private void removeClan(int clanId) {
+        lock.writeLock().lock();
+        try {
+            Long guildId = guildByClan.remove(clanId);
+            if (guildId == null) return;
+            indexes.put(guildId, indexes.get(guildId).withoutClan(clanId));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
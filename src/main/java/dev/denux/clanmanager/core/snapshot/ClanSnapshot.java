@@ -0,0 +1,246 @@
+package dev.denux.clanmanager.core.snapshot;
+
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.LocaleCodes;
+import dev.denux.clanmanager.internal.CmPermission;
+import dev.denux.clanmanager.utils.LongObjectMap;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Immutable copy of the clan, clan member, blocklist and reverification tables.
+ * <p>
+ * The file starts with a magic number and the format version and ends with a CRC32 of everything before it,
+ * so truncated, corrupted or outdated files are rejected instead of being read.
+ */
+public class ClanSnapshot {
+    private static final Logger log = JDALogger.getLog(ClanSnapshot.class);
+    private static final int MAGIC = 0x434C4D53;
+    /**
+     * The version of the file format, increase it whenever the layout changes.
+     */
+    public static final int VERSION = 1;
+
+    private final long createdAt;
+    private final long changeLogId;
+    private final List<ClanData> clans;
+    private final List<ClanMemberData> clanMembers;
+    private final LongObjectMap<long[]> blockedUsers;
+    private final LongObjectMap<Short> reverificationDays;
+
+    /**
+     * @param createdAt The time the tables were read at, in milliseconds.
+     * @param changeLogId The highest id of the change log before the tables were read.
+     * @param clans All clans.
+     * @param clanMembers All clan members.
+     * @param blockedUsers The blocked user ids by clan id.
+     * @param reverificationDays The reverification days by clan id, only for clans that enabled the feature.
+     */
+    public ClanSnapshot(long createdAt, long changeLogId, @Nonnull List<ClanData> clans, @Nonnull List<ClanMemberData> clanMembers,
+                        @Nonnull LongObjectMap<long[]> blockedUsers, @Nonnull LongObjectMap<Short> reverificationDays) {
+        this.createdAt = createdAt;
+        this.changeLogId = changeLogId;
+        this.clans = clans;
+        this.clanMembers = clanMembers;
+        this.blockedUsers = blockedUsers;
+        this.reverificationDays = reverificationDays;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getChangeLogId() {
+        return changeLogId;
+    }
+
+    @Nonnull
+    public List<ClanData> getClans() {
+        return clans;
+    }
+
+    @Nonnull
+    public List<ClanMemberData> getClanMembers() {
+        return clanMembers;
+    }
+
+    /**
+     * @return The blocked user ids by clan id. Must not be modified.
+     */
+    @Nonnull
+    public LongObjectMap<long[]> getBlockedUsers() {
+        return blockedUsers;
+    }
+
+    /**
+     * @return The reverification days by clan id, only for clans that enabled the feature. Must not be modified.
+     */
+    @Nonnull
+    public LongObjectMap<Short> getReverificationDays() {
+        return reverificationDays;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it over the target, so readers never see a partial file.
+     * @param file The target file.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(@Nonnull Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(createdAt);
+            out.writeLong(changeLogId);
+            out.writeInt(clans.size());
+            for (ClanData clan : clans) {
+                out.writeInt(clan.getId());
+                writeString(out, clan.getVerificationCode());
+                writeString(out, clan.getName());
+                writeString(out, clan.getTag());
+                out.writeInt(clan.getOwnerId());
+                out.writeLong(clan.getOwnerUserId());
+                out.writeLong(clan.getDiscordGuildId());
+                out.writeLong(clan.getLeaderShipRoleId());
+                out.writeLong(clan.getMemberRoleId());
+                out.writeLong(clan.getDiscordChannelId());
+            }
+            out.writeInt(clanMembers.size());
+            for (ClanMemberData clanMember : clanMembers) {
+                out.writeInt(clanMember.getId());
+                out.writeLong(clanMember.getVerificationTime().getTime());
+                writeString(out, clanMember.getNickname());
+                out.writeByte(clanMember.getPermission().getLevel());
+                out.writeShort(LocaleCodes.toCode(clanMember.getLocale()));
+                out.writeInt(clanMember.getClanId());
+                out.writeLong(clanMember.getDiscordUserId());
+            }
+            out.writeInt(blockedUsers.size());
+            for (long clanId : blockedUsers.keys()) {
+                long[] userIds = blockedUsers.get(clanId);
+                out.writeInt((int) clanId);
+                out.writeInt(userIds.length);
+                for (long userId : userIds) {
+                    out.writeLong(userId);
+                }
+            }
+            out.writeInt(reverificationDays.size());
+            for (long clanId : reverificationDays.keys()) {
+                out.writeInt((int) clanId);
+                out.writeShort(reverificationDays.get(clanId));
+            }
+            out.flush();
+            // the checksum itself is not covered by the checksum
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot through a memory mapped file.
+     * @param file The snapshot file.
+     * @return The snapshot or null if the file does not exist, is corrupted or has another version.
+     */
+    @Nullable
+    public static ClanSnapshot read(@Nonnull Path file) {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Long.BYTES * 3 || size > Integer.MAX_VALUE) {
+                log.warn("Ignoring the snapshot {}, it has an invalid size.", file);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer content = buffer.duplicate();
+            content.limit((int) size - Long.BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            if (crc.getValue() != buffer.getLong((int) size - Long.BYTES)) {
+                log.warn("Ignoring the snapshot {}, the checksum does not match.", file);
+                return null;
+            }
+            if (buffer.getInt() != MAGIC) {
+                log.warn("Ignoring the snapshot {}, it is not a snapshot file.", file);
+                return null;
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                log.info("Ignoring the snapshot {}, it has the version {} instead of {}.", file, version, VERSION);
+                return null;
+            }
+            return read(buffer);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException exception) {
+            log.warn("Failed to read the snapshot {}.", file, exception);
+            return null;
+        }
+    }
+
+    @Nonnull
+    private static ClanSnapshot read(@Nonnull ByteBuffer buffer) {
+        long createdAt = buffer.getLong();
+        long changeLogId = buffer.getLong();
+        int clanCount = buffer.getInt();
+        List<ClanData> clans = new ArrayList<>(clanCount);
+        for (int i = 0; i < clanCount; i++) {
+            clans.add(new ClanData(buffer.getInt(), readString(buffer), readString(buffer), readString(buffer), buffer.getInt(),
+                    buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong()));
+        }
+        int clanMemberCount = buffer.getInt();
+        List<ClanMemberData> clanMembers = new ArrayList<>(clanMemberCount);
+        for (int i = 0; i < clanMemberCount; i++) {
+            clanMembers.add(new ClanMemberData(buffer.getInt(), new Timestamp(buffer.getLong()), readString(buffer),
+                    CmPermission.fromLevel(buffer.get()), LocaleCodes.fromCode(buffer.getShort()), buffer.getInt(), buffer.getLong()));
+        }
+        int blockedCount = buffer.getInt();
+        LongObjectMap<long[]> blockedUsers = new LongObjectMap<>(blockedCount);
+        for (int i = 0; i < blockedCount; i++) {
+            int clanId = buffer.getInt();
+            long[] userIds = new long[buffer.getInt()];
+            for (int j = 0; j < userIds.length; j++) {
+                userIds[j] = buffer.getLong();
+            }
+            blockedUsers.put(clanId, userIds);
+        }
+        int reverificationCount = buffer.getInt();
+        LongObjectMap<Short> reverificationDays = new LongObjectMap<>(reverificationCount);
+        for (int i = 0; i < reverificationCount; i++) {
+            reverificationDays.put(buffer.getInt(), buffer.getShort());
+        }
+        return new ClanSnapshot(createdAt, changeLogId, clans, clanMembers, blockedUsers, reverificationDays);
+    }
+
+    private static void writeString(@Nonnull DataOutputStream out, @Nonnull String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nonnull
+    private static String readString(@Nonnull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
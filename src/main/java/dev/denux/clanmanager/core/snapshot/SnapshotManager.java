@@ -0,0 +1,240 @@
+package dev.denux.clanmanager.core.snapshot;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.changelog.ChangeLogPoller;
+import dev.denux.clanmanager.core.changelog.ChangeType;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanStore;
+import dev.denux.clanmanager.core.store.ForwardingClanStore;
+import dev.denux.clanmanager.core.store.JdbcClanStore;
+import dev.denux.clanmanager.utils.LongObjectMap;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes {@link ClanSnapshot}s periodically and on shutdown and loads the last one at startup.
+ * <p>
+ * A loaded snapshot is brought up to date with the change log: every entity that changed after the snapshot
+ * was taken is read again from the database. Snapshots older than the change log retention can't be reconciled and are ignored.
+ */
+public class SnapshotManager {
+    private static final Logger log = JDALogger.getLog(SnapshotManager.class);
+    private static final int FETCH_SIZE = 1000;
+
+    private final ClanManagerConfig config;
+    private final Path file;
+    private final Duration interval;
+    private final JdbcClanStore store;
+    private ScheduledExecutorService executor;
+
+    public SnapshotManager(@Nonnull ClanManagerConfig config, @Nonnull Path file, @Nonnull Duration interval) {
+        this.config = config;
+        this.file = file;
+        this.interval = interval;
+        this.store = findJdbcStore(config.getClanStore());
+    }
+
+    /**
+     * Starts writing snapshots in the configured interval.
+     */
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ClanManager-Snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::write, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic writes and writes a last snapshot.
+     */
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+        write();
+    }
+
+    /**
+     * Loads the snapshot file and reconciles it with the database.
+     * @return The up to date snapshot or null if there is no usable snapshot.
+     */
+    @Nullable
+    public ClanSnapshot load() {
+        ClanSnapshot snapshot = ClanSnapshot.read(file);
+        if (snapshot == null) return null;
+        long age = System.currentTimeMillis() - snapshot.getCreatedAt();
+        if (age >= config.getChangeLogRetention().toMillis()) {
+            log.info("Ignoring the snapshot {}, it is older than the change log retention.", file);
+            return null;
+        }
+        try {
+            return reconcile(snapshot);
+        } catch (SQLException | RuntimeException exception) {
+            log.error("Failed to reconcile the snapshot {}.", file, exception);
+            return null;
+        }
+    }
+
+    /**
+     * Reads all tables and writes them to the snapshot file.
+     */
+    public synchronized void write() {
+        long start = System.currentTimeMillis();
+        ClanSnapshot snapshot;
+        try (Connection con = config.getDataSource().getConnection()) {
+            con.setAutoCommit(false);
+            con.setReadOnly(true);
+            try {
+                snapshot = capture(con);
+            } finally {
+                con.rollback();
+                con.setReadOnly(false);
+                con.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException exception) {
+            log.error("Failed to read the tables for the snapshot.", exception);
+            return;
+        }
+        try {
+            snapshot.write(file);
+            log.debug("Wrote the snapshot {} with {} clans and {} clan members in {} ms.", file,
+                    snapshot.getClans().size(), snapshot.getClanMembers().size(), System.currentTimeMillis() - start);
+        } catch (IOException exception) {
+            log.error("Failed to write the snapshot {}.", file, exception);
+        }
+    }
+
+    @Nonnull
+    private ClanSnapshot capture(@Nonnull Connection con) throws SQLException {
+        long createdAt = System.currentTimeMillis();
+        // the head of the change log is read first, everything after it is replayed when the snapshot is loaded
+        ResultSet head = con.prepareStatement("SELECT COALESCE(MAX(\"id\"), 0) FROM \"changeLog\"").executeQuery();
+        head.next();
+        long changeLogId = head.getLong(1);
+
+        List<ClanData> clans = new ArrayList<>();
+        ResultSet rs = query(con, "SELECT * FROM \"clan\"");
+        while (rs.next()) {
+            clans.add(store.readClan(rs));
+        }
+        List<ClanMemberData> clanMembers = new ArrayList<>();
+        rs = query(con, "SELECT * FROM \"clanMember\"");
+        while (rs.next()) {
+            clanMembers.add(store.readClanMember(rs));
+        }
+        LongObjectMap<long[]> blockedUsers = new LongObjectMap<>();
+        rs = query(con, "SELECT \"clanId\", \"discordUserId\" FROM \"blockedUsers\"");
+        while (rs.next()) {
+            long[] userIds = blockedUsers.get(rs.getInt(1));
+            userIds = userIds == null ? new long[1] : Arrays.copyOf(userIds, userIds.length + 1);
+            userIds[userIds.length - 1] = rs.getLong(2);
+            blockedUsers.put(rs.getInt(1), userIds);
+        }
+        LongObjectMap<Short> reverificationDays = new LongObjectMap<>();
+        rs = query(con, "SELECT \"clanId\", \"numberOfDays\" FROM \"reverificationFeature\"");
+        while (rs.next()) {
+            reverificationDays.put(rs.getInt(1), rs.getShort(2));
+        }
+        return new ClanSnapshot(createdAt, changeLogId, clans, clanMembers, blockedUsers, reverificationDays);
+    }
+
+    @Nonnull
+    private ResultSet query(@Nonnull Connection con, @Nonnull String query) throws SQLException {
+        PreparedStatement pstm = con.prepareStatement(query);
+        pstm.setFetchSize(FETCH_SIZE);
+        return pstm.executeQuery();
+    }
+
+    /**
+     * Reads every entity again that changed after the snapshot was taken.
+     */
+    @Nonnull
+    private ClanSnapshot reconcile(@Nonnull ClanSnapshot snapshot) throws SQLException {
+        LongObjectMap<ClanData> clans = new LongObjectMap<>(snapshot.getClans().size());
+        for (ClanData clan : snapshot.getClans()) {
+            clans.put(clan.getId(), clan);
+        }
+        LongObjectMap<ClanMemberData> clanMembers = new LongObjectMap<>(snapshot.getClanMembers().size());
+        for (ClanMemberData clanMember : snapshot.getClanMembers()) {
+            clanMembers.put(clanMember.getId(), clanMember);
+        }
+        LongObjectMap<long[]> blockedUsers = snapshot.getBlockedUsers();
+        LongObjectMap<Short> reverificationDays = snapshot.getReverificationDays();
+
+        int changes = 0;
+        long changeLogId = snapshot.getChangeLogId();
+        try (Connection con = config.getDataSource().getConnection()) {
+            // changes below the head may have committed after the tables were read, like the gaps of the poller
+            PreparedStatement pstm = con.prepareStatement("SELECT MAX(\"id\"), \"entityType\", \"entityId\" FROM \"changeLog\" " +
+                    "WHERE \"id\" > ? OR \"createdAt\" > ? GROUP BY \"entityType\", \"entityId\"");
+            pstm.setFetchSize(FETCH_SIZE);
+            pstm.setLong(1, snapshot.getChangeLogId());
+            pstm.setTimestamp(2, new Timestamp(snapshot.getCreatedAt() - ChangeLogPoller.GAP_TIMEOUT.toMillis()));
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                changes++;
+                changeLogId = Math.max(changeLogId, rs.getLong(1));
+                int id = (int) rs.getLong(3);
+                switch (ChangeType.valueOf(rs.getString(2))) {
+                    case CLAN:
+                        ClanData clan = store.getClan(id);
+                        if (clan != null) {
+                            clans.put(id, clan);
+                        } else {
+                            clans.remove(id);
+                            blockedUsers.remove(id);
+                            reverificationDays.remove(id);
+                            for (ClanMemberData clanMember : clanMembers.values()) {
+                                if (clanMember.getClanId() == id) clanMembers.remove(clanMember.getId());
+                            }
+                        }
+                        break;
+                    case CLAN_MEMBER:
+                        ClanMemberData clanMember = store.getClanMember(id);
+                        if (clanMember != null) clanMembers.put(id, clanMember);
+                        else clanMembers.remove(id);
+                        break;
+                    case BLOCKLIST:
+                        List<Long> userIds = store.getBlockedUserIds(id);
+                        if (userIds.isEmpty()) blockedUsers.remove(id);
+                        else blockedUsers.put(id, userIds.stream().mapToLong(Long::longValue).toArray());
+                        break;
+                    case REVERIFICATION:
+                        short days = store.getReverificationDays(id);
+                        if (days < 0) reverificationDays.remove(id);
+                        else reverificationDays.put(id, days);
+                        break;
+                }
+            }
+        }
+        log.info("Loaded the snapshot {} and applied {} changes.", file, changes);
+        return new ClanSnapshot(snapshot.getCreatedAt(), changeLogId, clans.values(), clanMembers.values(), blockedUsers, reverificationDays);
+    }
+
+    @Nonnull
+    private static JdbcClanStore findJdbcStore(@Nonnull ClanStore store) {
+        while (store instanceof ForwardingClanStore) {
+            store = ((ForwardingClanStore) store).getDelegate();
+        }
+        if (!(store instanceof JdbcClanStore)) throw new IllegalStateException("Snapshots need a JdbcClanStore.");
+        return (JdbcClanStore) store;
+    }
+}
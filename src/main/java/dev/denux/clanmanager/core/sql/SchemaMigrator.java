@@ -0,0 +1,216 @@
+package dev.denux.clanmanager.core.sql;
+
+import dev.denux.clanmanager.core.store.JdbcClanStore;
+import dev.denux.clanmanager.core.store.LocaleCodes;
+import dev.denux.clanmanager.internal.CmPermission;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migrates databases that were created by older versions to the current default schema.
+ * Every step checks the current state first, so the migrations can run on every start and resume after a crash.
+ */
+public class SchemaMigrator {
+    private static final Logger log = JDALogger.getLog(SchemaMigrator.class);
+
+    private final Connection con;
+
+    public SchemaMigrator(@Nonnull Connection con) {
+        this.con = con;
+    }
+
+    /**
+     * Runs all migrations. Has to run before the schema queries, so the indexes are created on the migrated columns.
+     * @throws SQLException If a migration fails.
+     */
+    public void migrate() throws SQLException {
+        dropBlockedUsersUniqueColumns();
+
+        Map<String, Integer> columns = getColumnTypes("clanMember");
+        if (columns.isEmpty()) return;
+        dedupeClanMembers();
+
+        StringBuilder permission = new StringBuilder("CASE \"permission\"");
+        for (CmPermission value : CmPermission.values()) {
+            permission.append(String.format(" WHEN '%s' THEN %d", value.name(), value.getLevel()));
+        }
+        permission.append(" ELSE ").append(CmPermission.MEMBER.getLevel()).append(" END");
+        encodeColumn(columns, "clanMember", "permission", permission.toString(), CmPermission.MEMBER.getLevel());
+
+        StringBuilder locale = new StringBuilder("CASE \"locale\"");
+        String[] tags = LocaleCodes.getTags();
+        for (int code = 1; code < tags.length; code++) {
+            locale.append(String.format(" WHEN '%s' THEN %d", tags[code], code));
+        }
+        locale.append(" ELSE 0 END");
+        Integer localeType = columns.get("locale");
+        if (localeType != null && localeType != Types.SMALLINT) logUnknownLocales(locale.toString(), tags[0]);
+        encodeColumn(columns, "clanMember", "locale", locale.toString(), null);
+    }
+
+    /**
+     * Older versions checked for an existing membership before inserting a new one, so concurrent verifications could create
+     * a user twice in the same clan, which the unique index on both columns can't be created over.
+     * The membership with the lowest id is kept, unless another one is the owner of the clan.
+     * The counters of the affected clans are deleted and recreated by {@link #backfillClanStats()}.
+     */
+    private void dedupeClanMembers() throws SQLException {
+        if (hasIndex("clanMember", "clanMember_clanId_discordUserId")) return;
+        String duplicate = "\"clanMember\".\"id\" NOT IN (SELECT \"ownerId\" FROM \"clan\") AND EXISTS (SELECT 1 FROM \"clanMember\" \"kept\" " +
+                "WHERE \"kept\".\"clanId\" = \"clanMember\".\"clanId\" AND \"kept\".\"discordUserId\" = \"clanMember\".\"discordUserId\" " +
+                "AND \"kept\".\"id\" <> \"clanMember\".\"id\" AND (\"kept\".\"id\" < \"clanMember\".\"id\" OR \"kept\".\"id\" IN (SELECT \"ownerId\" FROM \"clan\")))";
+        List<Integer> clanIds = new ArrayList<>();
+        try (Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT DISTINCT \"clanId\" FROM \"clanMember\" WHERE " + duplicate)) {
+            while (rs.next()) {
+                clanIds.add(rs.getInt(1));
+            }
+        }
+        if (clanIds.isEmpty()) return;
+        try (Statement statement = con.createStatement()) {
+            int deleted = statement.executeUpdate("DELETE FROM \"clanMember\" WHERE " + duplicate);
+            log.warn("Deleted {} duplicate memberships in {} clans before creating the unique index.", deleted, clanIds.size());
+            if (getColumnTypes("clanStats").isEmpty()) return;
+            for (int clanId : clanIds) {
+                statement.executeUpdate("DELETE FROM \"clanStats\" WHERE \"clanId\" = " + clanId);
+            }
+        }
+    }
+
+    /**
+     * Older versions declared both columns of the blocklist as UNIQUE on their own,
+     * so a clan could block only one user and a user could be blocked by only one clan.
+     * The primary key on both columns is all the blocklist needs.
+     */
+    private void dropBlockedUsersUniqueColumns() throws SQLException {
+        List<String> constraints = new ArrayList<>();
+        try (Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT CONSTRAINT_NAME FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS " +
+                     "WHERE TABLE_NAME = 'blockedUsers' AND CONSTRAINT_TYPE = 'UNIQUE'")) {
+            while (rs.next()) {
+                constraints.add(rs.getString(1));
+            }
+        }
+        if (constraints.isEmpty()) return;
+        log.info("Dropping {} UNIQUE constraints of the blocklist.", constraints.size());
+        try (Statement statement = con.createStatement()) {
+            for (String constraint : constraints) {
+                statement.executeUpdate(String.format("ALTER TABLE \"blockedUsers\" DROP CONSTRAINT \"%s\"", constraint));
+            }
+        }
+    }
+
+    /**
+     * Creates the missing counters of clans that were created by older versions or imported.
+     * Has to run after the schema queries.
+     * @throws SQLException If the counters can't be created.
+     */
+    public void backfillClanStats() throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            int created = statement.executeUpdate("INSERT INTO \"clanStats\" (\"clanId\", \"memberCount\", \"ownerCount\", \"coOwnerCount\", " +
+                    "\"leaderShipCount\", \"regularCount\", \"blockedCount\") " +
+                    "SELECT \"clan\".\"id\", COALESCE(\"counted\".\"memberCount\", 0), COALESCE(\"counted\".\"ownerCount\", 0), " +
+                    "COALESCE(\"counted\".\"coOwnerCount\", 0), COALESCE(\"counted\".\"leaderShipCount\", 0), " +
+                    "COALESCE(\"counted\".\"regularCount\", 0), COALESCE(\"blocked\".\"blockedCount\", 0) FROM \"clan\" " +
+                    "LEFT JOIN (" + JdbcClanStore.COUNT_MEMBERS + " GROUP BY \"clanId\") \"counted\" ON \"counted\".\"clanId\" = \"clan\".\"id\" " +
+                    "LEFT JOIN (" + JdbcClanStore.COUNT_BLOCKED + " GROUP BY \"clanId\") \"blocked\" ON \"blocked\".\"clanId\" = \"clan\".\"id\" " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM \"clanStats\" WHERE \"clanStats\".\"clanId\" = \"clan\".\"id\")");
+            if (created > 0) log.info("Created the stats of {} clans.", created);
+        }
+    }
+
+    /**
+     * Logs the locale tags that have no code and are stored as unknown after the migration.
+     * @param encoding The SQL expression that converts the tag to the code.
+     * @param unknownTag The tag of the code 0.
+     */
+    private void logUnknownLocales(@Nonnull String encoding, @Nonnull String unknownTag) throws SQLException {
+        try (PreparedStatement pstm = con.prepareStatement("SELECT \"locale\", COUNT(*) FROM \"clanMember\" WHERE " + encoding + " = 0 " +
+                "AND \"locale\" <> ? GROUP BY \"locale\"")) {
+            pstm.setString(1, unknownTag);
+            try (ResultSet rs = pstm.executeQuery()) {
+                while (rs.next()) {
+                    log.warn("{} clan members have the locale {} without a code, it is migrated to unknown.", rs.getInt(2), rs.getString(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces a text column by a SMALLINT column with the same name.
+     * @param columns The current columns of the table.
+     * @param table The table name.
+     * @param column The column name.
+     * @param encoding The SQL expression that converts the text to the code.
+     * @param defaultValue The default of the column in the default schema or null if it has none.
+     */
+    private void encodeColumn(@Nonnull Map<String, Integer> columns, @Nonnull String table, @Nonnull String column, @Nonnull String encoding,
+                              @Nullable Integer defaultValue) throws SQLException {
+        String codeColumn = column + "Code";
+        Integer type = columns.get(column);
+        if (type != null && type == Types.SMALLINT) return;
+        try (Statement statement = con.createStatement()) {
+            if (type != null) {
+                log.info("Migrating {}.{} to compact codes.", table, column);
+                if (!columns.containsKey(codeColumn)) {
+                    statement.executeUpdate(String.format("ALTER TABLE \"%s\" ADD COLUMN \"%s\" SMALLINT NOT NULL DEFAULT 0", table, codeColumn));
+                }
+                statement.executeUpdate(String.format("UPDATE \"%s\" SET \"%s\" = %s", table, codeColumn, encoding));
+                // the default of the ADD COLUMN only fills the existing rows, it must not outlive the migration
+                if (defaultValue == null) {
+                    statement.executeUpdate(String.format("ALTER TABLE \"%s\" ALTER COLUMN \"%s\" DROP DEFAULT", table, codeColumn));
+                } else {
+                    statement.executeUpdate(String.format("ALTER TABLE \"%s\" ALTER COLUMN \"%s\" SET DEFAULT %d", table, codeColumn, defaultValue));
+                }
+                statement.executeUpdate(String.format("ALTER TABLE \"%s\" DROP COLUMN \"%s\"", table, column));
+            }
+            if (type != null || columns.containsKey(codeColumn)) {
+                statement.executeUpdate(String.format("ALTER TABLE \"%s\" RENAME COLUMN \"%s\" TO \"%s\"", table, codeColumn, column));
+            }
+        }
+    }
+
+    /**
+     * @param table The table name.
+     * @param index The index name.
+     * @return True if the table has a unique index with the name.
+     */
+    private boolean hasIndex(@Nonnull String table, @Nonnull String index) throws SQLException {
+        try (ResultSet rs = con.getMetaData().getIndexInfo(null, null, table, true, false)) {
+            while (rs.next()) {
+                if (index.equals(rs.getString("INDEX_NAME"))) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param table The table name.
+     * @return The JDBC types of all columns by their name, empty if the table does not exist.
+     */
+    @Nonnull
+    private Map<String, Integer> getColumnTypes(@Nonnull String table) throws SQLException {
+        Map<String, Integer> columns = new HashMap<>();
+        DatabaseMetaData metaData = con.getMetaData();
+        try (ResultSet rs = metaData.getColumns(null, null, table, null)) {
+            while (rs.next()) {
+                columns.put(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"));
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,57 @@
+package dev.denux.clanmanager.core.stats;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recounts the clan stats in the background and corrects counters that drifted,
+ * e.g. because rows were changed by hand or by an older version.
+ */
+public class ClanStatsVerifier {
+    private static final Logger log = JDALogger.getLog(ClanStatsVerifier.class);
+
+    private final ClanManagerConfig config;
+    private final Duration interval;
+    private ScheduledExecutorService executor;
+
+    public ClanStatsVerifier(@Nonnull ClanManagerConfig config, @Nonnull Duration interval) {
+        this.config = config;
+        this.interval = interval;
+    }
+
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ClanManager-Stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::verify, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Verifies the stats of all clans once.
+     * @return The number of clans whose stats were corrected.
+     */
+    public int verify() {
+        try {
+            int corrected = config.getClanStore().verifyClanStats();
+            if (corrected > 0) log.warn("Corrected the stats of {} clans.", corrected);
+            else log.debug("The stats of all clans are correct.");
+            return corrected;
+        } catch (RuntimeException exception) {
+            log.error("Failed to verify the clan stats.", exception);
+            return 0;
+        }
+    }
+}
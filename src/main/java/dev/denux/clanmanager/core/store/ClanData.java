@@ -0,0 +1,118 @@
+package dev.denux.clanmanager.core.store;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable snapshot of a single row of the {@code clan} table.
+ */
+public class ClanData {
+    private final int id;
+    private final String verificationCode;
+    private final String name;
+    private final String tag;
+    private final int ownerId;
+    private final long ownerUserId;
+    private final long discordGuildId;
+    private final long leaderShipRoleId;
+    private final long memberRoleId;
+    private final long discordChannelId;
+
+    public ClanData(int id, @Nonnull String verificationCode, @Nonnull String name, @Nonnull String tag, int ownerId, long ownerUserId,
+                    long discordGuildId, long leaderShipRoleId, long memberRoleId, long discordChannelId) {
+        this.id = id;
+        this.verificationCode = verificationCode;
+        this.name = name;
+        this.tag = tag;
+        this.ownerId = ownerId;
+        this.ownerUserId = ownerUserId;
+        this.discordGuildId = discordGuildId;
+        this.leaderShipRoleId = leaderShipRoleId;
+        this.memberRoleId = memberRoleId;
+        this.discordChannelId = discordChannelId;
+    }
+
+    /**
+     * Returns a copy of this row with a different id.
+     * @param id The new id.
+     * @return the copied row.
+     */
+    @Nonnull
+    public ClanData withId(int id) {
+        return new ClanData(id, verificationCode, name, tag, ownerId, ownerUserId, discordGuildId, leaderShipRoleId, memberRoleId, discordChannelId);
+    }
+
+    /**
+     * Returns a copy of this row with the column set to the value.
+     * @param column The column name.
+     * @param value The new value.
+     * @return the copied row.
+     */
+    @Nonnull
+    public ClanData withColumn(@Nonnull String column, @Nonnull Object value) {
+        switch (column) {
+            case "verificationCode":
+                return new ClanData(id, (String) value, name, tag, ownerId, ownerUserId, discordGuildId, leaderShipRoleId, memberRoleId, discordChannelId);
+            case "name":
+                return new ClanData(id, verificationCode, (String) value, tag, ownerId, ownerUserId, discordGuildId, leaderShipRoleId, memberRoleId, discordChannelId);
+            case "tag":
+                return new ClanData(id, verificationCode, name, (String) value, ownerId, ownerUserId, discordGuildId, leaderShipRoleId, memberRoleId, discordChannelId);
+            case "ownerId":
+                return new ClanData(id, verificationCode, name, tag, ((Number) value).intValue(), ownerUserId, discordGuildId, leaderShipRoleId, memberRoleId, discordChannelId);
+            case "ownerUserId":
+                return new ClanData(id, verificationCode, name, tag, ownerId, ((Number) value).longValue(), discordGuildId, leaderShipRoleId, memberRoleId, discordChannelId);
+            case "discordGuildId":
+                return new ClanData(id, verificationCode, name, tag, ownerId, ownerUserId, ((Number) value).longValue(), leaderShipRoleId, memberRoleId, discordChannelId);
+            case "leaderShipRoleId":
+                return new ClanData(id, verificationCode, name, tag, ownerId, ownerUserId, discordGuildId, ((Number) value).longValue(), memberRoleId, discordChannelId);
+            case "memberRoleId":
+                return new ClanData(id, verificationCode, name, tag, ownerId, ownerUserId, discordGuildId, leaderShipRoleId, ((Number) value).longValue(), discordChannelId);
+            case "discordChannelId":
+                return new ClanData(id, verificationCode, name, tag, ownerId, ownerUserId, discordGuildId, leaderShipRoleId, memberRoleId, ((Number) value).longValue());
+            default:
+                throw new IllegalArgumentException(String.format("Unknown clan column %s", column));
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Nonnull
+    public String getVerificationCode() {
+        return verificationCode;
+    }
+
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    @Nonnull
+    public String getTag() {
+        return tag;
+    }
+
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    public long getOwnerUserId() {
+        return ownerUserId;
+    }
+
+    public long getDiscordGuildId() {
+        return discordGuildId;
+    }
+
+    public long getLeaderShipRoleId() {
+        return leaderShipRoleId;
+    }
+
+    public long getMemberRoleId() {
+        return memberRoleId;
+    }
+
+    public long getDiscordChannelId() {
+        return discordChannelId;
+    }
+}
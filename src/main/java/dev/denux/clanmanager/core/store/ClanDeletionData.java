@@ -0,0 +1,43 @@
+package dev.denux.clanmanager.core.store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The rows deleted by {@link ClanStore#deleteClan(int)}.
+ */
+public class ClanDeletionData {
+    private final ClanData clan;
+    private final List<ClanMemberData> members;
+    private final int deletedRows;
+
+    public ClanDeletionData(@Nullable ClanData clan, @Nonnull List<ClanMemberData> members, int deletedRows) {
+        this.clan = clan;
+        this.members = members;
+        this.deletedRows = deletedRows;
+    }
+
+    /**
+     * @return The deleted clan or null if it did not exist.
+     */
+    @Nullable
+    public ClanData getClan() {
+        return clan;
+    }
+
+    /**
+     * @return The clan members that were deleted together with the clan.
+     */
+    @Nonnull
+    public List<ClanMemberData> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return The number of rows deleted over all tables.
+     */
+    public int getDeletedRows() {
+        return deletedRows;
+    }
+}
@@ -0,0 +1,51 @@
+package dev.denux.clanmanager.core.store;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The ids of the discord entities a clan is bound to.
+ */
+public class ClanDiscordIds {
+    private final int clanId;
+    private final long discordGuildId;
+    private final long leaderShipRoleId;
+    private final long memberRoleId;
+    private final long discordChannelId;
+
+    public ClanDiscordIds(int clanId, long discordGuildId, long leaderShipRoleId, long memberRoleId, long discordChannelId) {
+        this.clanId = clanId;
+        this.discordGuildId = discordGuildId;
+        this.leaderShipRoleId = leaderShipRoleId;
+        this.memberRoleId = memberRoleId;
+        this.discordChannelId = discordChannelId;
+    }
+
+    /**
+     * @param clan The row of the clan.
+     * @return the ids of the clan.
+     */
+    @Nonnull
+    public static ClanDiscordIds of(@Nonnull ClanData clan) {
+        return new ClanDiscordIds(clan.getId(), clan.getDiscordGuildId(), clan.getLeaderShipRoleId(), clan.getMemberRoleId(), clan.getDiscordChannelId());
+    }
+
+    public int getClanId() {
+        return clanId;
+    }
+
+    public long getDiscordGuildId() {
+        return discordGuildId;
+    }
+
+    public long getLeaderShipRoleId() {
+        return leaderShipRoleId;
+    }
+
+    public long getMemberRoleId() {
+        return memberRoleId;
+    }
+
+    public long getDiscordChannelId() {
+        return discordChannelId;
+    }
+}
@@ -0,0 +1,99 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.CmPermission;
+import net.dv8tion.jda.api.interactions.DiscordLocale;
+
+import javax.annotation.Nonnull;
+import java.sql.Timestamp;
+
+/**
+ * Immutable snapshot of a single row of the {@code clanMember} table.
+ */
+public class ClanMemberData {
+    private final int id;
+    private final Timestamp verificationTime;
+    private final String nickname;
+    private final CmPermission permission;
+    private final DiscordLocale locale;
+    private final int clanId;
+    private final long discordUserId;
+
+    public ClanMemberData(int id, @Nonnull Timestamp verificationTime, @Nonnull String nickname, @Nonnull CmPermission permission,
+                          @Nonnull DiscordLocale locale, int clanId, long discordUserId) {
+        this.id = id;
+        this.verificationTime = verificationTime;
+        this.nickname = nickname;
+        this.permission = permission;
+        this.locale = locale;
+        this.clanId = clanId;
+        this.discordUserId = discordUserId;
+    }
+
+    /**
+     * Returns a copy of this row with a different id.
+     * @param id The new id.
+     * @return the copied row.
+     */
+    @Nonnull
+    public ClanMemberData withId(int id) {
+        return new ClanMemberData(id, verificationTime, nickname, permission, locale, clanId, discordUserId);
+    }
+
+    /**
+     * Returns a copy of this row with the column set to the value.
+     * @param column The column name.
+     * @param value The new value.
+     * @return the copied row.
+     */
+    @Nonnull
+    public ClanMemberData withColumn(@Nonnull String column, @Nonnull Object value) {
+        switch (column) {
+            case "verificationTime":
+                return new ClanMemberData(id, (Timestamp) value, nickname, permission, locale, clanId, discordUserId);
+            case "nickname":
+                return new ClanMemberData(id, verificationTime, (String) value, permission, locale, clanId, discordUserId);
+            case "permission":
+                return new ClanMemberData(id, verificationTime, nickname, (CmPermission) value, locale, clanId, discordUserId);
+            case "locale":
+                return new ClanMemberData(id, verificationTime, nickname, permission, (DiscordLocale) value, clanId, discordUserId);
+            case "clanId":
+                return new ClanMemberData(id, verificationTime, nickname, permission, locale, ((Number) value).intValue(), discordUserId);
+            case "discordUserId":
+                return new ClanMemberData(id, verificationTime, nickname, permission, locale, clanId, ((Number) value).longValue());
+            default:
+                throw new IllegalArgumentException(String.format("Unknown clan member column %s", column));
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Nonnull
+    public Timestamp getVerificationTime() {
+        return verificationTime;
+    }
+
+    @Nonnull
+    public String getNickname() {
+        return nickname;
+    }
+
+    @Nonnull
+    public CmPermission getPermission() {
+        return permission;
+    }
+
+    @Nonnull
+    public DiscordLocale getLocale() {
+        return locale;
+    }
+
+    public int getClanId() {
+        return clanId;
+    }
+
+    public long getDiscordUserId() {
+        return discordUserId;
+    }
+}
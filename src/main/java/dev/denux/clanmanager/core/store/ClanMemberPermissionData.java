@@ -0,0 +1,55 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Everything that is needed to compare the permissions of clan members, loaded together with the owner of the clan.
+ */
+public class ClanMemberPermissionData {
+    private final int clanMemberId;
+    private final int clanId;
+    private final long discordUserId;
+    private final CmPermission permission;
+    private final long ownerUserId;
+
+    public ClanMemberPermissionData(int clanMemberId, int clanId, long discordUserId, @Nonnull CmPermission permission, long ownerUserId) {
+        this.clanMemberId = clanMemberId;
+        this.clanId = clanId;
+        this.discordUserId = discordUserId;
+        this.permission = permission;
+        this.ownerUserId = ownerUserId;
+    }
+
+    public int getClanMemberId() {
+        return clanMemberId;
+    }
+
+    public int getClanId() {
+        return clanId;
+    }
+
+    public long getDiscordUserId() {
+        return discordUserId;
+    }
+
+    @Nonnull
+    public CmPermission getPermission() {
+        return permission;
+    }
+
+    /**
+     * @return The discord user id of the owner of the clan.
+     */
+    public long getOwnerUserId() {
+        return ownerUserId;
+    }
+
+    /**
+     * @return True if the clan member is the owner of its clan.
+     */
+    public boolean isOwner() {
+        return discordUserId == ownerUserId;
+    }
+}
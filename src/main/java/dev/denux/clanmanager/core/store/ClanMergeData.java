@@ -0,0 +1,50 @@
+package dev.denux.clanmanager.core.store;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * The rows touched by {@link ClanStore#mergeClans(int, int)}.
+ */
+public class ClanMergeData {
+    private final ClanData source;
+    private final ClanData target;
+    private final List<ClanMemberData> moved;
+    private final List<ClanMemberData> dropped;
+
+    public ClanMergeData(@Nonnull ClanData source, @Nonnull ClanData target, @Nonnull List<ClanMemberData> moved, @Nonnull List<ClanMemberData> dropped) {
+        this.source = source;
+        this.target = target;
+        this.moved = moved;
+        this.dropped = dropped;
+    }
+
+    /**
+     * @return The deleted source clan.
+     */
+    @Nonnull
+    public ClanData getSource() {
+        return source;
+    }
+
+    @Nonnull
+    public ClanData getTarget() {
+        return target;
+    }
+
+    /**
+     * @return The clan members that moved, as they are in the target clan now.
+     */
+    @Nonnull
+    public List<ClanMemberData> getMoved() {
+        return moved;
+    }
+
+    /**
+     * @return The clan members of the source clan that were deleted, because the user already was in the target clan or is blocked there.
+     */
+    @Nonnull
+    public List<ClanMemberData> getDropped() {
+        return dropped;
+    }
+}
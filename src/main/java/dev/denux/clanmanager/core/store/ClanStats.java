@@ -0,0 +1,99 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable copy of the counters of a clan. The counters are updated together with the members and the blocklist,
+ * so reading them costs a single row instead of loading every member.
+ */
+public class ClanStats {
+    private final int clanId;
+    private final int memberCount;
+    private final int ownerCount;
+    private final int coOwnerCount;
+    private final int leaderShipCount;
+    private final int regularCount;
+    private final int blockedCount;
+
+    public ClanStats(int clanId, int memberCount, int ownerCount, int coOwnerCount, int leaderShipCount, int regularCount, int blockedCount) {
+        this.clanId = clanId;
+        this.memberCount = memberCount;
+        this.ownerCount = ownerCount;
+        this.coOwnerCount = coOwnerCount;
+        this.leaderShipCount = leaderShipCount;
+        this.regularCount = regularCount;
+        this.blockedCount = blockedCount;
+    }
+
+    /**
+     * @param permission The permission.
+     * @return The name of the counter column of the permission.
+     */
+    @Nonnull
+    static String column(@Nonnull CmPermission permission) {
+        switch (permission) {
+            case OWNER:
+                return "ownerCount";
+            case CO_OWNER:
+                return "coOwnerCount";
+            case LEADERSHIP:
+                return "leaderShipCount";
+            default:
+                return "regularCount";
+        }
+    }
+
+    /**
+     * Returns a copy with another clan id.
+     * @param clanId The new clan id.
+     * @return the copied stats.
+     */
+    @Nonnull
+    public ClanStats withClanId(int clanId) {
+        return new ClanStats(clanId, memberCount, ownerCount, coOwnerCount, leaderShipCount, regularCount, blockedCount);
+    }
+
+    public int getClanId() {
+        return clanId;
+    }
+
+    /**
+     * @return The number of members including the owner.
+     */
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    /**
+     * @param permission The permission.
+     * @return The number of members with exactly the permission.
+     */
+    public int getCount(@Nonnull CmPermission permission) {
+        switch (permission) {
+            case OWNER:
+                return ownerCount;
+            case CO_OWNER:
+                return coOwnerCount;
+            case LEADERSHIP:
+                return leaderShipCount;
+            default:
+                return regularCount;
+        }
+    }
+
+    /**
+     * @return The number of members with at least the {@link CmPermission#LEADERSHIP} permission.
+     */
+    public int getLeaderShipCount() {
+        return ownerCount + coOwnerCount + leaderShipCount;
+    }
+
+    /**
+     * @return The number of blocked users.
+     */
+    public int getBlockedCount() {
+        return blockedCount;
+    }
+}
@@ -0,0 +1,293 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage abstraction for everything the {@link dev.denux.clanmanager.ClanManager} persists.
+ * <p>
+ * Column names passed to the update methods are the column names of the default schema.
+ * Implementations must be thread-safe.
+ * @see JdbcClanStore
+ * @see InMemoryClanStore
+ */
+public interface ClanStore {
+
+    /**
+     * Inserts a new clan. The id of the given row is ignored.
+     * @param clan The clan to insert.
+     * @return The generated id of the clan.
+     */
+    int insertClan(@Nonnull ClanData clan);
+
+    /**
+     * Inserts a new clan together with its owner in one transaction, so a clan is never left without one.
+     * The ids of the given rows, the owner id of the clan and the clan id of the owner are ignored,
+     * the owner always gets the {@link CmPermission#OWNER} permission.
+     * @param clan The clan to insert.
+     * @param owner The clan member of the owner.
+     * @return The inserted clan. Its owner id is the generated id of the owner.
+     */
+    @Nonnull
+    ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner);
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The clan or null if it does not exist.
+     */
+    @Nullable
+    ClanData getClan(int clanId);
+
+    /**
+     * @param verificationCode The verification code of the clan.
+     * @return The clan or null if no clan uses the code.
+     */
+    @Nullable
+    ClanData getClanByVerificationCode(@Nonnull String verificationCode);
+
+    /**
+     * @param discordGuildId The id of the guild.
+     * @return All clans of the guild.
+     */
+    @Nonnull
+    List<ClanData> getClansByGuild(long discordGuildId);
+
+    /**
+     * Gets one page of all clans using keyset pagination.
+     * @param afterId The id of the last clan of the previous page or 0 for the first page.
+     * @param limit The maximum amount of clans to return.
+     * @return The clans of the page, ordered by their id.
+     */
+    @Nonnull
+    List<ClanData> getClans(int afterId, int limit);
+
+    /**
+     * Updates a single column of a clan.
+     * @param clanId The id of the clan.
+     * @param column The column name.
+     * @param value The new value.
+     */
+    void updateClan(int clanId, @Nonnull String column, @Nonnull Object value);
+
+    /**
+     * Deletes a clan together with its members, blocklist and reverification settings.
+     * @param clanId The id of the clan.
+     * @return The deleted clan and clan members.
+     */
+    @Nonnull
+    ClanDeletionData deleteClan(int clanId);
+
+    /**
+     * Inserts a new clan member. The id of the given row is ignored.
+     * @param clanMember The clan member to insert.
+     * @return The generated id of the clan member.
+     */
+    int insertClanMember(@Nonnull ClanMemberData clanMember);
+
+    /**
+     * Joins a user to the clan of the verification code. The code is resolved, the blocklist and existing memberships
+     * are checked and the member is inserted atomically, so concurrent verifications can't create duplicates.
+     * @param verificationCode The verification code of the clan.
+     * @param discordGuildId The id of the guild the code was used in. Codes of other guilds are invalid.
+     * @param clanMember The clan member to insert. Its id and clan id are ignored.
+     * @return The outcome together with the clan and the clan member.
+     */
+    @Nonnull
+    VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember);
+
+    /**
+     * @param clanMemberId The id of the clan member.
+     * @return The clan member or null if it does not exist.
+     */
+    @Nullable
+    ClanMemberData getClanMember(int clanMemberId);
+
+    /**
+     * @param clanId The id of the clan.
+     * @param discordUserId The id of the discord user.
+     * @return The clan member or null if the user is not a member of the clan.
+     */
+    @Nullable
+    ClanMemberData getClanMember(int clanId, long discordUserId);
+
+    /**
+     * @param clanId The id of the clan.
+     * @return All members of the clan.
+     */
+    @Nonnull
+    List<ClanMemberData> getClanMembers(int clanId);
+
+    /**
+     * Gets one page of the members of a clan using keyset pagination.
+     * @param clanId The id of the clan.
+     * @param afterId The id of the last clan member of the previous page or 0 for the first page.
+     * @param limit The maximum amount of clan members to return.
+     * @param sort The order of the clan members.
+     * @return The members of the page.
+     */
+    @Nonnull
+    List<ClanMemberData> getClanMembers(int clanId, int afterId, int limit, @Nonnull ClanMemberSort sort);
+
+    /**
+     * @param discordUserId The id of the discord user.
+     * @param discordGuildId The id of the guild.
+     * @return All memberships of the user in clans of the guild.
+     */
+    @Nonnull
+    List<ClanMemberData> getClanMembersByUser(long discordUserId, long discordGuildId);
+
+    /**
+     * @param discordUserId The id of the discord user.
+     * @param discordGuildId The id of the guild.
+     * @return The ids of all memberships of the user in clans of the guild.
+     */
+    @Nonnull
+    int[] getClanMemberIdsByUser(long discordUserId, long discordGuildId);
+
+    /**
+     * Updates a single column of a clan member.
+     * @param clanMemberId The id of the clan member.
+     * @param column The column name.
+     * @param value The new value.
+     * @return The row before the update or null if the clan member does not exist.
+     */
+    @Nullable
+    ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value);
+
+    /**
+     * @param clanMemberId The id of the clan member to delete.
+     */
+    void deleteClanMember(int clanMemberId);
+
+    /**
+     * Deletes the memberships of several users in clans of a guild at once.
+     * Owners are kept, their clans would be left without one.
+     * @param discordGuildId The id of the guild.
+     * @param discordUserIds The ids of the discord users.
+     * @return The deleted clan members.
+     */
+    @Nonnull
+    List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds);
+
+    /**
+     * Deletes every membership in clans of a guild. Owners are kept, their clans would be left without one.
+     * Stores backed by a database delete the memberships in chunks, each in its own transaction.
+     * @param discordGuildId The id of the guild.
+     * @return The deleted clan members.
+     */
+    @Nonnull
+    List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId);
+
+    /**
+     * Sets the permissions of several members of a clan in one transaction.
+     * Members of other clans, owners and members that already have the permission are skipped.
+     * @param clanId The id of the clan.
+     * @param permissions The new permissions by clan member id. Must not contain {@link CmPermission#OWNER}.
+     * @return The rows before the change of the members whose permission changed.
+     */
+    @Nonnull
+    List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions);
+
+    /**
+     * Moves the members and the blocklist of a clan into another clan and deletes it, in one transaction.
+     * Members that are already in the target clan or blocked there are deleted instead,
+     * the owner of the source clan becomes a {@link CmPermission#CO_OWNER}. Verification times are kept.
+     * Blocked users are carried over, except the ones the target clan already blocks or has as members.
+     * @param sourceClanId The id of the clan to merge and delete.
+     * @param targetClanId The id of the clan to merge into.
+     * @return The touched rows.
+     * @throws dev.denux.clanmanager.core.exceptions.ClanManagerException If one of the clans does not exist.
+     */
+    @Nonnull
+    ClanMergeData mergeClans(int sourceClanId, int targetClanId);
+
+    /**
+     * Loads the permission data of several clan members together with the owners of their clans at once.
+     * @param clanMemberIds The ids of the clan members.
+     * @return The data of all clan members that exist, in no particular order.
+     */
+    @Nonnull
+    List<ClanMemberPermissionData> getClanMemberPermissions(@Nonnull int... clanMemberIds);
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The ids of all users that are blocked from the clan.
+     */
+    @Nonnull
+    List<Long> getBlockedUserIds(int clanId);
+
+    /**
+     * @param clanId The id of the clan.
+     * @param discordUserId The id of the discord user.
+     * @return True if the user is blocked from the clan.
+     */
+    boolean isBlocked(int clanId, long discordUserId);
+
+    void addBlockedUser(int clanId, long discordUserId);
+
+    void removeBlockedUser(int clanId, long discordUserId);
+
+    void clearBlocklist(int clanId);
+
+    /**
+     * @param clanId The id of the clan.
+     * @return True if the reverification feature is enabled for the clan.
+     */
+    boolean isReverificationEnabled(int clanId);
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The number of days between reverifications or -1 if the feature is disabled.
+     */
+    short getReverificationDays(int clanId);
+
+    void setReverificationDays(int clanId, short numberOfDays);
+
+    void enableReverification(int clanId);
+
+    void disableReverification(int clanId);
+
+    /**
+     * @return The ids of all clan members that have to be scheduled for reverification.
+     */
+    @Nonnull
+    List<Integer> getReverificationClanMemberIds();
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The counters of the clan or null if it does not exist.
+     */
+    @Nullable
+    ClanStats getClanStats(int clanId);
+
+    /**
+     * @param discordGuildId The id of the guild.
+     * @param limit The maximum amount of clans to return.
+     * @return The counters of the largest clans of the guild, ordered by their member count.
+     */
+    @Nonnull
+    List<ClanStats> getClanStatsByGuild(long discordGuildId, int limit);
+
+    /**
+     * Recounts the members and blocked users of every clan and corrects counters that drifted.
+     * @return The number of clans whose counters were corrected.
+     */
+    int verifyClanStats();
+
+    /**
+     * Deletes one chunk of clan members, blocked users, reverification settings and counters whose clan does not exist anymore.
+     * The tables are scanned in the order of the clan id, so every call only looks at the next chunk of clan ids.
+     * Stores backed by a database also delete at most {@code limit} rows per call, in statements that commit on their own,
+     * so a deleted clan with many members does not end up in one long transaction.
+     * @param afterClanId The clan id returned by the previous call or 0 to start the scan.
+     * @param limit The maximum amount of clan ids scanned per table and of rows deleted per call.
+     * @return The number of deleted rows and where to continue the scan.
+     */
+    @Nonnull
+    OrphanedRowsData deleteOrphanedRows(int afterClanId, int limit);
+}
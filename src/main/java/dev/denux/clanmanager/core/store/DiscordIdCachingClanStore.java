@@ -0,0 +1,130 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.utils.LongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link ClanStore} decorator that keeps the {@link ClanDiscordIds} of every clan that was resolved.
+ * Entries are dropped when one of the ids is updated, when the clan is deleted and when a referenced role or channel is deleted.
+ * @see dev.denux.clanmanager.core.listeners.DiscordIdCacheListener
+ */
+public class DiscordIdCachingClanStore extends ForwardingClanStore implements StoreInvalidationListener {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongObjectMap<ClanDiscordIds> discordIds = new LongObjectMap<>();
+    // clan id -> token of the running load, invalidating the clan drops it so the load is not installed
+    private final LongObjectMap<Object> loads = new LongObjectMap<>();
+
+    public DiscordIdCachingClanStore(@Nonnull ClanStore delegate) {
+        super(delegate);
+    }
+
+    /**
+     * @param clanId The id of the clan.
+     * @return The discord ids of the clan or null if it does not exist.
+     */
+    @Nullable
+    public ClanDiscordIds getDiscordIds(int clanId) {
+        lock.readLock().lock();
+        try {
+            ClanDiscordIds ids = discordIds.get(clanId);
+            if (ids != null) return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Object token = new Object();
+        lock.writeLock().lock();
+        try {
+            loads.put(clanId, token);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ClanData clan = delegate.getClan(clanId);
+        ClanDiscordIds ids = clan == null ? null : ClanDiscordIds.of(clan);
+        lock.writeLock().lock();
+        try {
+            if (loads.get(clanId) == token) {
+                loads.remove(clanId);
+                if (ids != null) discordIds.put(clanId, ids);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return ids;
+    }
+
+    /**
+     * Drops the entries of all clans that use the role.
+     * @param roleId The id of the deleted role.
+     */
+    public void invalidateRole(long roleId) {
+        lock.writeLock().lock();
+        try {
+            for (ClanDiscordIds ids : discordIds.values()) {
+                if (ids.getLeaderShipRoleId() == roleId || ids.getMemberRoleId() == roleId) discordIds.remove(ids.getClanId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the entries of all clans that use the channel.
+     * @param channelId The id of the deleted channel.
+     */
+    public void invalidateChannel(long channelId) {
+        lock.writeLock().lock();
+        try {
+            for (ClanDiscordIds ids : discordIds.values()) {
+                if (ids.getDiscordChannelId() == channelId) discordIds.remove(ids.getClanId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void invalidateClan(int clanId) {
+        lock.writeLock().lock();
+        try {
+            discordIds.remove(clanId);
+            loads.remove(clanId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        delegate.updateClan(clanId, column, value);
+        switch (column) {
+            case "discordGuildId":
+            case "leaderShipRoleId":
+            case "memberRoleId":
+            case "discordChannelId":
+                invalidateClan(clanId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        ClanDeletionData deleted = delegate.deleteClan(clanId);
+        invalidateClan(clanId);
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        ClanMergeData result = delegate.mergeClans(sourceClanId, targetClanId);
+        invalidateClan(sourceClanId);
+        return result;
+    }
+}
@@ -0,0 +1,243 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClanStore} that forwards every call to another store.
+ * Decorators only have to override the methods they are interested in.
+ */
+public abstract class ForwardingClanStore implements ClanStore {
+    protected final ClanStore delegate;
+
+    protected ForwardingClanStore(@Nonnull ClanStore delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return The store every call is forwarded to.
+     */
+    @Nonnull
+    public ClanStore getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        return delegate.insertClan(clan);
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        return delegate.insertClanWithOwner(clan, owner);
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClan(int clanId) {
+        return delegate.getClan(clanId);
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClanByVerificationCode(@Nonnull String verificationCode) {
+        return delegate.getClanByVerificationCode(verificationCode);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClansByGuild(long discordGuildId) {
+        return delegate.getClansByGuild(discordGuildId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClans(int afterId, int limit) {
+        return delegate.getClans(afterId, limit);
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        delegate.updateClan(clanId, column, value);
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        return delegate.deleteClan(clanId);
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        return delegate.insertClanMember(clanMember);
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        return delegate.verifyClanMember(verificationCode, discordGuildId, clanMember);
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanMemberId) {
+        return delegate.getClanMember(clanMemberId);
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanId, long discordUserId) {
+        return delegate.getClanMember(clanId, discordUserId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId) {
+        return delegate.getClanMembers(clanId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId, int afterId, int limit, @Nonnull ClanMemberSort sort) {
+        return delegate.getClanMembers(clanId, afterId, limit, sort);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembersByUser(long discordUserId, long discordGuildId) {
+        return delegate.getClanMembersByUser(discordUserId, discordGuildId);
+    }
+
+    @Nonnull
+    @Override
+    public int[] getClanMemberIdsByUser(long discordUserId, long discordGuildId) {
+        return delegate.getClanMemberIdsByUser(discordUserId, discordGuildId);
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        return delegate.updateClanMember(clanMemberId, column, value);
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        delegate.deleteClanMember(clanMemberId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        return delegate.deleteClanMembersByUsers(discordGuildId, discordUserIds);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        return delegate.deleteClanMembersByGuild(discordGuildId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions) {
+        return delegate.updateClanMemberPermissions(clanId, permissions);
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        return delegate.mergeClans(sourceClanId, targetClanId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberPermissionData> getClanMemberPermissions(@Nonnull int... clanMemberIds) {
+        return delegate.getClanMemberPermissions(clanMemberIds);
+    }
+
+    @Nonnull
+    @Override
+    public List<Long> getBlockedUserIds(int clanId) {
+        return delegate.getBlockedUserIds(clanId);
+    }
+
+    @Override
+    public boolean isBlocked(int clanId, long discordUserId) {
+        return delegate.isBlocked(clanId, discordUserId);
+    }
+
+    @Override
+    public void addBlockedUser(int clanId, long discordUserId) {
+        delegate.addBlockedUser(clanId, discordUserId);
+    }
+
+    @Override
+    public void removeBlockedUser(int clanId, long discordUserId) {
+        delegate.removeBlockedUser(clanId, discordUserId);
+    }
+
+    @Override
+    public void clearBlocklist(int clanId) {
+        delegate.clearBlocklist(clanId);
+    }
+
+    @Override
+    public boolean isReverificationEnabled(int clanId) {
+        return delegate.isReverificationEnabled(clanId);
+    }
+
+    @Override
+    public short getReverificationDays(int clanId) {
+        return delegate.getReverificationDays(clanId);
+    }
+
+    @Override
+    public void setReverificationDays(int clanId, short numberOfDays) {
+        delegate.setReverificationDays(clanId, numberOfDays);
+    }
+
+    @Override
+    public void enableReverification(int clanId) {
+        delegate.enableReverification(clanId);
+    }
+
+    @Override
+    public void disableReverification(int clanId) {
+        delegate.disableReverification(clanId);
+    }
+
+    @Nonnull
+    @Override
+    public List<Integer> getReverificationClanMemberIds() {
+        return delegate.getReverificationClanMemberIds();
+    }
+
+    @Nullable
+    @Override
+    public ClanStats getClanStats(int clanId) {
+        return delegate.getClanStats(clanId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanStats> getClanStatsByGuild(long discordGuildId, int limit) {
+        return delegate.getClanStatsByGuild(discordGuildId, limit);
+    }
+
+    @Override
+    public int verifyClanStats() {
+        return delegate.verifyClanStats();
+    }
+
+    @Nonnull
+    @Override
+    public OrphanedRowsData deleteOrphanedRows(int afterClanId, int limit) {
+        return delegate.deleteOrphanedRows(afterClanId, limit);
+    }
+}
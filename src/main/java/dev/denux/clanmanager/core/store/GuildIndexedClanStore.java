@@ -0,0 +1,309 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.utils.LongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link ClanStore} decorator that keeps the clans of the indexed guilds in memory.
+ * Guilds are indexed with {@link #indexGuild(long)} and dropped with {@link #dropGuild(long)},
+ * clans of guilds that are not indexed are always read from the underlying store.
+ * @see dev.denux.clanmanager.core.listeners.GuildClanIndexListener
+ */
+public class GuildIndexedClanStore extends ForwardingClanStore implements StoreInvalidationListener {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongObjectMap<LongObjectMap<ClanData>> clansByGuild = new LongObjectMap<>();
+    private final LongObjectMap<ClanData> clans = new LongObjectMap<>();
+    private final LongObjectMap<Boolean> trackedGuilds = new LongObjectMap<>();
+    /**
+     * Writes and invalidations are counted, a guild loaded from the underlying store is only installed
+     * if none of them touched the guild while it was loading.
+     */
+    private final LongObjectMap<Long> lastGuildWrite = new LongObjectMap<>();
+    private long writeCount;
+    private long lastUnscopedWrite;
+
+    public GuildIndexedClanStore(@Nonnull ClanStore delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Loads all clans of the guild into the index.
+     * @param discordGuildId The id of the guild.
+     */
+    public void indexGuild(long discordGuildId) {
+        lock.writeLock().lock();
+        try {
+            trackedGuilds.put(discordGuildId, Boolean.TRUE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        loadGuild(discordGuildId);
+    }
+
+    /**
+     * Loads the clans of a tracked guild and installs them, unless a write or invalidation touched the guild in the meantime.
+     * The guild then stays unloaded and the next guild scoped read tries again.
+     * @param discordGuildId The id of the guild.
+     * @return the loaded clans.
+     */
+    @Nonnull
+    private List<ClanData> loadGuild(long discordGuildId) {
+        long start;
+        lock.readLock().lock();
+        try {
+            start = writeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<ClanData> loaded = delegate.getClansByGuild(discordGuildId);
+        LongObjectMap<ClanData> guildClans = new LongObjectMap<>(loaded.size());
+        for (ClanData clan : loaded) {
+            guildClans.put(clan.getId(), clan);
+        }
+        lock.writeLock().lock();
+        try {
+            Long lastWrite = lastGuildWrite.get(discordGuildId);
+            if (!trackedGuilds.containsKey(discordGuildId) || lastUnscopedWrite > start || (lastWrite != null && lastWrite > start)) {
+                return loaded;
+            }
+            removeGuild(discordGuildId);
+            clansByGuild.put(discordGuildId, guildClans);
+            guildClans.forEachValue(clan -> clans.put(clan.getId(), clan));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return loaded;
+    }
+
+    /**
+     * Puts already loaded clans of the guild into the index, e.g. from a snapshot.
+     * @param discordGuildId The id of the guild.
+     * @param loaded All clans of the guild.
+     */
+    public void indexGuild(long discordGuildId, @Nonnull List<ClanData> loaded) {
+        LongObjectMap<ClanData> guildClans = new LongObjectMap<>(loaded.size());
+        for (ClanData clan : loaded) {
+            guildClans.put(clan.getId(), clan);
+        }
+        lock.writeLock().lock();
+        try {
+            removeGuild(discordGuildId);
+            trackedGuilds.put(discordGuildId, Boolean.TRUE);
+            clansByGuild.put(discordGuildId, guildClans);
+            guildClans.forEachValue(clan -> clans.put(clan.getId(), clan));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the guild and all of its clans from the index.
+     * @param discordGuildId The id of the guild.
+     */
+    public void dropGuild(long discordGuildId) {
+        lock.writeLock().lock();
+        try {
+            trackedGuilds.remove(discordGuildId);
+            removeGuild(discordGuildId);
+            // loads that are still running may have missed earlier writes of the guild
+            lastGuildWrite.remove(discordGuildId);
+            markUnscopedWrite();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the guild of the clan as stale, it is reloaded on the next guild scoped read.
+     * Clans that are not indexed yet may belong to an indexed guild, so every guild is marked as stale then.
+     * @param clanId The id of the clan.
+     */
+    @Override
+    public void invalidateClan(int clanId) {
+        lock.writeLock().lock();
+        try {
+            ClanData clan = clans.get(clanId);
+            if (clan != null) {
+                removeGuild(clan.getDiscordGuildId());
+                markWrite(clan.getDiscordGuildId());
+            } else {
+                for (long guildId : clansByGuild.keys()) {
+                    removeGuild(guildId);
+                }
+                markUnscopedWrite();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the guild as stale, it is reloaded on the next guild scoped read.
+     * @param discordGuildId The id of the guild.
+     */
+    public void invalidateGuild(long discordGuildId) {
+        lock.writeLock().lock();
+        try {
+            removeGuild(discordGuildId);
+            markWrite(discordGuildId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param discordGuildId The id of the guild.
+     * @return True if the clans of the guild are served from memory.
+     */
+    public boolean isIndexed(long discordGuildId) {
+        lock.readLock().lock();
+        try {
+            return clansByGuild.containsKey(discordGuildId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeGuild(long discordGuildId) {
+        LongObjectMap<ClanData> guildClans = clansByGuild.remove(discordGuildId);
+        if (guildClans == null) return;
+        for (long clanId : guildClans.keys()) {
+            clans.remove(clanId);
+        }
+    }
+
+    /**
+     * Has to be called with the write lock held.
+     */
+    private void markWrite(long discordGuildId) {
+        lastGuildWrite.put(discordGuildId, ++writeCount);
+    }
+
+    /**
+     * Marks a write whose guild is not known, e.g. of a clan that is not indexed. Has to be called with the write lock held.
+     */
+    private void markUnscopedWrite() {
+        lastUnscopedWrite = ++writeCount;
+    }
+
+    private void putClan(@Nonnull ClanData clan) {
+        LongObjectMap<ClanData> guildClans = clansByGuild.get(clan.getDiscordGuildId());
+        if (guildClans == null) return;
+        guildClans.put(clan.getId(), clan);
+        clans.put(clan.getId(), clan);
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        int clanId = delegate.insertClan(clan);
+        lock.writeLock().lock();
+        try {
+            markWrite(clan.getDiscordGuildId());
+            putClan(clan.withId(clanId));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return clanId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        ClanData inserted = delegate.insertClanWithOwner(clan, owner);
+        lock.writeLock().lock();
+        try {
+            markWrite(inserted.getDiscordGuildId());
+            putClan(inserted);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return inserted;
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClan(int clanId) {
+        lock.readLock().lock();
+        try {
+            ClanData clan = clans.get(clanId);
+            if (clan != null) return clan;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return delegate.getClan(clanId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClansByGuild(long discordGuildId) {
+        boolean tracked;
+        lock.readLock().lock();
+        try {
+            LongObjectMap<ClanData> guildClans = clansByGuild.get(discordGuildId);
+            if (guildClans != null) return guildClans.values();
+            tracked = trackedGuilds.containsKey(discordGuildId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!tracked) return delegate.getClansByGuild(discordGuildId);
+        return loadGuild(discordGuildId);
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        delegate.updateClan(clanId, column, value);
+        lock.writeLock().lock();
+        try {
+            ClanData old = clans.remove(clanId);
+            if (old == null) {
+                markUnscopedWrite();
+                return;
+            }
+            ClanData updated = old.withColumn(column, value);
+            markWrite(old.getDiscordGuildId());
+            markWrite(updated.getDiscordGuildId());
+            LongObjectMap<ClanData> guildClans = clansByGuild.get(old.getDiscordGuildId());
+            if (guildClans != null) guildClans.remove(clanId);
+            putClan(updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        ClanDeletionData deleted = delegate.deleteClan(clanId);
+        removeClan(clanId);
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        ClanMergeData result = delegate.mergeClans(sourceClanId, targetClanId);
+        removeClan(sourceClanId);
+        return result;
+    }
+
+    private void removeClan(int clanId) {
+        lock.writeLock().lock();
+        try {
+            ClanData old = clans.remove(clanId);
+            if (old == null) {
+                markUnscopedWrite();
+                return;
+            }
+            markWrite(old.getDiscordGuildId());
+            LongObjectMap<ClanData> guildClans = clansByGuild.get(old.getDiscordGuildId());
+            if (guildClans != null) guildClans.remove(clanId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,771 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.internal.CmPermission;
+import dev.denux.clanmanager.internal.VerificationResult;
+import dev.denux.clanmanager.utils.LongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link ClanStore} implementation that keeps everything in memory.
+ * Nothing is persisted, so this is meant for tests and ephemeral deployments.
+ */
+public class InMemoryClanStore implements ClanStore {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger clanSequence = new AtomicInteger();
+    private final AtomicInteger clanMemberSequence = new AtomicInteger();
+
+    private final LongObjectMap<ClanData> clans = new LongObjectMap<>();
+    private final Map<String, ClanData> clansByVerificationCode = new HashMap<>();
+    // guildId -> clanId -> clan
+    private final LongObjectMap<LongObjectMap<ClanData>> clansByGuild = new LongObjectMap<>();
+    private final LongObjectMap<ClanMemberData> clanMembers = new LongObjectMap<>();
+    // clanId -> clanMemberId -> clan member
+    private final LongObjectMap<LongObjectMap<ClanMemberData>> clanMembersByClan = new LongObjectMap<>();
+    // discordUserId -> clanId -> clan member, a user is at most once a member of a clan
+    private final LongObjectMap<LongObjectMap<ClanMemberData>> clanMembersByUser = new LongObjectMap<>();
+    private final LongObjectMap<LongObjectMap<Boolean>> blockedUsers = new LongObjectMap<>();
+    private final LongObjectMap<Short> reverificationDays = new LongObjectMap<>();
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        lock.writeLock().lock();
+        try {
+            if (clansByVerificationCode.containsKey(clan.getVerificationCode())) {
+                throw new ClanManagerException("Clan with the given code already exists.");
+            }
+            ClanData data = clan.withId(clanSequence.incrementAndGet());
+            putClan(data);
+            return data.getId();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        lock.writeLock().lock();
+        try {
+            if (clansByVerificationCode.containsKey(clan.getVerificationCode())) {
+                throw new ClanManagerException("Clan with the given code already exists.");
+            }
+            int clanId = clanSequence.incrementAndGet();
+            ClanMemberData member = owner.withColumn("clanId", clanId).withColumn("permission", CmPermission.OWNER)
+                    .withId(clanMemberSequence.incrementAndGet());
+            ClanData data = clan.withId(clanId).withColumn("ownerId", member.getId());
+            putClan(data);
+            putClanMember(member);
+            return data;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClan(int clanId) {
+        lock.readLock().lock();
+        try {
+            return clans.get(clanId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClanByVerificationCode(@Nonnull String verificationCode) {
+        lock.readLock().lock();
+        try {
+            return clansByVerificationCode.get(verificationCode);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClansByGuild(long discordGuildId) {
+        lock.readLock().lock();
+        try {
+            LongObjectMap<ClanData> guildClans = clansByGuild.get(discordGuildId);
+            return guildClans == null ? new ArrayList<>() : guildClans.values();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClans(int afterId, int limit) {
+        List<ClanData> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            clans.forEachValue(clan -> {
+                if (clan.getId() > afterId) result.add(clan);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.sort(Comparator.comparingInt(ClanData::getId));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        lock.writeLock().lock();
+        try {
+            ClanData old = clans.get(clanId);
+            if (old == null) return;
+            ClanData data = old.withColumn(column, value);
+            if (!old.getVerificationCode().equals(data.getVerificationCode())) {
+                if (clansByVerificationCode.containsKey(data.getVerificationCode())) {
+                    throw new ClanManagerException("Clan with the given code already exists.");
+                }
+            }
+            removeClan(old);
+            putClan(data);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        lock.writeLock().lock();
+        try {
+            int deleted = 0;
+            ClanData clan = clans.get(clanId);
+            if (clan != null) {
+                removeClan(clan);
+                deleted++;
+            }
+            List<ClanMemberData> members = removeClanMembers(clanId);
+            deleted += members.size();
+            LongObjectMap<Boolean> blocked = blockedUsers.remove(clanId);
+            if (blocked != null) deleted += blocked.size();
+            if (reverificationDays.remove(clanId) != null) deleted++;
+            return new ClanDeletionData(clan, members, deleted);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        lock.writeLock().lock();
+        try {
+            if (findClanMember(clanMember.getClanId(), clanMember.getDiscordUserId()) != null) {
+                throw new ClanManagerException("The user is already a member of the clan.");
+            }
+            ClanMemberData data = clanMember.withId(clanMemberSequence.incrementAndGet());
+            putClanMember(data);
+            return data.getId();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        lock.writeLock().lock();
+        try {
+            ClanData clan = clansByVerificationCode.get(verificationCode);
+            if (clan == null || clan.getDiscordGuildId() != discordGuildId) {
+                return new VerificationData(VerificationResult.Status.INVALID_CODE, null, null);
+            }
+            LongObjectMap<Boolean> blocked = blockedUsers.get(clan.getId());
+            if (blocked != null && blocked.containsKey(clanMember.getDiscordUserId())) {
+                return new VerificationData(VerificationResult.Status.BLOCKED, clan, null);
+            }
+            ClanMemberData member = findClanMember(clan.getId(), clanMember.getDiscordUserId());
+            if (member != null) {
+                return new VerificationData(VerificationResult.Status.ALREADY_MEMBER, clan, member);
+            }
+            ClanMemberData data = clanMember.withColumn("clanId", clan.getId()).withId(clanMemberSequence.incrementAndGet());
+            putClanMember(data);
+            return new VerificationData(VerificationResult.Status.VERIFIED, clan, data);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putClan(@Nonnull ClanData data) {
+        clans.put(data.getId(), data);
+        clansByVerificationCode.put(data.getVerificationCode(), data);
+        LongObjectMap<ClanData> guildClans = clansByGuild.get(data.getDiscordGuildId());
+        if (guildClans == null) {
+            guildClans = new LongObjectMap<>();
+            clansByGuild.put(data.getDiscordGuildId(), guildClans);
+        }
+        guildClans.put(data.getId(), data);
+    }
+
+    private void removeClan(@Nonnull ClanData data) {
+        clans.remove(data.getId());
+        clansByVerificationCode.remove(data.getVerificationCode());
+        LongObjectMap<ClanData> guildClans = clansByGuild.get(data.getDiscordGuildId());
+        if (guildClans == null) return;
+        guildClans.remove(data.getId());
+        if (guildClans.isEmpty()) clansByGuild.remove(data.getDiscordGuildId());
+    }
+
+    /**
+     * Has to be called with the lock held.
+     */
+    @Nullable
+    private ClanMemberData findClanMember(int clanId, long discordUserId) {
+        LongObjectMap<ClanMemberData> memberships = clanMembersByUser.get(discordUserId);
+        return memberships == null ? null : memberships.get(clanId);
+    }
+
+    private void putClanMember(@Nonnull ClanMemberData data) {
+        clanMembers.put(data.getId(), data);
+        LongObjectMap<ClanMemberData> members = clanMembersByClan.get(data.getClanId());
+        if (members == null) {
+            members = new LongObjectMap<>();
+            clanMembersByClan.put(data.getClanId(), members);
+        }
+        members.put(data.getId(), data);
+        LongObjectMap<ClanMemberData> memberships = clanMembersByUser.get(data.getDiscordUserId());
+        if (memberships == null) {
+            memberships = new LongObjectMap<>();
+            clanMembersByUser.put(data.getDiscordUserId(), memberships);
+        }
+        memberships.put(data.getClanId(), data);
+    }
+
+    private void removeClanMember(@Nonnull ClanMemberData data) {
+        clanMembers.remove(data.getId());
+        LongObjectMap<ClanMemberData> memberships = clanMembersByUser.get(data.getDiscordUserId());
+        if (memberships != null) {
+            memberships.remove(data.getClanId());
+            if (memberships.isEmpty()) clanMembersByUser.remove(data.getDiscordUserId());
+        }
+        LongObjectMap<ClanMemberData> members = clanMembersByClan.get(data.getClanId());
+        if (members == null) return;
+        members.remove(data.getId());
+        if (members.isEmpty()) clanMembersByClan.remove(data.getClanId());
+    }
+
+    /**
+     * @return the removed members.
+     */
+    @Nonnull
+    private List<ClanMemberData> removeClanMembers(int clanId) {
+        LongObjectMap<ClanMemberData> members = clanMembersByClan.get(clanId);
+        if (members == null) return new ArrayList<>();
+        List<ClanMemberData> removed = members.values();
+        for (ClanMemberData member : removed) {
+            removeClanMember(member);
+        }
+        return removed;
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanMemberId) {
+        lock.readLock().lock();
+        try {
+            return clanMembers.get(clanMemberId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanId, long discordUserId) {
+        lock.readLock().lock();
+        try {
+            return findClanMember(clanId, discordUserId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId) {
+        lock.readLock().lock();
+        try {
+            LongObjectMap<ClanMemberData> members = clanMembersByClan.get(clanId);
+            return members == null ? new ArrayList<>() : members.values();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId, int afterId, int limit, @Nonnull ClanMemberSort sort) {
+        List<ClanMemberData> members;
+        ClanMemberData after;
+        lock.readLock().lock();
+        try {
+            LongObjectMap<ClanMemberData> clanMembers = clanMembersByClan.get(clanId);
+            if (clanMembers == null) return new ArrayList<>();
+            members = clanMembers.values();
+            after = afterId > 0 ? this.clanMembers.get(afterId) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (afterId > 0 && after == null) return new ArrayList<>();
+        Comparator<ClanMemberData> comparator = sort.getComparator();
+        members.sort(comparator);
+        int from = 0;
+        if (after != null) {
+            while (from < members.size() && comparator.compare(members.get(from), after) <= 0) from++;
+        }
+        return new ArrayList<>(members.subList(from, Math.min(members.size(), from + limit)));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembersByUser(long discordUserId, long discordGuildId) {
+        List<ClanMemberData> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            LongObjectMap<ClanMemberData> memberships = clanMembersByUser.get(discordUserId);
+            if (memberships == null) return result;
+            memberships.forEachValue(member -> {
+                ClanData clan = clans.get(member.getClanId());
+                if (clan != null && clan.getDiscordGuildId() == discordGuildId) result.add(member);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public int[] getClanMemberIdsByUser(long discordUserId, long discordGuildId) {
+        List<ClanMemberData> members = getClanMembersByUser(discordUserId, discordGuildId);
+        int[] ids = new int[members.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = members.get(i).getId();
+        }
+        return ids;
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        lock.writeLock().lock();
+        try {
+            ClanMemberData old = clanMembers.get(clanMemberId);
+            if (old == null) return null;
+            ClanMemberData data = old.withColumn(column, value);
+            ClanMemberData existing = findClanMember(data.getClanId(), data.getDiscordUserId());
+            if (existing != null && existing.getId() != clanMemberId) {
+                throw new ClanManagerException("The user is already a member of the clan.");
+            }
+            removeClanMember(old);
+            putClanMember(data);
+            return old;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        lock.writeLock().lock();
+        try {
+            ClanMemberData old = clanMembers.get(clanMemberId);
+            if (old != null) removeClanMember(old);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        LongObjectMap<Boolean> users = new LongObjectMap<>(discordUserIds.length);
+        for (long discordUserId : discordUserIds) {
+            users.put(discordUserId, Boolean.TRUE);
+        }
+        return deleteClanMembers(discordGuildId, users);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        return deleteClanMembers(discordGuildId, null);
+    }
+
+    /**
+     * @param users The ids of the users or null for every user of the guild.
+     */
+    @Nonnull
+    private List<ClanMemberData> deleteClanMembers(long discordGuildId, @Nullable LongObjectMap<Boolean> users) {
+        List<ClanMemberData> deleted = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            LongObjectMap<ClanData> guildClans = clansByGuild.get(discordGuildId);
+            if (guildClans == null) return deleted;
+            if (users != null) {
+                for (long discordUserId : users.keys()) {
+                    LongObjectMap<ClanMemberData> memberships = clanMembersByUser.get(discordUserId);
+                    if (memberships == null) continue;
+                    memberships.forEachValue(member -> {
+                        if (member.getPermission() != CmPermission.OWNER && guildClans.containsKey(member.getClanId())) deleted.add(member);
+                    });
+                }
+            } else {
+                for (long clanId : guildClans.keys()) {
+                    LongObjectMap<ClanMemberData> members = clanMembersByClan.get(clanId);
+                    if (members == null) continue;
+                    members.forEachValue(member -> {
+                        if (member.getPermission() != CmPermission.OWNER) deleted.add(member);
+                    });
+                }
+            }
+            for (ClanMemberData member : deleted) {
+                removeClanMember(member);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions) {
+        if (permissions.containsValue(CmPermission.OWNER)) throw new IllegalArgumentException("The owner can only be changed with the clan.");
+        List<ClanMemberData> changed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Integer, CmPermission> entry : permissions.entrySet()) {
+                ClanMemberData old = clanMembers.get(entry.getKey());
+                if (old == null || old.getClanId() != clanId) continue;
+                if (old.getPermission() == CmPermission.OWNER || old.getPermission() == entry.getValue()) continue;
+                removeClanMember(old);
+                putClanMember(old.withColumn("permission", entry.getValue()));
+                changed.add(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return changed;
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        if (sourceClanId == targetClanId) throw new IllegalArgumentException("A clan can't be merged into itself.");
+        lock.writeLock().lock();
+        try {
+            ClanData source = clans.get(sourceClanId);
+            ClanData target = clans.get(targetClanId);
+            if (source == null || target == null) {
+                throw new ClanManagerException(String.format("Clan with the id %d does not exist", source == null ? sourceClanId : targetClanId));
+            }
+            LongObjectMap<Boolean> targetUsers = new LongObjectMap<>();
+            LongObjectMap<ClanMemberData> targetMembers = clanMembersByClan.get(targetClanId);
+            if (targetMembers != null) {
+                targetMembers.forEachValue(member -> targetUsers.put(member.getDiscordUserId(), Boolean.TRUE));
+            }
+            LongObjectMap<Boolean> targetBlocked = blockedUsers.get(targetClanId);
+            LongObjectMap<ClanMemberData> sourceMembers = clanMembersByClan.get(sourceClanId);
+            List<ClanMemberData> moved = new ArrayList<>();
+            List<ClanMemberData> dropped = new ArrayList<>();
+            for (ClanMemberData member : sourceMembers == null ? new ArrayList<ClanMemberData>() : sourceMembers.values()) {
+                removeClanMember(member);
+                long discordUserId = member.getDiscordUserId();
+                if (targetUsers.containsKey(discordUserId) || (targetBlocked != null && targetBlocked.containsKey(discordUserId))) {
+                    dropped.add(member);
+                    continue;
+                }
+                ClanMemberData data = member.withColumn("clanId", targetClanId);
+                if (data.getPermission() == CmPermission.OWNER) data = data.withColumn("permission", CmPermission.CO_OWNER);
+                putClanMember(data);
+                moved.add(data);
+            }
+            LongObjectMap<Boolean> sourceBlocked = blockedUsers.remove(sourceClanId);
+            if (sourceBlocked != null) {
+                if (targetBlocked == null) {
+                    targetBlocked = new LongObjectMap<>();
+                    blockedUsers.put(targetClanId, targetBlocked);
+                }
+                for (long discordUserId : sourceBlocked.keys()) {
+                    // the members of the target stay members
+                    if (!targetUsers.containsKey(discordUserId)) targetBlocked.put(discordUserId, Boolean.TRUE);
+                }
+            }
+            removeClan(source);
+            reverificationDays.remove(sourceClanId);
+            return new ClanMergeData(source, target, moved, dropped);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberPermissionData> getClanMemberPermissions(@Nonnull int... clanMemberIds) {
+        List<ClanMemberPermissionData> result = new ArrayList<>(clanMemberIds.length);
+        lock.readLock().lock();
+        try {
+            for (int clanMemberId : clanMemberIds) {
+                ClanMemberData member = clanMembers.get(clanMemberId);
+                if (member == null) continue;
+                ClanData clan = clans.get(member.getClanId());
+                if (clan == null) continue;
+                result.add(new ClanMemberPermissionData(member.getId(), member.getClanId(), member.getDiscordUserId(),
+                        member.getPermission(), clan.getOwnerUserId()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public List<Long> getBlockedUserIds(int clanId) {
+        List<Long> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            LongObjectMap<Boolean> blocked = blockedUsers.get(clanId);
+            if (blocked == null) return result;
+            for (long userId : blocked.keys()) {
+                result.add(userId);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isBlocked(int clanId, long discordUserId) {
+        lock.readLock().lock();
+        try {
+            LongObjectMap<Boolean> blocked = blockedUsers.get(clanId);
+            return blocked != null && blocked.containsKey(discordUserId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addBlockedUser(int clanId, long discordUserId) {
+        lock.writeLock().lock();
+        try {
+            LongObjectMap<Boolean> blocked = blockedUsers.get(clanId);
+            if (blocked == null) {
+                blocked = new LongObjectMap<>();
+                blockedUsers.put(clanId, blocked);
+            }
+            blocked.put(discordUserId, Boolean.TRUE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeBlockedUser(int clanId, long discordUserId) {
+        lock.writeLock().lock();
+        try {
+            LongObjectMap<Boolean> blocked = blockedUsers.get(clanId);
+            if (blocked == null) return;
+            blocked.remove(discordUserId);
+            if (blocked.isEmpty()) blockedUsers.remove(clanId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clearBlocklist(int clanId) {
+        lock.writeLock().lock();
+        try {
+            blockedUsers.remove(clanId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isReverificationEnabled(int clanId) {
+        lock.readLock().lock();
+        try {
+            return reverificationDays.containsKey(clanId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public short getReverificationDays(int clanId) {
+        lock.readLock().lock();
+        try {
+            Short days = reverificationDays.get(clanId);
+            return days == null ? -1 : days;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setReverificationDays(int clanId, short numberOfDays) {
+        lock.writeLock().lock();
+        try {
+            if (reverificationDays.containsKey(clanId)) reverificationDays.put(clanId, numberOfDays);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void enableReverification(int clanId) {
+        lock.writeLock().lock();
+        try {
+            if (reverificationDays.containsKey(clanId)) {
+                throw new ClanManagerException(String.format("Reverification is already enabled for clan %d", clanId));
+            }
+            reverificationDays.put(clanId, (short) 90);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void disableReverification(int clanId) {
+        lock.writeLock().lock();
+        try {
+            reverificationDays.remove(clanId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<Integer> getReverificationClanMemberIds() {
+        List<Integer> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (long clanId : reverificationDays.keys()) {
+                LongObjectMap<ClanMemberData> members = clanMembersByClan.get(clanId);
+                if (members == null) continue;
+                for (long memberId : members.keys()) {
+                    result.add((int) memberId);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public ClanStats getClanStats(int clanId) {
+        lock.readLock().lock();
+        try {
+            return clans.containsKey(clanId) ? countClan(clanId) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanStats> getClanStatsByGuild(long discordGuildId, int limit) {
+        List<ClanStats> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            LongObjectMap<ClanData> guildClans = clansByGuild.get(discordGuildId);
+            if (guildClans != null) {
+                for (long clanId : guildClans.keys()) {
+                    result.add(countClan((int) clanId));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.sort(Comparator.comparingInt(ClanStats::getMemberCount).reversed().thenComparingInt(ClanStats::getClanId));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * The counters are computed from the maps on every call, so they can't drift.
+     * @return always 0.
+     */
+    @Override
+    public int verifyClanStats() {
+        return 0;
+    }
+
+    /**
+     * The counters are not stored, so only members, blocked users and reverification settings can be orphaned.
+     */
+    @Nonnull
+    @Override
+    public OrphanedRowsData deleteOrphanedRows(int afterClanId, int limit) {
+        lock.writeLock().lock();
+        try {
+            TreeSet<Integer> candidates = new TreeSet<>();
+            for (long[] clanIds : new long[][]{clanMembersByClan.keys(), blockedUsers.keys(), reverificationDays.keys()}) {
+                for (long clanId : clanIds) {
+                    if (clanId > afterClanId) candidates.add((int) clanId);
+                }
+            }
+            int nextClanId = -1;
+            if (candidates.size() > limit) {
+                nextClanId = new ArrayList<>(candidates).get(limit - 1);
+                candidates = new TreeSet<>(candidates.headSet(nextClanId, true));
+            }
+            int deleted = 0;
+            for (int clanId : candidates) {
+                if (clans.containsKey(clanId)) continue;
+                deleted += removeClanMembers(clanId).size();
+                LongObjectMap<Boolean> blocked = blockedUsers.remove(clanId);
+                if (blocked != null) deleted += blocked.size();
+                if (reverificationDays.remove(clanId) != null) deleted++;
+            }
+            return new OrphanedRowsData(deleted, nextClanId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Has to be called with the read lock held.
+     */
+    @Nonnull
+    private ClanStats countClan(int clanId) {
+        int[] counts = new int[5];
+        int memberCount = 0;
+        LongObjectMap<ClanMemberData> members = clanMembersByClan.get(clanId);
+        if (members != null) {
+            for (ClanMemberData member : members.values()) {
+                counts[member.getPermission().getLevel()]++;
+                memberCount++;
+            }
+        }
+        LongObjectMap<Boolean> blocked = blockedUsers.get(clanId);
+        return new ClanStats(clanId, memberCount, counts[CmPermission.OWNER.getLevel()], counts[CmPermission.CO_OWNER.getLevel()],
+                counts[CmPermission.LEADERSHIP.getLevel()], counts[CmPermission.MEMBER.getLevel()], blocked == null ? 0 : blocked.size());
+    }
+}
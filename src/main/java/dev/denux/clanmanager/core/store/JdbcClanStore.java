@@ -0,0 +1,1422 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.changelog.ChangeType;
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.internal.CmPermission;
+import dev.denux.clanmanager.internal.VerificationResult;
+import dev.denux.clanmanager.utils.LongObjectMap;
+import net.dv8tion.jda.api.interactions.DiscordLocale;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * {@link ClanStore} implementation on top of a {@link DataSource}, by default the one of the {@link ClanManagerConfig}.
+ * <p>
+ * If a read DataSource is configured, plain reads go to it. Writes, transactions and permission checks always use the primary,
+ * and for the replica lag window after a write or a change of another instance all reads do as well,
+ * so a stale row of the replica can't end up in a cache.
+ * <p>
+ * With {@link #enableChangeLog(String)} every write appends its changes to the {@code changeLog} table in its own transaction,
+ * so other instances see either the write and its change or neither.
+ */
+public class JdbcClanStore implements ClanStore, StoreInvalidationListener {
+    private static final Logger log = JDALogger.getLog(JdbcClanStore.class);
+
+    private static final Set<String> CLAN_COLUMNS = Set.of("verificationCode", "name", "tag", "ownerId", "ownerUserId",
+            "discordGuildId", "leaderShipRoleId", "memberRoleId", "discordChannelId");
+    private static final Set<String> CLAN_MEMBER_COLUMNS = Set.of("verificationTime", "nickname", "permission", "locale",
+            "clanId", "discordUserId");
+
+    /**
+     * Counts the members of clans by permission, without the WHERE and GROUP BY clauses.
+     */
+    public static final String COUNT_MEMBERS = String.format("SELECT \"clanId\", COUNT(*) AS \"memberCount\", " +
+            "SUM(CASE WHEN \"permission\" = %d THEN 1 ELSE 0 END) AS \"ownerCount\", " +
+            "SUM(CASE WHEN \"permission\" = %d THEN 1 ELSE 0 END) AS \"coOwnerCount\", " +
+            "SUM(CASE WHEN \"permission\" = %d THEN 1 ELSE 0 END) AS \"leaderShipCount\", " +
+            "SUM(CASE WHEN \"permission\" = %d THEN 1 ELSE 0 END) AS \"regularCount\" FROM \"clanMember\"",
+            CmPermission.OWNER.getLevel(), CmPermission.CO_OWNER.getLevel(), CmPermission.LEADERSHIP.getLevel(), CmPermission.MEMBER.getLevel());
+    /**
+     * Counts the blocked users of clans, without the WHERE and GROUP BY clauses.
+     */
+    public static final String COUNT_BLOCKED = "SELECT \"clanId\", COUNT(*) AS \"blockedCount\" FROM \"blockedUsers\"";
+    /**
+     * The maximum amount of values in one IN list, so the statements stay below the parameter limits of the databases.
+     */
+    private static final int MAX_IN_PARAMETERS = 500;
+    /**
+     * The tables whose rows belong to a clan.
+     */
+    private static final String[] CLAN_TABLES = {"clanMember", "reverificationFeature", "blockedUsers", "clanStats"};
+
+    private final ClanManagerConfig config;
+    private final DataSource dataSource;
+    private final DataSource readDataSource;
+    private volatile long primaryReadsUntil = System.nanoTime();
+    private volatile String changeLogInstanceId;
+
+    public JdbcClanStore(@Nonnull ClanManagerConfig config) {
+        this(config, config.getDataSource(), config.getReadDataSource());
+    }
+
+    /**
+     * @param config The config.
+     * @param dataSource The primary database.
+     * @param readDataSource A read replica of the primary or null.
+     */
+    public JdbcClanStore(@Nonnull ClanManagerConfig config, @Nonnull DataSource dataSource, @Nullable DataSource readDataSource) {
+        this.config = config;
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+    }
+
+    /**
+     * Appends the changes of every following write to the change log.
+     * @param instanceId The id of this instance, the poller of this instance skips its changes.
+     * @see dev.denux.clanmanager.core.changelog.ChangeLogPoller
+     */
+    public void enableChangeLog(@Nonnull String instanceId) {
+        this.changeLogInstanceId = instanceId;
+    }
+
+    /**
+     * Appends changes to the change log if it is enabled. Has to run inside the transaction of the write.
+     * @param type The kind of entity that changed.
+     * @param entityIds The ids of the changed entities.
+     */
+    private void logChanges(@Nonnull Connection con, @Nonnull ChangeType type, @Nonnull long... entityIds) throws SQLException {
+        String instanceId = changeLogInstanceId;
+        if (instanceId == null || entityIds.length == 0) return;
+        PreparedStatement pstm = con.prepareStatement("INSERT INTO \"changeLog\" (\"instanceId\", \"entityType\", \"entityId\") VALUES (?, ?, ?)");
+        for (long entityId : entityIds) {
+            pstm.setString(1, instanceId);
+            pstm.setString(2, type.name());
+            pstm.setLong(3, entityId);
+            pstm.addBatch();
+        }
+        pstm.executeBatch();
+    }
+
+    private void logClanMembers(@Nonnull Connection con, @Nonnull List<ClanMemberData> clanMembers) throws SQLException {
+        long[] ids = new long[clanMembers.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = clanMembers.get(i).getId();
+        }
+        logChanges(con, ChangeType.CLAN_MEMBER, ids);
+    }
+
+    /**
+     * @return a connection to the read DataSource or to the primary if there is none or it may not have caught up yet.
+     */
+    @Nonnull
+    private Connection readConnection() throws SQLException {
+        if (readDataSource == null || System.nanoTime() - primaryReadsUntil < 0) return dataSource.getConnection();
+        return readDataSource.getConnection();
+    }
+
+    /**
+     * @return a connection to the primary. Reads stay on the primary for the replica lag window afterwards.
+     */
+    @Nonnull
+    private Connection writeConnection() throws SQLException {
+        markWrite();
+        return dataSource.getConnection();
+    }
+
+    private void markWrite() {
+        if (readDataSource != null) primaryReadsUntil = System.nanoTime() + config.getReplicaLagWindow().toNanos();
+    }
+
+    @Override
+    public void invalidateClan(int clanId) {
+        markWrite();
+    }
+
+    @Override
+    public void invalidateClanMember(int clanMemberId) {
+        markWrite();
+    }
+
+    @Override
+    public void invalidateBlocklist(int clanId) {
+        markWrite();
+    }
+
+    @Override
+    public void invalidateReverification(int clanId) {
+        markWrite();
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> {
+                int clanId = insertClan(con, clan);
+                logChanges(con, ChangeType.CLAN, clanId);
+                return clanId;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to insert clan.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    /**
+     * Inserts the clan and its counters, without logging the change.
+     * @return the generated id of the clan.
+     */
+    private int insertClan(@Nonnull Connection con, @Nonnull ClanData clan) throws SQLException {
+        PreparedStatement pstm = con.prepareStatement(
+                "INSERT INTO \"clan\" (\"name\", \"tag\", \"verificationCode\", \"discordGuildId\", \"ownerId\", \"ownerUserId\", \"discordChannelId\", \"leaderShipRoleId\", \"memberRoleId\") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS);
+        pstm.setString(1, clan.getName());
+        pstm.setString(2, clan.getTag());
+        pstm.setString(3, clan.getVerificationCode());
+        pstm.setLong(4, clan.getDiscordGuildId());
+        pstm.setInt(5, clan.getOwnerId());
+        pstm.setLong(6, clan.getOwnerUserId());
+        pstm.setLong(7, clan.getDiscordChannelId());
+        pstm.setLong(8, clan.getLeaderShipRoleId());
+        pstm.setLong(9, clan.getMemberRoleId());
+        pstm.executeUpdate();
+        ResultSet rs = pstm.getGeneratedKeys();
+        if (!rs.next()) throw new ClanManagerException("No id was generated for the clan.");
+        int clanId = rs.getInt(1);
+        PreparedStatement stats = con.prepareStatement("INSERT INTO \"clanStats\" (\"clanId\") VALUES (?)");
+        stats.setInt(1, clanId);
+        stats.executeUpdate();
+        return clanId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> {
+                int clanId = insertClan(con, clan.withColumn("ownerId", 0));
+                int ownerId = insertClanMember(con, owner.withColumn("clanId", clanId).withColumn("permission", CmPermission.OWNER));
+                PreparedStatement pstm = con.prepareStatement("UPDATE \"clan\" SET \"ownerId\" = ? WHERE \"id\" = ?");
+                pstm.setInt(1, ownerId);
+                pstm.setInt(2, clanId);
+                pstm.executeUpdate();
+                logChanges(con, ChangeType.CLAN, clanId);
+                logChanges(con, ChangeType.CLAN_MEMBER, ownerId);
+                return clan.withId(clanId).withColumn("ownerId", ownerId);
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to insert clan with owner {}.", owner.getDiscordUserId(), exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClan(int clanId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"id\" = ?");
+            pstm.setInt(1, clanId);
+            ResultSet rs = pstm.executeQuery();
+            return rs.next() ? readClan(rs) : null;
+        } catch (SQLException exception) {
+            log.error("Failed to get clan {}", clanId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClanByVerificationCode(@Nonnull String verificationCode) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"verificationCode\" = ?");
+            pstm.setString(1, verificationCode);
+            ResultSet rs = pstm.executeQuery();
+            return rs.next() ? readClan(rs) : null;
+        } catch (SQLException exception) {
+            log.error("Failed to get clan by verification code.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClansByGuild(long discordGuildId) {
+        List<ClanData> clans = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"discordGuildId\" = ?");
+            pstm.setLong(1, discordGuildId);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                clans.add(readClan(rs));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get all clans from the guild {}.", discordGuildId, exception);
+            throw new ClanManagerException(exception);
+        }
+        return clans;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClans(int afterId, int limit) {
+        List<ClanData> clans = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"id\" > ? ORDER BY \"id\" LIMIT ?");
+            pstm.setInt(1, afterId);
+            pstm.setInt(2, limit);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                clans.add(readClan(rs));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get the clans after {}.", afterId, exception);
+            throw new ClanManagerException(exception);
+        }
+        return clans;
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        if (!CLAN_COLUMNS.contains(column)) throw new IllegalArgumentException(String.format("Unknown clan column %s", column));
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement(
+                    String.format("UPDATE \"clan\" SET \"%s\" = ? WHERE \"id\" = ?", column));
+            pstm.setObject(1, toSqlValue(value));
+            pstm.setInt(2, clanId);
+            transaction(con, () -> {
+                int updated = pstm.executeUpdate();
+                logChanges(con, ChangeType.CLAN, clanId);
+                return updated;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to set database entry.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> {
+                // every member insert updates the counters, locking them keeps new members out until the clan is gone
+                PreparedStatement lock = con.prepareStatement("SELECT \"clanId\" FROM \"clanStats\" WHERE \"clanId\" = ? FOR UPDATE");
+                lock.setInt(1, clanId);
+                lock.executeQuery();
+                PreparedStatement select = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"id\" = ?");
+                select.setInt(1, clanId);
+                ResultSet clanResult = select.executeQuery();
+                ClanData clan = clanResult.next() ? readClan(clanResult) : null;
+                select = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"clanId\" = ?");
+                select.setInt(1, clanId);
+                ResultSet memberResult = select.executeQuery();
+                List<ClanMemberData> members = new ArrayList<>();
+                while (memberResult.next()) {
+                    members.add(readClanMember(memberResult));
+                }
+                int deleted = 0;
+                for (String table : CLAN_TABLES) {
+                    PreparedStatement pstm = con.prepareStatement(String.format("DELETE FROM \"%s\" WHERE \"clanId\" = ?", table));
+                    pstm.setInt(1, clanId);
+                    deleted += pstm.executeUpdate();
+                }
+                PreparedStatement pstm = con.prepareStatement("DELETE FROM \"clan\" WHERE \"id\" = ?");
+                pstm.setInt(1, clanId);
+                deleted += pstm.executeUpdate();
+                logChanges(con, ChangeType.CLAN, clanId);
+                return new ClanDeletionData(clan, members, deleted);
+            });
+        } catch (SQLException exception) {
+            log.error("Error while deleting clan", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> {
+                int clanMemberId = insertClanMember(con, clanMember);
+                logChanges(con, ChangeType.CLAN_MEMBER, clanMemberId);
+                return clanMemberId;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to create clan member.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    /**
+     * Inserts the clan member and counts it, without logging the change.
+     * @return the generated id of the clan member.
+     */
+    private int insertClanMember(@Nonnull Connection con, @Nonnull ClanMemberData clanMember) throws SQLException {
+        PreparedStatement pstm = con.prepareStatement(
+                "INSERT INTO \"clanMember\" (\"clanId\", \"nickname\", \"locale\", \"discordUserId\", \"permission\", \"verificationTime\") VALUES (?, ?, ?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS);
+        pstm.setInt(1, clanMember.getClanId());
+        pstm.setString(2, clanMember.getNickname());
+        pstm.setShort(3, LocaleCodes.toCode(clanMember.getLocale()));
+        pstm.setLong(4, clanMember.getDiscordUserId());
+        pstm.setShort(5, (short) clanMember.getPermission().getLevel());
+        pstm.setTimestamp(6, clanMember.getVerificationTime());
+        pstm.executeUpdate();
+        ResultSet rs = pstm.getGeneratedKeys();
+        if (!rs.next()) throw new ClanManagerException("No id was generated for the clan member.");
+        int clanMemberId = rs.getInt(1);
+        countMember(con, clanMember.getClanId(), clanMember.getPermission(), 1);
+        return clanMemberId;
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> verifyClanMember(con, verificationCode, discordGuildId, clanMember));
+        } catch (SQLException exception) {
+            log.error("Failed to verify user {} with code {}.", clanMember.getDiscordUserId(), verificationCode, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    private VerificationData verifyClanMember(@Nonnull Connection con, @Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) throws SQLException {
+        PreparedStatement clanStatement = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"verificationCode\" = ? AND \"discordGuildId\" = ?");
+        clanStatement.setString(1, verificationCode);
+        clanStatement.setLong(2, discordGuildId);
+        ResultSet clanResult = clanStatement.executeQuery();
+        if (!clanResult.next()) return new VerificationData(VerificationResult.Status.INVALID_CODE, null, null);
+        ClanData clan = readClan(clanResult);
+
+        // the blocklist and duplicate checks are part of the insert, the unique index catches concurrent verifications
+        PreparedStatement pstm = con.prepareStatement(
+                "INSERT INTO \"clanMember\" (\"clanId\", \"nickname\", \"locale\", \"discordUserId\", \"permission\", \"verificationTime\") " +
+                        "SELECT ?, ?, ?, ?, ?, CAST(? AS TIMESTAMP) WHERE " +
+                        "NOT EXISTS (SELECT 1 FROM \"blockedUsers\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?) AND " +
+                        "NOT EXISTS (SELECT 1 FROM \"clanMember\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?)",
+                Statement.RETURN_GENERATED_KEYS);
+        pstm.setInt(1, clan.getId());
+        pstm.setString(2, clanMember.getNickname());
+        pstm.setShort(3, LocaleCodes.toCode(clanMember.getLocale()));
+        pstm.setLong(4, clanMember.getDiscordUserId());
+        pstm.setShort(5, (short) clanMember.getPermission().getLevel());
+        pstm.setTimestamp(6, clanMember.getVerificationTime());
+        pstm.setInt(7, clan.getId());
+        pstm.setLong(8, clanMember.getDiscordUserId());
+        pstm.setInt(9, clan.getId());
+        pstm.setLong(10, clanMember.getDiscordUserId());
+        // a failed statement aborts the whole transaction on PostgreSQL, the savepoint keeps it usable for the checks below
+        Savepoint savepoint = con.setSavepoint();
+        int inserted;
+        try {
+            inserted = pstm.executeUpdate();
+        } catch (SQLException exception) {
+            if (exception.getSQLState() == null || !exception.getSQLState().startsWith("23")) throw exception;
+            con.rollback(savepoint);
+            inserted = 0;
+        }
+        if (inserted > 0) {
+            ResultSet rs = pstm.getGeneratedKeys();
+            if (!rs.next()) throw new ClanManagerException("No id was generated for the clan member.");
+            int clanMemberId = rs.getInt(1);
+            countMember(con, clan.getId(), clanMember.getPermission(), 1);
+            logChanges(con, ChangeType.CLAN_MEMBER, clanMemberId);
+            return new VerificationData(VerificationResult.Status.VERIFIED, clan,
+                    clanMember.withColumn("clanId", clan.getId()).withId(clanMemberId));
+        }
+
+        // nothing was inserted, find out why
+        PreparedStatement memberStatement = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?");
+        memberStatement.setInt(1, clan.getId());
+        memberStatement.setLong(2, clanMember.getDiscordUserId());
+        ResultSet memberResult = memberStatement.executeQuery();
+        if (memberResult.next()) return new VerificationData(VerificationResult.Status.ALREADY_MEMBER, clan, readClanMember(memberResult));
+        return new VerificationData(VerificationResult.Status.BLOCKED, clan, null);
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanMemberId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"id\" = ?");
+            pstm.setInt(1, clanMemberId);
+            ResultSet rs = pstm.executeQuery();
+            return rs.next() ? readClanMember(rs) : null;
+        } catch (SQLException exception) {
+            log.error("Failed to get clan member {}", clanMemberId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanId, long discordUserId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"discordUserId\" = ? AND \"clanId\" = ?");
+            pstm.setLong(1, discordUserId);
+            pstm.setInt(2, clanId);
+            ResultSet rs = pstm.executeQuery();
+            return rs.next() ? readClanMember(rs) : null;
+        } catch (SQLException exception) {
+            log.error("Failed to get clan member.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId) {
+        List<ClanMemberData> clanMembers = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"clanId\" = ?");
+            pstm.setInt(1, clanId);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                clanMembers.add(readClanMember(rs));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get all clan members from the clan {}.", clanId, exception);
+            throw new ClanManagerException(exception);
+        }
+        return clanMembers;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId, int afterId, int limit, @Nonnull ClanMemberSort sort) {
+        List<ClanMemberData> clanMembers = new ArrayList<>(limit);
+        String sortColumn = getSortExpression(sort);
+        String query;
+        if (afterId <= 0) {
+            query = String.format("SELECT * FROM \"clanMember\" WHERE \"clanId\" = ? ORDER BY %s LIMIT ?",
+                    sort == ClanMemberSort.ID ? "\"id\"" : sortColumn + ", \"id\"");
+        } else if (sort == ClanMemberSort.ID) {
+            query = "SELECT * FROM \"clanMember\" WHERE \"clanId\" = ? AND \"id\" > ? ORDER BY \"id\" LIMIT ?";
+        } else {
+            // the sort key of the last row is looked up by its id, so callers only have to remember the id
+            query = String.format("SELECT * FROM \"clanMember\" WHERE \"clanId\" = ? AND (%1$s, \"id\") > " +
+                    "(SELECT %1$s, \"id\" FROM \"clanMember\" WHERE \"id\" = ?) ORDER BY %1$s, \"id\" LIMIT ?", sortColumn);
+        }
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement(query);
+            int index = 1;
+            pstm.setInt(index++, clanId);
+            if (afterId > 0) pstm.setInt(index++, afterId);
+            pstm.setInt(index, limit);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                clanMembers.add(readClanMember(rs));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get a page of the clan members from the clan {}.", clanId, exception);
+            throw new ClanManagerException(exception);
+        }
+        return clanMembers;
+    }
+
+    /**
+     * @param sort The order of the clan members.
+     * @return The SQL expression clan members are ordered by, without the id tiebreaker.
+     */
+    @Nonnull
+    protected String getSortExpression(@Nonnull ClanMemberSort sort) {
+        switch (sort) {
+            case VERIFICATION_TIME:
+                return "\"verificationTime\"";
+            case NICKNAME:
+                return "\"nickname\"";
+            case PERMISSION:
+                return "\"permission\"";
+            default:
+                return "\"id\"";
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembersByUser(long discordUserId, long discordGuildId) {
+        List<ClanMemberData> clanMembers = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement(
+                    "SELECT \"clanMember\".* FROM \"clanMember\" JOIN \"clan\" ON \"clan\".\"id\" = \"clanMember\".\"clanId\" " +
+                    "WHERE \"clanMember\".\"discordUserId\" = ? AND \"clan\".\"discordGuildId\" = ?");
+            pstm.setLong(1, discordUserId);
+            pstm.setLong(2, discordGuildId);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                clanMembers.add(readClanMember(rs));
+            }
+        } catch (SQLException exception) {
+            log.error("Error while getting all clan members by discord member", exception);
+            throw new ClanManagerException(exception);
+        }
+        return clanMembers;
+    }
+
+    @Nonnull
+    @Override
+    public int[] getClanMemberIdsByUser(long discordUserId, long discordGuildId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement(
+                    "SELECT \"clanMember\".\"id\" FROM \"clanMember\" JOIN \"clan\" ON \"clan\".\"id\" = \"clanMember\".\"clanId\" " +
+                    "WHERE \"clanMember\".\"discordUserId\" = ? AND \"clan\".\"discordGuildId\" = ?");
+            pstm.setLong(1, discordUserId);
+            pstm.setLong(2, discordGuildId);
+            ResultSet rs = pstm.executeQuery();
+            int[] ids = new int[4];
+            int size = 0;
+            while (rs.next()) {
+                if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+                ids[size++] = rs.getInt(1);
+            }
+            return Arrays.copyOf(ids, size);
+        } catch (SQLException exception) {
+            log.error("Error while getting all clan members by discord member", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        if (!CLAN_MEMBER_COLUMNS.contains(column)) throw new IllegalArgumentException(String.format("Unknown clan member column %s", column));
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement(
+                    String.format("UPDATE \"clanMember\" SET \"%s\" = ? WHERE \"id\" = ?", column));
+            pstm.setObject(1, toSqlValue(value));
+            pstm.setInt(2, clanMemberId);
+            return transaction(con, () -> {
+                ClanMemberData old = lockClanMember(con, clanMemberId);
+                if (old == null || pstm.executeUpdate() == 0) return null;
+                if (column.equals("permission") || column.equals("clanId")) {
+                    // the counters of the old and the new permission or clan change together with the row
+                    ClanMemberData updated = old.withColumn(column, value);
+                    countMember(con, old.getClanId(), old.getPermission(), -1);
+                    countMember(con, updated.getClanId(), updated.getPermission(), 1);
+                }
+                logChanges(con, ChangeType.CLAN_MEMBER, clanMemberId);
+                return old;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to set database entry.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"clanMember\" WHERE \"id\" = ?");
+            pstm.setInt(1, clanMemberId);
+            transaction(con, () -> {
+                ClanMemberData old = lockClanMember(con, clanMemberId);
+                if (old == null || pstm.executeUpdate() == 0) return 0;
+                countMember(con, old.getClanId(), old.getPermission(), -1);
+                logChanges(con, ChangeType.CLAN_MEMBER, clanMemberId);
+                return 1;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to delete clan member.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        List<ClanMemberData> deleted = new ArrayList<>();
+        for (int from = 0; from < discordUserIds.length; from += MAX_IN_PARAMETERS) {
+            long[] chunk = Arrays.copyOfRange(discordUserIds, from, Math.min(discordUserIds.length, from + MAX_IN_PARAMETERS));
+            deleted.addAll(deleteClanMembers(discordGuildId, chunk, 0));
+        }
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        List<ClanMemberData> deleted = new ArrayList<>();
+        List<ClanMemberData> chunk;
+        int afterId = 0;
+        do {
+            chunk = deleteClanMembers(discordGuildId, null, afterId);
+            if (chunk.isEmpty()) break;
+            deleted.addAll(chunk);
+            afterId = chunk.get(chunk.size() - 1).getId();
+        } while (chunk.size() == MAX_IN_PARAMETERS);
+        return deleted;
+    }
+
+    /**
+     * Locks and deletes the memberships of a guild without the owners and updates the counters of every affected clan once.
+     * @param discordUserIds The ids of the users or null for the next {@link #MAX_IN_PARAMETERS} members of the guild by id.
+     * @param afterId The id after which the members of the guild are deleted, only used without user ids.
+     */
+    @Nonnull
+    private List<ClanMemberData> deleteClanMembers(long discordGuildId, @Nullable long[] discordUserIds, int afterId) {
+        String filter = "\"clanId\" IN (SELECT \"id\" FROM \"clan\" WHERE \"discordGuildId\" = ?) AND \"permission\" <> ?";
+        if (discordUserIds != null) {
+            filter += String.format(" AND \"discordUserId\" IN (%s)", String.join(", ", Collections.nCopies(discordUserIds.length, "?")));
+        } else {
+            // a large guild is deleted in one short transaction per chunk instead of locking every membership at once
+            filter += " AND \"id\" > ? ORDER BY \"id\" LIMIT " + MAX_IN_PARAMETERS;
+        }
+        try(Connection con = writeConnection()) {
+            PreparedStatement select = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE " + filter + " FOR UPDATE");
+            select.setLong(1, discordGuildId);
+            select.setInt(2, CmPermission.OWNER.getLevel());
+            if (discordUserIds != null) {
+                for (int i = 0; i < discordUserIds.length; i++) {
+                    select.setLong(i + 3, discordUserIds[i]);
+                }
+            } else {
+                select.setInt(3, afterId);
+            }
+            return transaction(con, () -> {
+                List<ClanMemberData> deleted = new ArrayList<>();
+                ResultSet rs = select.executeQuery();
+                while (rs.next()) {
+                    deleted.add(readClanMember(rs));
+                }
+                // delete by the locked ids, rows inserted in the meantime were not counted here
+                executeForIds(con, "DELETE FROM \"clanMember\" WHERE \"id\" IN (%s)", null, deleted);
+                LongObjectMap<int[]> deltas = new LongObjectMap<>();
+                for (ClanMemberData member : deleted) {
+                    addCountDelta(deltas, member, -1);
+                }
+                applyCountDeltas(con, deltas);
+                logClanMembers(con, deleted);
+                return deleted;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to delete the clan members of guild {}.", discordGuildId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions) {
+        if (permissions.containsValue(CmPermission.OWNER)) throw new IllegalArgumentException("The owner can only be changed with the clan.");
+        List<ClanMemberData> changed = new ArrayList<>();
+        if (permissions.isEmpty()) return changed;
+        List<Integer> ids = new ArrayList<>(permissions.keySet());
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> {
+                for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+                    List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_PARAMETERS));
+                    PreparedStatement select = con.prepareStatement(String.format(
+                            "SELECT * FROM \"clanMember\" WHERE \"clanId\" = ? AND \"id\" IN (%s) FOR UPDATE",
+                            String.join(", ", Collections.nCopies(chunk.size(), "?"))));
+                    select.setInt(1, clanId);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        select.setInt(i + 2, chunk.get(i));
+                    }
+                    ResultSet rs = select.executeQuery();
+                    while (rs.next()) {
+                        ClanMemberData old = readClanMember(rs);
+                        CmPermission permission = permissions.get(old.getId());
+                        if (old.getPermission() != CmPermission.OWNER && old.getPermission() != permission) changed.add(old);
+                    }
+                }
+                // one update per new permission instead of one per member
+                LongObjectMap<int[]> deltas = new LongObjectMap<>();
+                for (CmPermission permission : CmPermission.values()) {
+                    List<ClanMemberData> members = new ArrayList<>();
+                    for (ClanMemberData old : changed) {
+                        if (permissions.get(old.getId()) != permission) continue;
+                        members.add(old);
+                        addCountDelta(deltas, old, -1);
+                        addCountDelta(deltas, old.withColumn("permission", permission), 1);
+                    }
+                    executeForIds(con, "UPDATE \"clanMember\" SET \"permission\" = ? WHERE \"id\" IN (%s)", permission, members);
+                }
+                applyCountDeltas(con, deltas);
+                logClanMembers(con, changed);
+                return changed;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to set the permissions of {} clan members.", permissions.size(), exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        if (sourceClanId == targetClanId) throw new IllegalArgumentException("A clan can't be merged into itself.");
+        try(Connection con = writeConnection()) {
+            return transaction(con, () -> {
+                ClanData source = null;
+                ClanData target = null;
+                PreparedStatement clans = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"id\" IN (?, ?) FOR UPDATE");
+                clans.setInt(1, sourceClanId);
+                clans.setInt(2, targetClanId);
+                ResultSet rs = clans.executeQuery();
+                while (rs.next()) {
+                    ClanData clan = readClan(rs);
+                    if (clan.getId() == sourceClanId) source = clan;
+                    else target = clan;
+                }
+                if (source == null || target == null) {
+                    throw new ClanManagerException(String.format("Clan with the id %d does not exist", source == null ? sourceClanId : targetClanId));
+                }
+
+                PreparedStatement select = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"clanId\" = ? FOR UPDATE");
+                select.setInt(1, sourceClanId);
+                rs = select.executeQuery();
+                List<ClanMemberData> members = new ArrayList<>();
+                while (rs.next()) {
+                    members.add(readClanMember(rs));
+                }
+                // users that can't move, because they are already in the target clan or blocked there
+                PreparedStatement conflicts = con.prepareStatement("SELECT \"discordUserId\" FROM \"clanMember\" WHERE \"clanId\" = ? AND \"discordUserId\" IN " +
+                        "(SELECT \"discordUserId\" FROM \"clanMember\" WHERE \"clanId\" = ? UNION SELECT \"discordUserId\" FROM \"blockedUsers\" WHERE \"clanId\" = ?)");
+                conflicts.setInt(1, sourceClanId);
+                conflicts.setInt(2, targetClanId);
+                conflicts.setInt(3, targetClanId);
+                rs = conflicts.executeQuery();
+                LongObjectMap<Boolean> conflicting = new LongObjectMap<>();
+                while (rs.next()) {
+                    conflicting.put(rs.getLong(1), Boolean.TRUE);
+                }
+                List<ClanMemberData> moved = new ArrayList<>();
+                List<ClanMemberData> dropped = new ArrayList<>();
+                LongObjectMap<int[]> deltas = new LongObjectMap<>();
+                for (ClanMemberData member : members) {
+                    if (conflicting.containsKey(member.getDiscordUserId())) {
+                        dropped.add(member);
+                        continue;
+                    }
+                    if (member.getPermission() == CmPermission.OWNER) member = member.withColumn("permission", CmPermission.CO_OWNER);
+                    member = member.withColumn("clanId", targetClanId);
+                    addCountDelta(deltas, member, 1);
+                    moved.add(member);
+                }
+
+                executeForIds(con, "DELETE FROM \"clanMember\" WHERE \"id\" IN (%s)", null, dropped);
+                PreparedStatement owner = con.prepareStatement("UPDATE \"clanMember\" SET \"permission\" = ? WHERE \"clanId\" = ? AND \"permission\" = ?");
+                owner.setShort(1, (short) CmPermission.CO_OWNER.getLevel());
+                owner.setInt(2, sourceClanId);
+                owner.setShort(3, (short) CmPermission.OWNER.getLevel());
+                owner.executeUpdate();
+                PreparedStatement move = con.prepareStatement("UPDATE \"clanMember\" SET \"clanId\" = ? WHERE \"clanId\" = ?");
+                move.setInt(1, targetClanId);
+                move.setInt(2, sourceClanId);
+                move.executeUpdate();
+
+                // the target wins: users it already blocks can't be blocked twice and its members stay members
+                PreparedStatement unblock = con.prepareStatement("DELETE FROM \"blockedUsers\" WHERE \"clanId\" = ? AND \"discordUserId\" IN " +
+                        "(SELECT \"discordUserId\" FROM \"blockedUsers\" WHERE \"clanId\" = ? UNION SELECT \"discordUserId\" FROM \"clanMember\" WHERE \"clanId\" = ?)");
+                unblock.setInt(1, sourceClanId);
+                unblock.setInt(2, targetClanId);
+                unblock.setInt(3, targetClanId);
+                unblock.executeUpdate();
+                PreparedStatement block = con.prepareStatement("UPDATE \"blockedUsers\" SET \"clanId\" = ? WHERE \"clanId\" = ?");
+                block.setInt(1, targetClanId);
+                block.setInt(2, sourceClanId);
+                countBlocked(con, targetClanId, block.executeUpdate());
+
+                for (String table : new String[]{"reverificationFeature", "clanStats"}) {
+                    PreparedStatement pstm = con.prepareStatement(String.format("DELETE FROM \"%s\" WHERE \"clanId\" = ?", table));
+                    pstm.setInt(1, sourceClanId);
+                    pstm.executeUpdate();
+                }
+                PreparedStatement delete = con.prepareStatement("DELETE FROM \"clan\" WHERE \"id\" = ?");
+                delete.setInt(1, sourceClanId);
+                delete.executeUpdate();
+                applyCountDeltas(con, deltas);
+                logChanges(con, ChangeType.CLAN, sourceClanId, targetClanId);
+                logChanges(con, ChangeType.BLOCKLIST, targetClanId);
+                logClanMembers(con, moved);
+                logClanMembers(con, dropped);
+                return new ClanMergeData(source, target, moved, dropped);
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to merge the clan {} into {}.", sourceClanId, targetClanId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    /**
+     * Runs a statement with an IN list of clan member ids, in chunks that stay below the parameter limits.
+     * @param sql The statement with a {@code %s} for the placeholders of the ids.
+     * @param value A value bound before the ids or null.
+     * @param clanMembers The clan members whose ids are bound.
+     */
+    private void executeForIds(@Nonnull Connection con, @Nonnull String sql, @Nullable Object value, @Nonnull List<ClanMemberData> clanMembers) throws SQLException {
+        int offset = value == null ? 1 : 2;
+        for (int from = 0; from < clanMembers.size(); from += MAX_IN_PARAMETERS) {
+            List<ClanMemberData> chunk = clanMembers.subList(from, Math.min(clanMembers.size(), from + MAX_IN_PARAMETERS));
+            PreparedStatement pstm = con.prepareStatement(String.format(sql, String.join(", ", Collections.nCopies(chunk.size(), "?"))));
+            if (value != null) pstm.setObject(1, toSqlValue(value));
+            for (int i = 0; i < chunk.size(); i++) {
+                pstm.setInt(i + offset, chunk.get(i).getId());
+            }
+            pstm.executeUpdate();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberPermissionData> getClanMemberPermissions(@Nonnull int... clanMemberIds) {
+        List<ClanMemberPermissionData> result = new ArrayList<>(clanMemberIds.length);
+        if (clanMemberIds.length == 0) return result;
+        try(Connection con = dataSource.getConnection()) {
+            for (int from = 0; from < clanMemberIds.length; from += MAX_IN_PARAMETERS) {
+                int to = Math.min(clanMemberIds.length, from + MAX_IN_PARAMETERS);
+                PreparedStatement pstm = con.prepareStatement(String.format(
+                        "SELECT \"clanMember\".\"id\", \"clanMember\".\"clanId\", \"clanMember\".\"discordUserId\", \"clanMember\".\"permission\", \"clan\".\"ownerUserId\" " +
+                        "FROM \"clanMember\" JOIN \"clan\" ON \"clan\".\"id\" = \"clanMember\".\"clanId\" WHERE \"clanMember\".\"id\" IN (%s)",
+                        String.join(", ", Collections.nCopies(to - from, "?"))));
+                for (int i = from; i < to; i++) {
+                    pstm.setInt(i - from + 1, clanMemberIds[i]);
+                }
+                ResultSet rs = pstm.executeQuery();
+                while (rs.next()) {
+                    result.add(new ClanMemberPermissionData(rs.getInt(1), rs.getInt(2), rs.getLong(3),
+                            CmPermission.fromLevel(rs.getShort(4)), rs.getLong(5)));
+                }
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get the permissions of the clan members.", exception);
+            throw new ClanManagerException(exception);
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public List<Long> getBlockedUserIds(int clanId) {
+        List<Long> blockedUserIds = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT \"discordUserId\" FROM \"blockedUsers\" WHERE \"clanId\" = ?");
+            pstm.setInt(1, clanId);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                blockedUserIds.add(rs.getLong(1));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get blocked user ids.", exception);
+            throw new ClanManagerException(exception);
+        }
+        return blockedUserIds;
+    }
+
+    @Override
+    public boolean isBlocked(int clanId, long discordUserId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT \"discordUserId\" FROM \"blockedUsers\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?");
+            pstm.setInt(1, clanId);
+            pstm.setLong(2, discordUserId);
+            return pstm.executeQuery().next();
+        } catch (SQLException exception) {
+            log.error("Failed to check if user is blocked.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void addBlockedUser(int clanId, long discordUserId) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"blockedUsers\" (\"clanId\", \"discordUserId\") VALUES (?, ?)");
+            pstm.setInt(1, clanId);
+            pstm.setLong(2, discordUserId);
+            transaction(con, () -> {
+                int delta = countBlocked(con, clanId, pstm.executeUpdate());
+                logChanges(con, ChangeType.BLOCKLIST, clanId);
+                return delta;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to add member to blocklist.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void removeBlockedUser(int clanId, long discordUserId) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"blockedUsers\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?");
+            pstm.setInt(1, clanId);
+            pstm.setLong(2, discordUserId);
+            transaction(con, () -> {
+                int delta = countBlocked(con, clanId, -pstm.executeUpdate());
+                logChanges(con, ChangeType.BLOCKLIST, clanId);
+                return delta;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to remove member from blocklist.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void clearBlocklist(int clanId) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"blockedUsers\" WHERE \"clanId\" = ?");
+            pstm.setInt(1, clanId);
+            transaction(con, () -> {
+                int delta = countBlocked(con, clanId, -pstm.executeUpdate());
+                logChanges(con, ChangeType.BLOCKLIST, clanId);
+                return delta;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to clear blocklist.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public boolean isReverificationEnabled(int clanId) {
+        return getReverificationDays(clanId) >= 0;
+    }
+
+    @Override
+    public short getReverificationDays(int clanId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT \"numberOfDays\" FROM \"reverificationFeature\" WHERE \"clanId\" = ?");
+            pstm.setInt(1, clanId);
+            ResultSet rs = pstm.executeQuery();
+            return rs.next() ? rs.getShort(1) : -1;
+        } catch (SQLException exception) {
+            log.error("Failed to get the reverification settings of clan {}", clanId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void setReverificationDays(int clanId, short numberOfDays) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("UPDATE \"reverificationFeature\" SET \"numberOfDays\" = ? WHERE \"clanId\" = ?");
+            pstm.setShort(1, numberOfDays);
+            pstm.setInt(2, clanId);
+            transaction(con, () -> {
+                int updated = pstm.executeUpdate();
+                logChanges(con, ChangeType.REVERIFICATION, clanId);
+                return updated;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to set database entry.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void enableReverification(int clanId) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"reverificationFeature\" (\"clanId\") VALUES (?)");
+            pstm.setInt(1, clanId);
+            transaction(con, () -> {
+                int updated = pstm.executeUpdate();
+                logChanges(con, ChangeType.REVERIFICATION, clanId);
+                return updated;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to enable reverification feature.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Override
+    public void disableReverification(int clanId) {
+        try(Connection con = writeConnection()) {
+            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"reverificationFeature\" WHERE \"clanId\" = ?");
+            pstm.setInt(1, clanId);
+            transaction(con, () -> {
+                int updated = pstm.executeUpdate();
+                logChanges(con, ChangeType.REVERIFICATION, clanId);
+                return updated;
+            });
+        } catch (SQLException exception) {
+            log.error("Failed to disable reverification feature.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<Integer> getReverificationClanMemberIds() {
+        List<Integer> clanMemberIds = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT \"clanMember\".\"id\" FROM \"clanMember\" JOIN \"reverificationFeature\" ON \"reverificationFeature\".\"clanId\" = \"clanMember\".\"clanId\"");
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                clanMemberIds.add(rs.getInt(1));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get the clan members for reverification.", exception);
+            throw new ClanManagerException(exception);
+        }
+        return clanMemberIds;
+    }
+
+    @Nullable
+    @Override
+    public ClanStats getClanStats(int clanId) {
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clanStats\" WHERE \"clanId\" = ?");
+            pstm.setInt(1, clanId);
+            ResultSet rs = pstm.executeQuery();
+            return rs.next() ? readClanStats(rs) : null;
+        } catch (SQLException exception) {
+            log.error("Failed to get the stats of the clan {}.", clanId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanStats> getClanStatsByGuild(long discordGuildId, int limit) {
+        List<ClanStats> result = new ArrayList<>();
+        try(Connection con = readConnection()) {
+            PreparedStatement pstm = con.prepareStatement(
+                    "SELECT \"clanStats\".* FROM \"clanStats\" JOIN \"clan\" ON \"clan\".\"id\" = \"clanStats\".\"clanId\" " +
+                    "WHERE \"clan\".\"discordGuildId\" = ? ORDER BY \"clanStats\".\"memberCount\" DESC, \"clanStats\".\"clanId\" LIMIT ?");
+            pstm.setLong(1, discordGuildId);
+            pstm.setInt(2, limit);
+            ResultSet rs = pstm.executeQuery();
+            while (rs.next()) {
+                result.add(readClanStats(rs));
+            }
+        } catch (SQLException exception) {
+            log.error("Failed to get the clan stats of the guild {}.", discordGuildId, exception);
+            throw new ClanManagerException(exception);
+        }
+        return result;
+    }
+
+    @Override
+    public int verifyClanStats() {
+        List<Integer> drifted = new ArrayList<>();
+        try(Connection con = writeConnection()) {
+            ResultSet rs = con.prepareStatement(
+                    "SELECT \"clan\".\"id\" FROM \"clan\" LEFT JOIN \"clanStats\" ON \"clanStats\".\"clanId\" = \"clan\".\"id\" " +
+                    "LEFT JOIN (" + COUNT_MEMBERS + " GROUP BY \"clanId\") \"counted\" ON \"counted\".\"clanId\" = \"clan\".\"id\" " +
+                    "LEFT JOIN (" + COUNT_BLOCKED + " GROUP BY \"clanId\") \"blocked\" ON \"blocked\".\"clanId\" = \"clan\".\"id\" " +
+                    "WHERE \"clanStats\".\"clanId\" IS NULL " +
+                    "OR \"clanStats\".\"memberCount\" <> COALESCE(\"counted\".\"memberCount\", 0) " +
+                    "OR \"clanStats\".\"ownerCount\" <> COALESCE(\"counted\".\"ownerCount\", 0) " +
+                    "OR \"clanStats\".\"coOwnerCount\" <> COALESCE(\"counted\".\"coOwnerCount\", 0) " +
+                    "OR \"clanStats\".\"leaderShipCount\" <> COALESCE(\"counted\".\"leaderShipCount\", 0) " +
+                    "OR \"clanStats\".\"regularCount\" <> COALESCE(\"counted\".\"regularCount\", 0) " +
+                    "OR \"clanStats\".\"blockedCount\" <> COALESCE(\"blocked\".\"blockedCount\", 0)").executeQuery();
+            while (rs.next()) {
+                drifted.add(rs.getInt(1));
+            }
+            // a concurrent write can make a clan look drifted, so every clan is recounted while its counters are locked
+            int corrected = 0;
+            for (int clanId : drifted) {
+                if (transaction(con, () -> recountClan(con, clanId))) corrected++;
+            }
+            return corrected;
+        } catch (SQLException exception) {
+            log.error("Failed to verify the clan stats.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public OrphanedRowsData deleteOrphanedRows(int afterClanId, int limit) {
+        try(Connection con = writeConnection()) {
+            // every table is scanned up to the smallest last clan id of the tables that returned a full chunk
+            TreeSet<Integer> candidates = new TreeSet<>();
+            int boundary = Integer.MAX_VALUE;
+            for (String table : CLAN_TABLES) {
+                PreparedStatement pstm = con.prepareStatement(String.format(
+                        "SELECT DISTINCT \"clanId\" FROM \"%s\" WHERE \"clanId\" > ? ORDER BY \"clanId\" LIMIT ?", table));
+                pstm.setInt(1, afterClanId);
+                pstm.setInt(2, limit);
+                ResultSet rs = pstm.executeQuery();
+                int count = 0;
+                int last = 0;
+                while (rs.next()) {
+                    last = rs.getInt(1);
+                    candidates.add(last);
+                    count++;
+                }
+                if (count == limit) boundary = Math.min(boundary, last);
+            }
+            List<Integer> orphans = new ArrayList<>(candidates.headSet(boundary, true));
+            for (int from = 0; from < orphans.size(); from += MAX_IN_PARAMETERS) {
+                List<Integer> chunk = orphans.subList(from, Math.min(orphans.size(), from + MAX_IN_PARAMETERS));
+                PreparedStatement pstm = con.prepareStatement(String.format("SELECT \"id\" FROM \"clan\" WHERE \"id\" IN (%s)",
+                        String.join(", ", Collections.nCopies(chunk.size(), "?"))));
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstm.setInt(i + 1, chunk.get(i));
+                }
+                ResultSet rs = pstm.executeQuery();
+                while (rs.next()) {
+                    candidates.remove(rs.getInt(1));
+                }
+            }
+            orphans.retainAll(candidates);
+            // every statement commits on its own, orphans have nothing to stay consistent with
+            int deleted = 0;
+            for (int clanId : orphans) {
+                for (String table : CLAN_TABLES) {
+                    // the clan may have rows left, the next call scans it again
+                    if (deleted == limit) return new OrphanedRowsData(deleted, clanId - 1);
+                    deleted += deleteOrphanedRows(con, table, clanId, limit - deleted);
+                }
+            }
+            return new OrphanedRowsData(deleted, boundary == Integer.MAX_VALUE ? -1 : boundary);
+        } catch (SQLException exception) {
+            log.error("Failed to delete the orphaned rows after the clan {}.", afterClanId, exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    /**
+     * Deletes rows of a clan that does not exist anymore from one table, by their keys in statements of at most {@link #MAX_IN_PARAMETERS} rows.
+     * @param limit The maximum amount of rows to delete.
+     * @return the number of deleted rows.
+     */
+    private int deleteOrphanedRows(@Nonnull Connection con, @Nonnull String table, int clanId, int limit) throws SQLException {
+        String key = table.equals("clanMember") ? "id" : table.equals("blockedUsers") ? "discordUserId" : "clanId";
+        int deleted = 0;
+        while (deleted < limit) {
+            int chunkSize = Math.min(limit - deleted, MAX_IN_PARAMETERS);
+            PreparedStatement select = con.prepareStatement(String.format(
+                    "SELECT \"%1$s\" FROM \"%2$s\" WHERE \"clanId\" = ? ORDER BY \"%1$s\" LIMIT ?", key, table));
+            select.setInt(1, clanId);
+            select.setInt(2, chunkSize);
+            ResultSet rs = select.executeQuery();
+            List<Long> keys = new ArrayList<>();
+            while (rs.next()) {
+                keys.add(rs.getLong(1));
+            }
+            if (keys.isEmpty()) break;
+            PreparedStatement delete = con.prepareStatement(String.format("DELETE FROM \"%s\" WHERE \"clanId\" = ? AND \"%s\" IN (%s)",
+                    table, key, String.join(", ", Collections.nCopies(keys.size(), "?"))));
+            delete.setInt(1, clanId);
+            for (int i = 0; i < keys.size(); i++) {
+                delete.setLong(i + 2, keys.get(i));
+            }
+            deleted += delete.executeUpdate();
+            if (keys.size() < chunkSize) break;
+        }
+        return deleted;
+    }
+
+    /**
+     * Recounts a clan. Has to run inside a transaction.
+     * @return True if the counters were wrong.
+     */
+    private boolean recountClan(@Nonnull Connection con, int clanId) throws SQLException {
+        PreparedStatement lock = con.prepareStatement("SELECT * FROM \"clanStats\" WHERE \"clanId\" = ? FOR UPDATE");
+        lock.setInt(1, clanId);
+        ResultSet rs = lock.executeQuery();
+        ClanStats stored = rs.next() ? readClanStats(rs) : null;
+        if (stored == null) {
+            PreparedStatement insert = con.prepareStatement("INSERT INTO \"clanStats\" (\"clanId\") SELECT \"id\" FROM \"clan\" WHERE \"id\" = ?");
+            insert.setInt(1, clanId);
+            // the clan was deleted in the meantime
+            if (insert.executeUpdate() == 0) return false;
+            rs = lock.executeQuery();
+            rs.next();
+        }
+        PreparedStatement members = con.prepareStatement(COUNT_MEMBERS + " WHERE \"clanId\" = ? GROUP BY \"clanId\"");
+        members.setInt(1, clanId);
+        ResultSet counted = members.executeQuery();
+        boolean hasMembers = counted.next();
+        PreparedStatement blocked = con.prepareStatement(COUNT_BLOCKED + " WHERE \"clanId\" = ? GROUP BY \"clanId\"");
+        blocked.setInt(1, clanId);
+        ResultSet blockedCount = blocked.executeQuery();
+        boolean hasBlocked = blockedCount.next();
+        ClanStats actual = new ClanStats(clanId, hasMembers ? counted.getInt("memberCount") : 0, hasMembers ? counted.getInt("ownerCount") : 0,
+                hasMembers ? counted.getInt("coOwnerCount") : 0, hasMembers ? counted.getInt("leaderShipCount") : 0,
+                hasMembers ? counted.getInt("regularCount") : 0, hasBlocked ? blockedCount.getInt("blockedCount") : 0);
+        if (stored != null && sameCounts(stored, actual)) return false;
+        PreparedStatement update = con.prepareStatement("UPDATE \"clanStats\" SET \"memberCount\" = ?, \"ownerCount\" = ?, \"coOwnerCount\" = ?, " +
+                "\"leaderShipCount\" = ?, \"regularCount\" = ?, \"blockedCount\" = ? WHERE \"clanId\" = ?");
+        update.setInt(1, actual.getMemberCount());
+        update.setInt(2, actual.getCount(CmPermission.OWNER));
+        update.setInt(3, actual.getCount(CmPermission.CO_OWNER));
+        update.setInt(4, actual.getCount(CmPermission.LEADERSHIP));
+        update.setInt(5, actual.getCount(CmPermission.MEMBER));
+        update.setInt(6, actual.getBlockedCount());
+        update.setInt(7, clanId);
+        update.executeUpdate();
+        log.warn("Corrected the drifted stats of the clan {}.", clanId);
+        return true;
+    }
+
+    private static boolean sameCounts(@Nonnull ClanStats a, @Nonnull ClanStats b) {
+        if (a.getMemberCount() != b.getMemberCount() || a.getBlockedCount() != b.getBlockedCount()) return false;
+        for (CmPermission permission : CmPermission.values()) {
+            if (a.getCount(permission) != b.getCount(permission)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads and locks a clan member until the end of the transaction.
+     */
+    @Nullable
+    private ClanMemberData lockClanMember(@Nonnull Connection con, int clanMemberId) throws SQLException {
+        PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"id\" = ? FOR UPDATE");
+        pstm.setInt(1, clanMemberId);
+        ResultSet rs = pstm.executeQuery();
+        return rs.next() ? readClanMember(rs) : null;
+    }
+
+    /**
+     * Adds to the member counter and the counter of the permission of a clan.
+     */
+    private void countMember(@Nonnull Connection con, int clanId, @Nonnull CmPermission permission, int delta) throws SQLException {
+        String column = ClanStats.column(permission);
+        PreparedStatement pstm = con.prepareStatement(String.format(
+                "UPDATE \"clanStats\" SET \"memberCount\" = \"memberCount\" + ?, \"%s\" = \"%s\" + ? WHERE \"clanId\" = ?", column, column));
+        pstm.setInt(1, delta);
+        pstm.setInt(2, delta);
+        pstm.setInt(3, clanId);
+        pstm.executeUpdate();
+    }
+
+    /**
+     * Adds a member to the counter deltas of its clan.
+     * @param deltasByClan The member count and the counts by permission level, by clan id.
+     */
+    private static void addCountDelta(@Nonnull LongObjectMap<int[]> deltasByClan, @Nonnull ClanMemberData member, int delta) {
+        int[] deltas = deltasByClan.get(member.getClanId());
+        if (deltas == null) {
+            deltas = new int[CmPermission.OWNER.getLevel() + 1];
+            deltasByClan.put(member.getClanId(), deltas);
+        }
+        deltas[0] += delta;
+        deltas[member.getPermission().getLevel()] += delta;
+    }
+
+    /**
+     * Applies the counter deltas with a single batched update per affected clan.
+     */
+    private void applyCountDeltas(@Nonnull Connection con, @Nonnull LongObjectMap<int[]> deltasByClan) throws SQLException {
+        if (deltasByClan.isEmpty()) return;
+        StringBuilder sql = new StringBuilder("UPDATE \"clanStats\" SET \"memberCount\" = \"memberCount\" + ?");
+        for (CmPermission permission : CmPermission.values()) {
+            String column = ClanStats.column(permission);
+            sql.append(String.format(", \"%s\" = \"%s\" + ?", column, column));
+        }
+        PreparedStatement pstm = con.prepareStatement(sql.append(" WHERE \"clanId\" = ?").toString());
+        for (long clanId : deltasByClan.keys()) {
+            int[] deltas = deltasByClan.get(clanId);
+            int index = 1;
+            pstm.setInt(index++, deltas[0]);
+            for (CmPermission permission : CmPermission.values()) {
+                pstm.setInt(index++, deltas[permission.getLevel()]);
+            }
+            pstm.setInt(index, (int) clanId);
+            pstm.addBatch();
+        }
+        pstm.executeBatch();
+    }
+
+    /**
+     * Adds to the blocked user counter of a clan.
+     * @return the delta.
+     */
+    private int countBlocked(@Nonnull Connection con, int clanId, int delta) throws SQLException {
+        if (delta == 0) return 0;
+        PreparedStatement pstm = con.prepareStatement("UPDATE \"clanStats\" SET \"blockedCount\" = \"blockedCount\" + ? WHERE \"clanId\" = ?");
+        pstm.setInt(1, delta);
+        pstm.setInt(2, clanId);
+        pstm.executeUpdate();
+        return delta;
+    }
+
+    @Nonnull
+    private static ClanStats readClanStats(@Nonnull ResultSet rs) throws SQLException {
+        return new ClanStats(rs.getInt("clanId"), rs.getInt("memberCount"), rs.getInt("ownerCount"), rs.getInt("coOwnerCount"),
+                rs.getInt("leaderShipCount"), rs.getInt("regularCount"), rs.getInt("blockedCount"));
+    }
+
+    /**
+     * Runs the work in a transaction on the connection and restores auto commit afterwards.
+     */
+    private static <T> T transaction(@Nonnull Connection con, @Nonnull SqlWork<T> work) throws SQLException {
+        con.setAutoCommit(false);
+        try {
+            T result = work.run();
+            con.commit();
+            return result;
+        } catch (SQLException | RuntimeException exception) {
+            con.rollback();
+            throw exception;
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Maps a row of the {@code clan} table.
+     * @param rs The result set positioned on the row.
+     * @return the mapped row.
+     */
+    @Nonnull
+    public ClanData readClan(@Nonnull ResultSet rs) throws SQLException {
+        return new ClanData(
+                rs.getInt("id"),
+                rs.getString("verificationCode"),
+                rs.getString("name"),
+                rs.getString("tag"),
+                rs.getInt("ownerId"),
+                rs.getLong("ownerUserId"),
+                rs.getLong("discordGuildId"),
+                rs.getLong("leaderShipRoleId"),
+                rs.getLong("memberRoleId"),
+                rs.getLong("discordChannelId"));
+    }
+
+    /**
+     * Maps a row of the {@code clanMember} table.
+     * @param rs The result set positioned on the row.
+     * @return the mapped row.
+     */
+    @Nonnull
+    public ClanMemberData readClanMember(@Nonnull ResultSet rs) throws SQLException {
+        return new ClanMemberData(
+                rs.getInt("id"),
+                rs.getTimestamp("verificationTime"),
+                rs.getString("nickname"),
+                CmPermission.fromLevel(rs.getShort("permission")),
+                LocaleCodes.fromCode(rs.getShort("locale")),
+                rs.getInt("clanId"),
+                rs.getLong("discordUserId"));
+    }
+
+    /**
+     * Converts library types to the values the default schema stores.
+     * @param value The value to convert.
+     * @return the converted value.
+     */
+    @Nonnull
+    protected Object toSqlValue(@Nonnull Object value) {
+        if (value instanceof CmPermission) return (short) ((CmPermission) value).getLevel();
+        if (value instanceof DiscordLocale) return LocaleCodes.toCode((DiscordLocale) value);
+        return value;
+    }
+}
@@ -0,0 +1,57 @@
+package dev.denux.clanmanager.core.store;
+
+import net.dv8tion.jda.api.interactions.DiscordLocale;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Maps {@link DiscordLocale}s to the compact codes the default schema stores.
+ * <p>
+ * The codes are the positions in {@link #TAGS} and must never change, new locales are only appended.
+ * Locales that are not part of the table are stored as {@link DiscordLocale#UNKNOWN}.
+ */
+public final class LocaleCodes {
+    private static final String[] TAGS = {
+            "unknown", "bg", "zh-CN", "zh-TW", "hr", "cs", "da", "nl", "en-GB", "en-US", "fi", "fr", "de", "el", "hi", "hu",
+            "it", "ja", "ko", "lt", "no", "pl", "pt-BR", "ro", "ru", "es-ES", "sv-SE", "th", "tr", "uk", "vi", "id"
+    };
+
+    private static final DiscordLocale[] BY_CODE = new DiscordLocale[TAGS.length];
+    private static final short[] CODE_BY_ORDINAL = new short[DiscordLocale.values().length];
+
+    static {
+        for (short code = 0; code < TAGS.length; code++) {
+            DiscordLocale locale = DiscordLocale.from(TAGS[code]);
+            BY_CODE[code] = locale;
+            if (code == 0 || locale != DiscordLocale.UNKNOWN) CODE_BY_ORDINAL[locale.ordinal()] = code;
+        }
+    }
+
+    private LocaleCodes() {}
+
+    /**
+     * @param locale The locale.
+     * @return The code of the locale.
+     */
+    public static short toCode(@Nonnull DiscordLocale locale) {
+        return CODE_BY_ORDINAL[locale.ordinal()];
+    }
+
+    /**
+     * @param code The code of the locale.
+     * @return The locale or {@link DiscordLocale#UNKNOWN} for unknown codes.
+     */
+    @Nonnull
+    public static DiscordLocale fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) return DiscordLocale.UNKNOWN;
+        return BY_CODE[code];
+    }
+
+    /**
+     * @return The tags of all codes, the index is the code.
+     */
+    @Nonnull
+    public static String[] getTags() {
+        return TAGS.clone();
+    }
+}
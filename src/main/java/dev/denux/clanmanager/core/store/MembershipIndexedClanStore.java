@@ -0,0 +1,347 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.VerificationResult;
+import dev.denux.clanmanager.utils.LongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link ClanStore} decorator that remembers the clan member ids of a discord user per guild.
+ * Entries are loaded on the first lookup and dropped whenever one of the memberships changes.
+ * A hit is two primitive map lookups and returns a shared array, so it doesn't allocate anything.
+ * <p>
+ * Every load registers a token for its entry, dropping the entry drops the token as well.
+ * A load whose token is gone when it finishes may have read the memberships before the change, so it is not installed.
+ */
+public class MembershipIndexedClanStore extends ForwardingClanStore implements StoreInvalidationListener {
+    private static final int[] EMPTY = new int[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int maxEntries;
+    // guildId -> userId -> clan member ids
+    private final LongObjectMap<LongObjectMap<int[]>> memberIds = new LongObjectMap<>();
+    // clan member id -> {guildId, userId, clanId} of the entry that contains it
+    private final LongObjectMap<long[]> entryByMember = new LongObjectMap<>();
+    // clan id -> ids of its indexed clan members
+    private final LongObjectMap<LongObjectMap<Boolean>> membersByClan = new LongObjectMap<>();
+    // guildId -> userId -> token of the running load
+    private final LongObjectMap<LongObjectMap<Object>> loads = new LongObjectMap<>();
+    private int entries;
+
+    /**
+     * @param delegate The store to forward to.
+     * @param maxEntries The maximum amount of (guild, user) entries. The index is reset once it grows beyond that.
+     */
+    public MembershipIndexedClanStore(@Nonnull ClanStore delegate, int maxEntries) {
+        super(delegate);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * The returned array is shared and must not be modified.
+     */
+    @Nonnull
+    @Override
+    public int[] getClanMemberIdsByUser(long discordUserId, long discordGuildId) {
+        lock.readLock().lock();
+        try {
+            LongObjectMap<int[]> users = memberIds.get(discordGuildId);
+            int[] ids = users == null ? null : users.get(discordUserId);
+            if (ids != null) return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Object token = new Object();
+        lock.writeLock().lock();
+        try {
+            LongObjectMap<Object> users = loads.get(discordGuildId);
+            if (users == null) {
+                users = new LongObjectMap<>();
+                loads.put(discordGuildId, users);
+            }
+            users.put(discordUserId, token);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<ClanMemberData> members = delegate.getClanMembersByUser(discordUserId, discordGuildId);
+        int[] loaded = members.isEmpty() ? EMPTY : new int[members.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            loaded[i] = members.get(i).getId();
+        }
+        lock.writeLock().lock();
+        try {
+            LongObjectMap<Object> users = loads.get(discordGuildId);
+            if (users == null || users.get(discordUserId) != token) return loaded;
+            users.remove(discordUserId);
+            if (users.isEmpty()) loads.remove(discordGuildId);
+            if (entries >= maxEntries) clear();
+            putEntry(discordGuildId, discordUserId, loaded, members);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return loaded;
+    }
+
+    private void putEntry(long discordGuildId, long discordUserId, @Nonnull int[] ids, @Nonnull List<ClanMemberData> members) {
+        LongObjectMap<int[]> users = memberIds.get(discordGuildId);
+        if (users == null) {
+            users = new LongObjectMap<>();
+            memberIds.put(discordGuildId, users);
+        }
+        if (users.put(discordUserId, ids) == null) entries++;
+        for (ClanMemberData member : members) {
+            entryByMember.put(member.getId(), new long[]{discordGuildId, discordUserId, member.getClanId()});
+            LongObjectMap<Boolean> clanMembers = membersByClan.get(member.getClanId());
+            if (clanMembers == null) {
+                clanMembers = new LongObjectMap<>();
+                membersByClan.put(member.getClanId(), clanMembers);
+            }
+            clanMembers.put(member.getId(), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Drops the entry and the running load of the user. Has to be called with the write lock held.
+     */
+    private void removeEntry(long discordGuildId, long discordUserId) {
+        LongObjectMap<Object> loading = loads.get(discordGuildId);
+        if (loading != null) {
+            loading.remove(discordUserId);
+            if (loading.isEmpty()) loads.remove(discordGuildId);
+        }
+        LongObjectMap<int[]> users = memberIds.get(discordGuildId);
+        if (users == null) return;
+        int[] ids = users.remove(discordUserId);
+        if (ids == null) return;
+        entries--;
+        for (int id : ids) {
+            long[] entry = entryByMember.remove(id);
+            if (entry == null) continue;
+            LongObjectMap<Boolean> clanMembers = membersByClan.get(entry[2]);
+            if (clanMembers == null) continue;
+            clanMembers.remove(id);
+            if (clanMembers.isEmpty()) membersByClan.remove(entry[2]);
+        }
+        if (users.isEmpty()) memberIds.remove(discordGuildId);
+    }
+
+    /**
+     * Drops the entries of all indexed members of the clan and of the same users in the guild the clan belongs to now.
+     * The users of running loads are not known, so all of them are discarded. Has to be called with the write lock held.
+     * @param discordGuildId The guild the clan belongs to now or null if it does not exist anymore.
+     */
+    private void removeClan(int clanId, @Nullable Long discordGuildId) {
+        loads.clear();
+        LongObjectMap<Boolean> clanMembers = membersByClan.get(clanId);
+        if (clanMembers == null) return;
+        for (long clanMemberId : clanMembers.keys()) {
+            long[] entry = entryByMember.get(clanMemberId);
+            if (entry == null) continue;
+            removeEntry(entry[0], entry[1]);
+            if (discordGuildId != null && discordGuildId != entry[0]) removeEntry(discordGuildId, entry[1]);
+        }
+        membersByClan.remove(clanId);
+    }
+
+    private void clear() {
+        memberIds.clear();
+        entryByMember.clear();
+        membersByClan.clear();
+        loads.clear();
+        entries = 0;
+    }
+
+    /**
+     * Drops the entry that contains the clan member and the entry of the user the member belongs to now.
+     * The member is read from the underlying store, so a membership another instance added only drops the entry of its user.
+     */
+    @Override
+    public void invalidateClanMember(int clanMemberId) {
+        ClanMemberData member = delegate.getClanMember(clanMemberId);
+        ClanData clan = member == null ? null : delegate.getClan(member.getClanId());
+        lock.writeLock().lock();
+        try {
+            long[] entry = entryByMember.get(clanMemberId);
+            if (entry != null) removeEntry(entry[0], entry[1]);
+            if (clan != null) {
+                removeEntry(clan.getDiscordGuildId(), member.getDiscordUserId());
+            } else {
+                // the user of a deleted member is not known, a running load may still have read it
+                loads.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void invalidateClan(int clanId) {
+        dropClan(clanId);
+    }
+
+    private void dropClan(int clanId) {
+        ClanData clan = delegate.getClan(clanId);
+        lock.writeLock().lock();
+        try {
+            removeClan(clanId, clan == null ? null : clan.getDiscordGuildId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops every entry of the index.
+     */
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        int clanMemberId = delegate.insertClanMember(clanMember);
+        ClanData clan = delegate.getClan(clanMember.getClanId());
+        lock.writeLock().lock();
+        try {
+            if (clan != null) {
+                removeEntry(clan.getDiscordGuildId(), clanMember.getDiscordUserId());
+            } else {
+                clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return clanMemberId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        ClanData inserted = delegate.insertClanWithOwner(clan, owner);
+        lock.writeLock().lock();
+        try {
+            removeEntry(inserted.getDiscordGuildId(), owner.getDiscordUserId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return inserted;
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        VerificationData result = delegate.verifyClanMember(verificationCode, discordGuildId, clanMember);
+        if (result.getStatus() != VerificationResult.Status.VERIFIED) return result;
+        lock.writeLock().lock();
+        try {
+            removeEntry(discordGuildId, clanMember.getDiscordUserId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        ClanMemberData old = delegate.updateClanMember(clanMemberId, column, value);
+        if ("discordUserId".equals(column) || "clanId".equals(column)) invalidateClanMember(clanMemberId);
+        return old;
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        delegate.deleteClanMember(clanMemberId);
+        lock.writeLock().lock();
+        try {
+            long[] entry = entryByMember.get(clanMemberId);
+            if (entry != null) {
+                removeEntry(entry[0], entry[1]);
+            } else {
+                loads.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        List<ClanMemberData> deleted = delegate.deleteClanMembersByUsers(discordGuildId, discordUserIds);
+        lock.writeLock().lock();
+        try {
+            // users without a deleted membership may have an empty entry, which is still correct
+            for (ClanMemberData member : deleted) {
+                removeEntry(discordGuildId, member.getDiscordUserId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        List<ClanMemberData> deleted = delegate.deleteClanMembersByGuild(discordGuildId);
+        lock.writeLock().lock();
+        try {
+            LongObjectMap<int[]> users = memberIds.get(discordGuildId);
+            if (users != null) {
+                for (long discordUserId : users.keys()) {
+                    removeEntry(discordGuildId, discordUserId);
+                }
+            }
+            loads.remove(discordGuildId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        ClanDeletionData deleted = delegate.deleteClan(clanId);
+        lock.writeLock().lock();
+        try {
+            removeClan(clanId, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        ClanMergeData result = delegate.mergeClans(sourceClanId, targetClanId);
+        lock.writeLock().lock();
+        try {
+            removeClan(sourceClanId, null);
+            // the moved members belong to the target now, their users are dropped by the source already
+            removeClan(targetClanId, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public OrphanedRowsData deleteOrphanedRows(int afterClanId, int limit) {
+        OrphanedRowsData result = delegate.deleteOrphanedRows(afterClanId, limit);
+        // the deleted members are not known, but orphans are rare
+        if (result.getDeletedRows() > 0) reset();
+        return result;
+    }
+}
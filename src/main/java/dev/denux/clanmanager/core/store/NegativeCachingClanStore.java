@@ -0,0 +1,122 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.VerificationResult;
+import dev.denux.clanmanager.utils.LongObjectMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link ClanStore} decorator that remembers for a short time which clan and clan member ids do not exist,
+ * so repeated lookups of deleted or made up ids don't hit the underlying store.
+ * Ids are forgotten as soon as they are inserted or invalidated.
+ */
+public class NegativeCachingClanStore extends ForwardingClanStore implements StoreInvalidationListener {
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final long ttlNanos;
+    // id -> System.nanoTime() the miss expires at
+    private final LongObjectMap<Long> missingClans = new LongObjectMap<>();
+    private final LongObjectMap<Long> missingClanMembers = new LongObjectMap<>();
+
+    /**
+     * @param delegate The store to forward to.
+     * @param ttl How long a miss is remembered.
+     */
+    public NegativeCachingClanStore(@Nonnull ClanStore delegate, @Nonnull Duration ttl) {
+        super(delegate);
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    private boolean isMissing(@Nonnull LongObjectMap<Long> missing, int id) {
+        lock.readLock().lock();
+        try {
+            Long expiresAt = missing.get(id);
+            return expiresAt != null && expiresAt - System.nanoTime() > 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void markMissing(@Nonnull LongObjectMap<Long> missing, int id) {
+        lock.writeLock().lock();
+        try {
+            if (missing.size() >= MAX_ENTRIES) missing.clear();
+            missing.put(id, System.nanoTime() + ttlNanos);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void forget(@Nonnull LongObjectMap<Long> missing, int id) {
+        lock.writeLock().lock();
+        try {
+            missing.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClan(int clanId) {
+        if (isMissing(missingClans, clanId)) return null;
+        ClanData clan = delegate.getClan(clanId);
+        if (clan == null) markMissing(missingClans, clanId);
+        return clan;
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanMemberId) {
+        if (isMissing(missingClanMembers, clanMemberId)) return null;
+        ClanMemberData clanMember = delegate.getClanMember(clanMemberId);
+        if (clanMember == null) markMissing(missingClanMembers, clanMemberId);
+        return clanMember;
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        int clanId = delegate.insertClan(clan);
+        forget(missingClans, clanId);
+        return clanId;
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        ClanData inserted = delegate.insertClanWithOwner(clan, owner);
+        forget(missingClans, inserted.getId());
+        forget(missingClanMembers, inserted.getOwnerId());
+        return inserted;
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        int clanMemberId = delegate.insertClanMember(clanMember);
+        forget(missingClanMembers, clanMemberId);
+        return clanMemberId;
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        VerificationData result = delegate.verifyClanMember(verificationCode, discordGuildId, clanMember);
+        if (result.getStatus() == VerificationResult.Status.VERIFIED) forget(missingClanMembers, result.getClanMember().getId());
+        return result;
+    }
+
+    @Override
+    public void invalidateClan(int clanId) {
+        forget(missingClans, clanId);
+    }
+
+    @Override
+    public void invalidateClanMember(int clanMemberId) {
+        forget(missingClanMembers, clanMemberId);
+    }
+}
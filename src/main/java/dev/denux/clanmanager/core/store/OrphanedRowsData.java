@@ -0,0 +1,28 @@
+package dev.denux.clanmanager.core.store;
+
+/**
+ * The outcome of one chunk of {@link ClanStore#deleteOrphanedRows(int, int)}.
+ */
+public class OrphanedRowsData {
+    private final int deletedRows;
+    private final int nextClanId;
+
+    public OrphanedRowsData(int deletedRows, int nextClanId) {
+        this.deletedRows = deletedRows;
+        this.nextClanId = nextClanId;
+    }
+
+    /**
+     * @return The number of rows deleted over all tables.
+     */
+    public int getDeletedRows() {
+        return deletedRows;
+    }
+
+    /**
+     * @return The clan id to continue the scan after or -1 if the scan reached the end.
+     */
+    public int getNextClanId() {
+        return nextClanId;
+    }
+}
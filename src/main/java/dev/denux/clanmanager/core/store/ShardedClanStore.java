@@ -0,0 +1,491 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.internal.CmPermission;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.LongToIntFunction;
+
+/**
+ * {@link ClanStore} that partitions the clans by their guild over several stores, usually one {@link JdbcClanStore} per database.
+ * <p>
+ * A clan lives on the shard of its guild, together with its members, blocklist and reverification settings.
+ * The ids handed out are global: the lower {@link #SHARD_BITS} bits hold the shard and the remaining bits the id inside the shard,
+ * so every lookup by id goes straight to one shard. Lookups by verification code are sent to all shards in parallel.
+ */
+public class ShardedClanStore implements ClanStore {
+    /**
+     * The number of bits of an id that hold the shard.
+     */
+    public static final int SHARD_BITS = 4;
+    /**
+     * The maximum number of shards.
+     */
+    public static final int MAX_SHARDS = 1 << SHARD_BITS;
+    private static final int SHARD_MASK = MAX_SHARDS - 1;
+    private static final int MAX_LOCAL_ID = Integer.MAX_VALUE >>> SHARD_BITS;
+
+    private final List<ClanStore> shards;
+    private final LongToIntFunction shardFunction;
+    private final ExecutorService executor;
+
+    /**
+     * @param shards The stores of the shards. The order must never change, the index of a store is encoded in the ids.
+     * @param shardFunction Maps a guild id to the index of its shard.
+     */
+    public ShardedClanStore(@Nonnull List<? extends ClanStore> shards, @Nonnull LongToIntFunction shardFunction) {
+        if (shards.isEmpty() || shards.size() > MAX_SHARDS) {
+            throw new IllegalArgumentException(String.format("Between 1 and %d shards are supported.", MAX_SHARDS));
+        }
+        this.shards = List.copyOf(shards);
+        this.shardFunction = shardFunction;
+        this.executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "ClanManager-Shards");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the threads that query the shards in parallel. Queries that are already running still finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The default shard function, which spreads the guilds by the timestamp part of their snowflake.
+     * @param shardCount The number of shards.
+     * @return the shard function.
+     */
+    @Nonnull
+    public static LongToIntFunction byGuildId(int shardCount) {
+        return guildId -> (int) Long.remainderUnsigned(guildId >>> 22, shardCount);
+    }
+
+    /**
+     * @param discordGuildId The id of the guild.
+     * @return The index of the shard that holds the clans of the guild.
+     */
+    public int getShard(long discordGuildId) {
+        int shard = shardFunction.applyAsInt(discordGuildId);
+        if (shard < 0 || shard >= shards.size()) {
+            throw new ClanManagerException(String.format("The shard function returned %d for the guild %d, but there are only %d shards.", shard, discordGuildId, shards.size()));
+        }
+        return shard;
+    }
+
+    /**
+     * @param id A global id.
+     * @return The index of the shard the id belongs to.
+     */
+    public static int shardOf(int id) {
+        return id & SHARD_MASK;
+    }
+
+    private static int encode(int shard, int localId) {
+        if (localId == 0) return 0;
+        if (localId > MAX_LOCAL_ID) throw new ClanManagerException(String.format("The id %d of shard %d is too large to be sharded.", localId, shard));
+        return localId << SHARD_BITS | shard;
+    }
+
+    private static int decode(int id) {
+        return id >>> SHARD_BITS;
+    }
+
+    @Nonnull
+    private ClanStore shard(int id) {
+        int shard = shardOf(id);
+        if (shard >= shards.size()) throw new ClanManagerException(String.format("The id %d belongs to the unknown shard %d.", id, shard));
+        return shards.get(shard);
+    }
+
+    @Nullable
+    private static ClanData toGlobal(int shard, @Nullable ClanData clan) {
+        if (clan == null) return null;
+        return clan.withId(encode(shard, clan.getId())).withColumn("ownerId", encode(shard, clan.getOwnerId()));
+    }
+
+    @Nullable
+    private static ClanMemberData toGlobal(int shard, @Nullable ClanMemberData clanMember) {
+        if (clanMember == null) return null;
+        return clanMember.withId(encode(shard, clanMember.getId())).withColumn("clanId", encode(shard, clanMember.getClanId()));
+    }
+
+    @Nonnull
+    private static List<ClanMemberData> toGlobal(int shard, @Nonnull List<ClanMemberData> clanMembers) {
+        List<ClanMemberData> result = new ArrayList<>(clanMembers.size());
+        for (ClanMemberData clanMember : clanMembers) {
+            result.add(toGlobal(shard, clanMember));
+        }
+        return result;
+    }
+
+    /**
+     * Runs the query on every shard in parallel.
+     * @param query The query to run.
+     * @return the results in the order of the shards.
+     */
+    @Nonnull
+    private <T> List<T> fanOut(@Nonnull Function<Integer, T> query) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), executor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) throw (RuntimeException) exception.getCause();
+            throw exception;
+        }
+        return results;
+    }
+
+    @Override
+    public int insertClan(@Nonnull ClanData clan) {
+        int shard = getShard(clan.getDiscordGuildId());
+        ClanData local = clan.getOwnerId() == 0 ? clan : clan.withColumn("ownerId", decode(clan.getOwnerId()));
+        return encode(shard, shards.get(shard).insertClan(local));
+    }
+
+    @Nonnull
+    @Override
+    public ClanData insertClanWithOwner(@Nonnull ClanData clan, @Nonnull ClanMemberData owner) {
+        int shard = getShard(clan.getDiscordGuildId());
+        return toGlobal(shard, shards.get(shard).insertClanWithOwner(clan, owner));
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClan(int clanId) {
+        return toGlobal(shardOf(clanId), shard(clanId).getClan(decode(clanId)));
+    }
+
+    @Nullable
+    @Override
+    public ClanData getClanByVerificationCode(@Nonnull String verificationCode) {
+        List<ClanData> results = fanOut(shard -> toGlobal(shard, shards.get(shard).getClanByVerificationCode(verificationCode)));
+        for (ClanData clan : results) {
+            if (clan != null) return clan;
+        }
+        return null;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClansByGuild(long discordGuildId) {
+        int shard = getShard(discordGuildId);
+        List<ClanData> clans = shards.get(shard).getClansByGuild(discordGuildId);
+        List<ClanData> result = new ArrayList<>(clans.size());
+        for (ClanData clan : clans) {
+            result.add(toGlobal(shard, clan));
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanData> getClans(int afterId, int limit) {
+        List<ClanData> result = new ArrayList<>();
+        List<List<ClanData>> results = fanOut(shard -> shards.get(shard).getClans(localAfter(shard, afterId), limit));
+        for (int shard = 0; shard < results.size(); shard++) {
+            for (ClanData clan : results.get(shard)) {
+                result.add(toGlobal(shard, clan));
+            }
+        }
+        result.sort(Comparator.comparingInt(ClanData::getId));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * The global ids are ordered by the local id first and by the shard second,
+     * so a shard after the one of the cursor still has to return the local id of the cursor.
+     * @return the local id to continue the scan of the shard after.
+     */
+    private static int localAfter(int shard, int afterId) {
+        if (afterId == 0) return 0;
+        return shard > shardOf(afterId) ? decode(afterId) - 1 : decode(afterId);
+    }
+
+    @Override
+    public void updateClan(int clanId, @Nonnull String column, @Nonnull Object value) {
+        if (column.equals("discordGuildId") && getShard(((Number) value).longValue()) != shardOf(clanId)) {
+            throw new ClanManagerException("A clan can't be moved to a guild of another shard.");
+        }
+        if (column.equals("ownerId")) {
+            int ownerId = ((Number) value).intValue();
+            if (ownerId != 0 && shardOf(ownerId) != shardOf(clanId)) throw new ClanManagerException("The owner has to be on the shard of the clan.");
+            value = decode(ownerId);
+        }
+        shard(clanId).updateClan(decode(clanId), column, value);
+    }
+
+    @Nonnull
+    @Override
+    public ClanDeletionData deleteClan(int clanId) {
+        int shard = shardOf(clanId);
+        ClanDeletionData result = shard(clanId).deleteClan(decode(clanId));
+        return new ClanDeletionData(toGlobal(shard, result.getClan()), toGlobal(shard, result.getMembers()), result.getDeletedRows());
+    }
+
+    @Override
+    public int insertClanMember(@Nonnull ClanMemberData clanMember) {
+        int shard = shardOf(clanMember.getClanId());
+        return encode(shard, shard(clanMember.getClanId()).insertClanMember(clanMember.withColumn("clanId", decode(clanMember.getClanId()))));
+    }
+
+    @Nonnull
+    @Override
+    public VerificationData verifyClanMember(@Nonnull String verificationCode, long discordGuildId, @Nonnull ClanMemberData clanMember) {
+        int shard = getShard(discordGuildId);
+        VerificationData data = shards.get(shard).verifyClanMember(verificationCode, discordGuildId, clanMember);
+        return new VerificationData(data.getStatus(), toGlobal(shard, data.getClan()), toGlobal(shard, data.getClanMember()));
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanMemberId) {
+        return toGlobal(shardOf(clanMemberId), shard(clanMemberId).getClanMember(decode(clanMemberId)));
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData getClanMember(int clanId, long discordUserId) {
+        return toGlobal(shardOf(clanId), shard(clanId).getClanMember(decode(clanId), discordUserId));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId) {
+        return toGlobal(shardOf(clanId), shard(clanId).getClanMembers(decode(clanId)));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembers(int clanId, int afterId, int limit, @Nonnull ClanMemberSort sort) {
+        if (afterId != 0 && shardOf(afterId) != shardOf(clanId)) return new ArrayList<>();
+        // the encoding keeps the order of the ids inside a shard, so the pages stay sorted
+        return toGlobal(shardOf(clanId), shard(clanId).getClanMembers(decode(clanId), decode(afterId), limit, sort));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> getClanMembersByUser(long discordUserId, long discordGuildId) {
+        int shard = getShard(discordGuildId);
+        return toGlobal(shard, shards.get(shard).getClanMembersByUser(discordUserId, discordGuildId));
+    }
+
+    @Nonnull
+    @Override
+    public int[] getClanMemberIdsByUser(long discordUserId, long discordGuildId) {
+        int shard = getShard(discordGuildId);
+        int[] ids = shards.get(shard).getClanMemberIdsByUser(discordUserId, discordGuildId);
+        int[] result = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = encode(shard, ids[i]);
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public ClanMemberData updateClanMember(int clanMemberId, @Nonnull String column, @Nonnull Object value) {
+        if (column.equals("clanId")) {
+            int clanId = ((Number) value).intValue();
+            if (shardOf(clanId) != shardOf(clanMemberId)) throw new ClanManagerException("A clan member can't be moved to a clan of another shard.");
+            value = decode(clanId);
+        }
+        return toGlobal(shardOf(clanMemberId), shard(clanMemberId).updateClanMember(decode(clanMemberId), column, value));
+    }
+
+    @Override
+    public void deleteClanMember(int clanMemberId) {
+        shard(clanMemberId).deleteClanMember(decode(clanMemberId));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByUsers(long discordGuildId, @Nonnull long... discordUserIds) {
+        int shard = getShard(discordGuildId);
+        return toGlobal(shard, shards.get(shard).deleteClanMembersByUsers(discordGuildId, discordUserIds));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> deleteClanMembersByGuild(long discordGuildId) {
+        int shard = getShard(discordGuildId);
+        return toGlobal(shard, shards.get(shard).deleteClanMembersByGuild(discordGuildId));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberData> updateClanMemberPermissions(int clanId, @Nonnull Map<Integer, CmPermission> permissions) {
+        int shard = shardOf(clanId);
+        Map<Integer, CmPermission> local = new HashMap<>(permissions.size());
+        for (Map.Entry<Integer, CmPermission> entry : permissions.entrySet()) {
+            // members of other shards can't be in the clan
+            if (shardOf(entry.getKey()) == shard) local.put(decode(entry.getKey()), entry.getValue());
+        }
+        return toGlobal(shard, shard(clanId).updateClanMemberPermissions(decode(clanId), local));
+    }
+
+    @Nonnull
+    @Override
+    public ClanMergeData mergeClans(int sourceClanId, int targetClanId) {
+        int shard = shardOf(targetClanId);
+        if (shardOf(sourceClanId) != shard) throw new ClanManagerException("Clans of different shards can't be merged.");
+        ClanMergeData result = shard(targetClanId).mergeClans(decode(sourceClanId), decode(targetClanId));
+        return new ClanMergeData(toGlobal(shard, result.getSource()), toGlobal(shard, result.getTarget()),
+                toGlobal(shard, result.getMoved()), toGlobal(shard, result.getDropped()));
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanMemberPermissionData> getClanMemberPermissions(@Nonnull int... clanMemberIds) {
+        List<ClanMemberPermissionData> result = new ArrayList<>(clanMemberIds.length);
+        int[][] idsByShard = new int[shards.size()][];
+        int[] counts = new int[shards.size()];
+        for (int id : clanMemberIds) {
+            int shard = shardOf(id);
+            if (shard >= shards.size()) continue;
+            if (idsByShard[shard] == null) idsByShard[shard] = new int[clanMemberIds.length];
+            idsByShard[shard][counts[shard]++] = decode(id);
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (counts[shard] == 0) continue;
+            for (ClanMemberPermissionData data : shards.get(shard).getClanMemberPermissions(Arrays.copyOf(idsByShard[shard], counts[shard]))) {
+                result.add(new ClanMemberPermissionData(encode(shard, data.getClanMemberId()), encode(shard, data.getClanId()),
+                        data.getDiscordUserId(), data.getPermission(), data.getOwnerUserId()));
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public List<Long> getBlockedUserIds(int clanId) {
+        return shard(clanId).getBlockedUserIds(decode(clanId));
+    }
+
+    @Override
+    public boolean isBlocked(int clanId, long discordUserId) {
+        return shard(clanId).isBlocked(decode(clanId), discordUserId);
+    }
+
+    @Override
+    public void addBlockedUser(int clanId, long discordUserId) {
+        shard(clanId).addBlockedUser(decode(clanId), discordUserId);
+    }
+
+    @Override
+    public void removeBlockedUser(int clanId, long discordUserId) {
+        shard(clanId).removeBlockedUser(decode(clanId), discordUserId);
+    }
+
+    @Override
+    public void clearBlocklist(int clanId) {
+        shard(clanId).clearBlocklist(decode(clanId));
+    }
+
+    @Override
+    public boolean isReverificationEnabled(int clanId) {
+        return shard(clanId).isReverificationEnabled(decode(clanId));
+    }
+
+    @Override
+    public short getReverificationDays(int clanId) {
+        return shard(clanId).getReverificationDays(decode(clanId));
+    }
+
+    @Override
+    public void setReverificationDays(int clanId, short numberOfDays) {
+        shard(clanId).setReverificationDays(decode(clanId), numberOfDays);
+    }
+
+    @Override
+    public void enableReverification(int clanId) {
+        shard(clanId).enableReverification(decode(clanId));
+    }
+
+    @Override
+    public void disableReverification(int clanId) {
+        shard(clanId).disableReverification(decode(clanId));
+    }
+
+    @Nonnull
+    @Override
+    public List<Integer> getReverificationClanMemberIds() {
+        List<Integer> result = new ArrayList<>();
+        List<List<Integer>> results = fanOut(shard -> shards.get(shard).getReverificationClanMemberIds());
+        for (int shard = 0; shard < results.size(); shard++) {
+            for (int id : results.get(shard)) {
+                result.add(encode(shard, id));
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public ClanStats getClanStats(int clanId) {
+        ClanStats stats = shard(clanId).getClanStats(decode(clanId));
+        return stats == null ? null : stats.withClanId(clanId);
+    }
+
+    @Nonnull
+    @Override
+    public List<ClanStats> getClanStatsByGuild(long discordGuildId, int limit) {
+        int shard = getShard(discordGuildId);
+        List<ClanStats> result = new ArrayList<>();
+        for (ClanStats stats : shards.get(shard).getClanStatsByGuild(discordGuildId, limit)) {
+            result.add(stats.withClanId(encode(shard, stats.getClanId())));
+        }
+        return result;
+    }
+
+    @Override
+    public int verifyClanStats() {
+        int corrected = 0;
+        for (int count : fanOut(shard -> shards.get(shard).verifyClanStats())) {
+            corrected += count;
+        }
+        return corrected;
+    }
+
+    /**
+     * Every shard scans its next chunk, the scan continues after the smallest cursor of the shards that did not reach their end.
+     * The shards that are further ahead scan a part of their clan ids again, which finds nothing.
+     */
+    @Nonnull
+    @Override
+    public OrphanedRowsData deleteOrphanedRows(int afterClanId, int limit) {
+        List<OrphanedRowsData> results = fanOut(shard -> shards.get(shard).deleteOrphanedRows(localAfter(shard, afterClanId), limit));
+        int deleted = 0;
+        int nextClanId = -1;
+        for (int shard = 0; shard < results.size(); shard++) {
+            OrphanedRowsData result = results.get(shard);
+            deleted += result.getDeletedRows();
+            if (result.getNextClanId() == -1) continue;
+            int next = encode(shard, result.getNextClanId());
+            if (nextClanId == -1 || next < nextClanId) nextClanId = next;
+        }
+        return new OrphanedRowsData(deleted, nextClanId);
+    }
+}
@@ -0,0 +1,29 @@
+package dev.denux.clanmanager.core.store;
+
+/**
+ * Implemented by stores that keep data in memory, so they can be told that another instance changed something.
+ * Every method has to be idempotent, the same change can be reported more than once.
+ * @see dev.denux.clanmanager.core.changelog.ChangeLogPoller
+ */
+public interface StoreInvalidationListener {
+
+    /**
+     * @param clanId The id of the clan that was created, changed or deleted.
+     */
+    default void invalidateClan(int clanId) {}
+
+    /**
+     * @param clanMemberId The id of the clan member that was created, changed or deleted.
+     */
+    default void invalidateClanMember(int clanMemberId) {}
+
+    /**
+     * @param clanId The id of the clan whose blocklist changed.
+     */
+    default void invalidateBlocklist(int clanId) {}
+
+    /**
+     * @param clanId The id of the clan whose reverification settings changed.
+     */
+    default void invalidateReverification(int clanId) {}
+}
@@ -0,0 +1,42 @@
+package dev.denux.clanmanager.core.store;
+
+import dev.denux.clanmanager.internal.VerificationResult;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The rows touched by {@link ClanStore#verifyClanMember(String, long, ClanMemberData)}.
+ */
+public class VerificationData {
+    private final VerificationResult.Status status;
+    private final ClanData clan;
+    private final ClanMemberData clanMember;
+
+    public VerificationData(@Nonnull VerificationResult.Status status, @Nullable ClanData clan, @Nullable ClanMemberData clanMember) {
+        this.status = status;
+        this.clan = clan;
+        this.clanMember = clanMember;
+    }
+
+    @Nonnull
+    public VerificationResult.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The clan of the code or null if the code is invalid.
+     */
+    @Nullable
+    public ClanData getClan() {
+        return clan;
+    }
+
+    /**
+     * @return The inserted clan member, the existing one for {@link VerificationResult.Status#ALREADY_MEMBER} or null.
+     */
+    @Nullable
+    public ClanMemberData getClanMember() {
+        return clanMember;
+    }
+}
@@ -0,0 +1,377 @@
+package dev.denux.clanmanager.core.transfer;
+
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.core.sql.SchemaMigrator;
+import net.dv8tion.jda.internal.utils.JDALogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streams the clan tables from one database to another, e.g. from the built-in H2 database to PostgreSQL.
+ * <p>
+ * The format is line based and tab separated, with a {@code table} line naming the columns before the rows of every table.
+ * Rows are read with a cursor and written in batches that are committed one by one, so memory stays the same no matter
+ * how large the tables are. The change log is not transferred.
+ */
+public class ClanDataTransfer {
+    private static final Logger log = JDALogger.getLog(ClanDataTransfer.class);
+    private static final String FORMAT = "clanmanager-export";
+    private static final int FORMAT_VERSION = 1;
+    private static final String NULL = "\\N";
+    /**
+     * How many rows are read at once and written per batch.
+     */
+    public static final int CHUNK_SIZE = 1000;
+    /**
+     * How many rows are transferred between two progress reports.
+     */
+    public static final int PROGRESS_INTERVAL = 10_000;
+
+    private static final List<Table> TABLES = List.of(
+            new Table("clan", "id",
+                    new Column("id", Types.INTEGER), new Column("verificationCode", Types.VARCHAR), new Column("name", Types.VARCHAR),
+                    new Column("tag", Types.VARCHAR), new Column("ownerId", Types.INTEGER), new Column("ownerUserId", Types.BIGINT),
+                    new Column("discordGuildId", Types.BIGINT), new Column("leaderShipRoleId", Types.BIGINT),
+                    new Column("memberRoleId", Types.BIGINT), new Column("discordChannelId", Types.BIGINT)),
+            new Table("clanMember", "id",
+                    new Column("id", Types.INTEGER), new Column("verificationTime", Types.TIMESTAMP), new Column("nickname", Types.VARCHAR),
+                    new Column("permission", Types.SMALLINT), new Column("locale", Types.SMALLINT), new Column("clanId", Types.INTEGER),
+                    new Column("discordUserId", Types.BIGINT)),
+            new Table("reverificationFeature", null,
+                    new Column("clanId", Types.INTEGER), new Column("numberOfDays", Types.SMALLINT)),
+            new Table("blockedUsers", null,
+                    new Column("clanId", Types.INTEGER), new Column("discordUserId", Types.BIGINT))
+    );
+
+    private final TransferProgressListener listener;
+
+    /**
+     * @param listener Receives the progress or null to only log it.
+     */
+    public ClanDataTransfer(@Nullable TransferProgressListener listener) {
+        this.listener = listener != null ? listener : (table, tableRows, totalRows) ->
+                log.info("Transferred {} rows of {} ({} in total).", tableRows, table, totalRows);
+    }
+
+    /**
+     * Writes all clan tables of the database to the stream. The stream is not closed.
+     * @param dataSource The database to export.
+     * @param out The stream to write to.
+     * @return The number of exported rows.
+     * @throws ClanManagerException If reading or writing fails.
+     */
+    public long exportTo(@Nonnull DataSource dataSource, @Nonnull OutputStream out) {
+        long total = 0;
+        try (Connection con = dataSource.getConnection()) {
+            // cursors only work outside of auto commit on some databases
+            con.setAutoCommit(false);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(FORMAT + '\t' + FORMAT_VERSION + '\n');
+            for (Table table : TABLES) {
+                total = exportTable(con, table, writer, total);
+            }
+            writer.write("end\t" + total + '\n');
+            writer.flush();
+            con.rollback();
+        } catch (SQLException | IOException exception) {
+            log.error("Failed to export the clan tables.", exception);
+            throw new ClanManagerException(exception);
+        }
+        return total;
+    }
+
+    private long exportTable(@Nonnull Connection con, @Nonnull Table table, @Nonnull Writer writer, long total) throws SQLException, IOException {
+        StringBuilder line = new StringBuilder("table\t").append(table.name);
+        for (Column column : table.columns) {
+            line.append('\t').append(column.name);
+        }
+        writer.write(line.append('\n').toString());
+
+        PreparedStatement pstm = con.prepareStatement(table.selectQuery());
+        pstm.setFetchSize(CHUNK_SIZE);
+        ResultSet rs = pstm.executeQuery();
+        long rows = 0;
+        while (rs.next()) {
+            line.setLength(0);
+            line.append("row");
+            for (int i = 0; i < table.columns.size(); i++) {
+                line.append('\t');
+                String value = read(rs, i + 1, table.columns.get(i).type);
+                if (value == null) line.append(NULL);
+                else escape(value, line);
+            }
+            writer.write(line.append('\n').toString());
+            rows++;
+            total++;
+            if (rows % PROGRESS_INTERVAL == 0) listener.onProgress(table.name, rows, total);
+        }
+        rs.close();
+        listener.onProgress(table.name, rows, total);
+        return total;
+    }
+
+    /**
+     * Reads an export and inserts all rows into the database. The tables have to exist and should be empty,
+     * the ids are kept and the id sequences are moved behind the imported ids. The stream is not closed.
+     * @param dataSource The database to import into.
+     * @param in The stream of an export.
+     * @return The number of imported rows.
+     * @throws ClanManagerException If the export is invalid or writing fails. Already committed batches stay in the database.
+     */
+    public long importFrom(@Nonnull DataSource dataSource, @Nonnull InputStream in) {
+        long total = 0;
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String header = reader.readLine();
+            if (header == null || !header.equals(FORMAT + '\t' + FORMAT_VERSION)) {
+                throw new ClanManagerException("The stream is not a clan export of version " + FORMAT_VERSION + ".");
+            }
+            Table table = null;
+            PreparedStatement insert = null;
+            long rows = 0;
+            int batched = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = split(line);
+                switch (fields.get(0)) {
+                    case "table":
+                        if (table != null) finishTable(con, table, insert, batched, rows, total);
+                        table = getTable(fields.get(1));
+                        if (!fields.subList(2, fields.size()).equals(table.columnNames())) {
+                            throw new ClanManagerException("The columns of the table " + table.name + " do not match.");
+                        }
+                        insert = con.prepareStatement(table.insertQuery());
+                        rows = 0;
+                        batched = 0;
+                        break;
+                    case "row":
+                        if (table == null) throw new ClanManagerException("A row was found before the first table.");
+                        if (fields.size() != table.columns.size() + 1) throw new ClanManagerException("A row of " + table.name + " has the wrong number of fields.");
+                        for (int i = 0; i < table.columns.size(); i++) {
+                            write(insert, i + 1, table.columns.get(i).type, fields.get(i + 1));
+                        }
+                        insert.addBatch();
+                        batched++;
+                        rows++;
+                        total++;
+                        if (batched == CHUNK_SIZE) {
+                            insert.executeBatch();
+                            con.commit();
+                            batched = 0;
+                        }
+                        if (rows % PROGRESS_INTERVAL == 0) listener.onProgress(table.name, rows, total);
+                        break;
+                    case "end":
+                        if (table != null) finishTable(con, table, insert, batched, rows, total);
+                        long expected = Long.parseLong(fields.get(1));
+                        if (expected != total) throw new ClanManagerException(String.format("Expected %d rows but imported %d.", expected, total));
+                        // the counters are derived data and not part of the export
+                        new SchemaMigrator(con).backfillClanStats();
+                        con.commit();
+                        return total;
+                    default:
+                        throw new ClanManagerException("Unknown line type " + fields.get(0) + ".");
+                }
+            }
+            throw new ClanManagerException("The export is incomplete.");
+        } catch (SQLException | IOException | IllegalArgumentException exception) {
+            log.error("Failed to import the clan tables.", exception);
+            throw new ClanManagerException(exception);
+        }
+    }
+
+    private void finishTable(@Nonnull Connection con, @Nonnull Table table, @Nonnull PreparedStatement insert, int batched, long rows, long total) throws SQLException {
+        if (batched > 0) insert.executeBatch();
+        if (table.serialColumn != null) restartSequence(con, table);
+        con.commit();
+        insert.close();
+        listener.onProgress(table.name, rows, total);
+    }
+
+    /**
+     * Moves the id sequence of the table behind the highest imported id, so new rows don't collide with imported ones.
+     */
+    private void restartSequence(@Nonnull Connection con, @Nonnull Table table) throws SQLException {
+        ResultSet rs = con.createStatement().executeQuery(String.format("SELECT COALESCE(MAX(\"%s\"), 0) + 1 FROM \"%s\"", table.serialColumn, table.name));
+        rs.next();
+        long next = rs.getLong(1);
+        String product = con.getMetaData().getDatabaseProductName();
+        try (Statement statement = con.createStatement()) {
+            if ("PostgreSQL".equals(product)) {
+                statement.execute(String.format("SELECT setval(pg_get_serial_sequence('\"%s\"', '%s'), %d, false)", table.name, table.serialColumn, next));
+            } else if ("H2".equals(product)) {
+                statement.execute(String.format("ALTER TABLE \"%s\" ALTER COLUMN \"%s\" RESTART WITH %d", table.name, table.serialColumn, next));
+            } else {
+                log.warn("Can't restart the id sequence of {} on {}, new rows may collide with imported ids.", table.name, product);
+            }
+        }
+    }
+
+    @Nullable
+    private static String read(@Nonnull ResultSet rs, int index, int type) throws SQLException {
+        switch (type) {
+            case Types.TIMESTAMP:
+                Timestamp timestamp = rs.getTimestamp(index);
+                return timestamp == null ? null : String.valueOf(timestamp.getTime());
+            case Types.VARCHAR:
+                return rs.getString(index);
+            default:
+                long value = rs.getLong(index);
+                return rs.wasNull() ? null : String.valueOf(value);
+        }
+    }
+
+    private static void write(@Nonnull PreparedStatement pstm, int index, int type, @Nonnull String value) throws SQLException {
+        if (NULL.equals(value)) {
+            pstm.setNull(index, type);
+            return;
+        }
+        switch (type) {
+            case Types.TIMESTAMP:
+                pstm.setTimestamp(index, new Timestamp(Long.parseLong(value)));
+                break;
+            case Types.VARCHAR:
+                pstm.setString(index, unescape(value));
+                break;
+            case Types.SMALLINT:
+                pstm.setShort(index, Short.parseShort(value));
+                break;
+            case Types.INTEGER:
+                pstm.setInt(index, Integer.parseInt(value));
+                break;
+            default:
+                pstm.setLong(index, Long.parseLong(value));
+                break;
+        }
+    }
+
+    private static void escape(@Nonnull String value, @Nonnull StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': out.append("\\\\"); break;
+                case '\t': out.append("\\t"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    @Nonnull
+    private static String unescape(@Nonnull String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                out.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 't': out.append('\t'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                default: out.append(next);
+            }
+        }
+        return out.toString();
+    }
+
+    @Nonnull
+    private static List<String> split(@Nonnull String line) {
+        List<String> fields = new ArrayList<>();
+        int start = 0;
+        int index;
+        while ((index = line.indexOf('\t', start)) >= 0) {
+            fields.add(line.substring(start, index));
+            start = index + 1;
+        }
+        fields.add(line.substring(start));
+        return fields;
+    }
+
+    @Nonnull
+    private static Table getTable(@Nonnull String name) {
+        for (Table table : TABLES) {
+            if (table.name.equals(name)) return table;
+        }
+        throw new ClanManagerException("Unknown table " + name + ".");
+    }
+
+    private static class Table {
+        private final String name;
+        private final String serialColumn;
+        private final List<Column> columns;
+
+        private Table(@Nonnull String name, @Nullable String serialColumn, @Nonnull Column... columns) {
+            this.name = name;
+            this.serialColumn = serialColumn;
+            this.columns = List.of(columns);
+        }
+
+        @Nonnull
+        private List<String> columnNames() {
+            List<String> names = new ArrayList<>(columns.size());
+            for (Column column : columns) {
+                names.add(column.name);
+            }
+            return names;
+        }
+
+        @Nonnull
+        private String quotedColumns() {
+            List<String> names = new ArrayList<>(columns.size());
+            for (Column column : columns) {
+                names.add('"' + column.name + '"');
+            }
+            return String.join(", ", names);
+        }
+
+        @Nonnull
+        private String selectQuery() {
+            String order = serialColumn != null ? serialColumn : columns.get(0).name;
+            return String.format("SELECT %s FROM \"%s\" ORDER BY \"%s\"", quotedColumns(), name, order);
+        }
+
+        @Nonnull
+        private String insertQuery() {
+            return String.format("INSERT INTO \"%s\" (%s) VALUES (%s)", name, quotedColumns(),
+                    String.join(", ", Collections.nCopies(columns.size(), "?")));
+        }
+    }
+
+    private static class Column {
+        private final String name;
+        private final int type;
+
+        private Column(@Nonnull String name, int type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+}
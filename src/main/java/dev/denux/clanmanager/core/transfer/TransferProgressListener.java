@@ -0,0 +1,18 @@
+package dev.denux.clanmanager.core.transfer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the progress of an export or import of {@link ClanDataTransfer}.
+ */
+@FunctionalInterface
+public interface TransferProgressListener {
+
+    /**
+     * Called every {@link ClanDataTransfer#PROGRESS_INTERVAL} rows and once at the end of every table.
+     * @param table The table that is currently transferred.
+     * @param tableRows The rows of the table transferred so far.
+     * @param totalRows The rows of all tables transferred so far.
+     */
+    void onProgress(@Nonnull String table, long tableRows, long totalRows);
+}
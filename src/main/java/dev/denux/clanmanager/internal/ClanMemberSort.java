@@ -0,0 +1,34 @@
+package dev.denux.clanmanager.internal;
+
+import dev.denux.clanmanager.core.store.ClanMemberData;
+
+import javax.annotation.Nonnull;
+import java.util.Comparator;
+
+/**
+ * The orders {@link dev.denux.clanmanager.internal.entities.ClanMember}s can be paged through in.
+ * Every order uses the id as tiebreaker, so pages never overlap.
+ */
+public enum ClanMemberSort {
+    ID(Comparator.comparingInt(ClanMemberData::getId)),
+    VERIFICATION_TIME(Comparator.comparing(ClanMemberData::getVerificationTime).thenComparingInt(ClanMemberData::getId)),
+    NICKNAME(Comparator.comparing(ClanMemberData::getNickname).thenComparingInt(ClanMemberData::getId)),
+    /**
+     * Orders by the level of the {@link CmPermission}, lowest first.
+     */
+    PERMISSION(Comparator.<ClanMemberData>comparingInt(data -> data.getPermission().getLevel()).thenComparingInt(ClanMemberData::getId));
+
+    private final Comparator<ClanMemberData> comparator;
+
+    ClanMemberSort(@Nonnull Comparator<ClanMemberData> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * @return A comparator that orders rows the same way the database does.
+     */
+    @Nonnull
+    public Comparator<ClanMemberData> getComparator() {
+        return comparator;
+    }
+}
@@ -1,5 +1,7 @@
 package dev.denux.clanmanager.internal;
 
+import javax.annotation.Nonnull;
+
 /**
  * Represents the permission of a {@link dev.denux.clanmanager.internal.entities.ClanMember}.
  */
@@ -37,4 +39,48 @@ public enum CmPermission {
     public int getLevel() {
         return level;
     }
+
+    /**
+     * @param permission The permission to compare with.
+     * @return True if this permission is the same or higher than the given one.
+     */
+    public boolean isAtLeast(@Nonnull CmPermission permission) {
+        return level >= permission.level;
+    }
+
+    /**
+     * @param level The level to compare with.
+     * @return True if the level of this permission is the same or higher than the given one.
+     */
+    public boolean isAtLeast(int level) {
+        return this.level >= level;
+    }
+
+    /**
+     * @param permission The permission to compare with.
+     * @return True if this permission is strictly higher than the given one.
+     */
+    public boolean isAbove(@Nonnull CmPermission permission) {
+        return level > permission.level;
+    }
+
+    /**
+     * Gets the permission for a level without allocating or parsing anything.
+     * @param level The level of the permission.
+     * @return the permission.
+     * @throws IllegalArgumentException If there is no permission with the level.
+     */
+    @Nonnull
+    public static CmPermission fromLevel(int level) {
+        if (level < 1 || level >= BY_LEVEL.length) throw new IllegalArgumentException(String.format("There is no permission with the level %d", level));
+        return BY_LEVEL[level];
+    }
+
+    private static final CmPermission[] BY_LEVEL = new CmPermission[5];
+
+    static {
+        for (CmPermission permission : values()) {
+            BY_LEVEL[permission.level] = permission;
+        }
+    }
 }
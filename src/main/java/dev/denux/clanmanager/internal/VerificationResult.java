@@ -0,0 +1,72 @@
+package dev.denux.clanmanager.internal;
+
+import dev.denux.clanmanager.internal.entities.Clan;
+import dev.denux.clanmanager.internal.entities.ClanMember;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The outcome of {@link dev.denux.clanmanager.ClanManager#verifyMember(String, net.dv8tion.jda.api.entities.Member, String)}.
+ */
+public class VerificationResult {
+    private final Status status;
+    private final Clan clan;
+    private final ClanMember clanMember;
+    private final CompletableFuture<Void> roleUpdate;
+
+    public VerificationResult(@Nonnull Status status, @Nullable Clan clan, @Nullable ClanMember clanMember, @Nonnull CompletableFuture<Void> roleUpdate) {
+        this.status = status;
+        this.clan = clan;
+        this.clanMember = clanMember;
+        this.roleUpdate = roleUpdate;
+    }
+
+    @Nonnull
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return True if the member joined the clan.
+     */
+    public boolean isVerified() {
+        return status == Status.VERIFIED;
+    }
+
+    /**
+     * @return The clan of the code or null if the code is invalid.
+     */
+    @Nullable
+    public Clan getClan() {
+        return clan;
+    }
+
+    /**
+     * @return The new clan member, the existing one for {@link Status#ALREADY_MEMBER} or null.
+     */
+    @Nullable
+    public ClanMember getClanMember() {
+        return clanMember;
+    }
+
+    /**
+     * The member role is added asynchronously after the membership was stored.
+     * @return A future that completes once the role was added. It is already completed if the member wasn't verified.
+     */
+    @Nonnull
+    public CompletableFuture<Void> getRoleUpdate() {
+        return roleUpdate;
+    }
+
+    public enum Status {
+        VERIFIED,
+        /**
+         * No clan of the guild uses the code.
+         */
+        INVALID_CODE,
+        BLOCKED,
+        ALREADY_MEMBER
+    }
+}
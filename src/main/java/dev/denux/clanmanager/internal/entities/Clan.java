@@ -3,6 +3,14 @@ package dev.denux.clanmanager.internal.entities;
 import dev.denux.clanmanager.ClanManager;
 import dev.denux.clanmanager.core.ClanManagerConfig;
 import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.core.exceptions.PermissionException;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanDiscordIds;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.ClanStats;
+import dev.denux.clanmanager.core.store.DiscordIdCachingClanStore;
+import dev.denux.clanmanager.internal.ClanMemberSort;
+import dev.denux.clanmanager.internal.CmPermission;
 import dev.denux.clanmanager.utils.CMChecks;
 import dev.denux.clanmanager.utils.CMUtils;
 import net.dv8tion.jda.api.entities.Guild;
@@ -10,23 +18,22 @@ import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.interactions.DiscordLocale;
-import net.dv8tion.jda.internal.utils.JDALogger;
 import org.jetbrains.annotations.NotNull;
-import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public class Clan {
-
-    private final Logger log = JDALogger.getLog(Clan.class);
+    /**
+     * The maximum amount of members requested from discord at once.
+     */
+    public static final int MEMBER_CHUNK_SIZE = 100;
 
     private final int id;
     private final ClanManagerConfig config;
@@ -37,24 +44,28 @@ public class Clan {
     }
 
     /**
-     * Gets you the value from the key.
-     * @param key The column name.
-     * @return Returns null if there is an issue with the database.
+     * Gets you the current row of the clan.
+     * @return The row of the clan.
+     * @throws ClanManagerException If the clan does not exist anymore.
      */
-    private <T> T get(@Nonnull String key, @Nonnull Class<T> type) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    String.format("SELECT \"%s\" FROM \"clan\" WHERE \"id\" = ?", key));
-            pstm.setLong(1, id);
-            ResultSet rs = pstm.executeQuery();
-            rs.next();
-            T result = rs.getObject(key, type);
-            con.close();
-            return result;
-        } catch (SQLException exception) {
-            log.error("Failed to get clan {}", id, exception);
-            throw new RuntimeException(exception);
-        }
+    @Nonnull
+    private ClanData data() {
+        ClanData data = config.getClanStore().getClan(id);
+        if (data == null) throw new ClanManagerException(String.format("Clan with the id %d does not exist", id));
+        return data;
+    }
+
+    /**
+     * Gets you the discord ids of the clan, from the cache if it is enabled.
+     * @return The discord ids of the clan.
+     * @throws ClanManagerException If the clan does not exist anymore.
+     */
+    @Nonnull
+    private ClanDiscordIds discordIds() {
+        DiscordIdCachingClanStore cache = config.getDiscordIdCache();
+        ClanDiscordIds ids = cache != null ? cache.getDiscordIds(id) : ClanDiscordIds.of(data());
+        if (ids == null) throw new ClanManagerException(String.format("Clan with the id %d does not exist", id));
+        return ids;
     }
 
     /**
@@ -63,15 +74,29 @@ public class Clan {
      * @param value The value to set.
      */
     private void set(@Nonnull String key, @Nonnull Object value) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    String.format("UPDATE \"clan\" SET \"%s\" = ? WHERE \"id\" = ?", key));
-            pstm.setObject(1, value);
-            pstm.setLong(2, id);
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to set database entry.", exception);
-        }
+        config.getClanStore().updateClan(id, key, value);
+    }
+
+    /**
+     * Gets all columns of the clan with a single lookup.
+     * @return A snapshot of the clan.
+     * @throws ClanManagerException If the clan does not exist anymore.
+     */
+    @Nonnull
+    public ClanData getData() {
+        return data();
+    }
+
+    /**
+     * Gets the member counts of the clan by permission and the number of blocked users with a single lookup.
+     * @return The stats of the clan.
+     * @throws ClanManagerException If the clan does not exist anymore.
+     */
+    @Nonnull
+    public ClanStats getStats() {
+        ClanStats stats = config.getClanStore().getClanStats(id);
+        if (stats == null) throw new ClanManagerException(String.format("Clan with the id %d does not exist", id));
+        return stats;
     }
 
     public int getId() {
@@ -79,7 +104,7 @@ public class Clan {
     }
 
     public String getVerificationCode() {
-        return get("verificationCode", String.class);
+        return data().getVerificationCode();
     }
 
     public void setVerificationCode(@Nonnull String verificationCode) {
@@ -88,7 +113,7 @@ public class Clan {
     }
 
     public String getName() {
-        return get("name", String.class);
+        return data().getName();
     }
 
     public void setName(@Nonnull String name) {
@@ -96,7 +121,7 @@ public class Clan {
     }
 
     public String getTag() {
-        return get("tag", String.class);
+        return data().getTag();
     }
 
     public void setTag(@Nonnull String tag) {
@@ -104,23 +129,25 @@ public class Clan {
     }
 
     public long getDiscordGuildId() {
-        return get("discordGuildId", Long.class);
+        return discordIds().getDiscordGuildId();
     }
 
     public Guild getDiscordGuild() {
-        return config.getJda().getGuildById(getDiscordGuildId());
+        return config.getGuildById(getDiscordGuildId());
     }
 
     public long getOwnerDiscordUserId() {
-        return get("ownerUserId", Long.class);
+        return data().getOwnerUserId();
     }
 
     public Member getOwnerAsDiscordMember() {
-        return getDiscordGuild().getMemberById(getOwnerDiscordUserId());
+        ClanData data = data();
+        return config.getGuildById(data.getDiscordGuildId()).getMemberById(data.getOwnerUserId());
     }
 
     public CompletableFuture<Member> retrieveOwnerAsDiscordMember() {
-        return getDiscordGuild().retrieveMemberById(getOwnerDiscordUserId()).submit();
+        ClanData data = data();
+        return config.getGuildById(data.getDiscordGuildId()).retrieveMemberById(data.getOwnerUserId()).submit();
     }
 
     public void changeOwner(@Nonnull ClanMember owner) {
@@ -129,19 +156,20 @@ public class Clan {
     }
 
     public int getOwnerClanMemberId() {
-        return get("ownerId", int.class);
+        return data().getOwnerId();
     }
 
     public ClanMember getOwnerAsClanMember() {
-        return config.getClanManager().getClanMember(getOwnerClanMemberId());
+        return new ClanMember(config, getOwnerClanMemberId());
     }
 
     public long getLeaderShipRoleId() {
-        return get("leaderShipRoleId", Long.class);
+        return discordIds().getLeaderShipRoleId();
     }
 
     public Role getLeaderShipRole() {
-        return getDiscordGuild().getRoleById(getLeaderShipRoleId());
+        ClanDiscordIds ids = discordIds();
+        return config.getGuildById(ids.getDiscordGuildId()).getRoleById(ids.getLeaderShipRoleId());
     }
 
     public void setLeaderShipRole(@Nonnull Role role) {
@@ -149,11 +177,12 @@ public class Clan {
     }
 
     public long getMemberRoleId() {
-        return get("memberRoleId", Long.class);
+        return discordIds().getMemberRoleId();
     }
 
     public Role getMemberRole() {
-        return getDiscordGuild().getRoleById(getMemberRoleId());
+        ClanDiscordIds ids = discordIds();
+        return config.getGuildById(ids.getDiscordGuildId()).getRoleById(ids.getMemberRoleId());
     }
 
     public void setMemberRole(@Nonnull Role role) {
@@ -161,11 +190,12 @@ public class Clan {
     }
 
     public long getDiscordChannelId() {
-        return get("discordChannelId", Long.class);
+        return discordIds().getDiscordChannelId();
     }
 
     public TextChannel getDiscordChannel() {
-        return getDiscordGuild().getTextChannelById(getDiscordChannelId());
+        ClanDiscordIds ids = discordIds();
+        return config.getGuildById(ids.getDiscordGuildId()).getTextChannelById(ids.getDiscordChannelId());
     }
 
     public void setDiscordChannel(@Nonnull TextChannel channel) {
@@ -173,41 +203,79 @@ public class Clan {
     }
 
     public ClanMember getClanMember(@Nonnull Member member) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    "SELECT * FROM \"clanMember\" WHERE \"discordUserId\" = ? AND \"clanId\" = ?", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            pstm.setLong(1, member.getIdLong());
-            pstm.setInt(2, getId());
-            ResultSet rs = pstm.executeQuery();
-            if (!rs.next()) {
-                con.close();
-                return null;
-            }
-            int memberId = rs.getInt(1);
-            con.close();
-            return config.getClanManager().getClanMember(memberId);
-        } catch (SQLException exception) {
-            log.error("Failed to get clan member.");
-            throw new ClanManagerException(exception);
-        }
+        ClanMemberData data = config.getClanStore().getClanMember(id, member.getIdLong());
+        if (data == null) return null;
+        return new ClanMember(config, data.getId());
     }
 
+    /**
+     * @param clanMemberId The id of the clan member.
+     * @return The clan member or null if it does not exist or belongs to another clan.
+     */
     public ClanMember getClanMember(int clanMemberId) {
-        return config.getClanManager().getClanMember(clanMemberId);
+        ClanMemberData data = config.getClanStore().getClanMember(clanMemberId);
+        if (data == null || data.getClanId() != id) return null;
+        return new ClanMember(config, clanMemberId);
     }
 
     public List<ClanMember> getAllClanMembers() {
         List<ClanMember> clanMembers = new ArrayList<>();
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"id\" FROM \"clanMember\" WHERE \"clanId\" = ?");
-            pstm.setInt(1, getId());
-            ResultSet rs = pstm.executeQuery();
-            while (rs.next()) {
-                clanMembers.add(getClanMember(rs.getInt(1)));
+        for (ClanMemberData data : config.getClanStore().getClanMembers(id)) {
+            clanMembers.add(new ClanMember(config, data.getId()));
+        }
+        return clanMembers;
+    }
+
+    /**
+     * Resolves the discord members of all clan members. The user ids are loaded with a single query,
+     * cached members are used as they are and the rest is requested in chunks of {@value #MEMBER_CHUNK_SIZE}.
+     * Users that are not in the guild anymore are missing from the result.
+     * @return A future of the discord members.
+     */
+    public CompletableFuture<List<Member>> retrieveDiscordMembers() {
+        Guild guild = getDiscordGuild();
+        if (guild == null) return CompletableFuture.failedFuture(new ClanManagerException(String.format("The guild of the clan %d is not available.", id)));
+        List<ClanMemberData> clanMembers = config.getClanStore().getClanMembers(id);
+        List<Member> members = new ArrayList<>(clanMembers.size());
+        long[] missing = new long[clanMembers.size()];
+        int missingCount = 0;
+        for (ClanMemberData clanMember : clanMembers) {
+            Member member = guild.getMemberById(clanMember.getDiscordUserId());
+            if (member != null) {
+                members.add(member);
+            } else {
+                missing[missingCount++] = clanMember.getDiscordUserId();
             }
-        } catch (SQLException exception) {
-            log.error("Failed to get all clan members from the clan {}.", getId());
-            throw new ClanManagerException(exception);
+        }
+        if (missingCount == 0) return CompletableFuture.completedFuture(members);
+
+        List<CompletableFuture<List<Member>>> chunks = new ArrayList<>();
+        for (int from = 0; from < missingCount; from += MEMBER_CHUNK_SIZE) {
+            long[] chunk = Arrays.copyOfRange(missing, from, Math.min(missingCount, from + MEMBER_CHUNK_SIZE));
+            CompletableFuture<List<Member>> future = new CompletableFuture<>();
+            guild.retrieveMembersByIds(chunk).onSuccess(future::complete).onError(future::completeExceptionally);
+            chunks.add(future);
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(v -> {
+            for (CompletableFuture<List<Member>> chunk : chunks) {
+                members.addAll(chunk.join());
+            }
+            return members;
+        });
+    }
+
+    /**
+     * Gets one page of the clan members. Every page costs the same, no matter how deep it is.
+     * @param afterId The id of the last clan member of the previous page or 0 for the first page.
+     * @param limit The maximum amount of clan members to return.
+     * @param sortBy The order of the clan members.
+     * @return The clan members of the page.
+     */
+    public List<ClanMember> getClanMembers(int afterId, int limit, @Nonnull ClanMemberSort sortBy) {
+        if (limit < 1) throw new IllegalArgumentException("The limit must be at least 1.");
+        List<ClanMember> clanMembers = new ArrayList<>();
+        for (ClanMemberData data : config.getClanStore().getClanMembers(id, afterId, limit, sortBy)) {
+            clanMembers.add(new ClanMember(config, data.getId()));
         }
         return clanMembers;
     }
@@ -216,29 +284,13 @@ public class Clan {
         new CMChecks(config).checkClanMemberDuplication(this, member);
         if (isBlocked(member)) throw new IllegalArgumentException("The member is blocked.");
 
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    "INSERT INTO \"clanMember\" (\"clanId\", \"nickname\", \"locale\", \"discordUserId\", \"leaderShipStatus\", \"coOwnerStatus\") VALUES (?, ?, ?, ?, ?, ?)",
-                    Statement.RETURN_GENERATED_KEYS);
-            pstm.setInt(1, getId());
-            pstm.setString(2, nickname);
-            pstm.setString(3, locale.getLocale());
-            pstm.setLong(4, member.getIdLong());
-            pstm.setBoolean(5, leaderShipStatus);
-            pstm.setBoolean(6, isCoOwner);
-            pstm.executeUpdate();
-            ResultSet rs = pstm.getGeneratedKeys();
-            rs.next();
-            int memberId = rs.getInt(1);
-            con.close();
-            ClanMember clanMember = getClanMember(memberId);
-            if (updateRoles) new CMUtils().updateMemberRoles(clanMember, true);
-            if (leaderShipStatus && updateRoles) new CMUtils().updateLeadershipRole(clanMember, true);
-            return memberId;
-        } catch (SQLException exception) {
-            log.error("Failed to create clan member.");
-            throw new ClanManagerException(exception);
-        }
+        CmPermission permission = isCoOwner ? CmPermission.CO_OWNER : leaderShipStatus ? CmPermission.LEADERSHIP : CmPermission.MEMBER;
+        int memberId = config.getClanStore().insertClanMember(new ClanMemberData(0, new Timestamp(System.currentTimeMillis()),
+                nickname, permission, locale, id, member.getIdLong()));
+        ClanMember clanMember = new ClanMember(config, memberId);
+        if (updateRoles) new CMUtils().updateMemberRoles(clanMember, member, true);
+        if (leaderShipStatus && updateRoles) new CMUtils().updateLeadershipRoles(clanMember, member, true);
+        return memberId;
     }
 
     public int createClanMember(@Nonnull String nickname, @Nonnull DiscordLocale locale, @Nonnull Member member) {
@@ -247,42 +299,57 @@ public class Clan {
 
     public void deleteClanMember(@Nonnull ClanMember clanMember, boolean updateRoles) {
         if (updateRoles) new CMUtils().updateMemberRoles(clanMember, false);
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    "DELETE FROM \"clanMember\" WHERE \"id\" = ?");
-            pstm.setInt(1, clanMember.getId());
-            pstm.executeUpdate();
-        }catch (SQLException exception) {
-            log.error("Failed to delete clan member.");
-            throw new ClanManagerException(exception);
-        }
+        config.getClanStore().deleteClanMember(clanMember.getId());
     }
 
     public void deleteClanMember(@Nonnull ClanMember clanMember) {
         deleteClanMember(clanMember, true);
     }
 
-    public void enableReverification() {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"reverificationFeature\" (\"clanId\") VALUES (?)");
-            pstm.setInt(1, getId());
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to enable reverification feature.", exception);
+    /**
+     * Sets the permissions of several clan members at once, with one update per permission in a single transaction.
+     * Members of other clans and members that already have the permission are skipped.
+     * @param permissions The new permissions of the clan members.
+     * @param updateRoles True to add or remove the leadership role of the members whose leadership status changed.
+     * @throws PermissionException If one of the permissions is {@link CmPermission#OWNER}.
+     * @throws IllegalArgumentException If a clan member is given twice with different permissions.
+     */
+    public void setPermissions(@Nonnull Map<ClanMember, CmPermission> permissions, boolean updateRoles) {
+        Map<Integer, CmPermission> permissionsById = new HashMap<>(permissions.size());
+        for (Map.Entry<ClanMember, CmPermission> entry : permissions.entrySet()) {
+            if (entry.getValue() == CmPermission.OWNER) {
+                throw new PermissionException("Owner can't be added it can just be changed. Use Clan.changeOwner() for that.");
+            }
+            CmPermission previous = permissionsById.put(entry.getKey().getId(), entry.getValue());
+            if (previous != null && previous != entry.getValue()) {
+                throw new IllegalArgumentException(String.format("The clan member %d was given different permissions.", entry.getKey().getId()));
+            }
+        }
+        List<ClanMemberData> changed = config.getClanStore().updateClanMemberPermissions(id, permissionsById);
+        if (!updateRoles || changed.isEmpty()) return;
+        Guild guild = getDiscordGuild();
+        Role role = getLeaderShipRole();
+        CMUtils utils = new CMUtils();
+        for (ClanMemberData old : changed) {
+            boolean wasLeader = old.getPermission().isAtLeast(CmPermission.LEADERSHIP);
+            boolean isLeader = permissionsById.get(old.getId()).isAtLeast(CmPermission.LEADERSHIP);
+            if (wasLeader != isLeader) utils.updateRole(guild, old.getDiscordUserId(), role, isLeader);
         }
+    }
+
+    public void setPermissions(@Nonnull Map<ClanMember, CmPermission> permissions) {
+        setPermissions(permissions, true);
+    }
+
+    public void enableReverification() {
+        config.getClanStore().enableReverification(id);
         for (ClanMember clanMember : getAllClanMembers()) {
             config.getReverificationManager().scheduleReverification(clanMember);
         }
     }
 
     public void disableReverification() {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"reverificationFeature\" WHERE \"clanId\" = ?");
-            pstm.setInt(1, getId());
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to disable reverification feature.", exception);
-        }
+        config.getClanStore().disableReverification(id);
         for (ClanMember clanMember : getAllClanMembers()) {
             config.getReverificationManager().cancelSchedule(clanMember);
         }
@@ -294,67 +361,24 @@ public class Clan {
 
     @Nonnull
     public List<Long> getBlockedUserIds() {
-        List<Long> blockedUserIds = new ArrayList<>();
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"discordUserId\" FROM \"blockedUsers\" WHERE \"clanId\" = ?");
-            pstm.setInt(1, getId());
-            ResultSet rs = pstm.executeQuery();
-            while (rs.next()) {
-                blockedUserIds.add(rs.getLong(1));
-            }
-        } catch (SQLException exception) {
-            log.error("Failed to get blocked user ids.", exception);
-        }
-        return blockedUserIds;
+        return config.getClanStore().getBlockedUserIds(id);
     }
 
     public boolean isBlocked(@Nonnull Member member) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"discordUserId\" FROM \"blockedUsers\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?");
-            pstm.setInt(1, getId());
-            pstm.setLong(2, member.getIdLong());
-            ResultSet rs = pstm.executeQuery();
-            boolean isBlocked = rs.next();
-            con.close();
-            return isBlocked;
-        } catch (SQLException exception) {
-            log.error("Failed to check if user is blocked.");
-            throw new ClanManagerException(exception);
-        }
+        return config.getClanStore().isBlocked(id, member.getIdLong());
     }
 
     public void addMemberToBlocklist(@Nonnull Member member) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("INSERT INTO \"blockedUsers\" (\"clanId\", \"discordUserId\") VALUES (?, ?)");
-            pstm.setInt(1, getId());
-            pstm.setLong(2, member.getIdLong());
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to add member to blocklist.", exception);
-        }
+        config.getClanStore().addBlockedUser(id, member.getIdLong());
     }
 
     public void removeMemberFromBlocklist(@Nonnull Member member) throws IllegalArgumentException {
         if (!isBlocked(member)) throw new IllegalArgumentException("Member is not blocked.");
-
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"blockedUsers\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?");
-            pstm.setInt(1, getId());
-            pstm.setLong(2, member.getIdLong());
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to remove member from blocklist.", exception);
-        }
+        config.getClanStore().removeBlockedUser(id, member.getIdLong());
     }
 
     public void clearBlocklist() {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("DELETE FROM \"blockedUsers\" WHERE \"clanId\" = ?");
-            pstm.setInt(1, getId());
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to clear blocklist.", exception);
-        }
+        config.getClanStore().clearBlocklist(id);
     }
 
     @NotNull
@@ -2,25 +2,19 @@ package dev.denux.clanmanager.internal.entities;
 
 import dev.denux.clanmanager.ClanManager;
 import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
 import dev.denux.clanmanager.core.exceptions.PermissionException;
+import dev.denux.clanmanager.core.store.ClanMemberData;
 import dev.denux.clanmanager.internal.CmPermission;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.interactions.DiscordLocale;
-import net.dv8tion.jda.internal.utils.JDALogger;
-import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.concurrent.CompletableFuture;
 
 public class ClanMember {
 
-    private final Logger log = JDALogger.getLog(Clan.class);
-
     private final int id;
     private final ClanManagerConfig config;
 
@@ -30,28 +24,15 @@ public class ClanMember {
     }
 
     /**
-     * Gets you the value from the key.
-     *
-     * @param key The column name.
-     * @return Null if there is an issue with the database.
+     * Gets you the current row of the clan member.
+     * @return The row of the clan member.
+     * @throws ClanManagerException If the clan member does not exist anymore.
      */
-    private <T> T get(String key, Class<T> type) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    String.format("SELECT \"%s\" FROM \"clanMember\" WHERE \"id\" = ?", key));
-            pstm.setLong(1, id);
-            ResultSet rs = pstm.executeQuery();
-            if (!rs.next()) {
-                con.close();
-                return null;
-            }
-            T value = rs.getObject(key, type);
-            con.close();
-            return value;
-        } catch (SQLException exception) {
-            log.error(String.format("Failed to get clan %s", id), exception);
-            return null;
-        }
+    @Nonnull
+    private ClanMemberData data() {
+        ClanMemberData data = config.getClanStore().getClanMember(id);
+        if (data == null) throw new ClanManagerException(String.format("Clan member with the id %d does not exist", id));
+        return data;
     }
 
     /**
@@ -60,15 +41,17 @@ public class ClanMember {
      * @param value The value to set.
      */
     private void set(String key, Object value) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement(
-                    String.format("UPDATE \"clanMember\" SET \"%s\" = ? WHERE \"id\" = ?", key));
-            pstm.setObject(1, value);
-            pstm.setLong(2, id);
-            pstm.executeUpdate();
-        } catch (SQLException exception) {
-            log.error("Failed to set database entry.", exception);
-        }
+        config.getClanStore().updateClanMember(id, key, value);
+    }
+
+    /**
+     * Gets all columns of the clan member with a single lookup.
+     * @return A snapshot of the clan member.
+     * @throws ClanManagerException If the clan member does not exist anymore.
+     */
+    @Nonnull
+    public ClanMemberData getData() {
+        return data();
     }
 
     public int getId() {
@@ -76,7 +59,7 @@ public class ClanMember {
     }
 
     public Timestamp getVerificationDate() {
-        return get("verificationTime", Timestamp.class);
+        return data().getVerificationTime();
     }
 
     public void setVerificationDate(@Nonnull Timestamp verificationDate) {
@@ -84,7 +67,7 @@ public class ClanMember {
     }
 
     public String getNickname() {
-        return get("nickname", String.class);
+        return data().getNickname();
     }
 
     public void setNickname(@Nonnull String nickname) {
@@ -93,11 +76,15 @@ public class ClanMember {
 
     @Nonnull
     public CmPermission getPermission() {
-        return CmPermission.valueOf(get("permission", String.class));
+        return data().getPermission();
     }
 
+    /**
+     * @param permission The permission to check.
+     * @return True if the clan member has the permission or a higher one.
+     */
     public boolean hasPermission(@Nonnull CmPermission permission) {
-        return permission.getLevel() > getPermission().getLevel();
+        return getPermission().isAtLeast(permission);
     }
 
     public void setPermission(@Nonnull CmPermission permission) {
@@ -108,31 +95,33 @@ public class ClanMember {
     }
 
     public DiscordLocale getLocale() {
-        return DiscordLocale.from(get("locale", String.class));
+        return data().getLocale();
     }
 
     public void setLocale(@Nonnull DiscordLocale locale) {
-        set("locale", locale.getLocale());
+        set("locale", locale);
     }
 
     public int getClanId() {
-        return get("clanId", Integer.class);
+        return data().getClanId();
     }
 
     public Clan getClan() {
-        return config.getClanManager().getClan(getClanId());
+        return new Clan(config, getClanId());
     }
 
     public long getDiscordUserId() {
-        return get("discordUserId", Long.class);
+        return data().getDiscordUserId();
     }
 
     public Member getDiscordMember() {
-        return getClan().getDiscordGuild().getMemberById(getDiscordUserId());
+        ClanMemberData data = data();
+        return new Clan(config, data.getClanId()).getDiscordGuild().getMemberById(data.getDiscordUserId());
     }
 
     public CompletableFuture<Member> retrieveDiscordMember() {
-        return getClan().getDiscordGuild().retrieveMemberById(getDiscordUserId()).submit();
+        ClanMemberData data = data();
+        return new Clan(config, data.getClanId()).getDiscordGuild().retrieveMemberById(data.getDiscordUserId()).submit();
     }
 
     public void setDiscordMember(@Nonnull Member member) {
@@ -6,20 +6,13 @@ import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
-import net.dv8tion.jda.internal.utils.JDALogger;
-import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 
 /**
  * Some utility methods for the ClanManager.
  */
 public class CMChecks {
-    private static final Logger log = JDALogger.getLog(CMChecks.class);
     private final ClanManagerConfig config;
 
     public CMChecks(@Nonnull ClanManagerConfig config) {
@@ -31,17 +24,7 @@ public class CMChecks {
      * @return True if reverification feature is enabled for the clan.
      */
     public boolean isReverificationEnabled(@Nonnull Clan clan) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"numberOfDays\" FROM \"reverificationFeature\" WHERE \"clanId\" = ?", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            pstm.setInt(1, clan.getId());
-            ResultSet rs = pstm.executeQuery();
-            boolean result = rs.first();
-            con.close();
-            return result;
-        } catch (SQLException exception) {
-            exception.printStackTrace();
-        }
-        return false;
+        return config.getClanStore().isReverificationEnabled(clan.getId());
     }
 
     /**
@@ -71,15 +54,8 @@ public class CMChecks {
      * @param id The id to check.
      */
     public void checkClan(int id) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clan\" WHERE \"id\" = ?");
-            pstm.setInt(1, id);
-            ResultSet rs = pstm.executeQuery();
-            if (!rs.next()) {
-                throw new IllegalArgumentException(String.format("Clan with the id %d does not exist", id));
-            }
-        } catch (SQLException exception) {
-            log.error("Failed to get clan {}", id, exception);
+        if (config.getClanStore().getClan(id) == null) {
+            throw new IllegalArgumentException(String.format("Clan with the id %d does not exist", id));
         }
     }
 
@@ -88,15 +64,8 @@ public class CMChecks {
      * @param id The id to check.
      */
     public void checkClanMember(int id) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT * FROM \"clanMember\" WHERE \"id\" = ?");
-            pstm.setInt(1, id);
-            ResultSet rs = pstm.executeQuery();
-            if (!rs.next()) {
-                throw new IllegalArgumentException(String.format("Clan member with the id %d does not exist", id));
-            }
-        } catch (SQLException exception) {
-            log.error("Failed to get clan {}", id, exception);
+        if (config.getClanStore().getClanMember(id) == null) {
+            throw new IllegalArgumentException(String.format("Clan member with the id %d does not exist", id));
         }
     }
 
@@ -115,17 +84,8 @@ public class CMChecks {
      * @param member The member to check.
      */
     public void checkClanMemberDuplication(@Nonnull Clan clan, @Nonnull Member member) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"id\" FROM \"clanMember\" WHERE \"clanId\" = ? AND \"discordUserId\" = ?");
-            pstm.setInt(1, clan.getId());
-            pstm.setLong(2, member.getIdLong());
-            ResultSet rs = pstm.executeQuery();
-            if (rs.next()) {
-                con.close();
-                throw new IllegalArgumentException(String.format("Member %s is already a member of clan %s.", member.getUser().getAsTag(), clan.getName()));
-            }
-        } catch (SQLException exception) {
-            log.error("Failed to check clan member duplication", exception);
+        if (config.getClanStore().getClanMember(clan.getId(), member.getIdLong()) != null) {
+            throw new IllegalArgumentException(String.format("Member %s is already a member of clan %s.", member.getUser().getAsTag(), clan.getName()));
         }
     }
 
@@ -135,14 +95,6 @@ public class CMChecks {
      * @return True if the verification code is used, false if not.
      */
     private boolean checkVerificationCodeAvailability(@Nonnull String verificationCode) {
-        try(Connection con = config.getDataSource().getConnection()) {
-            PreparedStatement pstm = con.prepareStatement("SELECT \"id\" FROM \"clan\" WHERE \"verificationCode\" = ?", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-            pstm.setString(1, verificationCode);
-            boolean result = !pstm.executeQuery().first();
-            con.close();
-            return result;
-        } catch (SQLException exception) {
-            throw new RuntimeException(exception);
-        }
+        return config.getClanStore().getClanByVerificationCode(verificationCode) == null;
     }
 }
@@ -1,9 +1,13 @@
 package dev.denux.clanmanager.utils;
 
 import dev.denux.clanmanager.internal.entities.ClanMember;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.UserSnowflake;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Basic utility class for the ClanManager.
@@ -17,10 +21,11 @@ public class CMUtils {
      * @param memberStatus True if he is in the clan, false if he is not.
      */
     public void updateMemberRoles(@Nonnull ClanMember clanMember, @Nonnull Member discordMember, boolean memberStatus) {
+        Role role = clanMember.getClan().getMemberRole();
         if (memberStatus) {
-            clanMember.getClan().getDiscordGuild().addRoleToMember(discordMember, clanMember.getClan().getMemberRole()).queue();
+            discordMember.getGuild().addRoleToMember(discordMember, role).queue();
         } else {
-            clanMember.getClan().getDiscordGuild().removeRoleFromMember(discordMember, clanMember.getClan().getMemberRole()).queue();
+            discordMember.getGuild().removeRoleFromMember(discordMember, role).queue();
         }
     }
 
@@ -41,10 +46,11 @@ public class CMUtils {
      * @param leadershipStatus The new leadership status of the clan member.
      */
     public void updateLeadershipRoles(@Nonnull ClanMember clanMember, @Nonnull Member discordMember, boolean leadershipStatus) {
+        Role role = clanMember.getClan().getLeaderShipRole();
         if (leadershipStatus) {
-            clanMember.getClan().getDiscordGuild().addRoleToMember(discordMember, clanMember.getClan().getLeaderShipRole()).queue();
+            discordMember.getGuild().addRoleToMember(discordMember, role).queue();
         } else {
-            clanMember.getClan().getDiscordGuild().removeRoleFromMember(discordMember, clanMember.getClan().getLeaderShipRole()).queue();
+            discordMember.getGuild().removeRoleFromMember(discordMember, role).queue();
         }
     }
 
@@ -57,4 +63,21 @@ public class CMUtils {
     public void updateLeadershipRole(@Nonnull ClanMember clanMember, boolean leadershipStatus) {
         updateLeadershipRoles(clanMember, clanMember.getDiscordMember(), leadershipStatus);
     }
+
+    /**
+     * Adds or removes a role of a user by id, so the member doesn't have to be cached.
+     *
+     * @param guild         The guild of the role.
+     * @param discordUserId The id of the user.
+     * @param role          The role or null if it does not exist anymore, then nothing happens.
+     * @param status        True to add the role, false to remove it.
+     */
+    public void updateRole(@Nonnull Guild guild, long discordUserId, @Nullable Role role, boolean status) {
+        if (role == null) return;
+        if (status) {
+            guild.addRoleToMember(UserSnowflake.fromId(discordUserId), role).queue();
+        } else {
+            guild.removeRoleFromMember(UserSnowflake.fromId(discordUserId), role).queue();
+        }
+    }
 }
@@ -1,10 +1,13 @@
 package dev.denux.clanmanager.utils;
 
+import dev.denux.clanmanager.core.store.ClanMemberPermissionData;
 import dev.denux.clanmanager.internal.CmPermission;
-import dev.denux.clanmanager.internal.entities.Clan;
 import dev.denux.clanmanager.internal.entities.ClanMember;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * A utility class for the users of the clan manager that should help to simplify some things.
@@ -13,21 +16,71 @@ public class CMUtilsChecks {
 
     /***
      * Checks if the leadership Member has the permissions to change something for the clanMember member.
+     * Both members and the owner of the clan are loaded with a single query.
      * @param leadership The leadership Member.
      * @param clanMember The clanMember Member.
      * @return True if he has the permissions, false if not.
      */
     public boolean clanMemberIsAbove(@Nonnull ClanMember leadership, @Nonnull ClanMember clanMember) {
-        if (leadership.getClan().getId() != clanMember.getClan().getId()) return false;
         if (leadership.getId() == clanMember.getId()) return false;
-        if (!leadership.hasPermission(CmPermission.LEADERSHIP)) return false;
-        Clan clan = leadership.getClan();
-        if (clan.getOwnerDiscordUserId() == clanMember.getDiscordUserId()) return false;
+        List<ClanMemberPermissionData> data = leadership.getClanManager().getConfig().getClanStore()
+                .getClanMemberPermissions(leadership.getId(), clanMember.getId());
+        ClanMemberPermissionData leadershipData = null;
+        ClanMemberPermissionData clanMemberData = null;
+        for (ClanMemberPermissionData entry : data) {
+            if (entry.getClanMemberId() == leadership.getId()) leadershipData = entry;
+            else clanMemberData = entry;
+        }
+        if (leadershipData == null || clanMemberData == null) return false;
+        return clanMemberIsAbove(leadershipData, clanMemberData);
+    }
 
-        if (clanMember.hasPermission(CmPermission.CO_OWNER) && leadership.getDiscordUserId() == clan.getOwnerDiscordUserId()) return true;
-        if (leadership.hasPermission(CmPermission.LEADERSHIP) && !clanMember.hasPermission(CmPermission.LEADERSHIP)) return true;
-        if (leadership.hasPermission(CmPermission.CO_OWNER) && !clanMember.hasPermission(CmPermission.CO_OWNER)) return true;
+    /**
+     * Checks for every clan member if the leadership Member has the permissions to change something for it.
+     * The data of all members is loaded with a single query.
+     * @param leadership The leadership Member.
+     * @param clanMembers The members to check.
+     * @return The members the leadership Member is above, in the order they were given.
+     */
+    @Nonnull
+    public List<ClanMember> getClanMembersBelow(@Nonnull ClanMember leadership, @Nonnull Collection<ClanMember> clanMembers) {
+        List<ClanMember> result = new ArrayList<>();
+        if (clanMembers.isEmpty()) return result;
+        int[] ids = new int[clanMembers.size() + 1];
+        ids[0] = leadership.getId();
+        int i = 1;
+        for (ClanMember clanMember : clanMembers) {
+            ids[i++] = clanMember.getId();
+        }
+        LongObjectMap<ClanMemberPermissionData> data = new LongObjectMap<>(ids.length);
+        for (ClanMemberPermissionData entry : leadership.getClanManager().getConfig().getClanStore().getClanMemberPermissions(ids)) {
+            data.put(entry.getClanMemberId(), entry);
+        }
+        ClanMemberPermissionData leadershipData = data.get(leadership.getId());
+        if (leadershipData == null) return result;
+        for (ClanMember clanMember : clanMembers) {
+            ClanMemberPermissionData clanMemberData = data.get(clanMember.getId());
+            if (clanMemberData != null && clanMemberIsAbove(leadershipData, clanMemberData)) result.add(clanMember);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the permission rules on already loaded data without touching the database.
+     * @param leadership The data of the leadership Member.
+     * @param clanMember The data of the clanMember Member.
+     * @return True if he has the permissions, false if not.
+     */
+    public boolean clanMemberIsAbove(@Nonnull ClanMemberPermissionData leadership, @Nonnull ClanMemberPermissionData clanMember) {
+        if (leadership.getClanId() != clanMember.getClanId()) return false;
+        if (leadership.getClanMemberId() == clanMember.getClanMemberId()) return false;
+        CmPermission leadershipPermission = leadership.getPermission();
+        CmPermission clanMemberPermission = clanMember.getPermission();
+        if (!leadershipPermission.isAtLeast(CmPermission.LEADERSHIP)) return false;
+        if (clanMember.isOwner()) return false;
 
-        return  false;
+        if (leadership.isOwner()) return true;
+        if (!clanMemberPermission.isAtLeast(CmPermission.LEADERSHIP)) return true;
+        return leadershipPermission.isAtLeast(CmPermission.CO_OWNER) && !clanMemberPermission.isAtLeast(CmPermission.CO_OWNER);
     }
 }
@@ -0,0 +1,55 @@
+package dev.denux.clanmanager;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.ClanData;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens H2 file databases with the default schema for tests.
+ * Every data source opened on the same file is a separate pool, like the one of another instance sharing the database.
+ */
+public final class TestDatabases {
+    private TestDatabases() {}
+
+    /**
+     * @param file The database file without the H2 extension.
+     * @return a new pool on the database, the schema is created if it does not exist yet.
+     */
+    @Nonnull
+    public static HikariDataSource open(@Nonnull Path file) throws SQLException {
+        HikariDataSource dataSource = connect(file);
+        try(Connection con = dataSource.getConnection()) {
+            for (String query : new ClanManagerConfig().getQueries().split(";")) {
+                if (!query.isBlank()) con.prepareStatement(query).executeUpdate();
+            }
+        }
+        return dataSource;
+    }
+
+    /**
+     * @param file The database file without the H2 extension.
+     * @return a new pool on the database, without creating anything.
+     */
+    @Nonnull
+    public static HikariDataSource connect(@Nonnull Path file) {
+        HikariConfig hConfig = new HikariConfig();
+        hConfig.setJdbcUrl("jdbc:h2:" + file.toAbsolutePath() + ";MODE=PostgreSQL");
+        hConfig.setMaximumPoolSize(4);
+        return new HikariDataSource(hConfig);
+    }
+
+    /**
+     * @param name The name of the clan, also used as its verification code.
+     * @return a clan of the guild 1.
+     */
+    @Nonnull
+    public static ClanData clan(@Nonnull String name) {
+        return new ClanData(0, name, name, name.substring(0, 1), 0, 2, 1, 3, 4, 5);
+    }
+}
@@ -0,0 +1,103 @@
+package dev.denux.clanmanager.core.changelog;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.TestDatabases;
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.store.DiscordIdCachingClanStore;
+import dev.denux.clanmanager.core.store.JdbcClanStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChangeLogPollerTest {
+    @TempDir
+    Path dir;
+    private HikariDataSource dataSourceA;
+    private HikariDataSource dataSourceB;
+    private JdbcClanStore storeA;
+    private DiscordIdCachingClanStore cacheB;
+    private ChangeLogPoller pollerB;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSourceA = TestDatabases.open(dir.resolve("clanmanager"));
+        dataSourceB = TestDatabases.open(dir.resolve("clanmanager"));
+        ClanManagerConfig configA = new ClanManagerConfig();
+        configA.setDataSource(dataSourceA);
+        storeA = new JdbcClanStore(configA);
+        storeA.enableChangeLog("a");
+        configA.setClanStore(storeA);
+        ClanManagerConfig configB = new ClanManagerConfig();
+        configB.setDataSource(dataSourceB);
+        JdbcClanStore jdbcB = new JdbcClanStore(configB);
+        jdbcB.enableChangeLog("b");
+        cacheB = new DiscordIdCachingClanStore(jdbcB);
+        configB.setClanStore(cacheB);
+        pollerB = new ChangeLogPoller(configB, "b", Duration.ofSeconds(1), Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSourceA.close();
+        dataSourceB.close();
+    }
+
+    private void appendChange(long id, int clanId) throws SQLException {
+        try (Connection con = dataSourceA.getConnection()) {
+            PreparedStatement pstm = con.prepareStatement(
+                    "INSERT INTO \"changeLog\" (\"id\", \"instanceId\", \"entityType\", \"entityId\") VALUES (?, 'a', ?, ?)");
+            pstm.setLong(1, id);
+            pstm.setString(2, ChangeType.CLAN.name());
+            pstm.setLong(3, clanId);
+            pstm.executeUpdate();
+        }
+    }
+
+    @Test
+    void updateOnOneInstanceInvalidatesTheCacheOfTheOtherAfterOnePoll() {
+        int clanId = storeA.insertClan(TestDatabases.clan("alpha"));
+        assertEquals(4, cacheB.getDiscordIds(clanId).getMemberRoleId());
+
+        storeA.updateClan(clanId, "memberRoleId", 40L);
+        assertEquals(4, cacheB.getDiscordIds(clanId).getMemberRoleId(), "the cache is stale until the next poll");
+        pollerB.poll();
+        assertEquals(40, cacheB.getDiscordIds(clanId).getMemberRoleId());
+    }
+
+    @Test
+    void deleteOnOneInstanceInvalidatesTheCacheOfTheOtherAfterOnePoll() {
+        int clanId = storeA.insertClan(TestDatabases.clan("alpha"));
+        assertEquals(4, cacheB.getDiscordIds(clanId).getMemberRoleId());
+
+        storeA.deleteClan(clanId);
+        pollerB.poll();
+        assertNull(cacheB.getDiscordIds(clanId));
+    }
+
+    @Test
+    void changeThatCommitsBelowTheHeadIsStillDispatched() throws SQLException {
+        int clanId = storeA.insertClan(TestDatabases.clan("alpha"));
+        pollerB.poll();
+        assertEquals(4, cacheB.getDiscordIds(clanId).getMemberRoleId());
+
+        // the update is written without the change log, its change gets an id below one that committed first
+        new JdbcClanStore(new ClanManagerConfig(), dataSourceA, null).updateClan(clanId, "memberRoleId", 40L);
+        appendChange(1000, 0);
+        pollerB.poll();
+        assertEquals(4, cacheB.getDiscordIds(clanId).getMemberRoleId());
+
+        appendChange(500, clanId);
+        pollerB.poll();
+        assertEquals(40, cacheB.getDiscordIds(clanId).getMemberRoleId());
+    }
+}
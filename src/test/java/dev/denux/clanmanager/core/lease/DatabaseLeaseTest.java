@@ -0,0 +1,69 @@
+package dev.denux.clanmanager.core.lease;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.TestDatabases;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatabaseLeaseTest {
+    private static final Duration LEASE_TIME = Duration.ofSeconds(1);
+
+    @TempDir
+    Path dir;
+    private HikariDataSource dataSourceA;
+    private HikariDataSource dataSourceB;
+    private DatabaseLease leaseA;
+    private DatabaseLease leaseB;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSourceA = TestDatabases.open(dir.resolve("clanmanager"));
+        dataSourceB = TestDatabases.open(dir.resolve("clanmanager"));
+        leaseA = new DatabaseLease(dataSourceA, "reverification", "a", LEASE_TIME);
+        leaseB = new DatabaseLease(dataSourceB, "reverification", "b", LEASE_TIME);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSourceA.close();
+        dataSourceB.close();
+    }
+
+    @Test
+    void onlyOneInstanceHoldsTheLease() {
+        assertTrue(leaseA.tryAcquire());
+        assertFalse(leaseB.tryAcquire());
+        assertTrue(leaseA.isHeld());
+        assertFalse(leaseB.isHeld());
+        // renewing keeps it with the holder
+        assertTrue(leaseA.tryAcquire());
+        assertFalse(leaseB.tryAcquire());
+    }
+
+    @Test
+    void otherInstanceTakesOverOnceTheLeaseExpired() throws InterruptedException {
+        assertTrue(leaseA.tryAcquire());
+        Thread.sleep(LEASE_TIME.toMillis() + 500);
+        assertFalse(leaseA.isHeld(), "the lease counts as lost before it expires");
+        assertTrue(leaseB.tryAcquire());
+        assertFalse(leaseA.tryAcquire());
+        assertFalse(leaseA.isHeld());
+    }
+
+    @Test
+    void releasedLeaseIsTakenOverRightAway() {
+        assertTrue(leaseA.tryAcquire());
+        leaseA.release();
+        assertFalse(leaseA.isHeld());
+        assertTrue(leaseB.tryAcquire());
+    }
+}
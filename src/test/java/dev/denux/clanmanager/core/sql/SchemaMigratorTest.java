@@ -0,0 +1,211 @@
+package dev.denux.clanmanager.core.sql;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.TestDatabases;
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.core.exceptions.ClanManagerException;
+import dev.denux.clanmanager.core.store.ClanData;
+import dev.denux.clanmanager.core.store.ClanMemberData;
+import dev.denux.clanmanager.core.store.JdbcClanStore;
+import dev.denux.clanmanager.internal.CmPermission;
+import net.dv8tion.jda.api.interactions.DiscordLocale;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The legacy schema is the one of the versions before the compact codes, the steps run like they do on start.
+ */
+class SchemaMigratorTest {
+    private static final String ENCODE_PERMISSION = String.format("CASE \"permission\" WHEN 'OWNER' THEN %d WHEN 'LEADERSHIP' THEN %d ELSE %d END",
+            CmPermission.OWNER.getLevel(), CmPermission.LEADERSHIP.getLevel(), CmPermission.MEMBER.getLevel());
+
+    @TempDir
+    Path dir;
+    private HikariDataSource dataSource;
+    private JdbcClanStore store;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = TestDatabases.connect(dir.resolve("clanmanager"));
+        store = new JdbcClanStore(new ClanManagerConfig(), dataSource, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    private void migrate() throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            SchemaMigrator migrator = new SchemaMigrator(con);
+            migrator.migrate();
+            for (String query : new ClanManagerConfig().getQueries().split(";")) {
+                if (!query.isBlank()) con.prepareStatement(query).executeUpdate();
+            }
+            migrator.backfillClanStats();
+        }
+    }
+
+    private void execute(String... queries) throws SQLException {
+        try (Connection con = dataSource.getConnection(); Statement statement = con.createStatement()) {
+            for (String query : queries) {
+                statement.executeUpdate(query);
+            }
+        }
+    }
+
+    private void createLegacySchema() throws SQLException {
+        execute("CREATE TABLE \"clan\" (\"id\" SERIAL PRIMARY KEY, \"verificationCode\" TEXT NOT NULL UNIQUE, \"name\" TEXT NOT NULL, " +
+                        "\"tag\" TEXT NOT NULL, \"ownerId\" INT NOT NULL, \"ownerUserId\" BIGINT NOT NULL, \"discordGuildId\" BIGINT NOT NULL, " +
+                        "\"leaderShipRoleId\" BIGINT NOT NULL, \"memberRoleId\" BIGINT NOT NULL, \"discordChannelId\" BIGINT NOT NULL)",
+                "CREATE TABLE \"clanMember\" (\"id\" SERIAL PRIMARY KEY, \"verificationTime\" TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                        "\"nickname\" TEXT NOT NULL, \"permission\" TEXT NOT NULL DEFAULT 'MEMBER', \"locale\" TEXT NOT NULL, " +
+                        "\"clanId\" INT NOT NULL, \"discordUserId\" BIGINT NOT NULL)",
+                "CREATE TABLE \"reverificationFeature\" (\"clanId\" INT PRIMARY KEY, \"numberOfDays\" SMALLINT NOT NULL DEFAULT 90)",
+                "CREATE TABLE \"blockedUsers\" (\"clanId\" INT UNIQUE, \"discordUserId\" BIGINT UNIQUE, PRIMARY KEY (\"clanId\", \"discordUserId\"))");
+    }
+
+    private void insertLegacyClan(String name, int ownerId) throws SQLException {
+        execute(String.format("INSERT INTO \"clan\" (\"verificationCode\", \"name\", \"tag\", \"ownerId\", \"ownerUserId\", \"discordGuildId\", " +
+                "\"leaderShipRoleId\", \"memberRoleId\", \"discordChannelId\") VALUES ('%1$s', '%1$s', 'a', %2$d, 2, 1, 3, 4, 5)", name, ownerId));
+    }
+
+    private void insertLegacyMember(int clanId, long discordUserId, String permission, String locale) throws SQLException {
+        execute(String.format("INSERT INTO \"clanMember\" (\"nickname\", \"permission\", \"locale\", \"clanId\", \"discordUserId\") " +
+                "VALUES ('member', '%s', '%s', %d, %d)", permission, locale, clanId, discordUserId));
+    }
+
+    /**
+     * One clan with the members 1 to 3 and one blocked user.
+     */
+    private void createLegacyClan() throws SQLException {
+        createLegacySchema();
+        insertLegacyClan("alpha", 1);
+        insertLegacyMember(1, 2, "OWNER", "en-US");
+        insertLegacyMember(1, 6, "LEADERSHIP", "de");
+        insertLegacyMember(1, 7, "MEMBER", "xx");
+        execute("INSERT INTO \"blockedUsers\" (\"clanId\", \"discordUserId\") VALUES (1, 8)");
+    }
+
+    private void assertLegacyClanMigrated() {
+        assertEquals(CmPermission.OWNER, store.getClanMember(1).getPermission());
+        assertEquals(DiscordLocale.ENGLISH_US, store.getClanMember(1).getLocale());
+        assertEquals(CmPermission.LEADERSHIP, store.getClanMember(2).getPermission());
+        assertEquals(DiscordLocale.GERMAN, store.getClanMember(2).getLocale());
+        assertEquals(CmPermission.MEMBER, store.getClanMember(3).getPermission());
+        assertEquals(DiscordLocale.UNKNOWN, store.getClanMember(3).getLocale());
+        assertEquals(3, store.getClanStats(1).getMemberCount());
+        assertEquals(1, store.getClanStats(1).getBlockedCount());
+    }
+
+    private static ClanMemberData member(int clanId, long discordUserId) {
+        return new ClanMemberData(0, new Timestamp(System.currentTimeMillis()), "member", CmPermission.MEMBER,
+                DiscordLocale.GERMAN, clanId, discordUserId);
+    }
+
+    @Test
+    void freshDatabaseGetsTheDefaultSchema() throws SQLException {
+        migrate();
+        ClanData clan = store.insertClanWithOwner(TestDatabases.clan("alpha"), member(0, 2));
+        migrate();
+
+        assertEquals(CmPermission.OWNER, store.getClanMember(clan.getOwnerId()).getPermission());
+        assertEquals(DiscordLocale.GERMAN, store.getClanMember(clan.getOwnerId()).getLocale());
+        assertEquals(1, store.getClanStats(clan.getId()).getMemberCount());
+    }
+
+    @Test
+    void legacySchemaIsMigrated() throws SQLException {
+        createLegacyClan();
+        migrate();
+        assertLegacyClanMigrated();
+
+        // the blocklist takes more than one user per clan now
+        store.addBlockedUser(1, 9);
+        assertEquals(2, store.getBlockedUserIds(1).size());
+        int clanMemberId = store.insertClanMember(member(1, 10));
+        assertEquals(DiscordLocale.GERMAN, store.getClanMember(clanMemberId).getLocale());
+
+        migrate();
+        assertEquals(4, store.getClanStats(1).getMemberCount());
+    }
+
+    @Test
+    void migrationResumesAfterTheCodeColumnWasAdded() throws SQLException {
+        createLegacyClan();
+        execute("ALTER TABLE \"clanMember\" ADD COLUMN \"permissionCode\" SMALLINT NOT NULL DEFAULT 0");
+        migrate();
+        assertLegacyClanMigrated();
+    }
+
+    @Test
+    void migrationResumesAfterTheCodesWereWritten() throws SQLException {
+        createLegacyClan();
+        // the codes are encoded again from the text column, so a wrong one doesn't survive
+        execute("ALTER TABLE \"clanMember\" ADD COLUMN \"permissionCode\" SMALLINT NOT NULL DEFAULT 0",
+                "UPDATE \"clanMember\" SET \"permissionCode\" = " + CmPermission.CO_OWNER.getLevel());
+        migrate();
+        assertLegacyClanMigrated();
+    }
+
+    @Test
+    void migrationResumesAfterTheTextColumnWasDropped() throws SQLException {
+        createLegacyClan();
+        execute("ALTER TABLE \"clanMember\" ADD COLUMN \"permissionCode\" SMALLINT NOT NULL DEFAULT 0",
+                "UPDATE \"clanMember\" SET \"permissionCode\" = " + ENCODE_PERMISSION,
+                "ALTER TABLE \"clanMember\" ALTER COLUMN \"permissionCode\" SET DEFAULT " + CmPermission.MEMBER.getLevel(),
+                "ALTER TABLE \"clanMember\" DROP COLUMN \"permission\"");
+        migrate();
+        assertLegacyClanMigrated();
+    }
+
+    @Test
+    void migrationResumesAfterTheCodeColumnWasRenamed() throws SQLException {
+        createLegacyClan();
+        execute("ALTER TABLE \"clanMember\" ADD COLUMN \"permissionCode\" SMALLINT NOT NULL DEFAULT 0",
+                "UPDATE \"clanMember\" SET \"permissionCode\" = " + ENCODE_PERMISSION,
+                "ALTER TABLE \"clanMember\" ALTER COLUMN \"permissionCode\" SET DEFAULT " + CmPermission.MEMBER.getLevel(),
+                "ALTER TABLE \"clanMember\" DROP COLUMN \"permission\"",
+                "ALTER TABLE \"clanMember\" RENAME COLUMN \"permissionCode\" TO \"permission\"");
+        migrate();
+        assertLegacyClanMigrated();
+    }
+
+    @Test
+    void duplicateMembershipsAreDroppedBeforeTheUniqueIndex() throws SQLException {
+        createLegacySchema();
+        insertLegacyClan("alpha", 1);
+        insertLegacyClan("beta", 6);
+        insertLegacyMember(1, 2, "OWNER", "en-US");
+        insertLegacyMember(1, 2, "MEMBER", "en-US");
+        insertLegacyMember(1, 6, "MEMBER", "en-US");
+        insertLegacyMember(1, 6, "LEADERSHIP", "en-US");
+        // the owner is kept even if it joined last
+        insertLegacyMember(2, 7, "MEMBER", "en-US");
+        insertLegacyMember(2, 7, "OWNER", "en-US");
+        migrate();
+
+        assertNotNull(store.getClanMember(1));
+        assertNull(store.getClanMember(2));
+        assertEquals(CmPermission.MEMBER, store.getClanMember(3).getPermission());
+        assertNull(store.getClanMember(4));
+        assertNull(store.getClanMember(5));
+        assertEquals(CmPermission.OWNER, store.getClanMember(6).getPermission());
+        assertEquals(2, store.getClanStats(1).getMemberCount());
+        assertEquals(1, store.getClanStats(2).getMemberCount());
+        assertThrows(ClanManagerException.class, () -> store.insertClanMember(member(1, 6)));
+    }
+}
@@ -0,0 +1,75 @@
+package dev.denux.clanmanager.core.store;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.TestDatabases;
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The replica is a separate database that is never synced, so every read shows which database it went to.
+ */
+class JdbcClanStoreReadRoutingTest {
+    private static final Duration REPLICA_LAG_WINDOW = Duration.ofMillis(500);
+
+    @TempDir
+    Path dir;
+    private HikariDataSource primary;
+    private HikariDataSource replica;
+    private JdbcClanStore store;
+    private int clanId;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        primary = TestDatabases.open(dir.resolve("primary"));
+        replica = TestDatabases.open(dir.resolve("replica"));
+        ClanManagerConfig config = new ClanManagerConfig();
+        config.setReplicaLagWindow(REPLICA_LAG_WINDOW);
+        clanId = new JdbcClanStore(config, replica, null).insertClan(TestDatabases.clan("replica"));
+        store = new JdbcClanStore(config, primary, replica);
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.close();
+        replica.close();
+    }
+
+    @Test
+    void readsGoToTheReplica() {
+        assertEquals("replica", store.getClan(clanId).getName());
+    }
+
+    @Test
+    void readsStayOnThePrimaryForTheLagWindowAfterAWrite() throws InterruptedException {
+        assertEquals(clanId, store.insertClan(TestDatabases.clan("primary")));
+        assertEquals("primary", store.getClan(clanId).getName());
+
+        Thread.sleep(REPLICA_LAG_WINDOW.toMillis() + 200);
+        assertEquals("replica", store.getClan(clanId).getName());
+    }
+
+    @Test
+    void readsStayOnThePrimaryAfterAWriteOfAnotherInstance() {
+        new JdbcClanStore(new ClanManagerConfig(), primary, null).insertClan(TestDatabases.clan("primary"));
+        assertEquals("replica", store.getClan(clanId).getName());
+
+        store.invalidateClan(clanId);
+        assertEquals("primary", store.getClan(clanId).getName());
+    }
+
+    @Test
+    void readsGoToThePrimaryWithoutReplica() {
+        JdbcClanStore primaryOnly = new JdbcClanStore(new ClanManagerConfig(), primary, null);
+        primaryOnly.insertClan(TestDatabases.clan("primary"));
+        assertEquals("primary", primaryOnly.getClan(clanId).getName());
+    }
+}
@@ -0,0 +1,127 @@
+package dev.denux.clanmanager.core.store;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.denux.clanmanager.TestDatabases;
+import dev.denux.clanmanager.core.ClanManagerConfig;
+import dev.denux.clanmanager.internal.CmPermission;
+import net.dv8tion.jda.api.interactions.DiscordLocale;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two shards, the guild id is the index of the shard.
+ */
+class ShardedClanStoreTest {
+    @TempDir
+    Path dir;
+    private HikariDataSource shard0;
+    private HikariDataSource shard1;
+    private ShardedClanStore store;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        shard0 = TestDatabases.open(dir.resolve("shard0"));
+        shard1 = TestDatabases.open(dir.resolve("shard1"));
+        ClanManagerConfig config = new ClanManagerConfig();
+        store = new ShardedClanStore(List.of(new JdbcClanStore(config, shard0, null), new JdbcClanStore(config, shard1, null)),
+                guildId -> (int) guildId);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+        shard0.close();
+        shard1.close();
+    }
+
+    private int insertClan(String name, long guildId) {
+        return store.insertClan(TestDatabases.clan(name).withColumn("discordGuildId", guildId));
+    }
+
+    private static ClanMemberData member(int clanId, long discordUserId) {
+        return new ClanMemberData(0, new Timestamp(System.currentTimeMillis()), "member", CmPermission.MEMBER,
+                DiscordLocale.ENGLISH_US, clanId, discordUserId);
+    }
+
+    @Test
+    void idsRoundTripThroughTheShardOfTheGuild() {
+        int clanId = insertClan("alpha", 1);
+        assertEquals(1, ShardedClanStore.shardOf(clanId));
+        assertEquals(clanId, store.getClan(clanId).getId());
+        assertEquals(1L, store.getClan(clanId).getDiscordGuildId());
+
+        int clanMemberId = store.insertClanMember(member(clanId, 10));
+        assertEquals(1, ShardedClanStore.shardOf(clanMemberId));
+        assertEquals(clanId, store.getClanMember(clanMemberId).getClanId());
+        assertEquals(clanMemberId, store.getClanMember(clanId, 10).getId());
+
+        ClanData clan = store.insertClanWithOwner(TestDatabases.clan("beta"), member(0, 2));
+        assertEquals(clan.getOwnerId(), store.getClan(clan.getId()).getOwnerId());
+        assertEquals(clan.getId(), store.getClanMember(clan.getOwnerId()).getClanId());
+        assertEquals(CmPermission.OWNER, store.getClanMember(clan.getOwnerId()).getPermission());
+    }
+
+    @Test
+    void clansArePagedInTheOrderOfTheirGlobalIds() {
+        List<Integer> expected = new ArrayList<>();
+        expected.add(insertClan("a", 0));
+        expected.add(insertClan("b", 0));
+        expected.add(insertClan("c", 0));
+        expected.add(insertClan("d", 1));
+        expected.add(insertClan("e", 1));
+        expected.sort(Integer::compare);
+
+        for (int limit = 1; limit <= expected.size(); limit++) {
+            List<Integer> paged = new ArrayList<>();
+            int afterId = 0;
+            List<ClanData> page;
+            do {
+                page = store.getClans(afterId, limit);
+                for (ClanData clan : page) {
+                    paged.add(clan.getId());
+                }
+                if (!page.isEmpty()) afterId = page.get(page.size() - 1).getId();
+            } while (page.size() == limit);
+            assertEquals(expected, paged, "pages of " + limit);
+        }
+    }
+
+    @Test
+    void orphanedRowsOfAllShardsAreDeletedChunkByChunk() {
+        int clanId = insertClan("alpha", 1);
+        int clanMemberId = store.insertClanMember(member(clanId, 10));
+        // the members belong to clans that were never inserted, four on the first and one on the second shard
+        List<Integer> orphans = new ArrayList<>();
+        for (int localClanId = 1; localClanId <= 4; localClanId++) {
+            orphans.add(store.insertClanMember(member(localClanId << ShardedClanStore.SHARD_BITS, localClanId)));
+        }
+        orphans.add(store.insertClanMember(member(2 << ShardedClanStore.SHARD_BITS | 1, 1)));
+
+        int deleted = 0;
+        int afterClanId = 0;
+        for (int calls = 0; afterClanId != -1; calls++) {
+            assertTrue(calls < 10, "the cursor does not move on");
+            OrphanedRowsData result = store.deleteOrphanedRows(afterClanId, 2);
+            assertTrue(result.getNextClanId() == -1 || result.getNextClanId() >= afterClanId, "the cursor moved back");
+            deleted += result.getDeletedRows();
+            afterClanId = result.getNextClanId();
+        }
+        assertEquals(orphans.size(), deleted);
+        for (int orphan : orphans) {
+            assertNull(store.getClanMember(orphan));
+        }
+        assertEquals(clanId, store.getClanMember(clanMemberId).getClanId());
+    }
+}